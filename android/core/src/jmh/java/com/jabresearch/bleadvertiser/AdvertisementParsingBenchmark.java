@@ -0,0 +1,67 @@
+package com.jabresearch.bleadvertiser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per-packet parsing: walking the AD structures, decoding an iBeacon through
+ * the built-in beacon layouts and
+ * copying out the configured company's manufacturer data. Each operation
+ * handles the next packet of the set.
+ */
+@State(Scope.Thread)
+public class AdvertisementParsingBenchmark {
+
+    private byte[][] mPackets;
+    private int mNext;
+    private final AdvertisementRecord mRecord = new AdvertisementRecord();
+    private final BeaconLayoutRegistry mLayouts = new BeaconLayoutRegistry();
+    private final BeaconLayoutRegistry.Match mMatch = new BeaconLayoutRegistry.Match();
+
+    @Setup
+    public void setUp() {
+        mPackets = BenchmarkPackets.load();
+    }
+
+    private byte[] nextPacket() {
+        byte[] packet = mPackets[mNext];
+        mNext = mNext + 1 == mPackets.length ? 0 : mNext + 1;
+        return packet;
+    }
+
+    @Benchmark
+    public boolean parse() {
+        return mRecord.wrap(nextPacket());
+    }
+
+    @Benchmark
+    public void iBeaconDecode(Blackhole blackhole) {
+        AdvertisementRecord record = mRecord;
+        record.wrap(nextPacket());
+        BeaconLayoutRegistry.Match match = mMatch;
+        if (mLayouts.match(record, match)) {
+            byte[] bytes = record.getBytes();
+            blackhole.consume(match.layout.uuidMsb(bytes, match.start));
+            blackhole.consume(match.layout.uuidLsb(bytes, match.start));
+            blackhole.consume(match.layout.identifierValue(bytes, match.start, 1));
+            blackhole.consume(match.layout.identifierValue(bytes, match.start, 2));
+            blackhole.consume(match.layout.power(bytes, match.start));
+        }
+    }
+
+    @Benchmark
+    public byte[] manufacturerData() {
+        AdvertisementRecord record = mRecord;
+        record.wrap(nextPacket());
+        int manufacturer = record.findManufacturer(BenchmarkPackets.COMPANY_ID);
+        if (manufacturer < 0) {
+            return null;
+        }
+        byte[] data = new byte[record.getManufacturerLength(manufacturer)];
+        System.arraycopy(record.getBytes(), record.getManufacturerOffset(manufacturer), data, 0, data.length);
+        return data;
+    }
+}
@@ -0,0 +1,74 @@
+package com.jabresearch.bleadvertiser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Matching packets against the registered beacon layouts, with extra
+ * layouts that accept any company so that every manufacturer section has
+ * to try all of them, and encoding an AltBeacon for broadcast.
+ */
+@State(Scope.Thread)
+public class BeaconLayoutBenchmark {
+
+    @Param({"0", "2", "8"})
+    public int extraLayouts;
+
+    private byte[][] mPackets;
+    private int mNext;
+    private final AdvertisementRecord mRecord = new AdvertisementRecord();
+    private final BeaconLayoutRegistry mLayouts = new BeaconLayoutRegistry();
+    private final BeaconLayoutRegistry.Match mMatch = new BeaconLayoutRegistry.Match();
+    private byte[][] mIdentifiers;
+
+    @Setup
+    public void setUp() {
+        mPackets = BenchmarkPackets.load();
+        for (int i = 0; i < extraLayouts; i++) {
+            mLayouts.put(BeaconLayout.compile("extra-" + i,
+                    String.format("m:2-3=ab%02x,i:4-9,i:10-11,p:12-12,d:13-14", i), -1));
+        }
+
+        BeaconLayout altBeacon = BeaconLayoutRegistry.ALTBEACON;
+        mIdentifiers = new byte[][] {
+                altBeacon.parseIdentifier(0, BenchmarkPackets.BEACON_UUID.toString()),
+                altBeacon.parseIdentifier(1, "1"),
+                altBeacon.parseIdentifier(2, "2") };
+    }
+
+    private byte[] nextPacket() {
+        byte[] packet = mPackets[mNext];
+        mNext = mNext + 1 == mPackets.length ? 0 : mNext + 1;
+        return packet;
+    }
+
+    @Benchmark
+    public void match(Blackhole blackhole) {
+        AdvertisementRecord record = mRecord;
+        record.wrap(nextPacket());
+        BeaconLayoutRegistry.Match match = mMatch;
+        if (mLayouts.match(record, match)) {
+            blackhole.consume(match.layout.identifierValue(record.getBytes(), match.start, 1));
+        }
+    }
+
+    @Benchmark
+    public String[] matchAndFormat() {
+        AdvertisementRecord record = mRecord;
+        record.wrap(nextPacket());
+        BeaconLayoutRegistry.Match match = mMatch;
+        if (!mLayouts.match(record, match)) {
+            return null;
+        }
+        return match.layout.identifiers(record.getBytes(), match.start);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return BeaconLayoutRegistry.ALTBEACON.encode(mIdentifiers, new long[] { 0 }, -59);
+    }
+}
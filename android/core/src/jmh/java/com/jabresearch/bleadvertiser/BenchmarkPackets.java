@@ -0,0 +1,134 @@
+package com.jabresearch.bleadvertiser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Advertisement bytes the benchmarks run on. By default a synthetic mix of
+ * the traffic seen at a venue, zero-padded to 62 bytes the way Android
+ * reports legacy scan records; with -Dbenchmark.trace set, the packets of
+ * a recorded trace file or directory instead.
+ */
+final class BenchmarkPackets {
+
+    static final UUID BEACON_UUID = UUID.fromString("e2c56db5-dffb-48d2-b060-d0f5a71096e0");
+    static final int COMPANY_ID = 0x1234;
+
+    private static final int LEGACY_RECORD_LENGTH = 62;
+
+    private BenchmarkPackets() {
+    }
+
+    static byte[][] load() {
+        String trace = System.getProperty("benchmark.trace");
+        if (trace == null || trace.isEmpty()) {
+            return synthetic();
+        }
+        try {
+            return recorded(new File(trace));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read trace " + trace, e);
+        }
+    }
+
+    static byte[][] synthetic() {
+        List<byte[]> packets = new ArrayList<>();
+
+        // iBeacons of the benchmarked UUID, several majors and minors
+        for (int i = 0; i < 4; i++) {
+            packets.add(packet(flags(), iBeacon(BEACON_UUID, i, i * 7, -59)));
+        }
+        // An iBeacon of some other deployment
+        packets.add(packet(flags(), iBeacon(UUID.fromString("f7826da6-4fa2-4e98-8024-bc5b71e0893e"), 100, 1, -65)));
+        // Apple Nearby Info, the most common packet in a crowd
+        packets.add(packet(flags(), manufacturer(0x004C, new byte[] {0x10, 0x05, 0x01, 0x1C, 0x41, 0x2A, 0x77})));
+        // Microsoft Connected Devices beacon
+        packets.add(packet(manufacturer(0x0006, new byte[] {0x01, 0x09, 0x20, 0x02, 0x34, 0x6F, 0x12, 0x55,
+                0x1A, 0x23, 0x61, 0x7C, (byte) 0xD3, 0x21, 0x48, 0x57, (byte) 0x9F, 0x0B, 0x00, 0x7E, 0x4D, 0x0D, 0x3A})));
+        // Eddystone-UID
+        packets.add(packet(flags(), structure(0x03, new byte[] {(byte) 0xAA, (byte) 0xFE}),
+                structure(0x16, new byte[] {(byte) 0xAA, (byte) 0xFE, 0x00, (byte) 0xEE, 0x0A, 0x39, (byte) 0xB7,
+                        0x1F, 0x23, 0x41, 0x52, 0x0D, 0x76, 0x48, 0x00, 0x00, 0x00, 0x00, 0x01, 0x23, 0x00, 0x00})));
+        // Our own company's manufacturer data
+        packets.add(packet(flags(), manufacturer(COMPANY_ID, new byte[] {0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08})));
+        // A peripheral with a 128-bit service, a name and its TX power
+        packets.add(packet(flags(), uuid128(UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e")),
+                structure(0x0A, new byte[] {0x04}), structure(0x09, "Sensor-42".getBytes())));
+
+        return packets.toArray(new byte[0][]);
+    }
+
+    private static byte[][] recorded(File trace) throws IOException {
+        List<File> files = new ArrayList<>();
+        if (trace.isDirectory()) {
+            files.addAll(ScanTraceReader.traceFiles(trace));
+        } else {
+            files.add(trace);
+        }
+
+        List<byte[]> packets = new ArrayList<>();
+        for (File file : files) {
+            ScanTraceReader reader = new ScanTraceReader(file);
+            while (reader.next()) {
+                if (reader.getData() != null) {
+                    packets.add(reader.getData());
+                }
+            }
+        }
+        if (packets.isEmpty()) {
+            throw new IOException("No packets with data in " + trace);
+        }
+        return packets.toArray(new byte[0][]);
+    }
+
+    private static byte[] packet(byte[]... structures) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(LEGACY_RECORD_LENGTH);
+        for (byte[] structure : structures) {
+            out.write(structure, 0, structure.length);
+        }
+        while (out.size() < LEGACY_RECORD_LENGTH) {
+            out.write(0);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] structure(int type, byte[] data) {
+        byte[] structure = new byte[data.length + 2];
+        structure[0] = (byte) (data.length + 1);
+        structure[1] = (byte) type;
+        System.arraycopy(data, 0, structure, 2, data.length);
+        return structure;
+    }
+
+    private static byte[] flags() {
+        return structure(0x01, new byte[] {0x06});
+    }
+
+    private static byte[] manufacturer(int companyId, byte[] data) {
+        byte[] payload = new byte[data.length + 2];
+        payload[0] = (byte) companyId;
+        payload[1] = (byte) (companyId >> 8);
+        System.arraycopy(data, 0, payload, 2, data.length);
+        return structure(0xFF, payload);
+    }
+
+    private static byte[] iBeacon(UUID uuid, int major, int minor, int measuredPower) {
+        return manufacturer(AdvertisementRecord.APPLE_MANUFACTURER_ID, AdvertisingPayload.iBeacon(
+                uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), major, minor, measuredPower).manufacturerData);
+    }
+
+    private static byte[] uuid128(UUID uuid) {
+        byte[] data = new byte[16];
+        long lsb = uuid.getLeastSignificantBits();
+        long msb = uuid.getMostSignificantBits();
+        for (int i = 0; i < 8; i++) {
+            data[i] = (byte) (lsb >>> (8 * i));
+            data[8 + i] = (byte) (msb >>> (8 * i));
+        }
+        return structure(0x07, data);
+    }
+}
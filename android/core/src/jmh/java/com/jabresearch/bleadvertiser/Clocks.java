@@ -0,0 +1,36 @@
+package com.jabresearch.bleadvertiser;
+
+/**
+ * Shared stand-ins for the platform around the pipeline.
+ */
+final class Clocks {
+
+    static final ScanPipeline.Clock SYSTEM = new ScanPipeline.Clock() {
+        @Override
+        public long elapsedNanos() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    static final EventSink NO_EVENTS = new EventSink() {
+        @Override
+        public void onDeviceFound(DeviceEvent event) {
+        }
+
+        @Override
+        public void onSessionResult(String sessionId, DeviceEvent event) {
+        }
+
+        @Override
+        public void onRegionEnter(BeaconRegion region, String uuid, int major, int minor) {
+        }
+    };
+
+    private Clocks() {
+    }
+}
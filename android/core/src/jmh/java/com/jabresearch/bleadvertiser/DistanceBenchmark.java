@@ -0,0 +1,41 @@
+package com.jabresearch.bleadvertiser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Distance from RSSI and measured power, for each model.
+ */
+@State(Scope.Thread)
+public class DistanceBenchmark {
+
+    @Param({"curve", "logDistance", "calibrated"})
+    public String model;
+
+    private DistanceModel mModel;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        switch (DistanceModel.typeFromString(model)) {
+            case DistanceModel.TYPE_LOG_DISTANCE:
+                mModel = DistanceModel.logDistance(2.4, DistanceModel.DEFAULT_IMMEDIATE_DISTANCE, DistanceModel.DEFAULT_NEAR_DISTANCE);
+                break;
+            case DistanceModel.TYPE_CALIBRATED:
+                mModel = DistanceModel.calibrated(0.42093, 6.9476, 0.54992, -3, DistanceModel.DEFAULT_IMMEDIATE_DISTANCE, DistanceModel.DEFAULT_NEAR_DISTANCE);
+                break;
+            default:
+                mModel = DistanceModel.defaultModel();
+                break;
+        }
+    }
+
+    @Benchmark
+    public double distance() {
+        int rssi = -40 - (mNext++ & 63);
+        return mModel.distance(rssi, -59);
+    }
+}
@@ -0,0 +1,68 @@
+package com.jabresearch.bleadvertiser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+
+/**
+ * The whole pipeline from raw bytes to the assembled DeviceEvent handed
+ * to the sink, as for a plain scan with the company id set. With
+ * reportOnChange most packets of a repeating set are suppressed by the
+ * device cache instead.
+ */
+@State(Scope.Thread)
+public class EventAssemblyBenchmark {
+
+    private static final String[] ADDRESSES = new String[64];
+
+    static {
+        for (int i = 0; i < ADDRESSES.length; i++) {
+            ADDRESSES[i] = String.format("C0:FF:EE:00:00:%02X", i);
+        }
+    }
+
+    @Param({"false", "true"})
+    public boolean reportOnChange;
+
+    private byte[][] mPackets;
+    private int mNext;
+    private ScanPipeline mPipeline;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        mPackets = BenchmarkPackets.load();
+        mPipeline = new ScanPipeline(Clocks.SYSTEM, new EventSink() {
+            @Override
+            public void onDeviceFound(DeviceEvent event) {
+                blackhole.consume(event);
+            }
+
+            @Override
+            public void onSessionResult(String sessionId, DeviceEvent event) {
+                blackhole.consume(event);
+            }
+
+            @Override
+            public void onRegionEnter(BeaconRegion region, String uuid, int major, int minor) {
+                blackhole.consume(region);
+            }
+        });
+        mPipeline.setCompanyId(BenchmarkPackets.COMPANY_ID);
+        mPipeline.setReportOnChange(reportOnChange);
+        mPipeline.sessions.open("default", new ArrayList<ScanFilterSpec>(), true,
+                new ScanConfig(new ScanFilterCompiler.Result(null, null), 0, 1, 1, 0));
+    }
+
+    @Benchmark
+    public void process() {
+        int i = mNext++;
+        byte[] packet = mPackets[i % mPackets.length];
+        long now = System.nanoTime();
+        mPipeline.process(ADDRESSES[i & (ADDRESSES.length - 1)], -50 - (i & 31), packet, now, now);
+    }
+}
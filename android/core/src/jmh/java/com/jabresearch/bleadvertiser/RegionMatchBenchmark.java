@@ -0,0 +1,74 @@
+package com.jabresearch.bleadvertiser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Matching an iBeacon against the monitored and ranged regions, alone and
+ * as part of processing the whole packet. Regions are spread over a few
+ * UUIDs, each as a UUID-only region plus regions narrowed to a major.
+ */
+@State(Scope.Thread)
+public class RegionMatchBenchmark {
+
+    private static final int UUIDS = 4;
+
+    @Param({"1", "10", "100", "1000"})
+    public int regions;
+
+    private RegionRegistry<BeaconRegion> mRegistry;
+    private final List<BeaconRegion> mMatched = new ArrayList<>();
+    private final RegionIndex.Key mProbe = new RegionIndex.Key();
+    private long mUuidMsb;
+    private long mUuidLsb;
+    private int mMajor;
+
+    private ScanPipeline mPipeline;
+    private byte[] mPacket;
+
+    @Setup
+    public void setUp() {
+        UUID[] uuids = new UUID[UUIDS];
+        uuids[0] = BenchmarkPackets.BEACON_UUID;
+        for (int i = 1; i < UUIDS; i++) {
+            uuids[i] = new UUID(i * 0x9E3779B97F4A7C15L, ~i);
+        }
+
+        mPipeline = new ScanPipeline(Clocks.SYSTEM, Clocks.NO_EVENTS);
+        mRegistry = new RegionRegistry<>(BeaconRegion.GEOMETRY);
+        for (int i = 0; i < regions; i++) {
+            UUID uuid = uuids[i % UUIDS];
+            Integer major = i < UUIDS ? null : i / UUIDS;
+            BeaconRegion region = new BeaconRegion("region-" + i, uuid, major, null);
+            mRegistry.put(region.identifier, region);
+            mPipeline.regionMonitor.add(region, RegionMonitor.DEFAULT_EXIT_TIMEOUT);
+            mPipeline.monitoredRegions.put(region.identifier, region);
+            mPipeline.beaconRanger.add(region, BeaconRanger.DEFAULT_RANGING_INTERVAL, System.nanoTime() / 1000000);
+            mPipeline.rangedRegions.put(region.identifier, region);
+        }
+
+        mUuidMsb = BenchmarkPackets.BEACON_UUID.getMostSignificantBits();
+        mUuidLsb = BenchmarkPackets.BEACON_UUID.getLeastSignificantBits();
+        mMajor = 1;
+        mPacket = BenchmarkPackets.synthetic()[1];
+    }
+
+    @Benchmark
+    public int match() {
+        mMatched.clear();
+        return mRegistry.snapshot().match(mUuidMsb, mUuidLsb, mMajor, 7, mProbe, mMatched);
+    }
+
+    @Benchmark
+    public void processBeacon() {
+        long now = System.nanoTime();
+        mPipeline.process("00:11:22:33:44:55", -70, mPacket, now, now);
+    }
+}
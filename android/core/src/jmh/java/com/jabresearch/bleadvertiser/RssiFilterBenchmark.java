@@ -0,0 +1,35 @@
+package com.jabresearch.bleadvertiser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * RSSI smoothing in front of the distance model, with packets spread over
+ * a hundred beacons.
+ */
+@State(Scope.Thread)
+public class RssiFilterBenchmark {
+
+    private static final int BEACONS = 100;
+
+    @Param({"none", "average", "median", "kalman"})
+    public String filter;
+
+    private final RssiFilter mFilter = new RssiFilter();
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        mFilter.configure(RssiFilter.typeFromString(filter), RssiFilter.DEFAULT_WINDOW_SIZE, RssiFilter.DEFAULT_MAX_BEACONS,
+                RssiFilter.DEFAULT_STALE_TIMEOUT, RssiFilter.DEFAULT_PROCESS_NOISE, RssiFilter.DEFAULT_MEASUREMENT_NOISE);
+    }
+
+    @Benchmark
+    public double filter() {
+        int i = mNext++;
+        return mFilter.filter(0x1234L, 0x5678L, i % BEACONS, 0, -40 - (i & 63), i >> 4);
+    }
+}
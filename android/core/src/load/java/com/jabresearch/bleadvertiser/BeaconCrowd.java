@@ -0,0 +1,151 @@
+package com.jabresearch.bleadvertiser;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Simulated devices advertising around the scanner. Each device sends
+ * one kind of packet at its own interval, with the 0-10 ms random delay
+ * BLE adds to every advertising event, and an RSSI that drifts as a
+ * bounded random walk.
+ */
+class BeaconCrowd {
+
+    static final int TYPE_IBEACON = 0;
+    static final int TYPE_MANUFACTURER = 1;
+    static final int TYPE_SERVICE = 2;
+
+    static final UUID BEACON_UUID = UUID.fromString("e2c56db5-dffb-48d2-b060-d0f5a71096e0");
+    static final int COMPANY_ID = 0x1234;
+    static final int SERVICE_UUID = 0xFD6F;
+
+    private static final long ADV_DELAY_NANOS = 10000000L;
+    private static final int MIN_RSSI = -100;
+    private static final int MAX_RSSI = -35;
+
+    private static final class Device implements Comparable<Device> {
+        final String address;
+        byte[] packet;
+        final int type;
+        final long intervalNanos;
+        int rssi;
+        long nextAt;
+
+        Device(String address, byte[] packet, int type, long intervalNanos, int rssi) {
+            this.address = address;
+            this.packet = packet;
+            this.type = type;
+            this.intervalNanos = intervalNanos;
+            this.rssi = rssi;
+        }
+
+        @Override
+        public int compareTo(Device other) {
+            return nextAt < other.nextAt ? -1 : nextAt > other.nextAt ? 1 : 0;
+        }
+    }
+
+    private final PriorityQueue<Device> mDue = new PriorityQueue<>();
+    private final Random mRandom;
+    private final double mExpectedRate;
+
+    /**
+     * devices split between the three packet types by the weights in mix,
+     * each advertising rate times per second.
+     */
+    BeaconCrowd(int devices, double rate, int[] mix, long seed, long nowNanos) {
+        mRandom = new Random(seed);
+        long intervalNanos = (long) (1e9 / rate);
+        int total = mix[TYPE_IBEACON] + mix[TYPE_MANUFACTURER] + mix[TYPE_SERVICE];
+        mExpectedRate = devices * 1e9 / (intervalNanos + ADV_DELAY_NANOS / 2);
+
+        for (int i = 0; i < devices; i++) {
+            // Spread the types evenly over the crowd rather than in blocks
+            int slot = (int) ((long) i * total / devices) % total;
+            int type = slot < mix[TYPE_IBEACON] ? TYPE_IBEACON
+                    : slot < mix[TYPE_IBEACON] + mix[TYPE_MANUFACTURER] ? TYPE_MANUFACTURER : TYPE_SERVICE;
+
+            String address = String.format("C0:%02X:%02X:%02X:%02X:%02X",
+                    (i >> 24) & 0xFF, (i >> 16) & 0xFF, (i >> 8) & 0xFF, i & 0xFF, type);
+            Device device = new Device(address, packet(type, i), type, intervalNanos,
+                    MIN_RSSI + mRandom.nextInt(MAX_RSSI - MIN_RSSI));
+            // Devices were switched on at random times, so they do not advertise in lockstep
+            device.nextAt = nowNanos + (long) (mRandom.nextDouble() * intervalNanos);
+            mDue.add(device);
+        }
+    }
+
+    /**
+     * Packets per second the whole crowd sends, random delays included.
+     */
+    double expectedRate() {
+        return mExpectedRate;
+    }
+
+    /**
+     * When the next packet is due.
+     */
+    long nextAt() {
+        return mDue.peek().nextAt;
+    }
+
+    /**
+     * Injects every packet due by nowNanos. Returns how many were sent.
+     */
+    int emitDue(long nowNanos, FakeScanner scanner) {
+        int sent = 0;
+        Device device;
+        while ((device = mDue.peek()) != null && device.nextAt <= nowNanos) {
+            mDue.poll();
+
+            device.rssi = Math.max(MIN_RSSI, Math.min(MAX_RSSI, device.rssi + mRandom.nextInt(5) - 2));
+            if (device.type == TYPE_MANUFACTURER && mRandom.nextInt(8) == 0) {
+                // A sensor reading that changes now and then, as reportOnChange would see it.
+                // Sent packets may still be queued, so the new reading gets a new array
+                byte[] packet = device.packet.clone();
+                packet[packet.length - 1] = (byte) mRandom.nextInt();
+                device.packet = packet;
+            }
+            scanner.inject(device.address, device.rssi, device.packet, device.nextAt);
+            sent++;
+
+            device.nextAt += device.intervalNanos + (long) (mRandom.nextDouble() * ADV_DELAY_NANOS);
+            mDue.add(device);
+        }
+        return sent;
+    }
+
+    private static byte[] packet(int type, int index) {
+        switch (type) {
+            case TYPE_IBEACON: {
+                byte[] beacon = AdvertisingPayload.iBeacon(BEACON_UUID.getMostSignificantBits(),
+                        BEACON_UUID.getLeastSignificantBits(), (index / 100) & 0xFFFF, index % 100, -59).manufacturerData;
+                byte[] packet = new byte[3 + 4 + beacon.length];
+                packet[0] = 0x02;
+                packet[1] = 0x01;
+                packet[2] = 0x06;
+                packet[3] = (byte) (beacon.length + 3);
+                packet[4] = (byte) 0xFF;
+                packet[5] = (byte) AdvertisementRecord.APPLE_MANUFACTURER_ID;
+                packet[6] = (byte) (AdvertisementRecord.APPLE_MANUFACTURER_ID >> 8);
+                System.arraycopy(beacon, 0, packet, 7, beacon.length);
+                return packet;
+            }
+            case TYPE_MANUFACTURER:
+                return new byte[] {
+                        0x02, 0x01, 0x06,
+                        0x0B, (byte) 0xFF, (byte) COMPANY_ID, (byte) (COMPANY_ID >> 8),
+                        0x01, (byte) (index >> 24), (byte) (index >> 16), (byte) (index >> 8), (byte) index, 0x00, 0x00, 0x00
+                };
+            default:
+                return new byte[] {
+                        0x02, 0x01, 0x06,
+                        0x03, 0x03, (byte) SERVICE_UUID, (byte) (SERVICE_UUID >> 8),
+                        0x0B, 0x16, (byte) SERVICE_UUID, (byte) (SERVICE_UUID >> 8),
+                        (byte) (index >> 24), (byte) (index >> 16), (byte) (index >> 8), (byte) index, 0x00, 0x00, 0x00, 0x00,
+                        0x05, 0x09, 'L', 'o', 'a', 'd'
+                };
+        }
+    }
+}
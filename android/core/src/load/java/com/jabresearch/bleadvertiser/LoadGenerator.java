@@ -0,0 +1,371 @@
+package com.jabresearch.bleadvertiser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the scan pipeline with a simulated crowd of advertisers, through
+ * a FakeScanner and the same bounded processing queue the module uses,
+ * and reports what it sustained: packets and events per second, drops,
+ * queue depth and end-to-end latency from the packet's radio timestamp to
+ * its event. Each step first runs --warmup seconds that are not counted,
+ * so JIT compilation does not show up as drops and latency.
+ *
+ * With --sweep the crowd doubles until a step drops more than
+ * --maxDropRate of its packets or its p99 latency exceeds --maxP99 ms;
+ * the last passing step is the capacity.
+ *
+ *   gradle loadTest -PloadArgs="--devices=500 --rate=10 --duration=10"
+ *   gradle loadTest -PloadArgs="--sweep --devices=100"
+ */
+public class LoadGenerator {
+
+    static final class Options {
+        int devices = 500;
+        double rate = 10;
+        int[] mix = {60, 30, 10};
+        int regions = 10;
+        double duration = 10;
+        double warmup = 2;
+        int queueCapacity = ScanProcessingQueue.DEFAULT_CAPACITY;
+        int policy = ScanProcessingQueue.POLICY_DROP_OLDEST;
+        boolean reportOnChange;
+        boolean sweep;
+        double maxDropRate = 0.001;
+        double maxP99 = 100;
+        long seed = 1;
+    }
+
+    static final class Result {
+        int devices;
+        double targetRate;
+        double offeredRate;
+        double processedRate;
+        double eventRate;
+        long dropped;
+        double dropRate;
+        double depthMean;
+        int depthMax;
+        double p50;
+        double p90;
+        double p99;
+        double p999;
+        double max;
+
+        boolean passes(Options options) {
+            return dropRate <= options.maxDropRate && p99 <= options.maxP99;
+        }
+
+        /**
+         * The generator thread could not send at the target rate, so the
+         * step says more about this machine than about the pipeline.
+         */
+        boolean generatorLimited() {
+            return offeredRate < targetRate * 0.95;
+        }
+    }
+
+    private static final class Packet {
+        final String address;
+        final int rssi;
+        final byte[] bytes;
+        final long timestampNanos;
+        final long receivedNanos;
+
+        Packet(String address, int rssi, byte[] bytes, long timestampNanos, long receivedNanos) {
+            this.address = address;
+            this.rssi = rssi;
+            this.bytes = bytes;
+            this.timestampNanos = timestampNanos;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+
+    /**
+     * Uniform sample of latencies, written by the processing thread only.
+     */
+    private static final class LatencySample {
+        private final long[] mValues;
+        private final Random mRandom = new Random(7);
+        private long mSeen;
+
+        LatencySample(int size) {
+            mValues = new long[size];
+        }
+
+        void add(long value) {
+            if (mSeen < mValues.length) {
+                mValues[(int) mSeen] = value;
+            } else {
+                long slot = (long) (mRandom.nextDouble() * (mSeen + 1));
+                if (slot < mValues.length) {
+                    mValues[(int) slot] = value;
+                }
+            }
+            mSeen++;
+        }
+
+        long[] sorted() {
+            long[] values = Arrays.copyOf(mValues, (int) Math.min(mSeen, mValues.length));
+            Arrays.sort(values);
+            return values;
+        }
+    }
+
+    private static final ScanPipeline.Clock CLOCK = new ScanPipeline.Clock() {
+        @Override
+        public long elapsedNanos() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    public static void main(String[] args) throws InterruptedException {
+        Options options = parse(args);
+        System.out.println(String.format(Locale.US,
+                "Mix %d/%d/%d iBeacon/manufacturer/service, %.1f adv/s per device, %d regions, queue %d %s%s, %.0f s per step",
+                options.mix[0], options.mix[1], options.mix[2], options.rate, options.regions, options.queueCapacity,
+                ScanProcessingQueue.policyToString(options.policy), options.reportOnChange ? ", reportOnChange" : "",
+                options.duration));
+        System.out.println();
+        System.out.println(String.format(Locale.US, "%8s %10s %10s %10s %10s %8s %12s %8s %8s %8s %8s %8s",
+                "devices", "target/s", "offered/s", "processed", "events/s", "dropped", "depth avg/max",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+
+        Result passed = null;
+        int devices = options.devices;
+        while (true) {
+            Result result = run(options, devices);
+            print(result);
+            if (!options.sweep) {
+                break;
+            }
+            if (!result.passes(options) || result.generatorLimited()) {
+                break;
+            }
+            passed = result;
+            devices *= 2;
+        }
+
+        if (options.sweep) {
+            System.out.println();
+            if (passed == null) {
+                System.out.println("Capacity: below the first step");
+            } else {
+                System.out.println(String.format(Locale.US,
+                        "Capacity: %.0f packets/s (%d devices at %.1f adv/s) with drops <= %.2f%% and p99 <= %.0f ms",
+                        passed.processedRate, passed.devices, options.rate, options.maxDropRate * 100, options.maxP99));
+            }
+        }
+    }
+
+    static Result run(Options options, int devices) throws InterruptedException {
+        long started = CLOCK.elapsedNanos();
+        final long measureFrom = started + (long) (options.warmup * 1e9);
+        long ends = measureFrom + (long) (options.duration * 1e9);
+
+        final AtomicLong events = new AtomicLong();
+        final LatencySample latencies = new LatencySample(1 << 18);
+
+        final ScanPipeline pipeline = new ScanPipeline(CLOCK, new EventSink() {
+            @Override
+            public void onDeviceFound(DeviceEvent event) {
+                if (event.timestampNanos >= measureFrom) {
+                    events.incrementAndGet();
+                    latencies.add(CLOCK.elapsedNanos() - event.timestampNanos);
+                }
+            }
+
+            @Override
+            public void onSessionResult(String sessionId, DeviceEvent event) {
+                onDeviceFound(event);
+            }
+
+            @Override
+            public void onRegionEnter(BeaconRegion region, String uuid, int major, int minor) {
+            }
+        });
+        pipeline.setCompanyId(BeaconCrowd.COMPANY_ID);
+        pipeline.setReportOnChange(options.reportOnChange);
+        for (int i = 0; i < options.regions; i++) {
+            BeaconRegion region = new BeaconRegion("region-" + i, BeaconCrowd.BEACON_UUID, i, null);
+            pipeline.regionMonitor.add(region, RegionMonitor.DEFAULT_EXIT_TIMEOUT);
+            pipeline.monitoredRegions.put(region.identifier, region);
+        }
+        ScanConfig config = new ScanConfig(new ScanFilterCompiler.Result(null, null),
+                ScanConfig.UNSET, ScanConfig.UNSET, ScanConfig.UNSET, 0);
+        pipeline.sessions.open("default", new ArrayList<ScanFilterSpec>(), true, config);
+
+        final AtomicLong processed = new AtomicLong();
+        final ScanProcessingQueue<Packet> queue = new ScanProcessingQueue<>("LoadProcessing",
+                new ScanProcessingQueue.Processor<Packet>() {
+                    @Override
+                    public void process(Packet packet) {
+                        pipeline.process(packet.address, packet.rssi, packet.bytes, packet.timestampNanos, packet.receivedNanos);
+                        processed.incrementAndGet();
+                    }
+                });
+        queue.configure(options.queueCapacity, options.policy);
+
+        FakeScanner scanner = new FakeScanner();
+        scanner.setListener(new Scanner.Listener() {
+            @Override
+            public void onPacket(String address, int rssi, byte[] bytes, long timestampNanos) {
+                queue.offer(new Packet(address, rssi, bytes, timestampNanos, CLOCK.elapsedNanos()));
+            }
+        });
+        scanner.start(config);
+
+        BeaconCrowd crowd = new BeaconCrowd(devices, options.rate, options.mix, options.seed, started);
+
+        long offered = 0;
+        long processedBefore = 0;
+        long droppedBefore = 0;
+        boolean measuring = false;
+        long depthSum = 0;
+        long depthSamples = 0;
+        int depthMax = 0;
+        long nextSample = started;
+        long now;
+        while ((now = CLOCK.elapsedNanos()) < ends) {
+            if (!measuring && now >= measureFrom) {
+                measuring = true;
+                offered = 0;
+                processedBefore = processed.get();
+                droppedBefore = queue.getDropped();
+            }
+            offered += crowd.emitDue(now, scanner);
+            if (measuring && now >= nextSample) {
+                int depth = queue.depth();
+                depthSum += depth;
+                depthMax = Math.max(depthMax, depth);
+                depthSamples++;
+                nextSample = now + 1000000;
+            }
+            long wait = Math.min(crowd.nextAt(), nextSample) - CLOCK.elapsedNanos();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+        long elapsed = CLOCK.elapsedNanos() - measureFrom;
+        scanner.stop();
+
+        // Let the queue empty so every accepted packet is counted
+        long drainUntil = CLOCK.elapsedNanos() + 5000000000L;
+        while (processed.get() - processedBefore + queue.getDropped() - droppedBefore < offered
+                && CLOCK.elapsedNanos() < drainUntil) {
+            Thread.sleep(10);
+        }
+        queue.shutdown();
+
+        double seconds = elapsed / 1e9;
+        Result result = new Result();
+        result.devices = devices;
+        result.targetRate = crowd.expectedRate();
+        result.offeredRate = offered / seconds;
+        result.processedRate = (processed.get() - processedBefore) / seconds;
+        result.eventRate = events.get() / seconds;
+        result.dropped = queue.getDropped() - droppedBefore;
+        result.dropRate = offered > 0 ? (double) result.dropped / offered : 0;
+        result.depthMean = depthSamples > 0 ? (double) depthSum / depthSamples : 0;
+        result.depthMax = depthMax;
+
+        long[] sorted = latencies.sorted();
+        result.p50 = percentile(sorted, 0.5);
+        result.p90 = percentile(sorted, 0.9);
+        result.p99 = percentile(sorted, 0.99);
+        result.p999 = percentile(sorted, 0.999);
+        result.max = sorted.length > 0 ? sorted[sorted.length - 1] / 1e6 : 0;
+        return result;
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static void print(Result result) {
+        System.out.println(String.format(Locale.US, "%8d %10.0f %10.0f %10.0f %10.0f %8d %6.1f/%-5d %8.2f %8.2f %8.2f %8.2f %8.2f%s",
+                result.devices, result.targetRate, result.offeredRate, result.processedRate, result.eventRate,
+                result.dropped, result.depthMean, result.depthMax,
+                result.p50, result.p90, result.p99, result.p999, result.max,
+                result.generatorLimited() ? "  (generator-limited)" : ""));
+    }
+
+    static Options parse(String[] args) {
+        Options options = new Options();
+        for (String arg : args) {
+            String name = arg;
+            String value = null;
+            int equals = arg.indexOf('=');
+            if (equals >= 0) {
+                name = arg.substring(0, equals);
+                value = arg.substring(equals + 1);
+            }
+            switch (name) {
+                case "--devices":
+                    options.devices = Integer.parseInt(value);
+                    break;
+                case "--rate":
+                    options.rate = Double.parseDouble(value);
+                    break;
+                case "--mix": {
+                    String[] parts = value.split(",");
+                    if (parts.length != 3) {
+                        throw new IllegalArgumentException("--mix takes iBeacon,manufacturer,service weights");
+                    }
+                    for (int i = 0; i < 3; i++) {
+                        options.mix[i] = Integer.parseInt(parts[i].trim());
+                    }
+                    break;
+                }
+                case "--regions":
+                    options.regions = Integer.parseInt(value);
+                    break;
+                case "--duration":
+                    options.duration = Double.parseDouble(value);
+                    break;
+                case "--warmup":
+                    options.warmup = Double.parseDouble(value);
+                    break;
+                case "--queue":
+                    options.queueCapacity = Integer.parseInt(value);
+                    break;
+                case "--policy":
+                    options.policy = ScanProcessingQueue.policyFromString(value);
+                    break;
+                case "--reportOnChange":
+                    options.reportOnChange = true;
+                    break;
+                case "--sweep":
+                    options.sweep = true;
+                    break;
+                case "--maxDropRate":
+                    options.maxDropRate = Double.parseDouble(value);
+                    break;
+                case "--maxP99":
+                    options.maxP99 = Double.parseDouble(value);
+                    break;
+                case "--seed":
+                    options.seed = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (options.devices < 1 || options.rate <= 0 || options.duration <= 0
+                || options.mix[0] + options.mix[1] + options.mix[2] <= 0) {
+            throw new IllegalArgumentException("devices, rate, duration and mix must be positive");
+        }
+        return options;
+    }
+}
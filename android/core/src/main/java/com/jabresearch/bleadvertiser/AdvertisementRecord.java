@@ -0,0 +1,352 @@
+package com.jabresearch.bleadvertiser;
+
+import java.nio.charset.Charset;
+
+/**
+ * Reusable view over the raw bytes of a scan record.
+ *
+ * wrap() walks the AD structures once and records where every section
+ * lives. Nothing is copied: every accessor reads straight from the raw
+ * array, so one instance can be reused for every packet of a scan.
+ */
+class AdvertisementRecord {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // Bluetooth base UUID 00000000-0000-1000-8000-00805f9b34fb
+    static final long BASE_UUID_MSB = 0x0000000000001000L;
+    static final long BASE_UUID_LSB = 0x800000805f9b34fbL;
+
+    static final int TX_POWER_NOT_PRESENT = Integer.MIN_VALUE;
+
+    private static final int AD_FLAGS = 0x01;
+    private static final int AD_16BIT_UUIDS_PARTIAL = 0x02;
+    private static final int AD_16BIT_UUIDS_COMPLETE = 0x03;
+    private static final int AD_32BIT_UUIDS_PARTIAL = 0x04;
+    private static final int AD_32BIT_UUIDS_COMPLETE = 0x05;
+    private static final int AD_128BIT_UUIDS_PARTIAL = 0x06;
+    private static final int AD_128BIT_UUIDS_COMPLETE = 0x07;
+    private static final int AD_SHORT_NAME = 0x08;
+    private static final int AD_COMPLETE_NAME = 0x09;
+    private static final int AD_TX_POWER = 0x0A;
+    private static final int AD_SERVICE_DATA_16BIT = 0x16;
+    private static final int AD_SERVICE_DATA_32BIT = 0x20;
+    private static final int AD_SERVICE_DATA_128BIT = 0x21;
+    private static final int AD_MANUFACTURER_DATA = 0xFF;
+
+    // iBeacon layout inside the Apple manufacturer data; BeaconLayout
+    // parses and encodes it, these remain for building scan filters
+    static final int APPLE_MANUFACTURER_ID = 0x004C;
+    static final int IBEACON_TYPE = 0x02;
+    static final int IBEACON_TYPE_LENGTH = 0x15;
+    static final int IBEACON_DATA_LENGTH = 23;
+
+    private byte[] mBytes;
+    private int mLength;
+
+    private int mFlags;
+    private int mTxPower;
+    private int mNameOffset;
+    private int mNameLength;
+
+    // Service UUIDs: offset and width (2, 4 or 16) of each entry
+    private int mServiceUuidCount;
+    private int[] mServiceUuidOffsets = new int[8];
+    private int[] mServiceUuidWidths = new int[8];
+
+    // Service data: UUID offset and width, followed by the payload
+    private int mServiceDataCount;
+    private int[] mServiceDataUuidOffsets = new int[4];
+    private int[] mServiceDataUuidWidths = new int[4];
+    private int[] mServiceDataOffsets = new int[4];
+    private int[] mServiceDataLengths = new int[4];
+
+    // Manufacturer data: company id, then the payload after it
+    private int mManufacturerCount;
+    private int[] mManufacturerIds = new int[4];
+    private int[] mManufacturerOffsets = new int[4];
+    private int[] mManufacturerLengths = new int[4];
+
+    /**
+     * Parses the raw record. Returns false when the bytes are missing or
+     * malformed, in which case only the sections seen so far are valid.
+     */
+    boolean wrap(byte[] bytes) {
+        mBytes = bytes;
+        mLength = 0;
+        mFlags = -1;
+        mTxPower = TX_POWER_NOT_PRESENT;
+        mNameOffset = -1;
+        mNameLength = 0;
+        mServiceUuidCount = 0;
+        mServiceDataCount = 0;
+        mManufacturerCount = 0;
+
+        if (bytes == null) return false;
+
+        int pos = 0;
+        while (pos < bytes.length) {
+            int length = bytes[pos] & 0xFF;
+            if (length == 0) break;
+            if (pos + length >= bytes.length) return false;
+            mLength = pos + length + 1;
+
+            int type = bytes[pos + 1] & 0xFF;
+            int start = pos + 2;
+            int dataLength = length - 1;
+
+            switch (type) {
+                case AD_FLAGS:
+                    if (dataLength > 0) mFlags = bytes[start] & 0xFF;
+                    break;
+                case AD_16BIT_UUIDS_PARTIAL:
+                case AD_16BIT_UUIDS_COMPLETE:
+                    addServiceUuids(start, dataLength, 2);
+                    break;
+                case AD_32BIT_UUIDS_PARTIAL:
+                case AD_32BIT_UUIDS_COMPLETE:
+                    addServiceUuids(start, dataLength, 4);
+                    break;
+                case AD_128BIT_UUIDS_PARTIAL:
+                case AD_128BIT_UUIDS_COMPLETE:
+                    addServiceUuids(start, dataLength, 16);
+                    break;
+                case AD_SHORT_NAME:
+                case AD_COMPLETE_NAME:
+                    mNameOffset = start;
+                    mNameLength = dataLength;
+                    break;
+                case AD_TX_POWER:
+                    if (dataLength > 0) mTxPower = bytes[start];
+                    break;
+                case AD_SERVICE_DATA_16BIT:
+                    addServiceData(start, dataLength, 2);
+                    break;
+                case AD_SERVICE_DATA_32BIT:
+                    addServiceData(start, dataLength, 4);
+                    break;
+                case AD_SERVICE_DATA_128BIT:
+                    addServiceData(start, dataLength, 16);
+                    break;
+                case AD_MANUFACTURER_DATA:
+                    addManufacturerData(start, dataLength);
+                    break;
+                default:
+                    break;
+            }
+
+            pos += length + 1;
+        }
+
+        return true;
+    }
+
+    private void addServiceUuids(int start, int length, int width) {
+        for (int offset = start; offset + width <= start + length; offset += width) {
+            if (mServiceUuidCount == mServiceUuidOffsets.length) {
+                mServiceUuidOffsets = grow(mServiceUuidOffsets);
+                mServiceUuidWidths = grow(mServiceUuidWidths);
+            }
+            mServiceUuidOffsets[mServiceUuidCount] = offset;
+            mServiceUuidWidths[mServiceUuidCount] = width;
+            mServiceUuidCount++;
+        }
+    }
+
+    private void addServiceData(int start, int length, int width) {
+        if (length < width) return;
+
+        if (mServiceDataCount == mServiceDataOffsets.length) {
+            mServiceDataUuidOffsets = grow(mServiceDataUuidOffsets);
+            mServiceDataUuidWidths = grow(mServiceDataUuidWidths);
+            mServiceDataOffsets = grow(mServiceDataOffsets);
+            mServiceDataLengths = grow(mServiceDataLengths);
+        }
+        mServiceDataUuidOffsets[mServiceDataCount] = start;
+        mServiceDataUuidWidths[mServiceDataCount] = width;
+        mServiceDataOffsets[mServiceDataCount] = start + width;
+        mServiceDataLengths[mServiceDataCount] = length - width;
+        mServiceDataCount++;
+    }
+
+    private void addManufacturerData(int start, int length) {
+        if (length < 2) return;
+
+        if (mManufacturerCount == mManufacturerIds.length) {
+            mManufacturerIds = grow(mManufacturerIds);
+            mManufacturerOffsets = grow(mManufacturerOffsets);
+            mManufacturerLengths = grow(mManufacturerLengths);
+        }
+        // Company identifiers are little endian
+        mManufacturerIds[mManufacturerCount] = (mBytes[start] & 0xFF) | ((mBytes[start + 1] & 0xFF) << 8);
+        mManufacturerOffsets[mManufacturerCount] = start + 2;
+        mManufacturerLengths[mManufacturerCount] = length - 2;
+        mManufacturerCount++;
+    }
+
+    private static int[] grow(int[] array) {
+        int[] grown = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    byte[] getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Bytes taken by the AD structures, without the zero padding some
+     * stacks append to the record.
+     */
+    int getLength() {
+        return mLength;
+    }
+
+    /**
+     * Advertise flags, or -1 when the record carries none.
+     */
+    int getFlags() {
+        return mFlags;
+    }
+
+    /**
+     * TX power level, or TX_POWER_NOT_PRESENT.
+     */
+    int getTxPower() {
+        return mTxPower;
+    }
+
+    boolean hasName() {
+        return mNameOffset >= 0;
+    }
+
+    String getName() {
+        if (mNameOffset < 0) return null;
+        return new String(mBytes, mNameOffset, mNameLength, UTF_8);
+    }
+
+    int getNameOffset() {
+        return mNameOffset;
+    }
+
+    int getNameLength() {
+        return mNameLength;
+    }
+
+    int getServiceUuidCount() {
+        return mServiceUuidCount;
+    }
+
+    long getServiceUuidMsb(int index) {
+        return uuidMsb(mServiceUuidOffsets[index], mServiceUuidWidths[index]);
+    }
+
+    long getServiceUuidLsb(int index) {
+        return uuidLsb(mServiceUuidOffsets[index], mServiceUuidWidths[index]);
+    }
+
+    int getServiceDataCount() {
+        return mServiceDataCount;
+    }
+
+    long getServiceDataUuidMsb(int index) {
+        return uuidMsb(mServiceDataUuidOffsets[index], mServiceDataUuidWidths[index]);
+    }
+
+    long getServiceDataUuidLsb(int index) {
+        return uuidLsb(mServiceDataUuidOffsets[index], mServiceDataUuidWidths[index]);
+    }
+
+    int getServiceDataOffset(int index) {
+        return mServiceDataOffsets[index];
+    }
+
+    int getServiceDataLength(int index) {
+        return mServiceDataLengths[index];
+    }
+
+    int getManufacturerCount() {
+        return mManufacturerCount;
+    }
+
+    int getManufacturerId(int index) {
+        return mManufacturerIds[index];
+    }
+
+    int getManufacturerOffset(int index) {
+        return mManufacturerOffsets[index];
+    }
+
+    int getManufacturerLength(int index) {
+        return mManufacturerLengths[index];
+    }
+
+    /**
+     * Index of the first manufacturer section for the company, or -1.
+     */
+    int findManufacturer(int companyId) {
+        for (int i = 0; i < mManufacturerCount; i++) {
+            if (mManufacturerIds[i] == companyId) return i;
+        }
+        return -1;
+    }
+
+    // AD UUIDs are little endian; short ones expand into the base UUID
+    private long uuidMsb(int offset, int width) {
+        if (width == 16) {
+            return readLongLittleEndian(mBytes, offset + 8);
+        }
+        long shortUuid = readIntLittleEndian(mBytes, offset, width);
+        return BASE_UUID_MSB | (shortUuid << 32);
+    }
+
+    private long uuidLsb(int offset, int width) {
+        if (width == 16) {
+            return readLongLittleEndian(mBytes, offset);
+        }
+        return BASE_UUID_LSB;
+    }
+
+    static long readLongBigEndian(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    static long readLongLittleEndian(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static long readIntLittleEndian(byte[] bytes, int offset, int width) {
+        long value = 0;
+        for (int i = width - 1; i >= 0; i--) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Same output as UUID.toString() without creating the UUID.
+     */
+    static String formatUuid(long msb, long lsb) {
+        char[] out = new char[36];
+        int pos = 0;
+        for (int i = 0; i < 16; i++) {
+            if (i == 4 || i == 6 || i == 8 || i == 10) {
+                out[pos++] = '-';
+            }
+            long word = i < 8 ? msb : lsb;
+            int b = (int) (word >>> (56 - 8 * (i & 7))) & 0xFF;
+            out[pos++] = HEX[b >>> 4];
+            out[pos++] = HEX[b & 0x0F];
+        }
+        return new String(out);
+    }
+}
@@ -0,0 +1,34 @@
+package com.jabresearch.bleadvertiser;
+
+/**
+ * The radio side of advertising: one payload on air per id. Starting an
+ * id that is already on air replaces its payload, in place for an
+ * advertising set and with a restart otherwise. The outcome of every
+ * start arrives asynchronously through its callback, with the platform's
+ * ADVERTISE_FAILED_* codes on failure.
+ */
+interface Advertiser {
+
+    int ADVERTISE_FAILED_DATA_TOO_LARGE = 1;
+    int ADVERTISE_FAILED_TOO_MANY_ADVERTISERS = 2;
+    int ADVERTISE_FAILED_ALREADY_STARTED = 3;
+    int ADVERTISE_FAILED_INTERNAL_ERROR = 4;
+    int ADVERTISE_FAILED_FEATURE_UNSUPPORTED = 5;
+
+    // Not a platform code: the id was stopped before a data update took effect
+    int ADVERTISE_CANCELLED = -1;
+
+    interface Callback {
+        /**
+         * txPower is what the controller chose in dBm, or
+         * AdvertisingParameters.UNSET when the platform does not say.
+         */
+        void onStarted(String id, int txPower);
+
+        void onFailed(String id, int errorCode);
+    }
+
+    void start(String id, AdvertisingPayload payload, AdvertisingParameters parameters, Callback callback);
+
+    void stop(String id);
+}
@@ -0,0 +1,80 @@
+package com.jabresearch.bleadvertiser;
+
+/**
+ * How an advertisement goes on air, independent of the platform API that
+ * sends it. A plain broadcast runs at the interval and power its advertise
+ * mode and power level stand for; an advertising set can take an exact
+ * interval and TX power instead, a PHY when extended, and accepts data
+ * updates in place. The constants carry the platform's values.
+ */
+class AdvertisingParameters {
+
+    public static final int MODE_LOW_POWER = 0;
+    public static final int MODE_BALANCED = 1;
+    public static final int MODE_LOW_LATENCY = 2;
+
+    public static final int POWER_ULTRA_LOW = 0;
+    public static final int POWER_LOW = 1;
+    public static final int POWER_MEDIUM = 2;
+    public static final int POWER_HIGH = 3;
+
+    // Advertising set intervals in 0.625 ms units, and TX powers in dBm
+    public static final int INTERVAL_LOW = 160;
+    public static final int INTERVAL_MEDIUM = 400;
+    public static final int INTERVAL_HIGH = 1600;
+    public static final int TX_POWER_ULTRA_LOW = -21;
+    public static final int TX_POWER_LOW = -15;
+    public static final int TX_POWER_MEDIUM = -7;
+    public static final int TX_POWER_HIGH = 1;
+
+    public static final int PHY_LE_1M = 1;
+    public static final int PHY_LE_2M = 2;
+    public static final int PHY_LE_CODED = 3;
+
+    // Interval or TX power left to the advertise mode or power level
+    public static final int UNSET = Integer.MIN_VALUE;
+
+    int advertiseMode = MODE_LOW_POWER;
+    int powerLevel = POWER_MEDIUM;
+    boolean connectable = true;
+
+    // Run as an advertising set where the platform has them
+    boolean advertisingSet;
+    boolean extended;
+    int interval = UNSET;
+    int txPower = UNSET;
+    int phy = PHY_LE_1M;
+
+    /**
+     * Advertising interval in 0.625 ms units.
+     */
+    int interval() {
+        if (interval != UNSET) {
+            return interval;
+        }
+        switch (advertiseMode) {
+            case MODE_LOW_LATENCY: return INTERVAL_LOW;
+            case MODE_BALANCED: return INTERVAL_MEDIUM;
+            default: return INTERVAL_HIGH;
+        }
+    }
+
+    double intervalMillis() {
+        return interval() * 0.625;
+    }
+
+    /**
+     * TX power in dBm.
+     */
+    int txPower() {
+        if (txPower != UNSET) {
+            return txPower;
+        }
+        switch (powerLevel) {
+            case POWER_ULTRA_LOW: return TX_POWER_ULTRA_LOW;
+            case POWER_LOW: return TX_POWER_LOW;
+            case POWER_HIGH: return TX_POWER_HIGH;
+            default: return TX_POWER_MEDIUM;
+        }
+    }
+}
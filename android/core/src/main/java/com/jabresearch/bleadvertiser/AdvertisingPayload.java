@@ -0,0 +1,75 @@
+package com.jabresearch.bleadvertiser;
+
+/**
+ * Platform-neutral description of an advertisement's contents, with the
+ * on-air size it will take. The size decides between a legacy
+ * advertisement (31 bytes) and an extended one, and lets oversized
+ * payloads be rejected before the controller is asked to send them.
+ */
+class AdvertisingPayload {
+
+    public static final int LEGACY_MAX_LENGTH = 31;
+
+    // Flags AD structure the stack adds to discoverable legacy advertisements
+    private static final int FLAGS_LENGTH = 3;
+
+    boolean hasServiceUuid;
+    long serviceUuidMsb;
+    long serviceUuidLsb;
+
+    byte[] serviceData;
+
+    int manufacturerId = -1;
+    byte[] manufacturerData;
+
+    boolean includeTxPower;
+    boolean includeDeviceName;
+
+    // DataEncoding that later service data updates arrive in
+    int dataEncoding = DataEncoding.ARRAY;
+
+    static AdvertisingPayload iBeacon(long uuidMsb, long uuidLsb, int major, int minor, int measuredPower) {
+        BeaconLayout layout = BeaconLayoutRegistry.IBEACON;
+        byte[][] identifiers = {
+                BeaconLayout.uuidBytes(uuidMsb, uuidLsb),
+                BeaconLayout.bigEndian(major, 2),
+                BeaconLayout.bigEndian(minor, 2) };
+        return layout.toPayload(layout.encode(identifiers, null, measuredPower), -1);
+    }
+
+    /**
+     * Bytes the payload takes on air, including one length and one type
+     * byte per AD structure.
+     */
+    int length(int deviceNameLength, boolean withFlags) {
+        int length = withFlags ? FLAGS_LENGTH : 0;
+        int uuidLength = hasServiceUuid ? uuidLength(serviceUuidMsb, serviceUuidLsb) : 0;
+
+        if (hasServiceUuid) {
+            length += 2 + uuidLength;
+        }
+        if (hasServiceUuid && serviceData != null) {
+            length += 2 + uuidLength + serviceData.length;
+        }
+        if (manufacturerId >= 0) {
+            length += 2 + 2 + (manufacturerData != null ? manufacturerData.length : 0);
+        }
+        if (includeTxPower) {
+            length += 3;
+        }
+        if (includeDeviceName) {
+            length += 2 + deviceNameLength;
+        }
+        return length;
+    }
+
+    /**
+     * UUIDs built on the Bluetooth base UUID go on air as 16 or 32 bits.
+     */
+    static int uuidLength(long msb, long lsb) {
+        if (lsb != AdvertisementRecord.BASE_UUID_LSB || (msb & 0xFFFFFFFFL) != AdvertisementRecord.BASE_UUID_MSB) {
+            return 16;
+        }
+        return (msb >>> 48) == 0 ? 2 : 4;
+    }
+}
@@ -0,0 +1,279 @@
+package com.jabresearch.bleadvertiser;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Time-multiplexes any number of payloads over the few advertising
+ * instances the controller has.
+ *
+ * Each payload is entitled to a share of the slots in proportion to its
+ * weight, capped at one full slot. Every dwell period rotate() runs a
+ * smooth weighted round robin over those shares: each payload earns its
+ * share as credit, the ones holding the most credit get the slots and pay
+ * one unit for it. Payloads that stay selected keep advertising without a
+ * restart, and airtime is accounted per payload so the achieved share can
+ * be reported next to the intended one.
+ *
+ * When the controller runs out of instances the rotation falls back to
+ * the slots actually running, then probes one more after a backoff that
+ * doubles with every failed probe, until it is back at the configured
+ * count.
+ */
+class AdvertisingRotation<P> {
+
+    public static final long DEFAULT_DWELL_TIME = 1000;
+    public static final int DEFAULT_SLOTS = 4;
+    public static final long MIN_PROBE_BACKOFF = 10000;
+    public static final long MAX_PROBE_BACKOFF = 300000;
+
+    interface Advertiser<P> {
+        void start(String id, P payload);
+        void stop(String id);
+    }
+
+    /**
+     * One payload's figures at the time statistics() was called.
+     */
+    static final class Stats<P> {
+        final String id;
+        final P payload;
+        final double weight;
+        final double share;
+        final double dutyCycle;
+        final boolean onAir;
+
+        Stats(String id, P payload, double weight, double share, double dutyCycle, boolean onAir) {
+            this.id = id;
+            this.payload = payload;
+            this.weight = weight;
+            this.share = share;
+            this.dutyCycle = dutyCycle;
+            this.onAir = onAir;
+        }
+    }
+
+    private static final class Entry<P> {
+        final String id;
+        final P payload;
+        final double weight;
+        final long registeredAt;
+
+        double share;
+        double credit;
+        boolean onAir;
+        long onAirSince;
+        long airtime;
+
+        Entry(String id, P payload, double weight, long nowMs) {
+            this.id = id;
+            this.payload = payload;
+            this.weight = weight;
+            this.registeredAt = nowMs;
+        }
+
+        long airtime(long nowMs) {
+            return onAir ? airtime + (nowMs - onAirSince) : airtime;
+        }
+
+        /**
+         * Fraction of the time since registration this payload was on air.
+         */
+        double dutyCycle(long nowMs) {
+            long elapsed = nowMs - registeredAt;
+            return elapsed > 0 ? (double) airtime(nowMs) / elapsed : (onAir ? 1 : 0);
+        }
+    }
+
+    private final Advertiser<P> mAdvertiser;
+    private final Map<String, Entry<P>> mEntries = new LinkedHashMap<>();
+    private final List<Entry<P>> mSelected = new ArrayList<>();
+
+    private long mDwellTime = DEFAULT_DWELL_TIME;
+    private int mSlots = DEFAULT_SLOTS;
+    
+    // Slots usable now, below mSlots after the controller refused a start
+    private int mAvailable = DEFAULT_SLOTS;
+    private long mProbeAt;
+    private long mProbeBackoff = MIN_PROBE_BACKOFF;
+    private boolean mProbing;
+
+    AdvertisingRotation(Advertiser<P> advertiser) {
+        mAdvertiser = advertiser;
+    }
+
+    synchronized void configure(long dwellTime, int slots) {
+        mDwellTime = dwellTime > 0 ? dwellTime : DEFAULT_DWELL_TIME;
+        mSlots = Math.max(1, slots);
+        mAvailable = mSlots;
+        mProbeBackoff = MIN_PROBE_BACKOFF;
+        mProbing = false;
+    }
+
+    synchronized long getDwellTime() {
+        return mDwellTime;
+    }
+
+    synchronized int getSlots() {
+        return mSlots;
+    }
+
+    synchronized int getAvailableSlots() {
+        return mAvailable;
+    }
+
+    synchronized boolean isEmpty() {
+        return mEntries.isEmpty();
+    }
+
+    /**
+     * Registers the payload, replacing any with the same id. It goes on
+     * air at the next rotation.
+     */
+    synchronized void add(String id, P payload, double weight, long nowMs) {
+        remove(id, nowMs);
+        mEntries.put(id, new Entry<>(id, payload, weight > 0 ? weight : 1, nowMs));
+    }
+
+    synchronized boolean remove(String id, long nowMs) {
+        Entry<P> entry = mEntries.remove(id);
+        if (entry == null) return false;
+        takeOffAir(entry, nowMs);
+        return true;
+    }
+
+    synchronized List<String> clear(long nowMs) {
+        List<String> ids = new ArrayList<>(mEntries.keySet());
+        for (Entry<P> entry : mEntries.values()) {
+            takeOffAir(entry, nowMs);
+        }
+        mEntries.clear();
+        return ids;
+    }
+
+    /**
+     * The controller refused to start a payload for lack of instances. The
+     * usable slots shrink to what is actually running until the next probe.
+     */
+    synchronized void onStartFailed(String id, long nowMs) {
+        Entry<P> entry = mEntries.get(id);
+        if (entry == null || !entry.onAir) return;
+
+        entry.onAir = false;
+        int onAir = 0;
+        for (Entry<P> other : mEntries.values()) {
+            if (other.onAir) onAir++;
+        }
+        mAvailable = Math.max(1, onAir);
+        mProbing = false;
+        mProbeAt = nowMs + mProbeBackoff;
+        mProbeBackoff = Math.min(MAX_PROBE_BACKOFF, mProbeBackoff * 2);
+    }
+
+    /**
+     * Picks the payloads for the next dwell period, starting and stopping
+     * only the ones that change. Returns the delay until the next
+     * rotation, or -1 when nothing is registered.
+     */
+    synchronized long rotate(long nowMs) {
+        if (mEntries.isEmpty()) return -1;
+
+        // A probe that lasted a dwell period without a refusal succeeded
+        if (mProbing) {
+            mProbing = false;
+            mProbeBackoff = MIN_PROBE_BACKOFF;
+        }
+        if (mAvailable < mSlots && nowMs >= mProbeAt) {
+            mAvailable++;
+            mProbing = true;
+        }
+
+        int slots = Math.min(mAvailable, mEntries.size());
+        computeShares(slots);
+
+        for (Entry<P> entry : mEntries.values()) {
+            entry.credit += entry.share;
+        }
+
+        mSelected.clear();
+        for (int i = 0; i < slots; i++) {
+            Entry<P> best = null;
+            for (Entry<P> entry : mEntries.values()) {
+                if (!mSelected.contains(entry) && (best == null || entry.credit > best.credit)) {
+                    best = entry;
+                }
+            }
+            mSelected.add(best);
+            best.credit -= 1;
+        }
+
+        for (Entry<P> entry : mEntries.values()) {
+            if (entry.onAir && !mSelected.contains(entry)) {
+                takeOffAir(entry, nowMs);
+            }
+        }
+        for (Entry<P> entry : mSelected) {
+            if (!entry.onAir) {
+                entry.onAir = true;
+                entry.onAirSince = nowMs;
+                mAdvertiser.start(entry.id, entry.payload);
+            }
+        }
+
+        return mDwellTime;
+    }
+
+    synchronized List<Stats<P>> statistics(long nowMs) {
+        List<Stats<P>> statistics = new ArrayList<>(mEntries.size());
+        for (Entry<P> entry : mEntries.values()) {
+            statistics.add(new Stats<>(entry.id, entry.payload, entry.weight, entry.share,
+                    entry.dutyCycle(nowMs), entry.onAir));
+        }
+        return statistics;
+    }
+
+    /**
+     * Splits the slots in proportion to weight. A payload cannot be on air
+     * more than all the time, so shares above one slot are capped and the
+     * surplus goes to the others.
+     */
+    private void computeShares(int slots) {
+        for (Entry<P> entry : mEntries.values()) {
+            entry.share = -1;
+        }
+
+        double remaining = slots;
+        boolean capped = true;
+        while (capped) {
+            capped = false;
+            double weight = 0;
+            for (Entry<P> entry : mEntries.values()) {
+                if (entry.share < 0) weight += entry.weight;
+            }
+            for (Entry<P> entry : mEntries.values()) {
+                if (entry.share < 0 && remaining * entry.weight / weight >= 1) {
+                    entry.share = 1;
+                    remaining -= 1;
+                    capped = true;
+                }
+            }
+        }
+
+        double weight = 0;
+        for (Entry<P> entry : mEntries.values()) {
+            if (entry.share < 0) weight += entry.weight;
+        }
+        for (Entry<P> entry : mEntries.values()) {
+            if (entry.share < 0) entry.share = remaining * entry.weight / weight;
+        }
+    }
+
+    private void takeOffAir(Entry<P> entry, long nowMs) {
+        if (!entry.onAir) return;
+        entry.airtime += nowMs - entry.onAirSince;
+        entry.onAir = false;
+        mAdvertiser.stop(entry.id);
+    }
+}
@@ -0,0 +1,537 @@
+package com.jabresearch.bleadvertiser;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A beacon format compiled from a layout descriptor, in the notation
+ * AltBeacon's BeaconParser uses:
+ *
+ *   m:2-3=0215,i:4-19,i:20-21,i:22-23,p:24-24
+ *
+ * Each term is a type, an inclusive byte range and, for m and s, the
+ * value expected there:
+ *
+ *   m  matching prefix, required
+ *   s  16-bit service UUID at 0-1, making it a service data layout
+ *   i  identifier, big endian unless the range ends in l
+ *   d  data field of up to 8 bytes, big endian unless it ends in l
+ *   p  measured power, one signed byte
+ *
+ * Offsets count from the start of the manufacturer data including its
+ * company id, or of the service data including its UUID, so bytes 0-1 are
+ * never part of a field. Compiling resolves every term to a fixed offset
+ * once; matching is a length check and a prefix compare, and reading or
+ * writing a field touches only its own bytes.
+ */
+class BeaconLayout {
+
+    static final String IBEACON = "ibeacon";
+    static final String IBEACON_LAYOUT = "m:2-3=0215,i:4-19,i:20-21,i:22-23,p:24-24";
+    static final String ALTBEACON = "altbeacon";
+    static final String ALTBEACON_LAYOUT = "m:2-3=beac,i:4-19,i:20-21,i:22-23,p:24-24,d:25-25";
+
+    static final int NO_POWER = Integer.MIN_VALUE;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final long[] NO_DATA = new long[0];
+
+    final String name;
+    final String layout;
+
+    // Company the layout is matched against and encoded with, or -1 for
+    // any company. Service data layouts carry their 16-bit UUID instead
+    final int manufacturerId;
+    final int serviceUuid;
+
+    private final int mMatchOffset;
+    private final byte[] mMatchBytes;
+
+    private final int[] mIdentifierOffsets;
+    private final int[] mIdentifierLengths;
+    private final boolean[] mIdentifierLittleEndian;
+
+    private final int[] mDataOffsets;
+    private final int[] mDataLengths;
+    private final boolean[] mDataLittleEndian;
+
+    private final int mPowerOffset;
+
+    // Bytes a section needs, counting the leading id or UUID
+    private final int mLength;
+
+    private final boolean mRegionShaped;
+
+    private BeaconLayout(String name, String layout, int manufacturerId, int serviceUuid,
+                         int matchOffset, byte[] matchBytes,
+                         List<int[]> identifiers, List<int[]> data, int powerOffset, int length) {
+        this.name = name;
+        this.layout = layout;
+        this.manufacturerId = manufacturerId;
+        this.serviceUuid = serviceUuid;
+        mMatchOffset = matchOffset;
+        mMatchBytes = matchBytes;
+
+        mIdentifierOffsets = new int[identifiers.size()];
+        mIdentifierLengths = new int[identifiers.size()];
+        mIdentifierLittleEndian = new boolean[identifiers.size()];
+        for (int i = 0; i < identifiers.size(); i++) {
+            int[] field = identifiers.get(i);
+            mIdentifierOffsets[i] = field[0];
+            mIdentifierLengths[i] = field[1];
+            mIdentifierLittleEndian[i] = field[2] != 0;
+        }
+
+        mDataOffsets = new int[data.size()];
+        mDataLengths = new int[data.size()];
+        mDataLittleEndian = new boolean[data.size()];
+        for (int i = 0; i < data.size(); i++) {
+            int[] field = data.get(i);
+            mDataOffsets[i] = field[0];
+            mDataLengths[i] = field[1];
+            mDataLittleEndian[i] = field[2] != 0;
+        }
+
+        mPowerOffset = powerOffset;
+        mLength = length;
+
+        mRegionShaped = mIdentifierOffsets.length == 3 && mPowerOffset >= 0
+                && mIdentifierLengths[0] == 16 && mIdentifierLengths[1] == 2 && mIdentifierLengths[2] == 2
+                && !mIdentifierLittleEndian[0] && !mIdentifierLittleEndian[1] && !mIdentifierLittleEndian[2];
+    }
+
+    /**
+     * Compiles a descriptor. manufacturerId restricts a manufacturer data
+     * layout to one company, or is -1. Throws IllegalArgumentException
+     * naming the offending term.
+     */
+    static BeaconLayout compile(String name, String layout, int manufacturerId) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Layout name is missing");
+        }
+        if (layout == null || layout.isEmpty()) {
+            throw new IllegalArgumentException("Layout is empty");
+        }
+        if (manufacturerId > 0xFFFF) {
+            throw new IllegalArgumentException("manufacturerId must fit in 16 bits");
+        }
+
+        int matchOffset = -1;
+        byte[] matchBytes = null;
+        int serviceUuid = -1;
+        int powerOffset = -1;
+        int length = 2;
+        List<int[]> identifiers = new ArrayList<>();
+        List<int[]> data = new ArrayList<>();
+
+        for (String term : layout.split(",")) {
+            term = term.trim();
+            int colon = term.indexOf(':');
+            int dash = term.indexOf('-');
+            if (colon != 1 || dash < 0) {
+                throw new IllegalArgumentException("Malformed layout term '" + term + "'");
+            }
+
+            char type = term.charAt(0);
+            String value = null;
+            int rangeEnd = term.length();
+            int equals = term.indexOf('=');
+            if (equals >= 0) {
+                value = term.substring(equals + 1);
+                rangeEnd = equals;
+            }
+            boolean littleEndian = term.charAt(rangeEnd - 1) == 'l';
+            if (littleEndian) {
+                rangeEnd--;
+            }
+
+            int start;
+            int end;
+            try {
+                start = Integer.parseInt(term.substring(2, dash));
+                end = Integer.parseInt(term.substring(dash + 1, rangeEnd));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed range in layout term '" + term + "'");
+            }
+            if (end < start || start < 0 || end > 255) {
+                throw new IllegalArgumentException("Invalid range in layout term '" + term + "'");
+            }
+            int fieldLength = end - start + 1;
+
+            if ((type == 'm' || type == 's') != (value != null) || (littleEndian && type != 'i' && type != 'd')) {
+                throw new IllegalArgumentException("Malformed layout term '" + term + "'");
+            }
+
+            switch (type) {
+                case 's':
+                    if (start != 0 || end != 1 || serviceUuid >= 0) {
+                        throw new IllegalArgumentException("Service UUID must be a single s:0-1 term");
+                    }
+                    byte[] uuid = DataEncoding.decodeHex(value);
+                    if (uuid.length != 2) {
+                        throw new IllegalArgumentException("Service UUID must be 4 hex digits in '" + term + "'");
+                    }
+                    serviceUuid = ((uuid[0] & 0xFF) << 8) | (uuid[1] & 0xFF);
+                    continue;
+                case 'm':
+                    if (matchBytes != null) {
+                        throw new IllegalArgumentException("Layout has more than one m term");
+                    }
+                    matchBytes = DataEncoding.decodeHex(value);
+                    if (matchBytes.length != fieldLength) {
+                        throw new IllegalArgumentException("Matching value does not fill its range in '" + term + "'");
+                    }
+                    matchOffset = start;
+                    break;
+                case 'i':
+                    identifiers.add(new int[] { start, fieldLength, littleEndian ? 1 : 0 });
+                    break;
+                case 'd':
+                    if (fieldLength > 8) {
+                        throw new IllegalArgumentException("Data fields hold at most 8 bytes in '" + term + "'");
+                    }
+                    data.add(new int[] { start, fieldLength, littleEndian ? 1 : 0 });
+                    break;
+                case 'p':
+                    if (fieldLength != 1 || powerOffset >= 0) {
+                        throw new IllegalArgumentException("Power must be a single one-byte p term");
+                    }
+                    powerOffset = start;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown layout term type '" + type + "'");
+            }
+
+            if (start < 2) {
+                throw new IllegalArgumentException("Bytes 0-1 hold the company id or service UUID in '" + term + "'");
+            }
+            length = Math.max(length, end + 1);
+        }
+
+        if (matchBytes == null) {
+            throw new IllegalArgumentException("Layout needs an m term");
+        }
+        if (identifiers.isEmpty()) {
+            throw new IllegalArgumentException("Layout needs at least one i term");
+        }
+        if (serviceUuid >= 0 && manufacturerId >= 0) {
+            throw new IllegalArgumentException("A service data layout has no manufacturerId");
+        }
+
+        return new BeaconLayout(name, layout, manufacturerId, serviceUuid, matchOffset, matchBytes,
+                identifiers, data, powerOffset, length);
+    }
+
+    boolean isServiceData() {
+        return serviceUuid >= 0;
+    }
+
+    int getIdentifierCount() {
+        return mIdentifierOffsets.length;
+    }
+
+    int getIdentifierLength(int index) {
+        return mIdentifierLengths[index];
+    }
+
+    int getDataCount() {
+        return mDataOffsets.length;
+    }
+
+    boolean hasPower() {
+        return mPowerOffset >= 0;
+    }
+
+    /**
+     * True when the layout is shaped like an iBeacon: a big endian 16-byte
+     * identifier, two 2-byte ones and a power byte. Such beacons take part
+     * in region monitoring, ranging and distance estimation.
+     */
+    boolean isRegionShaped() {
+        return mRegionShaped;
+    }
+
+    /**
+     * The byte the layout expects right after the id or UUID, or -1 when
+     * its matching prefix starts further in.
+     */
+    int firstMatchByte() {
+        return mMatchOffset == 2 ? mMatchBytes[0] & 0xFF : -1;
+    }
+
+    /**
+     * Whether the section starting at start, length bytes long and
+     * including its id or UUID, is this layout.
+     */
+    boolean matches(byte[] bytes, int start, int length) {
+        if (length < mLength) return false;
+
+        int offset = start + mMatchOffset;
+        for (int i = 0; i < mMatchBytes.length; i++) {
+            if (bytes[offset + i] != mMatchBytes[i]) return false;
+        }
+        return true;
+    }
+
+    // The readers below take the start of a section that matches()
+
+    long uuidMsb(byte[] bytes, int start) {
+        return AdvertisementRecord.readLongBigEndian(bytes, start + mIdentifierOffsets[0]);
+    }
+
+    long uuidLsb(byte[] bytes, int start) {
+        return AdvertisementRecord.readLongBigEndian(bytes, start + mIdentifierOffsets[0] + 8);
+    }
+
+    /**
+     * An identifier of up to 8 bytes as a number.
+     */
+    long identifierValue(byte[] bytes, int start, int index) {
+        return read(bytes, start + mIdentifierOffsets[index], mIdentifierLengths[index], mIdentifierLittleEndian[index]);
+    }
+
+    /**
+     * An identifier as text: a UUID for 16 bytes, a decimal number for up
+     * to 2 bytes and 0x-prefixed hex otherwise.
+     */
+    String identifier(byte[] bytes, int start, int index) {
+        int offset = start + mIdentifierOffsets[index];
+        int length = mIdentifierLengths[index];
+        boolean littleEndian = mIdentifierLittleEndian[index];
+
+        if (length == 16 && !littleEndian) {
+            return AdvertisementRecord.formatUuid(AdvertisementRecord.readLongBigEndian(bytes, offset),
+                    AdvertisementRecord.readLongBigEndian(bytes, offset + 8));
+        }
+        if (length <= 2) {
+            return Long.toString(read(bytes, offset, length, littleEndian));
+        }
+
+        char[] out = new char[2 + 2 * length];
+        out[0] = '0';
+        out[1] = 'x';
+        for (int i = 0; i < length; i++) {
+            int b = bytes[littleEndian ? offset + length - 1 - i : offset + i] & 0xFF;
+            out[2 + 2 * i] = HEX[b >>> 4];
+            out[3 + 2 * i] = HEX[b & 0x0F];
+        }
+        return new String(out);
+    }
+
+    String[] identifiers(byte[] bytes, int start) {
+        String[] identifiers = new String[mIdentifierOffsets.length];
+        for (int i = 0; i < identifiers.length; i++) {
+            identifiers[i] = identifier(bytes, start, i);
+        }
+        return identifiers;
+    }
+
+    long dataField(byte[] bytes, int start, int index) {
+        return read(bytes, start + mDataOffsets[index], mDataLengths[index], mDataLittleEndian[index]);
+    }
+
+    long[] dataFields(byte[] bytes, int start) {
+        if (mDataOffsets.length == 0) return NO_DATA;
+
+        long[] data = new long[mDataOffsets.length];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = dataField(bytes, start, i);
+        }
+        return data;
+    }
+
+    /**
+     * Measured power, or NO_POWER when the layout has none.
+     */
+    int power(byte[] bytes, int start) {
+        return mPowerOffset >= 0 ? bytes[start + mPowerOffset] : NO_POWER;
+    }
+
+    /**
+     * Parses an identifier given as text for encoding: a UUID, 0x-prefixed
+     * hex, or a decimal number, into the bytes of identifier index.
+     */
+    byte[] parseIdentifier(int index, String value) {
+        int length = mIdentifierLengths[index];
+        byte[] bytes;
+
+        if (value.length() == 36 && value.charAt(8) == '-') {
+            UUID uuid = UUID.fromString(value);
+            bytes = new byte[16];
+            write(bytes, 0, 8, uuid.getMostSignificantBits(), false);
+            write(bytes, 8, 8, uuid.getLeastSignificantBits(), false);
+        } else if (value.startsWith("0x") || value.startsWith("0X")) {
+            bytes = DataEncoding.decodeHex(value.substring(2));
+        } else {
+            BigInteger number;
+            try {
+                number = new BigInteger(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Identifier " + (index + 1) + " is not a UUID, hex or a number: " + value);
+            }
+            if (number.signum() < 0 || number.bitLength() > 8 * length) {
+                throw new IllegalArgumentException("Identifier " + (index + 1) + " does not fit in " + length + " bytes: " + value);
+            }
+            bytes = new byte[length];
+            byte[] magnitude = number.toByteArray();
+            int copied = Math.min(magnitude.length, length);
+            System.arraycopy(magnitude, magnitude.length - copied, bytes, length - copied, copied);
+        }
+
+        if (bytes.length != length) {
+            throw new IllegalArgumentException("Identifier " + (index + 1) + " must be " + length + " bytes: " + value);
+        }
+        return bytes;
+    }
+
+    /**
+     * The section without its leading id or UUID, ready to go out as
+     * manufacturer or service data: matching prefix, identifiers (each
+     * big endian as given, reversed for l fields), data fields and power.
+     * Bytes no term covers stay zero.
+     */
+    byte[] encode(byte[][] identifiers, long[] data, int power) {
+        if (identifiers.length != mIdentifierOffsets.length) {
+            throw new IllegalArgumentException("Layout " + name + " takes " + mIdentifierOffsets.length + " identifiers");
+        }
+        if (data != null && data.length > mDataOffsets.length) {
+            throw new IllegalArgumentException("Layout " + name + " takes " + mDataOffsets.length + " data fields");
+        }
+
+        // Offsets below are shifted back over the 2 bytes the platform adds
+        byte[] out = new byte[mLength - 2];
+        System.arraycopy(mMatchBytes, 0, out, mMatchOffset - 2, mMatchBytes.length);
+
+        for (int i = 0; i < identifiers.length; i++) {
+            byte[] identifier = identifiers[i];
+            int length = mIdentifierLengths[i];
+            if (identifier.length != length) {
+                throw new IllegalArgumentException("Identifier " + (i + 1) + " must be " + length + " bytes");
+            }
+            int offset = mIdentifierOffsets[i] - 2;
+            for (int j = 0; j < length; j++) {
+                out[offset + j] = identifier[mIdentifierLittleEndian[i] ? length - 1 - j : j];
+            }
+        }
+
+        for (int i = 0; data != null && i < data.length; i++) {
+            write(out, mDataOffsets[i] - 2, mDataLengths[i], data[i], mDataLittleEndian[i]);
+        }
+
+        if (mPowerOffset >= 0) {
+            out[mPowerOffset - 2] = (byte) power;
+        }
+        return out;
+    }
+
+    /**
+     * An advertisement carrying encoded section bytes. Manufacturer data
+     * layouts need a company: the one given, or the layout's own.
+     */
+    AdvertisingPayload toPayload(byte[] encoded, int manufacturerId) {
+        AdvertisingPayload payload = new AdvertisingPayload();
+        if (isServiceData()) {
+            payload.hasServiceUuid = true;
+            payload.serviceUuidMsb = AdvertisementRecord.BASE_UUID_MSB | ((long) serviceUuid << 32);
+            payload.serviceUuidLsb = AdvertisementRecord.BASE_UUID_LSB;
+            payload.serviceData = encoded;
+            return payload;
+        }
+
+        int company = manufacturerId >= 0 ? manufacturerId : this.manufacturerId;
+        if (company < 0) {
+            throw new IllegalArgumentException("Layout " + name + " needs a manufacturerId to broadcast");
+        }
+        payload.manufacturerId = company;
+        payload.manufacturerData = encoded;
+        return payload;
+    }
+
+    /**
+     * A scan filter for beacons of this layout whose UUID starts with the
+     * first uuidPrefixLength bytes of the given one, optionally pinned to a
+     * major and minor: the company or service UUID, the matching prefix and
+     * the masked identifiers. Null when the layout is not region shaped, or
+     * matches any company, which no controller filter can express.
+     */
+    ScanFilterSpec regionFilter(long uuidMsb, long uuidLsb, int uuidPrefixLength, Integer major, Integer minor) {
+        if (!mRegionShaped || (!isServiceData() && manufacturerId < 0)) {
+            return null;
+        }
+
+        // Offsets below are shifted back over the 2 bytes the platform
+        // strips, and the filter ends with the last identifier
+        int end = mMatchOffset + mMatchBytes.length;
+        for (int i = 0; i < mIdentifierOffsets.length; i++) {
+            end = Math.max(end, mIdentifierOffsets[i] + mIdentifierLengths[i]);
+        }
+        byte[] data = new byte[end - 2];
+        byte[] mask = new byte[data.length];
+
+        pin(data, mask, mMatchOffset - 2, mMatchBytes, mMatchBytes.length);
+        pin(data, mask, mIdentifierOffsets[0] - 2, uuidBytes(uuidMsb, uuidLsb), Math.min(uuidPrefixLength, 16));
+        if (major != null) {
+            pin(data, mask, mIdentifierOffsets[1] - 2, bigEndian(major, 2), 2);
+        }
+        if (minor != null) {
+            pin(data, mask, mIdentifierOffsets[2] - 2, bigEndian(minor, 2), 2);
+        }
+
+        ScanFilterSpec spec = new ScanFilterSpec();
+        if (isServiceData()) {
+            spec.hasServiceDataUuid = true;
+            spec.serviceDataUuidMsb = AdvertisementRecord.BASE_UUID_MSB | ((long) serviceUuid << 32);
+            spec.serviceDataUuidLsb = AdvertisementRecord.BASE_UUID_LSB;
+            spec.serviceData = data;
+            spec.serviceDataMask = mask;
+        } else {
+            spec.manufacturerId = manufacturerId;
+            spec.manufacturerData = data;
+            spec.manufacturerDataMask = mask;
+        }
+        return spec;
+    }
+
+    private static void pin(byte[] data, byte[] mask, int offset, byte[] value, int count) {
+        for (int i = 0; i < count; i++) {
+            data[offset + i] = value[i];
+            mask[offset + i] = (byte) 0xFF;
+        }
+    }
+
+    static byte[] uuidBytes(long msb, long lsb) {
+        byte[] bytes = new byte[16];
+        write(bytes, 0, 8, msb, false);
+        write(bytes, 8, 8, lsb, false);
+        return bytes;
+    }
+
+    static byte[] bigEndian(long value, int length) {
+        byte[] bytes = new byte[length];
+        write(bytes, 0, length, value, false);
+        return bytes;
+    }
+
+    private static long read(byte[] bytes, int offset, int length, boolean littleEndian) {
+        long value = 0;
+        if (littleEndian) {
+            for (int i = offset + length - 1; i >= offset; i--) {
+                value = (value << 8) | (bytes[i] & 0xFF);
+            }
+        } else {
+            for (int i = offset; i < offset + length; i++) {
+                value = (value << 8) | (bytes[i] & 0xFF);
+            }
+        }
+        return value;
+    }
+
+    private static void write(byte[] bytes, int offset, int length, long value, boolean littleEndian) {
+        for (int i = 0; i < length; i++) {
+            byte b = (byte) (value >>> (8 * (length - 1 - i)));
+            bytes[littleEndian ? offset + length - 1 - i : offset + i] = b;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.jabresearch.bleadvertiser;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Beacon layouts by name, readable without locking, and the matcher that
+ * runs them over scanned packets.
+ *
+ * Like RegionRegistry, writers serialize on the registry and publish an
+ * immutable snapshot through a volatile reference. The snapshot keeps the
+ * manufacturer data and service data layouts apart, each as a dispatch
+ * table keyed by the byte following the company id or UUID, where nearly
+ * every layout's matching prefix starts. match() walks the record's
+ * sections once and tries only the layouts in the slot of each section's
+ * first byte, so most packets that are no beacon at all compare nothing.
+ * iBeacon and AltBeacon are registered from the start and cannot be
+ * removed; within a slot layouts keep registration order, and the first
+ * one matching wins.
+ */
+class BeaconLayoutRegistry {
+
+    /**
+     * Where match() found a beacon: the layout, and the start of the
+     * section including its id or UUID, for the layout's readers.
+     */
+    static final class Match {
+        BeaconLayout layout;
+        int start;
+    }
+
+    private static final class Snapshot {
+        final Map<String, BeaconLayout> layouts;
+        final BeaconLayout[][] manufacturer;
+        final BeaconLayout[][] service;
+        final boolean hasService;
+
+        Snapshot(Map<String, BeaconLayout> layouts) {
+            this.layouts = layouts;
+            List<BeaconLayout> manufacturer = new ArrayList<>();
+            List<BeaconLayout> service = new ArrayList<>();
+            for (BeaconLayout layout : layouts.values()) {
+                (layout.isServiceData() ? service : manufacturer).add(layout);
+            }
+            this.manufacturer = dispatch(manufacturer);
+            this.service = dispatch(service);
+            this.hasService = !service.isEmpty();
+        }
+
+        /**
+         * One slot per value of the first byte after the id or UUID. A
+         * layout whose prefix starts later could follow any byte, so it
+         * goes into every slot.
+         */
+        private static BeaconLayout[][] dispatch(List<BeaconLayout> layouts) {
+            BeaconLayout[][] slots = new BeaconLayout[256][];
+            List<BeaconLayout> slot = new ArrayList<>();
+            for (int b = 0; b < 256; b++) {
+                slot.clear();
+                for (BeaconLayout layout : layouts) {
+                    int first = layout.firstMatchByte();
+                    if (first < 0 || first == b) {
+                        slot.add(layout);
+                    }
+                }
+                slots[b] = slot.toArray(new BeaconLayout[0]);
+            }
+            return slots;
+        }
+    }
+
+    static final BeaconLayout IBEACON = BeaconLayout.compile(BeaconLayout.IBEACON,
+            BeaconLayout.IBEACON_LAYOUT, AdvertisementRecord.APPLE_MANUFACTURER_ID);
+    static final BeaconLayout ALTBEACON = BeaconLayout.compile(BeaconLayout.ALTBEACON,
+            BeaconLayout.ALTBEACON_LAYOUT, -1);
+
+    private volatile Snapshot mSnapshot;
+
+    BeaconLayoutRegistry() {
+        Map<String, BeaconLayout> layouts = new LinkedHashMap<>();
+        layouts.put(IBEACON.name, IBEACON);
+        layouts.put(ALTBEACON.name, ALTBEACON);
+        mSnapshot = new Snapshot(layouts);
+    }
+
+    static boolean isBuiltIn(String name) {
+        return BeaconLayout.IBEACON.equals(name) || BeaconLayout.ALTBEACON.equals(name);
+    }
+
+    BeaconLayout get(String name) {
+        return mSnapshot.layouts.get(name);
+    }
+
+    List<BeaconLayout> layouts() {
+        return new ArrayList<>(mSnapshot.layouts.values());
+    }
+
+    /**
+     * A region filter for every registered layout that can have one, in
+     * registration order; see BeaconLayout.regionFilter.
+     */
+    List<ScanFilterSpec> regionFilters(long uuidMsb, long uuidLsb, int uuidPrefixLength, Integer major, Integer minor) {
+        List<ScanFilterSpec> specs = new ArrayList<>();
+        for (BeaconLayout layout : mSnapshot.layouts.values()) {
+            ScanFilterSpec spec = layout.regionFilter(uuidMsb, uuidLsb, uuidPrefixLength, major, minor);
+            if (spec != null) {
+                specs.add(spec);
+            }
+        }
+        return specs;
+    }
+
+    /**
+     * Registers a compiled layout under its name, replacing a previous
+     * one of that name, and returns the replaced layout or null.
+     */
+    synchronized BeaconLayout put(BeaconLayout layout) {
+        if (isBuiltIn(layout.name)) {
+            throw new IllegalArgumentException("Layout " + layout.name + " is built in");
+        }
+        Map<String, BeaconLayout> layouts = new LinkedHashMap<>(mSnapshot.layouts);
+        BeaconLayout previous = layouts.put(layout.name, layout);
+        mSnapshot = new Snapshot(layouts);
+        return previous;
+    }
+
+    synchronized BeaconLayout remove(String name) {
+        if (isBuiltIn(name) || !mSnapshot.layouts.containsKey(name)) {
+            return null;
+        }
+        Map<String, BeaconLayout> layouts = new LinkedHashMap<>(mSnapshot.layouts);
+        BeaconLayout removed = layouts.remove(name);
+        mSnapshot = new Snapshot(layouts);
+        return removed;
+    }
+
+    /**
+     * Finds the first registered layout in the record, filling out.
+     * Returns false when no section is a known beacon.
+     */
+    boolean match(AdvertisementRecord record, Match out) {
+        Snapshot snapshot = mSnapshot;
+        byte[] bytes = record.getBytes();
+
+        // Every layout has a prefix and a field past the id, so sections
+        // without a byte after it are never beacons
+        for (int i = 0; i < record.getManufacturerCount(); i++) {
+            if (record.getManufacturerLength(i) == 0) continue;
+
+            int company = record.getManufacturerId(i);
+            int start = record.getManufacturerOffset(i) - 2;
+            int length = record.getManufacturerLength(i) + 2;
+            for (BeaconLayout layout : snapshot.manufacturer[bytes[start + 2] & 0xFF]) {
+                if ((layout.manufacturerId < 0 || layout.manufacturerId == company) && layout.matches(bytes, start, length)) {
+                    out.layout = layout;
+                    out.start = start;
+                    return true;
+                }
+            }
+        }
+
+        if (!snapshot.hasService) {
+            return false;
+        }
+        for (int i = 0; i < record.getServiceDataCount(); i++) {
+            if (record.getServiceDataLength(i) == 0) continue;
+
+            int uuid = shortUuid(record.getServiceDataUuidMsb(i), record.getServiceDataUuidLsb(i));
+            if (uuid < 0) continue;
+
+            int start = record.getServiceDataOffset(i) - 2;
+            int length = record.getServiceDataLength(i) + 2;
+            for (BeaconLayout layout : snapshot.service[bytes[start + 2] & 0xFF]) {
+                if (layout.serviceUuid == uuid && layout.matches(bytes, start, length)) {
+                    out.layout = layout;
+                    out.start = start;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The 16-bit UUID of a base UUID, or -1 for any other UUID.
+     */
+    private static int shortUuid(long msb, long lsb) {
+        if (lsb != AdvertisementRecord.BASE_UUID_LSB || (msb & 0xFFFFFFFFL) != AdvertisementRecord.BASE_UUID_MSB || (msb >>> 48) != 0) {
+            return -1;
+        }
+        return (int) (msb >>> 32);
+    }
+}
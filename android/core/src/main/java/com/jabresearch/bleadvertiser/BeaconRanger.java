@@ -0,0 +1,165 @@
+package com.jabresearch.bleadvertiser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the beacons seen in each ranged region during a ranging cycle
+ * and hands them out once per cycle, de-duplicated by uuid/major/minor
+ * and sorted nearest first, the way iOS reports didRangeBeacons.
+ */
+class BeaconRanger<T> {
+
+    public static final long DEFAULT_RANGING_INTERVAL = 1000;
+
+    static final class RangedBeacon {
+        long uuidMsb;
+        long uuidLsb;
+        int major;
+        int minor;
+        String uuid;
+        int rssi;
+        double filteredRssi;
+        int measuredPower;
+        double accuracy;
+        int packets;
+
+        RangedBeacon set(long uuidMsb, long uuidLsb, int major, int minor) {
+            this.uuidMsb = uuidMsb;
+            this.uuidLsb = uuidLsb;
+            this.major = major;
+            this.minor = minor;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RangedBeacon)) return false;
+            RangedBeacon other = (RangedBeacon) o;
+            return uuidMsb == other.uuidMsb && uuidLsb == other.uuidLsb
+                    && major == other.major && minor == other.minor;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = uuidMsb * 31 + uuidLsb;
+            h = h * 31 + major;
+            h = h * 31 + minor;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    interface Listener<T> {
+        void onRangingCycle(T region, List<RangedBeacon> beacons);
+    }
+
+    private static final Comparator<RangedBeacon> NEAREST_FIRST = new Comparator<RangedBeacon>() {
+        @Override
+        public int compare(RangedBeacon a, RangedBeacon b) {
+            // Unknown (negative) accuracy sorts last
+            boolean aUnknown = a.accuracy < 0;
+            boolean bUnknown = b.accuracy < 0;
+            if (aUnknown != bUnknown) return aUnknown ? 1 : -1;
+            return Double.compare(a.accuracy, b.accuracy);
+        }
+    };
+
+    private static final class Cycle {
+        final long intervalMs;
+        long endsAt;
+        final Map<RangedBeacon, RangedBeacon> beacons = new HashMap<>();
+        final List<RangedBeacon> ordered = new ArrayList<>();
+
+        Cycle(long intervalMs, long nowMs) {
+            this.intervalMs = intervalMs;
+            this.endsAt = nowMs + intervalMs;
+        }
+    }
+
+    private final Map<T, Cycle> mCycles = new HashMap<>();
+
+    // Beacon objects are recycled between cycles
+    private final List<RangedBeacon> mPool = new ArrayList<>();
+    private final RangedBeacon mProbe = new RangedBeacon();
+
+    synchronized void add(T region, long intervalMs, long nowMs) {
+        remove(region);
+        mCycles.put(region, new Cycle(intervalMs > 0 ? intervalMs : DEFAULT_RANGING_INTERVAL, nowMs));
+    }
+
+    synchronized void remove(T region) {
+        Cycle cycle = mCycles.remove(region);
+        if (cycle != null) {
+            recycle(cycle);
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return mCycles.isEmpty();
+    }
+
+    /**
+     * Adds a packet to the region's current cycle, keeping the latest
+     * reading for each beacon.
+     */
+    synchronized void onBeaconSeen(T region, long uuidMsb, long uuidLsb, String uuid, int major, int minor,
+                                   int rssi, double filteredRssi, int measuredPower, double accuracy) {
+        Cycle cycle = mCycles.get(region);
+        if (cycle == null) return;
+
+        RangedBeacon beacon = cycle.beacons.get(mProbe.set(uuidMsb, uuidLsb, major, minor));
+        if (beacon == null) {
+            beacon = mPool.isEmpty() ? new RangedBeacon() : mPool.remove(mPool.size() - 1);
+            beacon.set(uuidMsb, uuidLsb, major, minor);
+            beacon.uuid = uuid;
+            beacon.packets = 0;
+            cycle.beacons.put(beacon, beacon);
+            cycle.ordered.add(beacon);
+        }
+
+        beacon.rssi = rssi;
+        beacon.filteredRssi = filteredRssi;
+        beacon.measuredPower = measuredPower;
+        beacon.accuracy = accuracy;
+        beacon.packets++;
+    }
+
+    /**
+     * Ends every cycle that is due and starts the next one. Returns the
+     * time the next cycle ends, or -1 when no region is being ranged.
+     */
+    synchronized long flushDue(long nowMs, Listener<T> listener) {
+        long next = -1;
+
+        for (Map.Entry<T, Cycle> entry : mCycles.entrySet()) {
+            Cycle cycle = entry.getValue();
+
+            if (cycle.endsAt <= nowMs) {
+                Collections.sort(cycle.ordered, NEAREST_FIRST);
+                listener.onRangingCycle(entry.getKey(), cycle.ordered);
+                recycle(cycle);
+
+                // Stay on the cycle grid even if the tick ran late
+                long missed = (nowMs - cycle.endsAt) / cycle.intervalMs;
+                cycle.endsAt += (missed + 1) * cycle.intervalMs;
+            }
+
+            if (next < 0 || cycle.endsAt < next) {
+                next = cycle.endsAt;
+            }
+        }
+
+        return next;
+    }
+
+    private void recycle(Cycle cycle) {
+        mPool.addAll(cycle.ordered);
+        cycle.ordered.clear();
+        cycle.beacons.clear();
+    }
+}
@@ -0,0 +1,55 @@
+package com.jabresearch.bleadvertiser;
+
+import java.util.UUID;
+
+/**
+ * An iBeacon region: a proximity UUID, optionally narrowed to a major and
+ * a minor. Regions are compared by identity, so replacing a region under
+ * the same identifier never confuses the old one with the new one.
+ */
+class BeaconRegion {
+
+    static final RegionRegistry.Geometry<BeaconRegion> GEOMETRY = new RegionRegistry.Geometry<BeaconRegion>() {
+        @Override
+        public long uuidMsb(BeaconRegion region) {
+            return region.uuid.getMostSignificantBits();
+        }
+
+        @Override
+        public long uuidLsb(BeaconRegion region) {
+            return region.uuid.getLeastSignificantBits();
+        }
+
+        @Override
+        public Integer major(BeaconRegion region) {
+            return region.major;
+        }
+
+        @Override
+        public Integer minor(BeaconRegion region) {
+            return region.minor;
+        }
+    };
+
+    final String identifier;
+    final UUID uuid;
+    final Integer major;
+    final Integer minor;
+
+    BeaconRegion(String identifier, UUID uuid, Integer major, Integer minor) {
+        this.identifier = identifier;
+        this.uuid = uuid;
+        this.major = major;
+        this.minor = minor;
+    }
+
+    @Override
+    public String toString() {
+        return "BeaconRegion{" +
+               "identifier='" + identifier + '\'' +
+               ", uuid=" + uuid +
+               ", major=" + major +
+               ", minor=" + minor +
+               '}';
+    }
+}
@@ -0,0 +1,131 @@
+package com.jabresearch.bleadvertiser;
+
+/**
+ * Hex and base64 forms of byte payloads. One string crosses the bridge
+ * far more cheaply than an array holding one boxed number per byte.
+ */
+class DataEncoding {
+
+    public static final int ARRAY = 0;
+    public static final int HEX = 1;
+    public static final int BASE64 = 2;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final char[] BASE64_DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    // Character to value, -1 for anything that is not a digit
+    private static final byte[] HEX_VALUES = new byte[128];
+    private static final byte[] BASE64_VALUES = new byte[128];
+
+    static {
+        for (int i = 0; i < 128; i++) {
+            HEX_VALUES[i] = -1;
+            BASE64_VALUES[i] = -1;
+        }
+        for (int i = 0; i < 16; i++) {
+            HEX_VALUES[HEX_DIGITS[i]] = (byte) i;
+            HEX_VALUES[Character.toUpperCase(HEX_DIGITS[i])] = (byte) i;
+        }
+        for (int i = 0; i < 64; i++) {
+            BASE64_VALUES[BASE64_DIGITS[i]] = (byte) i;
+        }
+        // URL-safe alphabet decodes too
+        BASE64_VALUES['-'] = 62;
+        BASE64_VALUES['_'] = 63;
+    }
+
+    static int fromString(String encoding) {
+        if ("hex".equals(encoding)) return HEX;
+        if ("base64".equals(encoding)) return BASE64;
+        return ARRAY;
+    }
+
+    static String encode(int encoding, byte[] bytes, int offset, int length) {
+        return encoding == BASE64 ? encodeBase64(bytes, offset, length) : encodeHex(bytes, offset, length);
+    }
+
+    static byte[] decode(int encoding, String text) {
+        return encoding == BASE64 ? decodeBase64(text) : decodeHex(text);
+    }
+
+    static String encodeHex(byte[] bytes, int offset, int length) {
+        char[] out = new char[length * 2];
+        for (int i = 0; i < length; i++) {
+            int b = bytes[offset + i] & 0xFF;
+            out[i * 2] = HEX_DIGITS[b >>> 4];
+            out[i * 2 + 1] = HEX_DIGITS[b & 0x0F];
+        }
+        return new String(out);
+    }
+
+    static byte[] decodeHex(String text) {
+        if ((text.length() & 1) != 0) {
+            throw new IllegalArgumentException("Hex data needs an even number of digits");
+        }
+
+        byte[] out = new byte[text.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            int high = digit(HEX_VALUES, text.charAt(i * 2));
+            int low = digit(HEX_VALUES, text.charAt(i * 2 + 1));
+            out[i] = (byte) ((high << 4) | low);
+        }
+        return out;
+    }
+
+    static String encodeBase64(byte[] bytes, int offset, int length) {
+        char[] out = new char[(length + 2) / 3 * 4];
+        int o = 0;
+        int end = offset + length;
+        int i = offset;
+
+        for (; i + 2 < end; i += 3) {
+            int n = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+            out[o++] = BASE64_DIGITS[n >>> 18];
+            out[o++] = BASE64_DIGITS[(n >>> 12) & 0x3F];
+            out[o++] = BASE64_DIGITS[(n >>> 6) & 0x3F];
+            out[o++] = BASE64_DIGITS[n & 0x3F];
+        }
+
+        int remaining = end - i;
+        if (remaining > 0) {
+            int n = (bytes[i] & 0xFF) << 16 | (remaining > 1 ? (bytes[i + 1] & 0xFF) << 8 : 0);
+            out[o++] = BASE64_DIGITS[n >>> 18];
+            out[o++] = BASE64_DIGITS[(n >>> 12) & 0x3F];
+            out[o++] = remaining > 1 ? BASE64_DIGITS[(n >>> 6) & 0x3F] : '=';
+            out[o] = '=';
+        }
+        return new String(out);
+    }
+
+    static byte[] decodeBase64(String text) {
+        int length = text.length();
+        while (length > 0 && text.charAt(length - 1) == '=') {
+            length--;
+        }
+        if (length % 4 == 1) {
+            throw new IllegalArgumentException("Base64 data is truncated");
+        }
+
+        byte[] out = new byte[length * 3 / 4];
+        int o = 0;
+        int bits = 0;
+        int buffer = 0;
+        for (int i = 0; i < length; i++) {
+            buffer = (buffer << 6) | digit(BASE64_VALUES, text.charAt(i));
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                out[o++] = (byte) (buffer >>> bits);
+            }
+        }
+        return out;
+    }
+
+    private static int digit(byte[] values, char c) {
+        int value = c < 128 ? values[c] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("Unexpected character '" + c + "'");
+        }
+        return value;
+    }
+}
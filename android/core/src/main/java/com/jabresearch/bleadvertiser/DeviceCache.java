@@ -0,0 +1,119 @@
+package com.jabresearch.bleadvertiser;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Last reported state of each device, keyed on address.
+ *
+ * Bounded by maxSize with least-recently-seen eviction, and devices not
+ * seen for ttl are dropped. shouldReport() decides whether a packet is
+ * worth an event: a new device, a changed payload, an RSSI move of at
+ * least rssiDelta, or minReportInterval elapsed since the last report.
+ */
+class DeviceCache {
+
+    public static final int DEFAULT_MAX_SIZE = 1024;
+    public static final long DEFAULT_TTL = 30000;
+    public static final int DEFAULT_RSSI_DELTA = 5;
+    public static final long DEFAULT_MIN_REPORT_INTERVAL = 10000;
+
+    private static final class Device {
+        byte[] payload;
+        int payloadLength;
+        int reportedRssi;
+        long reportedAt;
+        long seenAt;
+    }
+
+    private final LinkedHashMap<String, Device> mEntries;
+
+    private int mMaxSize = DEFAULT_MAX_SIZE;
+    private long mTtl = DEFAULT_TTL;
+    private int mRssiDelta = DEFAULT_RSSI_DELTA;
+    private long mMinReportInterval = DEFAULT_MIN_REPORT_INTERVAL;
+    private long mLastSweep;
+
+    DeviceCache() {
+        // Access order keeps the least recently seen device at the head
+        mEntries = new LinkedHashMap<String, Device>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Device> eldest) {
+                return size() > mMaxSize;
+            }
+        };
+    }
+
+    synchronized void configure(int maxSize, long ttl, int rssiDelta, long minReportInterval) {
+        mMaxSize = Math.max(1, maxSize);
+        mTtl = ttl > 0 ? ttl : DEFAULT_TTL;
+        mRssiDelta = rssiDelta;
+        mMinReportInterval = minReportInterval;
+        mEntries.clear();
+    }
+
+    synchronized void clear() {
+        mEntries.clear();
+    }
+
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Records the packet and returns true when it should be reported.
+     */
+    synchronized boolean shouldReport(String address, byte[] payload, int rssi, long nowMs) {
+        if (nowMs - mLastSweep > mTtl / 2) {
+            evictExpired(nowMs);
+        }
+
+        int payloadLength = payload != null ? payload.length : 0;
+        Device entry = mEntries.get(address);
+
+        boolean report;
+        if (entry == null || nowMs - entry.seenAt > mTtl) {
+            if (entry == null) {
+                entry = new Device();
+                mEntries.put(address, entry);
+            }
+            report = true;
+        } else {
+            report = !samePayload(entry, payload, payloadLength)
+                    || Math.abs(rssi - entry.reportedRssi) >= mRssiDelta
+                    || (mMinReportInterval > 0 && nowMs - entry.reportedAt >= mMinReportInterval);
+        }
+
+        entry.seenAt = nowMs;
+        if (report) {
+            if (entry.payload == null || entry.payload.length < payloadLength) {
+                entry.payload = new byte[payloadLength];
+            }
+            if (payloadLength > 0) {
+                System.arraycopy(payload, 0, entry.payload, 0, payloadLength);
+            }
+            entry.payloadLength = payloadLength;
+            entry.reportedRssi = rssi;
+            entry.reportedAt = nowMs;
+        }
+        return report;
+    }
+
+    private static boolean samePayload(Device entry, byte[] payload, int payloadLength) {
+        if (entry.payloadLength != payloadLength) return false;
+        for (int i = 0; i < payloadLength; i++) {
+            if (entry.payload[i] != payload[i]) return false;
+        }
+        return true;
+    }
+
+    private void evictExpired(long nowMs) {
+        mLastSweep = nowMs;
+        Iterator<Device> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            if (nowMs - iterator.next().seenAt <= mTtl) break;
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.jabresearch.bleadvertiser;
+
+/**
+ * Everything reported about one scanned packet, independent of how the
+ * platform sends it to JS. Fields that the packet did not carry keep
+ * their defaults: null, TX_POWER_NOT_PRESENT, -1 or hasBeacon false.
+ */
+class DeviceEvent {
+
+    String deviceAddress;
+    int rssi;
+    long timestampNanos;
+
+    // False when the packet came without a scan record; the fields below
+    // down to serviceUuids are only meaningful when it is true
+    boolean hasRecord;
+    String deviceName = "";
+    int txPower = AdvertisementRecord.TX_POWER_NOT_PRESENT;
+    int advFlags = -1;
+    String[] serviceUuids = new String[0];
+
+    // Manufacturer data of the configured company id, without the id itself
+    int companyId = -1;
+    byte[] manufacturerData;
+
+    // Decoded Eddystone frame, or null
+    EddystoneFrame eddystone;
+
+    // Registered beacon layout the packet matched, or null. Identifiers
+    // stay null for iBeacon-shaped layouts, which fill the fields below
+    BeaconLayout beaconLayout;
+    String[] beaconIdentifiers;
+    long[] beaconData;
+    int beaconPower = BeaconLayout.NO_POWER;
+
+    boolean hasBeacon;
+    String beaconUuid;
+    int major;
+    int minor;
+    int measuredPower;
+    double filteredRssi;
+    double distance;
+
+    /**
+     * Identifiers of the matched layout as text, in layout order.
+     */
+    String[] beaconIdentifiers() {
+        if (beaconIdentifiers == null && hasBeacon) {
+            return new String[] { beaconUuid, Integer.toString(major), Integer.toString(minor) };
+        }
+        return beaconIdentifiers;
+    }
+}
@@ -0,0 +1,146 @@
+package com.jabresearch.bleadvertiser;
+
+/**
+ * Converts RSSI and the beacon's measured power into an estimated
+ * distance in metres, plus the immediate/near/far classification.
+ *
+ * Each model is evaluated once for every (RSSI, measured power) pair in
+ * [-127, 0] when it is built, so the per-packet cost is a table read and
+ * a linear interpolation for fractional (smoothed) RSSI values. Models
+ * are immutable; reconfiguring builds a new one.
+ */
+class DistanceModel {
+
+    public static final int TYPE_CURVE = 0;
+    public static final int TYPE_LOG_DISTANCE = 1;
+    public static final int TYPE_CALIBRATED = 2;
+
+    // Coefficients of the default RSSI ratio curve
+    public static final double DEFAULT_COEFFICIENT_1 = 0.89976;
+    public static final double DEFAULT_COEFFICIENT_2 = 7.7095;
+    public static final double DEFAULT_COEFFICIENT_3 = 0.111;
+
+    public static final double DEFAULT_PATH_LOSS_EXPONENT = 2.0;
+    public static final double DEFAULT_IMMEDIATE_DISTANCE = 0.5;
+    public static final double DEFAULT_NEAR_DISTANCE = 3.0;
+
+    private static final int TABLE_SIZE = 128;
+
+    private final int mType;
+    private final double mCoefficient1;
+    private final double mCoefficient2;
+    private final double mCoefficient3;
+    private final double mExponent;
+    private final double mRssiOffset;
+    private final double mImmediateDistance;
+    private final double mNearDistance;
+
+    // Row per -measuredPower, column per -rssi
+    private final float[] mTable;
+
+    private DistanceModel(int type, double coefficient1, double coefficient2, double coefficient3,
+                          double exponent, double rssiOffset, double immediateDistance, double nearDistance) {
+        mType = type;
+        mCoefficient1 = coefficient1;
+        mCoefficient2 = coefficient2;
+        mCoefficient3 = coefficient3;
+        mExponent = exponent;
+        mRssiOffset = rssiOffset;
+        mImmediateDistance = immediateDistance;
+        mNearDistance = nearDistance;
+
+        mTable = new float[TABLE_SIZE * TABLE_SIZE];
+        for (int power = 0; power < TABLE_SIZE; power++) {
+            for (int rssi = 0; rssi < TABLE_SIZE; rssi++) {
+                mTable[power * TABLE_SIZE + rssi] = (float) evaluate(-rssi, -power);
+            }
+        }
+    }
+
+    static DistanceModel defaultModel() {
+        return curve(DEFAULT_COEFFICIENT_1, DEFAULT_COEFFICIENT_2, DEFAULT_COEFFICIENT_3,
+                DEFAULT_IMMEDIATE_DISTANCE, DEFAULT_NEAR_DISTANCE);
+    }
+
+    /**
+     * The A * (rssi / measuredPower) ^ B + C curve.
+     */
+    static DistanceModel curve(double coefficient1, double coefficient2, double coefficient3,
+                               double immediateDistance, double nearDistance) {
+        return new DistanceModel(TYPE_CURVE, coefficient1, coefficient2, coefficient3,
+                DEFAULT_PATH_LOSS_EXPONENT, 0, immediateDistance, nearDistance);
+    }
+
+    /**
+     * Log-distance path loss: measuredPower - rssi = 10 * n * log10(d).
+     */
+    static DistanceModel logDistance(double exponent, double immediateDistance, double nearDistance) {
+        return new DistanceModel(TYPE_LOG_DISTANCE, DEFAULT_COEFFICIENT_1, DEFAULT_COEFFICIENT_2, DEFAULT_COEFFICIENT_3,
+                exponent > 0 ? exponent : DEFAULT_PATH_LOSS_EXPONENT, 0, immediateDistance, nearDistance);
+    }
+
+    /**
+     * The curve model with coefficients fitted for a specific handset and
+     * an offset correcting that handset's receiver gain.
+     */
+    static DistanceModel calibrated(double coefficient1, double coefficient2, double coefficient3, double rssiOffset,
+                                    double immediateDistance, double nearDistance) {
+        return new DistanceModel(TYPE_CALIBRATED, coefficient1, coefficient2, coefficient3,
+                DEFAULT_PATH_LOSS_EXPONENT, rssiOffset, immediateDistance, nearDistance);
+    }
+
+    int getType() {
+        return mType;
+    }
+
+    /**
+     * Estimated distance in metres, or -1 when it cannot be estimated.
+     */
+    double distance(double rssi, int measuredPower) {
+        double column = -rssi;
+        int row = -measuredPower;
+        int index = (int) column;
+
+        if (row <= 0 || row >= TABLE_SIZE || column < 0 || index >= TABLE_SIZE - 1) {
+            return evaluate(rssi, measuredPower);
+        }
+
+        int base = row * TABLE_SIZE + index;
+        double low = mTable[base];
+        return low + (mTable[base + 1] - low) * (column - index);
+    }
+
+    String proximity(double distance) {
+        if (distance < 0) {
+            return "unknown";
+        } else if (distance < mImmediateDistance) {
+            return "immediate";
+        } else if (distance < mNearDistance) {
+            return "near";
+        } else {
+            return "far";
+        }
+    }
+
+    private double evaluate(double rssi, double measuredPower) {
+        if (measuredPower == 0) return -1;
+
+        rssi += mRssiOffset;
+
+        if (mType == TYPE_LOG_DISTANCE) {
+            return Math.pow(10, (measuredPower - rssi) / (10 * mExponent));
+        }
+
+        double ratio = rssi / measuredPower;
+        if (ratio < 1.0) {
+            return Math.pow(ratio, 10);
+        }
+        return mCoefficient1 * Math.pow(ratio, mCoefficient2) + mCoefficient3;
+    }
+
+    static int typeFromString(String type) {
+        if ("logDistance".equals(type)) return TYPE_LOG_DISTANCE;
+        if ("calibrated".equals(type)) return TYPE_CALIBRATED;
+        return TYPE_CURVE;
+    }
+}
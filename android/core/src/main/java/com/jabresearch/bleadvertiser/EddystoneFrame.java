@@ -0,0 +1,194 @@
+package com.jabresearch.bleadvertiser;
+
+import java.nio.charset.Charset;
+
+/**
+ * One Eddystone frame, decoded from the service data of the 0xFEAA
+ * service. Only the fields of the frame's type are set: namespace and
+ * instance for UID, url for URL, the telemetry fields for TLM and
+ * ephemeralId for EID.
+ */
+class EddystoneFrame {
+
+    // 0000feaa-0000-1000-8000-00805f9b34fb
+    static final long SERVICE_UUID_MSB = AdvertisementRecord.BASE_UUID_MSB | 0xFEAAL << 32;
+    static final long SERVICE_UUID_LSB = AdvertisementRecord.BASE_UUID_LSB;
+
+    static final int TYPE_UID = 0x00;
+    static final int TYPE_URL = 0x10;
+    static final int TYPE_TLM = 0x20;
+    static final int TYPE_EID = 0x30;
+
+    static final int NAMESPACE_LENGTH = 10;
+    static final int INSTANCE_LENGTH = 6;
+    static final int EPHEMERAL_ID_LENGTH = 8;
+
+    // Frame lengths, from the frame type byte on. UID frames may omit their two reserved bytes
+    private static final int UID_LENGTH = 2 + NAMESPACE_LENGTH + INSTANCE_LENGTH;
+    private static final int URL_MIN_LENGTH = 3;
+    private static final int TLM_LENGTH = 14;
+    private static final int EID_LENGTH = 2 + EPHEMERAL_ID_LENGTH;
+
+    static final int TLM_UNENCRYPTED = 0x00;
+
+    // Temperature value meaning the beacon has no sensor
+    private static final int TEMPERATURE_NOT_SUPPORTED = 0x8000;
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final String[] URL_SCHEMES = {"http://www.", "https://www.", "http://", "https://"};
+    private static final String[] URL_EXPANSIONS = {
+            ".com/", ".org/", ".edu/", ".net/", ".info/", ".biz/", ".gov/",
+            ".com", ".org", ".edu", ".net", ".info", ".biz", ".gov"
+    };
+
+    int type;
+
+    // Calibrated TX power at 0 m, for UID, URL and EID frames
+    int txPower;
+
+    // UID, as lowercase hex
+    String namespace;
+    String instance;
+
+    // URL
+    String url;
+
+    // TLM: battery in mV, temperature in degrees C (NaN without a sensor),
+    // PDUs sent and uptime in ms since power-up. With an encrypted TLM
+    // (version 1) only tlmVersion is set
+    int tlmVersion;
+    int batteryVoltage;
+    double temperature = Double.NaN;
+    long advertisingCount;
+    long uptime;
+
+    // EID, as lowercase hex
+    String ephemeralId;
+
+    static String typeToString(int type) {
+        switch (type) {
+            case TYPE_UID: return "uid";
+            case TYPE_URL: return "url";
+            case TYPE_TLM: return "tlm";
+            case TYPE_EID: return "eid";
+            default: return null;
+        }
+    }
+
+    /**
+     * Frame type for "uid", "url", "tlm" or "eid", or -1.
+     */
+    static int typeFromString(String type) {
+        if ("uid".equals(type)) return TYPE_UID;
+        if ("url".equals(type)) return TYPE_URL;
+        if ("tlm".equals(type)) return TYPE_TLM;
+        if ("eid".equals(type)) return TYPE_EID;
+        return -1;
+    }
+
+    /**
+     * Index of the record's Eddystone service data section, or -1.
+     */
+    static int find(AdvertisementRecord record) {
+        for (int i = 0; i < record.getServiceDataCount(); i++) {
+            if (record.getServiceDataUuidMsb(i) == SERVICE_UUID_MSB
+                    && record.getServiceDataUuidLsb(i) == SERVICE_UUID_LSB) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Decodes the frame in bytes[offset, offset + length), the service
+     * data after the UUID. Returns null for unknown or truncated frames.
+     */
+    static EddystoneFrame decode(byte[] bytes, int offset, int length) {
+        if (length < 1) {
+            return null;
+        }
+
+        EddystoneFrame frame = new EddystoneFrame();
+        frame.type = bytes[offset] & 0xFF;
+
+        switch (frame.type) {
+            case TYPE_UID:
+                if (length < UID_LENGTH) return null;
+                frame.txPower = bytes[offset + 1];
+                frame.namespace = DataEncoding.encodeHex(bytes, offset + 2, NAMESPACE_LENGTH);
+                frame.instance = DataEncoding.encodeHex(bytes, offset + 2 + NAMESPACE_LENGTH, INSTANCE_LENGTH);
+                return frame;
+
+            case TYPE_URL:
+                if (length < URL_MIN_LENGTH) return null;
+                frame.txPower = bytes[offset + 1];
+                frame.url = decodeUrl(bytes, offset + 2, length - 2);
+                return frame.url != null ? frame : null;
+
+            case TYPE_TLM:
+                if (length < 2) return null;
+                frame.tlmVersion = bytes[offset + 1] & 0xFF;
+                if (frame.tlmVersion != TLM_UNENCRYPTED) {
+                    return frame;
+                }
+                if (length < TLM_LENGTH) return null;
+                frame.batteryVoltage = readUnsigned(bytes, offset + 2, 2);
+                int temperature = readUnsigned(bytes, offset + 4, 2);
+                if (temperature != TEMPERATURE_NOT_SUPPORTED) {
+                    // Signed 8.8 fixed point
+                    frame.temperature = (short) temperature / 256.0;
+                }
+                frame.advertisingCount = readUnsignedLong(bytes, offset + 6);
+                frame.uptime = readUnsignedLong(bytes, offset + 10) * 100;
+                return frame;
+
+            case TYPE_EID:
+                if (length < EID_LENGTH) return null;
+                frame.txPower = bytes[offset + 1];
+                frame.ephemeralId = DataEncoding.encodeHex(bytes, offset + 2, EPHEMERAL_ID_LENGTH);
+                return frame;
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * The URL scheme prefix byte followed by text where bytes 0x00-0x0D
+     * stand for common domain endings.
+     */
+    private static String decodeUrl(byte[] bytes, int offset, int length) {
+        int scheme = bytes[offset] & 0xFF;
+        if (scheme >= URL_SCHEMES.length) {
+            return null;
+        }
+
+        StringBuilder url = new StringBuilder(URL_SCHEMES[scheme]);
+        int start = offset + 1;
+        int end = offset + length;
+        for (int i = start; i < end; i++) {
+            int b = bytes[i] & 0xFF;
+            if (b < URL_EXPANSIONS.length) {
+                url.append(new String(bytes, start, i - start, US_ASCII)).append(URL_EXPANSIONS[b]);
+                start = i + 1;
+            } else if (b <= 0x20 || b >= 0x7F) {
+                return null;
+            }
+        }
+        url.append(new String(bytes, start, end - start, US_ASCII));
+        return url.toString();
+    }
+
+    private static int readUnsigned(byte[] bytes, int offset, int length) {
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            value = value << 8 | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static long readUnsignedLong(byte[] bytes, int offset) {
+        return readUnsigned(bytes, offset, 4) & 0xFFFFFFFFL;
+    }
+}
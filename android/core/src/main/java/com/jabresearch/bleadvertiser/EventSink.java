@@ -0,0 +1,24 @@
+package com.jabresearch.bleadvertiser;
+
+/**
+ * Where ScanPipeline delivers what it found. The React Native module
+ * turns these into bridge events; a test can simply collect them.
+ * Calls come from the thread running the pipeline.
+ */
+interface EventSink {
+
+    /**
+     * A packet reported to the built-in scans, sent as onDeviceFound.
+     */
+    void onDeviceFound(DeviceEvent event);
+
+    /**
+     * A packet matching the named scan session.
+     */
+    void onSessionResult(String sessionId, DeviceEvent event);
+
+    /**
+     * A packet moved a monitored region from outside to inside.
+     */
+    void onRegionEnter(BeaconRegion region, String uuid, int major, int minor);
+}
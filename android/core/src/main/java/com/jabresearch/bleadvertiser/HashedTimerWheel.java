@@ -0,0 +1,126 @@
+package com.jabresearch.bleadvertiser;
+
+import java.util.List;
+
+/**
+ * Hashed timer wheel with O(1) schedule and cancel.
+ *
+ * Deadlines are rounded up to the tick, so a timeout fires at most one
+ * tick late. The wheel does not own a thread: whoever drives it calls
+ * expire() with the current time, typically once per tick.
+ */
+class HashedTimerWheel<T> {
+
+    static final class Timeout<T> {
+        final T value;
+        long deadlineTick;
+        int slot = -1;
+        Timeout<T> prev;
+        Timeout<T> next;
+
+        Timeout(T value) {
+            this.value = value;
+        }
+
+        boolean isScheduled() {
+            return slot >= 0;
+        }
+    }
+
+    private final long mTickMs;
+    private final long mStartMs;
+    private final Timeout<T>[] mSlots;
+    private final int mMask;
+
+    private long mCurrentTick;
+    private int mSize;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    HashedTimerWheel(long tickMs, int wheelSize, long nowMs) {
+        int size = Integer.highestOneBit(Math.max(wheelSize - 1, 1)) << 1;
+        mTickMs = tickMs;
+        mStartMs = nowMs;
+        mSlots = (Timeout<T>[]) new Timeout[size];
+        mMask = size - 1;
+    }
+
+    long getTickMs() {
+        return mTickMs;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Schedules the timeout to expire at deadlineMs, moving it if it was
+     * already scheduled.
+     */
+    void schedule(Timeout<T> timeout, long deadlineMs) {
+        if (timeout.isScheduled()) {
+            cancel(timeout);
+        }
+
+        long deadlineTick = (deadlineMs - mStartMs + mTickMs - 1) / mTickMs;
+        timeout.deadlineTick = Math.max(deadlineTick, mCurrentTick);
+        timeout.slot = (int) (timeout.deadlineTick & mMask);
+
+        Timeout<T> head = mSlots[timeout.slot];
+        timeout.prev = null;
+        timeout.next = head;
+        if (head != null) head.prev = timeout;
+        mSlots[timeout.slot] = timeout;
+        mSize++;
+    }
+
+    void cancel(Timeout<T> timeout) {
+        if (!timeout.isScheduled()) return;
+
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            mSlots[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.slot = -1;
+        mSize--;
+    }
+
+    /**
+     * Removes every timeout due at or before nowMs and adds its value to
+     * expired. Returns how many expired.
+     */
+    int expire(long nowMs, List<T> expired) {
+        long nowTick = (nowMs - mStartMs) / mTickMs;
+        if (nowTick < mCurrentTick) return 0;
+
+        // After a full turn every slot has been visited, so stop there
+        long lastTick = Math.min(nowTick, mCurrentTick + mSlots.length - 1);
+
+        int count = 0;
+        for (long tick = mCurrentTick; tick <= lastTick; tick++) {
+            Timeout<T> timeout = mSlots[(int) (tick & mMask)];
+            while (timeout != null) {
+                Timeout<T> next = timeout.next;
+                if (timeout.deadlineTick <= nowTick) {
+                    cancel(timeout);
+                    expired.add(timeout.value);
+                    count++;
+                }
+                timeout = next;
+            }
+        }
+
+        mCurrentTick = nowTick + 1;
+        return count;
+    }
+}
@@ -0,0 +1,146 @@
+package com.jabresearch.bleadvertiser;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and histograms for the scan and advertise paths.
+ *
+ * Everything is a plain atomic, so recording from the scan callback and
+ * processing threads never takes a lock. A reader sees each value
+ * individually up to date, not one consistent snapshot across values;
+ * that is plenty for statistics.
+ */
+class PipelineMetrics {
+
+    // Advertise error codes above this share the last slot
+    public static final int MAX_ERROR_CODE = 31;
+
+    /**
+     * Power-of-two histogram: bucket b counts values in [2^(b-1), 2^b),
+     * bucket 0 counts zeros. Percentiles are the upper bound of the bucket
+     * they fall in, so they are exact to within a factor of two.
+     */
+    static final class Histogram {
+        static final int BUCKETS = 48;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        void record(long value) {
+            if (value < 0) value = 0;
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+            mBuckets.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+
+            long max = mMax.get();
+            while (value > max && !mMax.compareAndSet(max, value)) {
+                max = mMax.get();
+            }
+        }
+
+        long count() {
+            return mCount.get();
+        }
+
+        double mean() {
+            long count = mCount.get();
+            return count > 0 ? (double) mSum.get() / count : 0;
+        }
+
+        long max() {
+            return mMax.get();
+        }
+
+        long percentile(double fraction) {
+            long total = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = mBuckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) return 0;
+
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    long upper = i == 0 ? 0 : (1L << i) - 1;
+                    return Math.min(upper, max());
+                }
+            }
+            return max();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mSum.set(0);
+            mMax.set(0);
+        }
+    }
+
+    // Scan path
+    final AtomicLong packetsReceived = new AtomicLong();
+    final AtomicLong packetsFiltered = new AtomicLong();
+    final AtomicLong packetsSuppressed = new AtomicLong();
+    final AtomicLong eventsEmitted = new AtomicLong();
+
+    final Histogram batchSize = new Histogram();
+
+    // Microseconds spent waiting in the queue, parsing and filtering,
+    // on iBeacon distance and region work, and building and sending events
+    final Histogram queueWait = new Histogram();
+    final Histogram parseTime = new Histogram();
+    final Histogram beaconTime = new Histogram();
+    final Histogram reportTime = new Histogram();
+
+    // Microseconds from the radio receiving a packet to its event being sent
+    final Histogram latency = new Histogram();
+
+    // Advertise path
+    final AtomicLong advertiseStarted = new AtomicLong();
+    private final AtomicLongArray mAdvertiseFailed = new AtomicLongArray(MAX_ERROR_CODE + 1);
+
+    private final AtomicLong mResetAt = new AtomicLong();
+
+    PipelineMetrics(long nowMs) {
+        mResetAt.set(nowMs);
+    }
+
+    void onAdvertiseFailed(int errorCode) {
+        mAdvertiseFailed.incrementAndGet(Math.max(0, Math.min(MAX_ERROR_CODE, errorCode)));
+    }
+
+    long advertiseFailed(int errorCode) {
+        return mAdvertiseFailed.get(errorCode);
+    }
+
+    long getResetAt() {
+        return mResetAt.get();
+    }
+
+    void reset(long nowMs) {
+        packetsReceived.set(0);
+        packetsFiltered.set(0);
+        packetsSuppressed.set(0);
+        eventsEmitted.set(0);
+        batchSize.reset();
+        queueWait.reset();
+        parseTime.reset();
+        beaconTime.reset();
+        reportTime.reset();
+        latency.reset();
+        advertiseStarted.set(0);
+        for (int i = 0; i <= MAX_ERROR_CODE; i++) {
+            mAdvertiseFailed.set(i, 0);
+        }
+        mResetAt.set(nowMs);
+    }
+}
@@ -0,0 +1,151 @@
+package com.jabresearch.bleadvertiser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash index of beacon regions keyed on UUID halves, major and minor.
+ *
+ * A region that leaves major or minor unset is stored under a wildcard
+ * for that level, so resolving the regions of a packet costs at most four
+ * hash lookups regardless of how many regions are registered.
+ *
+ * match() only reads the index and writes the probe key its caller owns,
+ * so an index that is no longer modified can be matched against from
+ * several threads, each with a probe of its own, without allocating.
+ */
+class RegionIndex<T> {
+
+    private static final int WILDCARD = Integer.MIN_VALUE;
+
+    /**
+     * A region key; callers of match() hold one to probe with.
+     */
+    static final class Key {
+        long uuidMsb;
+        long uuidLsb;
+        int major;
+        int minor;
+
+        Key() {
+        }
+
+        Key(long uuidMsb, long uuidLsb, int major, int minor) {
+            set(uuidMsb, uuidLsb, major, minor);
+        }
+
+        Key set(long uuidMsb, long uuidLsb, int major, int minor) {
+            this.uuidMsb = uuidMsb;
+            this.uuidLsb = uuidLsb;
+            this.major = major;
+            this.minor = minor;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return uuidMsb == other.uuidMsb && uuidLsb == other.uuidLsb
+                    && major == other.major && minor == other.minor;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = uuidMsb * 31 + uuidLsb;
+            h = h * 31 + major;
+            h = h * 31 + minor;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    private final Map<Key, List<T>> mEntries = new HashMap<>();
+
+    // Reused by remove(); match() probes with the caller's key
+    private final Key mProbe = new Key();
+
+    // Counts per wildcard level, so empty levels are skipped entirely
+    private int mExactCount;
+    private int mAnyMinorCount;
+    private int mAnyMajorCount;
+    private int mUuidOnlyCount;
+
+    void add(long uuidMsb, long uuidLsb, Integer major, Integer minor, T value) {
+        Key key = new Key(uuidMsb, uuidLsb, level(major), level(minor));
+        List<T> values = mEntries.get(key);
+        if (values == null) {
+            values = new ArrayList<>(1);
+            mEntries.put(key, values);
+        }
+        values.add(value);
+        adjustCount(key, 1);
+    }
+
+    boolean remove(long uuidMsb, long uuidLsb, Integer major, Integer minor, T value) {
+        Key key = mProbe.set(uuidMsb, uuidLsb, level(major), level(minor));
+        List<T> values = mEntries.get(key);
+        if (values == null || !values.remove(value)) return false;
+
+        adjustCount(key, -1);
+        if (values.isEmpty()) {
+            mEntries.remove(key);
+        }
+        return true;
+    }
+
+    void clear() {
+        mEntries.clear();
+        mExactCount = 0;
+        mAnyMinorCount = 0;
+        mAnyMajorCount = 0;
+        mUuidOnlyCount = 0;
+    }
+
+    boolean isEmpty() {
+        return mEntries.isEmpty();
+    }
+
+    /**
+     * Appends every value whose region contains the beacon to out and
+     * returns how many were added. probe is overwritten.
+     */
+    int match(long uuidMsb, long uuidLsb, int major, int minor, Key probe, List<T> out) {
+        if (mEntries.isEmpty()) return 0;
+
+        int found = 0;
+        if (mExactCount > 0) found += collect(probe.set(uuidMsb, uuidLsb, major, minor), out);
+        if (mAnyMinorCount > 0) found += collect(probe.set(uuidMsb, uuidLsb, major, WILDCARD), out);
+        if (mAnyMajorCount > 0) found += collect(probe.set(uuidMsb, uuidLsb, WILDCARD, minor), out);
+        if (mUuidOnlyCount > 0) found += collect(probe.set(uuidMsb, uuidLsb, WILDCARD, WILDCARD), out);
+        return found;
+    }
+
+    private int collect(Key key, List<T> out) {
+        List<T> values = mEntries.get(key);
+        if (values == null) return 0;
+        // addAll would copy the values through toArray()
+        for (int i = 0; i < values.size(); i++) {
+            out.add(values.get(i));
+        }
+        return values.size();
+    }
+
+    private void adjustCount(Key key, int delta) {
+        if (key.major != WILDCARD && key.minor != WILDCARD) {
+            mExactCount += delta;
+        } else if (key.major != WILDCARD) {
+            mAnyMinorCount += delta;
+        } else if (key.minor != WILDCARD) {
+            mAnyMajorCount += delta;
+        } else {
+            mUuidOnlyCount += delta;
+        }
+    }
+
+    private static int level(Integer value) {
+        return value == null ? WILDCARD : value;
+    }
+}
@@ -0,0 +1,102 @@
+package com.jabresearch.bleadvertiser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inside/outside state machine for monitored regions.
+ *
+ * A region enters on the first matching packet and exits once no packet
+ * has matched it for its exit timeout. Packets only refresh a timestamp;
+ * the exit timer is re-armed lazily when it fires, so the per-packet cost
+ * stays one map lookup.
+ */
+class RegionMonitor<T> {
+
+    public static final long DEFAULT_EXIT_TIMEOUT = 10000;
+    public static final long TICK_MS = 250;
+    private static final int WHEEL_SIZE = 64;
+
+    private static final class State<T> {
+        final HashedTimerWheel.Timeout<T> timeout;
+        final long exitTimeoutMs;
+        long lastSeenMs;
+        boolean inside;
+
+        State(T region, long exitTimeoutMs) {
+            this.timeout = new HashedTimerWheel.Timeout<>(region);
+            this.exitTimeoutMs = exitTimeoutMs;
+        }
+    }
+
+    private final Map<T, State<T>> mStates = new HashMap<>();
+    private final HashedTimerWheel<T> mWheel;
+    private final List<T> mDue = new ArrayList<>();
+
+    RegionMonitor(long nowMs) {
+        mWheel = new HashedTimerWheel<>(TICK_MS, WHEEL_SIZE, nowMs);
+    }
+
+    synchronized void add(T region, long exitTimeoutMs) {
+        remove(region);
+        mStates.put(region, new State<>(region, exitTimeoutMs > 0 ? exitTimeoutMs : DEFAULT_EXIT_TIMEOUT));
+    }
+
+    /**
+     * Forgets the region without reporting an exit.
+     */
+    synchronized void remove(T region) {
+        State<T> state = mStates.remove(region);
+        if (state != null) {
+            mWheel.cancel(state.timeout);
+        }
+    }
+
+    synchronized boolean isInside(T region) {
+        State<T> state = mStates.get(region);
+        return state != null && state.inside;
+    }
+
+    /**
+     * Records a matching packet. Returns true when this packet moved the
+     * region from outside to inside.
+     */
+    synchronized boolean onBeaconSeen(T region, long nowMs) {
+        State<T> state = mStates.get(region);
+        if (state == null) return false;
+
+        state.lastSeenMs = nowMs;
+        if (state.inside) return false;
+
+        state.inside = true;
+        mWheel.schedule(state.timeout, nowMs + state.exitTimeoutMs);
+        return true;
+    }
+
+    /**
+     * Advances the timers and adds every region that just went outside to
+     * exited. Returns true while any region is still inside.
+     */
+    synchronized boolean expire(long nowMs, List<T> exited) {
+        mDue.clear();
+        mWheel.expire(nowMs, mDue);
+
+        for (T region : mDue) {
+            State<T> state = mStates.get(region);
+            if (state == null) continue;
+
+            long exitAt = state.lastSeenMs + state.exitTimeoutMs;
+            if (exitAt > nowMs) {
+                // Seen again since the timer was armed
+                mWheel.schedule(state.timeout, exitAt);
+            } else {
+                state.inside = false;
+                exited.add(region);
+            }
+        }
+
+        return !mWheel.isEmpty();
+    }
+}
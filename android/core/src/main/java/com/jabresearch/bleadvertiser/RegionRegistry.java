@@ -0,0 +1,136 @@
+package com.jabresearch.bleadvertiser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Beacon regions by identifier, readable without locking.
+ *
+ * Readers take snapshot(): an immutable view of the regions together with
+ * a RegionIndex over them, published through a volatile reference. Writers
+ * serialize on the registry, copy the current regions, apply their change
+ * and publish a new snapshot. Bulk calls publish once however many regions
+ * they touch, so registering a thousand regions builds one index, not a
+ * thousand.
+ */
+class RegionRegistry<T> {
+
+    interface Geometry<T> {
+        long uuidMsb(T region);
+        long uuidLsb(T region);
+        Integer major(T region);
+        Integer minor(T region);
+    }
+
+    static final class Snapshot<T> {
+        final Map<String, T> regions;
+        final RegionIndex<T> index;
+
+        Snapshot(Map<String, T> regions, RegionIndex<T> index) {
+            this.regions = Collections.unmodifiableMap(regions);
+            this.index = index;
+        }
+
+        boolean isEmpty() {
+            return regions.isEmpty();
+        }
+
+        T get(String identifier) {
+            return regions.get(identifier);
+        }
+
+        Collection<T> values() {
+            return regions.values();
+        }
+
+        int match(long uuidMsb, long uuidLsb, int major, int minor, RegionIndex.Key probe, List<T> out) {
+            return index.match(uuidMsb, uuidLsb, major, minor, probe, out);
+        }
+    }
+
+    private final Geometry<T> mGeometry;
+    private volatile Snapshot<T> mSnapshot;
+
+    RegionRegistry(Geometry<T> geometry) {
+        mGeometry = geometry;
+        mSnapshot = new Snapshot<>(new LinkedHashMap<String, T>(), new RegionIndex<T>());
+    }
+
+    Snapshot<T> snapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Registers the region under identifier and returns the region it
+     * replaced, or null.
+     */
+    synchronized T put(String identifier, T region) {
+        Map<String, T> regions = new LinkedHashMap<>(mSnapshot.regions);
+        T previous = regions.put(identifier, region);
+        publish(regions);
+        return previous;
+    }
+
+    /**
+     * Registers every region and returns the ones replaced.
+     */
+    synchronized List<T> putAll(Map<String, T> added) {
+        Map<String, T> regions = new LinkedHashMap<>(mSnapshot.regions);
+        List<T> replaced = new ArrayList<>();
+        for (Map.Entry<String, T> entry : added.entrySet()) {
+            T previous = regions.put(entry.getKey(), entry.getValue());
+            if (previous != null) {
+                replaced.add(previous);
+            }
+        }
+        publish(regions);
+        return replaced;
+    }
+
+    synchronized T remove(String identifier) {
+        if (!mSnapshot.regions.containsKey(identifier)) return null;
+
+        Map<String, T> regions = new LinkedHashMap<>(mSnapshot.regions);
+        T removed = regions.remove(identifier);
+        publish(regions);
+        return removed;
+    }
+
+    /**
+     * Unregisters every identifier and returns the regions removed.
+     * Unknown identifiers are skipped.
+     */
+    synchronized List<T> removeAll(Collection<String> identifiers) {
+        Map<String, T> regions = new LinkedHashMap<>(mSnapshot.regions);
+        List<T> removed = new ArrayList<>();
+        for (String identifier : identifiers) {
+            T region = regions.remove(identifier);
+            if (region != null) {
+                removed.add(region);
+            }
+        }
+        if (!removed.isEmpty()) {
+            publish(regions);
+        }
+        return removed;
+    }
+
+    synchronized List<T> clear() {
+        List<T> removed = new ArrayList<>(mSnapshot.regions.values());
+        publish(new LinkedHashMap<String, T>());
+        return removed;
+    }
+
+    private void publish(Map<String, T> regions) {
+        RegionIndex<T> index = new RegionIndex<>();
+        for (T region : regions.values()) {
+            index.add(mGeometry.uuidMsb(region), mGeometry.uuidLsb(region),
+                    mGeometry.major(region), mGeometry.minor(region), region);
+        }
+        mSnapshot = new Snapshot<>(regions, index);
+    }
+}
@@ -0,0 +1,284 @@
+package com.jabresearch.bleadvertiser;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-beacon RSSI smoothing.
+ *
+ * Every tracked beacon owns a slot in a set of primitive arrays: a ring
+ * buffer of the last windowSize samples plus the running sum and the
+ * Kalman estimate. Beacons not seen for staleTimeout are evicted and
+ * their slot is reused, so memory stays bounded by maxBeacons.
+ */
+class RssiFilter {
+
+    public static final int TYPE_NONE = 0;
+    public static final int TYPE_AVERAGE = 1;
+    public static final int TYPE_MEDIAN = 2;
+    public static final int TYPE_KALMAN = 3;
+
+    public static final int DEFAULT_WINDOW_SIZE = 10;
+    public static final int MAX_WINDOW_SIZE = 64;
+    public static final int DEFAULT_MAX_BEACONS = 2048;
+    public static final long DEFAULT_STALE_TIMEOUT = 30000;
+    public static final double DEFAULT_PROCESS_NOISE = 0.1;
+    public static final double DEFAULT_MEASUREMENT_NOISE = 4.0;
+
+    private static final class Key {
+        long uuidMsb;
+        long uuidLsb;
+        int majorMinor;
+
+        Key set(long uuidMsb, long uuidLsb, int major, int minor) {
+            this.uuidMsb = uuidMsb;
+            this.uuidLsb = uuidLsb;
+            this.majorMinor = (major << 16) | (minor & 0xFFFF);
+            return this;
+        }
+
+        Key copy() {
+            Key key = new Key();
+            key.uuidMsb = uuidMsb;
+            key.uuidLsb = uuidLsb;
+            key.majorMinor = majorMinor;
+            return key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return uuidMsb == other.uuidMsb && uuidLsb == other.uuidLsb && majorMinor == other.majorMinor;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = uuidMsb * 31 + uuidLsb;
+            h = h * 31 + majorMinor;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    private int mType = TYPE_NONE;
+    private int mWindowSize = DEFAULT_WINDOW_SIZE;
+    private int mMaxBeacons = DEFAULT_MAX_BEACONS;
+    private long mStaleTimeout = DEFAULT_STALE_TIMEOUT;
+    private double mProcessNoise = DEFAULT_PROCESS_NOISE;
+    private double mMeasurementNoise = DEFAULT_MEASUREMENT_NOISE;
+
+    private final Map<Key, Integer> mSlots = new HashMap<>();
+    private final Key mProbe = new Key();
+
+    // Slot storage, grown on demand up to mMaxBeacons
+    private Key[] mKeys;
+    private long[] mLastSeen;
+    private int[] mSamples;
+    private int[] mCounts;
+    private int[] mHeads;
+    private double[] mSums;
+    private double[] mEstimates;
+    private double[] mErrors;
+
+    private int[] mFreeSlots;
+    private int mFreeCount;
+    private int mUsedSlots;
+
+    private final int[] mScratch = new int[MAX_WINDOW_SIZE];
+    private long mLastSweep;
+
+    RssiFilter() {
+        allocate(0);
+    }
+
+    synchronized void configure(int type, int windowSize, int maxBeacons, long staleTimeout,
+                                double processNoise, double measurementNoise) {
+        mType = type;
+        mWindowSize = Math.max(1, Math.min(windowSize, MAX_WINDOW_SIZE));
+        mMaxBeacons = Math.max(1, maxBeacons);
+        mStaleTimeout = staleTimeout > 0 ? staleTimeout : DEFAULT_STALE_TIMEOUT;
+        mProcessNoise = processNoise;
+        mMeasurementNoise = measurementNoise;
+        allocate(0);
+    }
+
+    synchronized int getType() {
+        return mType;
+    }
+
+    synchronized int size() {
+        return mSlots.size();
+    }
+
+    /**
+     * Adds a sample for the beacon and returns its smoothed RSSI.
+     */
+    synchronized double filter(long uuidMsb, long uuidLsb, int major, int minor, int rssi, long nowMs) {
+        if (mType == TYPE_NONE) return rssi;
+
+        if (nowMs - mLastSweep > mStaleTimeout / 2) {
+            evictStale(nowMs);
+        }
+
+        int slot = slotFor(mProbe.set(uuidMsb, uuidLsb, major, minor), nowMs);
+        if (slot < 0) return rssi;
+
+        mLastSeen[slot] = nowMs;
+
+        switch (mType) {
+            case TYPE_KALMAN:
+                return kalman(slot, rssi);
+            case TYPE_MEDIAN:
+                push(slot, rssi);
+                return median(slot);
+            case TYPE_AVERAGE:
+            default:
+                push(slot, rssi);
+                return mSums[slot] / mCounts[slot];
+        }
+    }
+
+    /**
+     * Drops every beacon not seen within the stale timeout.
+     */
+    synchronized void evictStale(long nowMs) {
+        mLastSweep = nowMs;
+        for (int slot = 0; slot < mUsedSlots; slot++) {
+            if (mKeys[slot] != null && nowMs - mLastSeen[slot] > mStaleTimeout) {
+                mSlots.remove(mKeys[slot]);
+                mKeys[slot] = null;
+                mFreeSlots[mFreeCount++] = slot;
+            }
+        }
+    }
+
+    private int slotFor(Key probe, long nowMs) {
+        Integer existing = mSlots.get(probe);
+        if (existing != null) return existing;
+
+        int slot;
+        if (mFreeCount > 0) {
+            slot = mFreeSlots[--mFreeCount];
+        } else if (mUsedSlots < mMaxBeacons) {
+            if (mUsedSlots == mKeys.length) {
+                allocate(Math.min(Math.max(mKeys.length * 2, 16), mMaxBeacons));
+            }
+            slot = mUsedSlots++;
+        } else {
+            evictStale(nowMs);
+            if (mFreeCount == 0) return -1;
+            slot = mFreeSlots[--mFreeCount];
+        }
+
+        Key key = probe.copy();
+        mKeys[slot] = key;
+        mSlots.put(key, slot);
+        mCounts[slot] = 0;
+        mHeads[slot] = 0;
+        mSums[slot] = 0;
+        mErrors[slot] = -1;
+        return slot;
+    }
+
+    private void push(int slot, int rssi) {
+        int base = slot * mWindowSize;
+        int head = mHeads[slot];
+
+        if (mCounts[slot] == mWindowSize) {
+            mSums[slot] -= mSamples[base + head];
+        } else {
+            mCounts[slot]++;
+        }
+
+        mSamples[base + head] = rssi;
+        mSums[slot] += rssi;
+        mHeads[slot] = (head + 1) % mWindowSize;
+    }
+
+    private double median(int slot) {
+        int count = mCounts[slot];
+        int base = slot * mWindowSize;
+
+        // Insertion sort into scratch; windows are small
+        for (int i = 0; i < count; i++) {
+            int value = mSamples[base + i];
+            int j = i - 1;
+            while (j >= 0 && mScratch[j] > value) {
+                mScratch[j + 1] = mScratch[j];
+                j--;
+            }
+            mScratch[j + 1] = value;
+        }
+
+        if ((count & 1) == 1) return mScratch[count / 2];
+        return (mScratch[count / 2 - 1] + mScratch[count / 2]) / 2.0;
+    }
+
+    private double kalman(int slot, int rssi) {
+        if (mErrors[slot] < 0) {
+            mEstimates[slot] = rssi;
+            mErrors[slot] = mMeasurementNoise;
+            return rssi;
+        }
+
+        double error = mErrors[slot] + mProcessNoise;
+        double gain = error / (error + mMeasurementNoise);
+        mEstimates[slot] += gain * (rssi - mEstimates[slot]);
+        mErrors[slot] = (1 - gain) * error;
+        return mEstimates[slot];
+    }
+
+    /**
+     * Grows the slot arrays to capacity, or resets everything when
+     * capacity is 0.
+     */
+    private void allocate(int capacity) {
+        if (capacity == 0) {
+            mSlots.clear();
+            mUsedSlots = 0;
+            mFreeCount = 0;
+        }
+
+        mKeys = copyOf(mKeys, capacity);
+        mLastSeen = copyOf(mLastSeen, capacity);
+        mSamples = copyOf(mSamples, capacity * mWindowSize);
+        mCounts = copyOf(mCounts, capacity);
+        mHeads = copyOf(mHeads, capacity);
+        mSums = copyOf(mSums, capacity);
+        mEstimates = copyOf(mEstimates, capacity);
+        mErrors = copyOf(mErrors, capacity);
+        mFreeSlots = copyOf(mFreeSlots, capacity);
+    }
+
+    private static Key[] copyOf(Key[] array, int length) {
+        Key[] copy = new Key[length];
+        if (array != null) System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static long[] copyOf(long[] array, int length) {
+        long[] copy = new long[length];
+        if (array != null) System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+        int[] copy = new int[length];
+        if (array != null) System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static double[] copyOf(double[] array, int length) {
+        double[] copy = new double[length];
+        if (array != null) System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    static int typeFromString(String type) {
+        if ("average".equals(type)) return TYPE_AVERAGE;
+        if ("median".equals(type)) return TYPE_MEDIAN;
+        if ("kalman".equals(type)) return TYPE_KALMAN;
+        return TYPE_NONE;
+    }
+}
@@ -0,0 +1,56 @@
+package com.jabresearch.bleadvertiser;
+
+/**
+ * Everything a hardware scan is started with: the compiled filters and
+ * the scan settings. Two equal configs produce the same scan, which lets
+ * the restart scheduler skip restarts that would change nothing.
+ */
+class ScanConfig {
+
+    // Not a valid value for any setting; -1 is SCAN_MODE_OPPORTUNISTIC
+    public static final int UNSET = Integer.MIN_VALUE;
+
+    // The platform's values, and what ScanSettings uses for an unset one
+    public static final int SCAN_MODE_OPPORTUNISTIC = -1;
+    public static final int SCAN_MODE_LOW_POWER = 0;
+    public static final int MATCH_MODE_AGGRESSIVE = 1;
+    public static final int MATCH_MODE_STICKY = 2;
+    public static final int MATCH_NUM_ONE_ADVERTISEMENT = 1;
+    public static final int MATCH_NUM_MAX_ADVERTISEMENT = 3;
+
+    final ScanFilterCompiler.Result filters;
+    final int scanMode;
+    final int matchMode;
+    final int numOfMatches;
+    final long reportDelay;
+
+    ScanConfig(ScanFilterCompiler.Result filters, int scanMode, int matchMode, int numOfMatches, long reportDelay) {
+        this.filters = filters;
+        this.scanMode = scanMode;
+        this.matchMode = matchMode;
+        this.numOfMatches = numOfMatches;
+        this.reportDelay = reportDelay;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ScanConfig)) return false;
+        ScanConfig other = (ScanConfig) o;
+        return scanMode == other.scanMode
+                && matchMode == other.matchMode
+                && numOfMatches == other.numOfMatches
+                && reportDelay == other.reportDelay
+                && filters.equals(other.filters);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = filters.hashCode();
+        h = h * 31 + scanMode;
+        h = h * 31 + matchMode;
+        h = h * 31 + numOfMatches;
+        h = h * 31 + (int) reportDelay;
+        return h;
+    }
+}
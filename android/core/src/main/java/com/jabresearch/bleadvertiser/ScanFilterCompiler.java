@@ -0,0 +1,98 @@
+package com.jabresearch.bleadvertiser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits a set of filter descriptions into what the controller can
+ * evaluate and what has to run in software.
+ *
+ * Hardware filters are OR-ed by the controller, so they are only used
+ * when every description has an offloadable part and the result fits in
+ * the controller's filter slots. Descriptions that do not fit are first
+ * widened to their company id or service UUID; if that still does not
+ * fit, the scan runs unfiltered and everything is checked in software.
+ */
+class ScanFilterCompiler {
+
+    public static final int DEFAULT_MAX_HARDWARE_FILTERS = 8;
+
+    static final class Result {
+        /**
+         * Filters to hand to the controller, or null to receive everything.
+         */
+        final List<ScanFilterSpec> hardware;
+
+        /**
+         * Descriptions a packet must match in software, or null when the
+         * hardware filters are exact.
+         */
+        final ScanFilterSpec[] software;
+
+        Result(List<ScanFilterSpec> hardware, ScanFilterSpec[] software) {
+            this.hardware = hardware;
+            this.software = software;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Result)) return false;
+            Result other = (Result) o;
+            return (hardware == null ? other.hardware == null : hardware.equals(other.hardware))
+                    && Arrays.equals(software, other.software);
+        }
+
+        @Override
+        public int hashCode() {
+            return (hardware != null ? hardware.hashCode() : 0) * 31 + Arrays.hashCode(software);
+        }
+
+        boolean matches(AdvertisementRecord record) {
+            if (software == null) return true;
+            for (ScanFilterSpec spec : software) {
+                if (spec.matches(record)) return true;
+            }
+            return false;
+        }
+    }
+
+    static Result compile(List<ScanFilterSpec> specs, int maxHardwareFilters) {
+        if (specs == null || specs.isEmpty()) {
+            return new Result(null, null);
+        }
+
+        ScanFilterSpec[] all = specs.toArray(new ScanFilterSpec[0]);
+        boolean offloadable = true;
+        boolean exact = true;
+        for (ScanFilterSpec spec : specs) {
+            offloadable &= spec.isOffloadable();
+            exact &= !spec.needsSoftware();
+        }
+
+        if (!offloadable) {
+            return new Result(null, all);
+        }
+
+        if (specs.size() <= maxHardwareFilters) {
+            return new Result(new ArrayList<>(specs), exact ? null : all);
+        }
+
+        Map<String, ScanFilterSpec> widened = new LinkedHashMap<>();
+        for (ScanFilterSpec spec : specs) {
+            String key = spec.coarseKey();
+            if (!widened.containsKey(key)) {
+                widened.put(key, spec.coarse());
+            }
+        }
+
+        if (widened.size() <= maxHardwareFilters) {
+            return new Result(new ArrayList<>(widened.values()), all);
+        }
+
+        return new Result(null, all);
+    }
+}
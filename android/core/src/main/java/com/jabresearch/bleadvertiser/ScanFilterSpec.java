@@ -0,0 +1,255 @@
+package com.jabresearch.bleadvertiser;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Platform-neutral description of one scan filter. All set conditions
+ * must hold for a packet to match, as with a hardware ScanFilter.
+ *
+ * Everything except namePrefix can be offloaded to the controller;
+ * matches() evaluates the full description in software against a
+ * parsed AdvertisementRecord.
+ */
+class ScanFilterSpec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    int manufacturerId = -1;
+    byte[] manufacturerData;
+    byte[] manufacturerDataMask;
+
+    boolean hasServiceUuid;
+    long serviceUuidMsb;
+    long serviceUuidLsb;
+
+    boolean hasServiceDataUuid;
+    long serviceDataUuidMsb;
+    long serviceDataUuidLsb;
+    byte[] serviceData;
+    byte[] serviceDataMask;
+
+    String deviceName;
+    byte[] namePrefix;
+
+    /**
+     * Apple manufacturer data filter for iBeacons whose UUID starts with
+     * the first uuidPrefixLength bytes of the UUID, optionally pinned to
+     * a major and minor.
+     */
+    static ScanFilterSpec iBeacon(long uuidMsb, long uuidLsb, int uuidPrefixLength, Integer major, Integer minor) {
+        byte[] data = new byte[AdvertisementRecord.IBEACON_DATA_LENGTH - 1];
+        byte[] mask = new byte[data.length];
+
+        data[0] = AdvertisementRecord.IBEACON_TYPE;
+        data[1] = AdvertisementRecord.IBEACON_TYPE_LENGTH;
+        mask[0] = (byte) 0xFF;
+        mask[1] = (byte) 0xFF;
+
+        for (int i = 0; i < uuidPrefixLength && i < 16; i++) {
+            long word = i < 8 ? uuidMsb : uuidLsb;
+            data[2 + i] = (byte) (word >>> (56 - 8 * (i & 7)));
+            mask[2 + i] = (byte) 0xFF;
+        }
+
+        if (major != null) {
+            data[18] = (byte) (major >> 8);
+            data[19] = (byte) (int) major;
+            mask[18] = (byte) 0xFF;
+            mask[19] = (byte) 0xFF;
+        }
+
+        if (minor != null) {
+            data[20] = (byte) (minor >> 8);
+            data[21] = (byte) (int) minor;
+            mask[20] = (byte) 0xFF;
+            mask[21] = (byte) 0xFF;
+        }
+
+        ScanFilterSpec spec = new ScanFilterSpec();
+        spec.manufacturerId = AdvertisementRecord.APPLE_MANUFACTURER_ID;
+        spec.manufacturerData = data;
+        spec.manufacturerDataMask = mask;
+        return spec;
+    }
+
+    /**
+     * Service data filter for Eddystone frames of one type. For UID frames
+     * it can be narrowed to a namespace and an instance; the TX power byte
+     * between the type and the namespace is masked out.
+     */
+    static ScanFilterSpec eddystone(int frameType, byte[] namespace, byte[] instance) {
+        int length = instance != null ? 2 + EddystoneFrame.NAMESPACE_LENGTH + EddystoneFrame.INSTANCE_LENGTH
+                : namespace != null ? 2 + EddystoneFrame.NAMESPACE_LENGTH : 1;
+        byte[] data = new byte[length];
+        byte[] mask = new byte[length];
+
+        data[0] = (byte) frameType;
+        mask[0] = (byte) 0xFF;
+
+        if (namespace != null) {
+            for (int i = 0; i < EddystoneFrame.NAMESPACE_LENGTH; i++) {
+                data[2 + i] = namespace[i];
+                mask[2 + i] = (byte) 0xFF;
+            }
+        }
+
+        if (instance != null) {
+            for (int i = 0; i < EddystoneFrame.INSTANCE_LENGTH; i++) {
+                data[2 + EddystoneFrame.NAMESPACE_LENGTH + i] = instance[i];
+                mask[2 + EddystoneFrame.NAMESPACE_LENGTH + i] = (byte) 0xFF;
+            }
+        }
+
+        ScanFilterSpec spec = new ScanFilterSpec();
+        spec.hasServiceDataUuid = true;
+        spec.serviceDataUuidMsb = EddystoneFrame.SERVICE_UUID_MSB;
+        spec.serviceDataUuidLsb = EddystoneFrame.SERVICE_UUID_LSB;
+        spec.serviceData = data;
+        spec.serviceDataMask = mask;
+        return spec;
+    }
+
+    void setNamePrefix(String prefix) {
+        namePrefix = prefix != null ? prefix.getBytes(UTF_8) : null;
+    }
+
+    /**
+     * True when the controller can evaluate at least part of the filter.
+     */
+    boolean isOffloadable() {
+        return manufacturerId >= 0 || hasServiceUuid || hasServiceDataUuid || deviceName != null;
+    }
+
+    /**
+     * True when the controller cannot evaluate the whole filter.
+     */
+    boolean needsSoftware() {
+        return namePrefix != null;
+    }
+
+    /**
+     * The widest part of this filter the controller can check: the
+     * company id, service UUID or service data UUID alone. Several
+     * filters that share it collapse into one hardware slot.
+     */
+    ScanFilterSpec coarse() {
+        ScanFilterSpec spec = new ScanFilterSpec();
+        if (manufacturerId >= 0) {
+            spec.manufacturerId = manufacturerId;
+        } else if (hasServiceUuid) {
+            spec.hasServiceUuid = true;
+            spec.serviceUuidMsb = serviceUuidMsb;
+            spec.serviceUuidLsb = serviceUuidLsb;
+        } else if (hasServiceDataUuid) {
+            spec.hasServiceDataUuid = true;
+            spec.serviceDataUuidMsb = serviceDataUuidMsb;
+            spec.serviceDataUuidLsb = serviceDataUuidLsb;
+        } else {
+            spec.deviceName = deviceName;
+        }
+        return spec;
+    }
+
+    String coarseKey() {
+        if (manufacturerId >= 0) return "m:" + manufacturerId;
+        if (hasServiceUuid) return "s:" + serviceUuidMsb + ":" + serviceUuidLsb;
+        if (hasServiceDataUuid) return "d:" + serviceDataUuidMsb + ":" + serviceDataUuidLsb;
+        return "n:" + deviceName;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ScanFilterSpec)) return false;
+        ScanFilterSpec other = (ScanFilterSpec) o;
+        return manufacturerId == other.manufacturerId
+                && Arrays.equals(manufacturerData, other.manufacturerData)
+                && Arrays.equals(manufacturerDataMask, other.manufacturerDataMask)
+                && hasServiceUuid == other.hasServiceUuid
+                && serviceUuidMsb == other.serviceUuidMsb
+                && serviceUuidLsb == other.serviceUuidLsb
+                && hasServiceDataUuid == other.hasServiceDataUuid
+                && serviceDataUuidMsb == other.serviceDataUuidMsb
+                && serviceDataUuidLsb == other.serviceDataUuidLsb
+                && Arrays.equals(serviceData, other.serviceData)
+                && Arrays.equals(serviceDataMask, other.serviceDataMask)
+                && (deviceName == null ? other.deviceName == null : deviceName.equals(other.deviceName))
+                && Arrays.equals(namePrefix, other.namePrefix);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = manufacturerId;
+        h = h * 31 + Arrays.hashCode(manufacturerData);
+        h = h * 31 + (int) (serviceUuidMsb ^ serviceUuidLsb);
+        h = h * 31 + (int) (serviceDataUuidMsb ^ serviceDataUuidLsb);
+        h = h * 31 + Arrays.hashCode(serviceData);
+        h = h * 31 + (deviceName != null ? deviceName.hashCode() : 0);
+        h = h * 31 + Arrays.hashCode(namePrefix);
+        return h;
+    }
+
+    boolean matches(AdvertisementRecord record) {
+        byte[] bytes = record.getBytes();
+
+        if (manufacturerId >= 0) {
+            boolean found = false;
+            for (int i = 0; i < record.getManufacturerCount() && !found; i++) {
+                found = record.getManufacturerId(i) == manufacturerId
+                        && maskedPrefixMatches(bytes, record.getManufacturerOffset(i), record.getManufacturerLength(i),
+                                manufacturerData, manufacturerDataMask);
+            }
+            if (!found) return false;
+        }
+
+        if (hasServiceUuid) {
+            boolean found = false;
+            for (int i = 0; i < record.getServiceUuidCount() && !found; i++) {
+                found = record.getServiceUuidMsb(i) == serviceUuidMsb && record.getServiceUuidLsb(i) == serviceUuidLsb;
+            }
+            if (!found) return false;
+        }
+
+        if (hasServiceDataUuid) {
+            boolean found = false;
+            for (int i = 0; i < record.getServiceDataCount() && !found; i++) {
+                found = record.getServiceDataUuidMsb(i) == serviceDataUuidMsb
+                        && record.getServiceDataUuidLsb(i) == serviceDataUuidLsb
+                        && maskedPrefixMatches(bytes, record.getServiceDataOffset(i), record.getServiceDataLength(i),
+                                serviceData, serviceDataMask);
+            }
+            if (!found) return false;
+        }
+
+        if (deviceName != null) {
+            String name = record.getName();
+            if (!deviceName.equals(name)) return false;
+        }
+
+        if (namePrefix != null) {
+            if (!record.hasName() || record.getNameLength() < namePrefix.length) return false;
+            int offset = record.getNameOffset();
+            for (int i = 0; i < namePrefix.length; i++) {
+                if (bytes[offset + i] != namePrefix[i]) return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Same rule as ScanFilter: the section must be at least as long as the
+     * pattern and agree with it on every bit set in the mask.
+     */
+    private static boolean maskedPrefixMatches(byte[] bytes, int offset, int length, byte[] pattern, byte[] mask) {
+        if (pattern == null) return true;
+        if (length < pattern.length) return false;
+
+        for (int i = 0; i < pattern.length; i++) {
+            int m = mask != null ? mask[i] : 0xFF;
+            if (((bytes[offset + i] ^ pattern[i]) & m) != 0) return false;
+        }
+        return true;
+    }
+}
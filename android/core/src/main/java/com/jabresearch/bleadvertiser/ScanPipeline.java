@@ -0,0 +1,312 @@
+package com.jabresearch.bleadvertiser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everything that happens to a scanned packet between the radio and the
+ * events: software filtering, report-on-change suppression, the scan ring,
+ * beacon layout and Eddystone decoding, RSSI smoothing and distance, region
+ * monitoring and ranging, and dispatch to scan sessions.
+ *
+ * process() must always be called from the same thread; it reuses one
+ * record view for every packet. Settings may be changed from any thread
+ * and take effect on the next packet.
+ */
+class ScanPipeline {
+
+    interface Clock {
+        /**
+         * Monotonic time, on the same clock as packet timestamps.
+         */
+        long elapsedNanos();
+
+        long currentTimeMillis();
+    }
+
+    final DeviceCache deviceCache = new DeviceCache();
+    final RssiFilter rssiFilter = new RssiFilter();
+    final RegionRegistry<BeaconRegion> monitoredRegions = new RegionRegistry<>(BeaconRegion.GEOMETRY);
+    final RegionRegistry<BeaconRegion> rangedRegions = new RegionRegistry<>(BeaconRegion.GEOMETRY);
+    final RegionMonitor<BeaconRegion> regionMonitor;
+    final BeaconRanger<BeaconRegion> beaconRanger = new BeaconRanger<>();
+    final BeaconLayoutRegistry beaconLayouts = new BeaconLayoutRegistry();
+    final ScanSessionManager sessions = new ScanSessionManager();
+    final PipelineMetrics metrics;
+
+    private final Clock mClock;
+    private final EventSink mSink;
+    private final AdvertisementRecord mRecord = new AdvertisementRecord();
+    private final BeaconLayoutRegistry.Match mBeaconMatch = new BeaconLayoutRegistry.Match();
+    private final List<BeaconRegion> matchedRegions = new ArrayList<>();
+    private final RegionIndex.Key regionProbe = new RegionIndex.Key();
+    private final List<ScanSessionManager.Session> mRecipients = new ArrayList<>();
+
+    private volatile ScanFilterCompiler.Result mFilters;
+    private volatile boolean mReportOnChange;
+    private volatile DistanceModel mDistanceModel = DistanceModel.defaultModel();
+    private volatile ScanRecordRing mRing;
+    private volatile boolean mRingEvents = true;
+    private volatile int mCompanyId;
+
+    ScanPipeline(Clock clock, EventSink sink) {
+        mClock = clock;
+        mSink = sink;
+        long nowMs = clock.elapsedNanos() / 1000000;
+        regionMonitor = new RegionMonitor<>(nowMs);
+        metrics = new PipelineMetrics(nowMs);
+    }
+
+    /**
+     * Filters of the running scan; packets failing the software part are
+     * dropped before anything else looks at them.
+     */
+    void setFilters(ScanFilterCompiler.Result filters) {
+        mFilters = filters;
+    }
+
+    ScanFilterCompiler.Result getFilters() {
+        return mFilters;
+    }
+
+    void setReportOnChange(boolean reportOnChange) {
+        mReportOnChange = reportOnChange;
+    }
+
+    boolean isReportOnChange() {
+        return mReportOnChange;
+    }
+
+    void setDistanceModel(DistanceModel distanceModel) {
+        mDistanceModel = distanceModel;
+    }
+
+    DistanceModel getDistanceModel() {
+        return mDistanceModel;
+    }
+
+    /**
+     * Packets reported to the legacy sessions are also written to the ring
+     * when one is set. With events off, they get nothing through
+     * onDeviceFound.
+     */
+    void setRing(ScanRecordRing ring, boolean events) {
+        mRingEvents = events;
+        mRing = ring;
+    }
+
+    ScanRecordRing getRing() {
+        return mRing;
+    }
+
+    void setCompanyId(int companyId) {
+        mCompanyId = companyId;
+    }
+
+    int getCompanyId() {
+        return mCompanyId;
+    }
+
+    /**
+     * Processes one packet. receivedNanos is when it was handed over by the
+     * scanner, so the time spent waiting to be processed can be measured.
+     */
+    void process(String address, int rssi, byte[] bytes, long timestampNanos, long receivedNanos) {
+        process(address, rssi, bytes, timestampNanos, receivedNanos, false);
+    }
+
+    /**
+     * Processes one packet, replayed from a trace or heard live. A replayed
+     * packet with no session open is reported as an unfiltered legacy scan
+     * would report it, so a replay with the radio off still sends events.
+     */
+    void process(String address, int rssi, byte[] bytes, long timestampNanos, long receivedNanos, boolean replayed) {
+        long started = mClock.elapsedNanos();
+        long receivedAt = receivedNanos / 1000000;
+        metrics.queueWait.record((started - receivedNanos) / 1000);
+
+        AdvertisementRecord record = null;
+        if (bytes != null) {
+            record = mRecord;
+            record.wrap(bytes);
+        }
+
+        // The filters of the last scan no longer apply once every session is closed
+        ScanSessionManager.Session[] open = sessions.sessions();
+        boolean unsolicited = replayed && open.length == 0;
+        ScanFilterCompiler.Result filters = unsolicited ? null : mFilters;
+        if (filters != null && filters.software != null && (record == null || !filters.matches(record))) {
+            metrics.packetsFiltered.incrementAndGet();
+            metrics.parseTime.record((mClock.elapsedNanos() - started) / 1000);
+            return;
+        }
+
+        long parsed = mClock.elapsedNanos();
+        metrics.parseTime.record((parsed - started) / 1000);
+        long beaconNanos = 0;
+
+        // Every session decides on its own whether the packet is worth an
+        // event: named ones through their own device cache, legacy ones
+        // through the pipeline's. Region monitoring and ranging still see
+        // every packet. With a single session the merged filter is that
+        // session's own
+        byte[] payload = record != null ? record.getBytes() : null;
+        List<ScanSessionManager.Session> recipients = mRecipients;
+        recipients.clear();
+        boolean matched = unsolicited;
+        boolean legacy = unsolicited;
+        for (ScanSessionManager.Session session : open) {
+            if (open.length > 1 && !session.matches(record)) {
+                continue;
+            }
+            matched = true;
+            if (session.legacy) {
+                legacy = true;
+            } else if (session.shouldReport(address, payload, rssi, receivedAt)) {
+                recipients.add(session);
+            }
+        }
+
+        boolean legacyReport = legacy
+                && (!mReportOnChange || address == null || deviceCache.shouldReport(address, payload, rssi, receivedAt));
+        boolean report = legacyReport || !recipients.isEmpty();
+
+        ScanRecordRing ring = mRing;
+        if (legacyReport && ring != null) {
+            ring.write(mClock.currentTimeMillis(), address, rssi,
+                    record != null ? record.getBytes() : null, record != null ? record.getLength() : 0);
+        }
+
+        DeviceEvent event = null;
+        if (report) {
+            event = new DeviceEvent();
+            event.deviceAddress = address;
+            event.rssi = rssi;
+            event.timestampNanos = timestampNanos;
+        }
+
+        if (record != null) {
+            if (report) {
+                event.hasRecord = true;
+                event.serviceUuids = new String[record.getServiceUuidCount()];
+                for (int i = 0; i < event.serviceUuids.length; i++) {
+                    event.serviceUuids[i] = AdvertisementRecord.formatUuid(record.getServiceUuidMsb(i), record.getServiceUuidLsb(i));
+                }
+                event.txPower = record.getTxPower();
+                event.deviceName = record.hasName() ? record.getName() : "";
+                event.advFlags = record.getFlags();
+
+                int eddystone = EddystoneFrame.find(record);
+                if (eddystone >= 0) {
+                    event.eddystone = EddystoneFrame.decode(record.getBytes(),
+                            record.getServiceDataOffset(eddystone), record.getServiceDataLength(eddystone));
+                }
+
+                int companyId = mCompanyId;
+                int manufacturer = record.findManufacturer(companyId);
+                if (manufacturer >= 0) {
+                    int offset = record.getManufacturerOffset(manufacturer);
+                    int length = record.getManufacturerLength(manufacturer);
+                    event.companyId = companyId;
+                    event.manufacturerData = new byte[length];
+                    System.arraycopy(record.getBytes(), offset, event.manufacturerData, 0, length);
+                }
+            }
+
+            BeaconLayoutRegistry.Match beacon = mBeaconMatch;
+            if (beaconLayouts.match(record, beacon)) {
+                BeaconLayout layout = beacon.layout;
+                int start = beacon.start;
+                if (report) {
+                    event.beaconLayout = layout;
+                    event.beaconData = layout.dataFields(bytes, start);
+                    event.beaconPower = layout.power(bytes, start);
+                }
+
+                // Only iBeacon-shaped layouts have a UUID, major and minor for regions
+                if (!layout.isRegionShaped()) {
+                    if (report) {
+                        event.beaconIdentifiers = layout.identifiers(bytes, start);
+                    }
+                } else {
+                    long uuidMsb = layout.uuidMsb(bytes, start);
+                    long uuidLsb = layout.uuidLsb(bytes, start);
+                    int major = (int) layout.identifierValue(bytes, start, 1);
+                    int minor = (int) layout.identifierValue(bytes, start, 2);
+                    int measuredPower = layout.power(bytes, start);
+                    long beaconStarted = mClock.elapsedNanos();
+
+                    // Distance comes from the smoothed RSSI and the measured power
+                    double filteredRssi = rssiFilter.filter(uuidMsb, uuidLsb, major, minor, rssi, receivedAt);
+                    double distance = mDistanceModel.distance(filteredRssi, measuredPower);
+
+                    // The UUID is only formatted for an event or a matched region
+                    String proximityUuid = null;
+                    if (report) {
+                        proximityUuid = AdvertisementRecord.formatUuid(uuidMsb, uuidLsb);
+                        event.hasBeacon = true;
+                        event.beaconUuid = proximityUuid;
+                        event.major = major;
+                        event.minor = minor;
+                        event.measuredPower = measuredPower;
+                        event.filteredRssi = filteredRssi;
+                        event.distance = distance;
+                    }
+
+                    processBeacon(uuidMsb, uuidLsb, proximityUuid, major, minor, rssi, filteredRssi, measuredPower, distance);
+                    beaconNanos = mClock.elapsedNanos() - beaconStarted;
+                    metrics.beaconTime.record(beaconNanos / 1000);
+                }
+            }
+        }
+
+        if (!report) {
+            if (matched) {
+                metrics.packetsSuppressed.incrementAndGet();
+            }
+            return;
+        }
+
+        for (int i = 0; i < recipients.size(); i++) {
+            mSink.onSessionResult(recipients.get(i).id, event);
+        }
+
+        if (legacyReport && (ring == null || mRingEvents)) {
+            mSink.onDeviceFound(event);
+        }
+
+        long done = mClock.elapsedNanos();
+        metrics.reportTime.record((done - parsed - beaconNanos) / 1000);
+        metrics.latency.record((done - timestampNanos) / 1000);
+    }
+
+    /**
+     * Feeds a decoded iBeacon to region monitoring and ranging. uuid is
+     * null until something needs it formatted.
+     */
+    private void processBeacon(long uuidMsb, long uuidLsb, String uuid, int major, int minor, int rssi, double filteredRssi, int measuredPower, double distance) {
+        matchedRegions.clear();
+        monitoredRegions.snapshot().match(uuidMsb, uuidLsb, major, minor, regionProbe, matchedRegions);
+        long now = mClock.elapsedNanos() / 1000000;
+        for (BeaconRegion region : matchedRegions) {
+            // Only the packet that moves the region inside is reported;
+            // the exit comes from expiring the monitor once packets stop
+            if (regionMonitor.onBeaconSeen(region, now)) {
+                if (uuid == null) {
+                    uuid = AdvertisementRecord.formatUuid(uuidMsb, uuidLsb);
+                }
+                mSink.onRegionEnter(region, uuid, major, minor);
+            }
+        }
+
+        // Ranged regions are reported together at the end of the ranging cycle
+        matchedRegions.clear();
+        rangedRegions.snapshot().match(uuidMsb, uuidLsb, major, minor, regionProbe, matchedRegions);
+        for (BeaconRegion region : matchedRegions) {
+            if (uuid == null) {
+                uuid = AdvertisementRecord.formatUuid(uuidMsb, uuidLsb);
+            }
+            beaconRanger.onBeaconSeen(region, uuidMsb, uuidLsb, uuid, major, minor, rssi, filteredRssi, measuredPower, distance);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.jabresearch.bleadvertiser;
+
+import java.util.ArrayDeque;
+
+/**
+ * Bounded hand-off from the thread the system delivers scan callbacks on
+ * to a dedicated processing thread.
+ *
+ * offer() never blocks: when the queue is full the overflow policy decides
+ * whether the oldest queued item or the new one is dropped. put() waits
+ * for room instead, for producers such as a trace replay that can go
+ * faster than processing and must not lose anything. Items are
+ * processed one at a time, in order, on a single thread started with the
+ * first item, so the processor needs no locking of its own.
+ */
+class ScanProcessingQueue<T> {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    public static final int POLICY_DROP_OLDEST = 0;
+    public static final int POLICY_DROP_NEWEST = 1;
+
+    interface Processor<T> {
+        void process(T item);
+    }
+
+    private final Processor<T> mProcessor;
+    private final String mThreadName;
+    private final ArrayDeque<T> mQueue = new ArrayDeque<>();
+
+    private int mCapacity = DEFAULT_CAPACITY;
+    private int mPolicy = POLICY_DROP_OLDEST;
+
+    private long mDropped;
+    private int mMaxDepth;
+
+    private Thread mThread;
+    private boolean mShutdown;
+
+    private final Runnable mLoop = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                T item;
+                synchronized (ScanProcessingQueue.this) {
+                    while (mQueue.isEmpty() && !mShutdown) {
+                        try {
+                            ScanProcessingQueue.this.wait();
+                        } catch (InterruptedException e) {
+                            mShutdown = true;
+                        }
+                    }
+                    if (mShutdown) {
+                        mThread = null;
+                        return;
+                    }
+                    item = mQueue.poll();
+                    // Wakes a producer waiting in put() as well
+                    ScanProcessingQueue.this.notifyAll();
+                }
+                mProcessor.process(item);
+            }
+        }
+    };
+
+    ScanProcessingQueue(String threadName, Processor<T> processor) {
+        mThreadName = threadName;
+        mProcessor = processor;
+    }
+
+    static int policyFromString(String policy) {
+        return "dropNewest".equals(policy) ? POLICY_DROP_NEWEST : POLICY_DROP_OLDEST;
+    }
+
+    static String policyToString(int policy) {
+        return policy == POLICY_DROP_NEWEST ? "dropNewest" : "dropOldest";
+    }
+
+    /**
+     * Sets the bound and overflow policy. Shrinking below the current depth
+     * drops the oldest items.
+     */
+    synchronized void configure(int capacity, int policy) {
+        mCapacity = Math.max(1, capacity);
+        mPolicy = policy;
+        while (mQueue.size() > mCapacity) {
+            mQueue.poll();
+            mDropped++;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Queues the item for processing. Returns false when the item itself
+     * was dropped; with POLICY_DROP_OLDEST an older item is dropped instead.
+     */
+    synchronized boolean offer(T item) {
+        if (mShutdown) return false;
+
+        if (mQueue.size() >= mCapacity) {
+            mDropped++;
+            if (mPolicy == POLICY_DROP_NEWEST) {
+                return false;
+            }
+            mQueue.poll();
+        }
+
+        enqueue(item);
+        return true;
+    }
+
+    /**
+     * Queues the item, waiting while the queue is full. Returns false when
+     * the queue was shut down or the caller interrupted before there was
+     * room; the interrupt status is kept.
+     */
+    synchronized boolean put(T item) {
+        while (!mShutdown && mQueue.size() >= mCapacity) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        if (mShutdown) return false;
+
+        enqueue(item);
+        return true;
+    }
+
+    private void enqueue(T item) {
+        mQueue.add(item);
+        mMaxDepth = Math.max(mMaxDepth, mQueue.size());
+
+        if (mThread == null) {
+            mThread = new Thread(mLoop, mThreadName);
+            mThread.setDaemon(true);
+            mThread.start();
+        } else {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Drops every queued item. One already being processed still completes.
+     */
+    synchronized void clear() {
+        mQueue.clear();
+        notifyAll();
+    }
+
+    /**
+     * Stops the processing thread after the item in hand. Later offers are
+     * refused.
+     */
+    synchronized void shutdown() {
+        mShutdown = true;
+        mQueue.clear();
+        notifyAll();
+    }
+
+    synchronized int depth() {
+        return mQueue.size();
+    }
+
+    synchronized int getCapacity() {
+        return mCapacity;
+    }
+
+    synchronized int getPolicy() {
+        return mPolicy;
+    }
+
+    synchronized long getDropped() {
+        return mDropped;
+    }
+
+    /**
+     * Highest depth seen since the queue was created.
+     */
+    synchronized int getMaxDepth() {
+        return mMaxDepth;
+    }
+}
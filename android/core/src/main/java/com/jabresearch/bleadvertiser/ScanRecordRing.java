@@ -0,0 +1,166 @@
+package com.jabresearch.bleadvertiser;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-layout scan records in a preallocated ring, drained by JS in
+ * bulk instead of one bridge event per packet.
+ *
+ * Every record is RECORD_SIZE bytes, big-endian, laid out as described
+ * by the FIELD_* constants so JS can read it through a DataView. The
+ * scan callback is the only writer and JS the only reader; neither
+ * waits on the other. The writer publishes a record by advancing the
+ * head after filling it, the reader frees slots by advancing the tail
+ * after copying them out. A record that arrives while the ring is full
+ * is dropped and counted, and its sequence number is skipped so the
+ * reader can see where the gap is.
+ */
+class ScanRecordRing {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final int MAX_CAPACITY = 1 << 16;
+
+    public static final int RECORD_SIZE = 64;
+
+    // Field offsets within a record
+    public static final int FIELD_SEQUENCE = 0;      // uint32, low bits of the record's sequence number
+    public static final int FIELD_FLAGS = 4;         // uint8, FLAG_* bits
+    public static final int FIELD_RSSI = 5;          // int8, dBm
+    public static final int FIELD_ADDRESS = 6;       // 6 bytes, most significant first
+    public static final int FIELD_DATA_LENGTH = 12;  // uint8, bytes of data stored
+    public static final int FIELD_TIMESTAMP = 16;    // float64, ms since the epoch
+    public static final int FIELD_DATA = 24;         // raw advertisement bytes
+
+    public static final int DATA_CAPACITY = RECORD_SIZE - FIELD_DATA;
+
+    public static final int FLAG_HAS_ADDRESS = 1;
+    public static final int FLAG_TRUNCATED = 2;
+
+    private final ByteBuffer mBuffer;
+    private final int mCapacity;
+    private final int mMask;
+
+    // Index of the next record to write and of the next record to read
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+
+    // Writer side only
+    private long mSequence;
+    private final AtomicLong mOverflow = new AtomicLong();
+
+    private final Object mReadLock = new Object();
+
+    ScanRecordRing(int capacity) {
+        int size = 1;
+        while (size < capacity && size < MAX_CAPACITY) {
+            size <<= 1;
+        }
+        mCapacity = size;
+        mMask = size - 1;
+        mBuffer = ByteBuffer.allocateDirect(size * RECORD_SIZE);
+    }
+
+    int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Records dropped because the ring was full.
+     */
+    long getOverflow() {
+        return mOverflow.get();
+    }
+
+    /**
+     * Records written and not read yet.
+     */
+    int size() {
+        return (int) (mHead.get() - mTail.get());
+    }
+
+    /**
+     * Appends one packet. Returns false when the ring is full and the
+     * packet was dropped. address is the "AA:BB:CC:DD:EE:FF" form
+     * Android reports, or null.
+     */
+    synchronized boolean write(long timeMs, String address, int rssi, byte[] data, int length) {
+        long sequence = mSequence++;
+        long head = mHead.get();
+        if (head - mTail.get() >= mCapacity) {
+            mOverflow.incrementAndGet();
+            return false;
+        }
+
+        int base = (int) (head & mMask) * RECORD_SIZE;
+        int flags = 0;
+
+        if (address != null && address.length() == 17) {
+            for (int i = 0; i < 6; i++) {
+                int hi = Character.digit(address.charAt(i * 3), 16);
+                int lo = Character.digit(address.charAt(i * 3 + 1), 16);
+                mBuffer.put(base + FIELD_ADDRESS + i, (byte) (hi << 4 | lo));
+            }
+            flags |= FLAG_HAS_ADDRESS;
+        } else {
+            for (int i = 0; i < 6; i++) {
+                mBuffer.put(base + FIELD_ADDRESS + i, (byte) 0);
+            }
+        }
+
+        int stored = data != null ? Math.min(length, DATA_CAPACITY) : 0;
+        if (stored < length) {
+            flags |= FLAG_TRUNCATED;
+        }
+        for (int i = 0; i < stored; i++) {
+            mBuffer.put(base + FIELD_DATA + i, data[i]);
+        }
+
+        mBuffer.putInt(base + FIELD_SEQUENCE, (int) sequence);
+        mBuffer.put(base + FIELD_FLAGS, (byte) flags);
+        mBuffer.put(base + FIELD_RSSI, (byte) rssi);
+        mBuffer.put(base + FIELD_DATA_LENGTH, (byte) stored);
+        mBuffer.putDouble(base + FIELD_TIMESTAMP, timeMs);
+
+        // Publishes the record to the reader
+        mHead.lazySet(head + 1);
+        return true;
+    }
+
+    /**
+     * Copies up to maxRecords unread records into out, oldest first, and
+     * frees their slots. Returns the number of records copied.
+     */
+    int drain(byte[] out, int maxRecords) {
+        synchronized (mReadLock) {
+            long tail = mTail.get();
+            long available = mHead.get() - tail;
+            int count = (int) Math.min(available, Math.min(maxRecords, out.length / RECORD_SIZE));
+            if (count <= 0) return 0;
+
+            ByteBuffer view = mBuffer.duplicate();
+            int first = (int) (tail & mMask);
+            int run = Math.min(count, mCapacity - first);
+
+            view.position(first * RECORD_SIZE);
+            view.get(out, 0, run * RECORD_SIZE);
+            if (run < count) {
+                view.position(0);
+                view.get(out, run * RECORD_SIZE, (count - run) * RECORD_SIZE);
+            }
+
+            // Hands the slots back to the writer once the copy is complete
+            mTail.lazySet(tail + count);
+            return count;
+        }
+    }
+
+    /**
+     * Drops every unread record.
+     */
+    void clear() {
+        synchronized (mReadLock) {
+            mTail.set(mHead.get());
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.jabresearch.bleadvertiser;
+
+/**
+ * Applies scan configurations without tripping Android's limit of five
+ * scan starts per 30 seconds, past which startScan silently does nothing.
+ *
+ * A request is applied at once when the start budget allows and the last
+ * start is older than the coalescing delay. Otherwise it is parked as the
+ * pending config and applied when a start slot frees up; requests made in
+ * the meantime replace it, so a burst of reconfigurations costs a single
+ * restart. Requesting the config that is already running costs nothing.
+ */
+class ScanRestartScheduler<C> {
+
+    public static final int MAX_STARTS = 5;
+    public static final long START_WINDOW_MS = 30000;
+    public static final long DEFAULT_COALESCE_DELAY = 250;
+
+    // Margin for the platform's own clock when a slot frees up
+    private static final long WINDOW_MARGIN_MS = 100;
+
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_ACTIVE = 1;
+    public static final int STATE_PENDING = 2;
+
+    interface Scanner<C> {
+        void start(C config);
+        void stop();
+    }
+
+    interface Timer {
+        long now();
+        void schedule(Runnable task, long delayMs);
+        void cancel(Runnable task);
+    }
+
+    interface Listener<C> {
+        void onApplied(C config);
+    }
+
+    private final Scanner<C> mScanner;
+    private final Timer mTimer;
+    private Listener<C> mListener;
+    private long mCoalesceDelay = DEFAULT_COALESCE_DELAY;
+
+    // Ring of the most recent start times, oldest at mStartHead
+    private final long[] mStarts = new long[MAX_STARTS];
+    private int mStartHead;
+    private int mStartCount;
+
+    private C mActive;
+    private C mPending;
+    private boolean mScheduled;
+    private long mScheduledAt;
+
+    private final Runnable mApply = new Runnable() {
+        @Override
+        public void run() {
+            C applied;
+            Listener<C> listener;
+            synchronized (ScanRestartScheduler.this) {
+                mScheduled = false;
+                if (mPending == null) return;
+                if (mPending.equals(mActive)) {
+                    mPending = null;
+                    return;
+                }
+                long now = mTimer.now();
+                long at = earliestStart(now);
+                if (at > now) {
+                    schedule(now, at);
+                    return;
+                }
+                applied = apply(now);
+                listener = mListener;
+            }
+            if (listener != null) {
+                listener.onApplied(applied);
+            }
+        }
+    };
+
+    ScanRestartScheduler(Scanner<C> scanner, Timer timer) {
+        mScanner = scanner;
+        mTimer = timer;
+    }
+
+    synchronized void setListener(Listener<C> listener) {
+        mListener = listener;
+    }
+
+    synchronized void setCoalesceDelay(long delayMs) {
+        mCoalesceDelay = Math.max(0, delayMs);
+    }
+
+    /**
+     * Asks for the scan to run with config. Returns STATE_ACTIVE when it
+     * is running on return, STATE_PENDING when it will be applied later.
+     */
+    synchronized int request(C config) {
+        if (mPending == null && config.equals(mActive)) {
+            return STATE_ACTIVE;
+        }
+
+        mPending = config;
+        if (mScheduled) {
+            return STATE_PENDING;
+        }
+
+        long now = mTimer.now();
+        long at = earliestStart(now);
+        if (at > now) {
+            schedule(now, at);
+            return STATE_PENDING;
+        }
+
+        apply(now);
+        return STATE_ACTIVE;
+    }
+
+    /**
+     * Stops the scan and drops any pending config. Stops do not count
+     * against the start limit.
+     */
+    synchronized void stop() {
+        if (mScheduled) {
+            mTimer.cancel(mApply);
+            mScheduled = false;
+        }
+        mPending = null;
+        if (mActive != null) {
+            mScanner.stop();
+            mActive = null;
+        }
+    }
+
+    /**
+     * The platform dropped the scan on its own, as it does when Bluetooth
+     * turns off. Forgets the running and pending configs without stopping
+     * the scanner, so the next request starts the scan again even with an
+     * unchanged config.
+     */
+    synchronized void invalidate() {
+        if (mScheduled) {
+            mTimer.cancel(mApply);
+            mScheduled = false;
+        }
+        mPending = null;
+        mActive = null;
+    }
+
+    synchronized int getState() {
+        if (mPending != null) return STATE_PENDING;
+        return mActive != null ? STATE_ACTIVE : STATE_IDLE;
+    }
+
+    synchronized C getActive() {
+        return mActive;
+    }
+
+    synchronized C getPending() {
+        return mPending;
+    }
+
+    /**
+     * Milliseconds until the pending config is applied, or 0 when none is.
+     */
+    synchronized long getPendingDelay() {
+        return mScheduled ? Math.max(0, mScheduledAt - mTimer.now()) : 0;
+    }
+
+    synchronized int getStartsInWindow() {
+        long now = mTimer.now();
+        int count = 0;
+        for (int i = 0; i < mStartCount; i++) {
+            if (now - mStarts[(mStartHead + i) % MAX_STARTS] < START_WINDOW_MS) count++;
+        }
+        return count;
+    }
+
+    private long earliestStart(long now) {
+        long at = now;
+        if (mStartCount > 0) {
+            long last = mStarts[(mStartHead + mStartCount - 1) % MAX_STARTS];
+            at = Math.max(at, last + mCoalesceDelay);
+        }
+        if (mStartCount == MAX_STARTS) {
+            at = Math.max(at, mStarts[mStartHead] + START_WINDOW_MS + WINDOW_MARGIN_MS);
+        }
+        return at;
+    }
+
+    private void schedule(long now, long at) {
+        mScheduled = true;
+        mScheduledAt = at;
+        mTimer.schedule(mApply, at - now);
+    }
+
+    private C apply(long now) {
+        C config = mPending;
+        mPending = null;
+
+        if (mActive != null) {
+            mScanner.stop();
+        }
+        mScanner.start(config);
+        mActive = config;
+
+        if (mStartCount == MAX_STARTS) {
+            mStarts[mStartHead] = now;
+            mStartHead = (mStartHead + 1) % MAX_STARTS;
+        } else {
+            mStarts[(mStartHead + mStartCount) % MAX_STARTS] = now;
+            mStartCount++;
+        }
+        return config;
+    }
+}
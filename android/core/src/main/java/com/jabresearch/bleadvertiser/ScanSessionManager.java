@@ -0,0 +1,196 @@
+package com.jabresearch.bleadvertiser;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Named logical scans sharing the single hardware scan.
+ *
+ * merge() folds every open session into one ScanConfig: the union of
+ * their filters and, for each setting, the most demanding value any
+ * session asked for. Results are dispatched back with sessions(), an
+ * immutable snapshot the scan callback can walk without locking.
+ *
+ * Named sessions keep their own delivery settings: a device cache when
+ * they asked for report-on-change, and the encoding of their events.
+ * Legacy sessions follow the pipeline-wide settings instead.
+ */
+class ScanSessionManager {
+
+    private static final ScanFilterSpec[] NO_FILTERS = new ScanFilterSpec[0];
+    private static final Session[] NO_SESSIONS = new Session[0];
+
+    static final class Session {
+        final String id;
+
+        // Empty means the session wants every packet
+        final ScanFilterSpec[] filters;
+
+        // Legacy sessions report through onDeviceFound
+        final boolean legacy;
+
+        final int scanMode;
+        final int matchMode;
+        final int numOfMatches;
+        final long reportDelay;
+
+        // Null reports every packet
+        final DeviceCache deviceCache;
+        final int dataEncoding;
+
+        Session(String id, ScanFilterSpec[] filters, boolean legacy,
+                int scanMode, int matchMode, int numOfMatches, long reportDelay,
+                DeviceCache deviceCache, int dataEncoding) {
+            this.id = id;
+            this.filters = filters;
+            this.legacy = legacy;
+            this.scanMode = scanMode;
+            this.matchMode = matchMode;
+            this.numOfMatches = numOfMatches;
+            this.reportDelay = reportDelay;
+            this.deviceCache = deviceCache;
+            this.dataEncoding = dataEncoding;
+        }
+
+        Session withFilters(ScanFilterSpec[] filters) {
+            return new Session(id, filters, legacy, scanMode, matchMode, numOfMatches, reportDelay,
+                    deviceCache, dataEncoding);
+        }
+
+        /**
+         * Records the packet in the session's device cache and returns
+         * whether the session gets an event for it.
+         */
+        boolean shouldReport(String address, byte[] payload, int rssi, long nowMs) {
+            return deviceCache == null || address == null || deviceCache.shouldReport(address, payload, rssi, nowMs);
+        }
+
+        boolean matches(AdvertisementRecord record) {
+            if (filters.length == 0) return true;
+            if (record == null) return false;
+            for (ScanFilterSpec spec : filters) {
+                if (spec.matches(record)) return true;
+            }
+            return false;
+        }
+    }
+
+    private final Map<String, Session> mSessions = new LinkedHashMap<>();
+    private volatile Session[] mSnapshot = NO_SESSIONS;
+    private int mMaxHardwareFilters = ScanFilterCompiler.DEFAULT_MAX_HARDWARE_FILTERS;
+
+    /**
+     * Opens the session, replacing any open session with the same id.
+     */
+    synchronized void open(String id, List<ScanFilterSpec> filters, boolean legacy, ScanConfig settings) {
+        open(id, filters, legacy, settings, null, DataEncoding.ARRAY);
+    }
+
+    /**
+     * Opens the session with its own device cache for report-on-change,
+     * or null to report every packet, and the encoding of its events.
+     */
+    synchronized void open(String id, List<ScanFilterSpec> filters, boolean legacy, ScanConfig settings,
+                           DeviceCache deviceCache, int dataEncoding) {
+        ScanFilterSpec[] specs = filters != null ? filters.toArray(NO_FILTERS) : NO_FILTERS;
+        mSessions.put(id, new Session(id, specs, legacy,
+                settings.scanMode, settings.matchMode, settings.numOfMatches, settings.reportDelay,
+                deviceCache, dataEncoding));
+        publish();
+    }
+
+    /**
+     * Replaces the filters of an open session, keeping its settings.
+     * Returns false when no such session is open.
+     */
+    synchronized boolean updateFilters(String id, List<ScanFilterSpec> filters) {
+        Session session = mSessions.get(id);
+        if (session == null) return false;
+        mSessions.put(id, session.withFilters(filters.toArray(NO_FILTERS)));
+        publish();
+        return true;
+    }
+
+    synchronized boolean close(String id) {
+        if (mSessions.remove(id) == null) return false;
+        publish();
+        return true;
+    }
+
+    synchronized void clear() {
+        mSessions.clear();
+        publish();
+    }
+
+    synchronized boolean contains(String id) {
+        return mSessions.containsKey(id);
+    }
+
+    synchronized void setMaxHardwareFilters(int maxHardwareFilters) {
+        mMaxHardwareFilters = maxHardwareFilters;
+    }
+
+    Session[] sessions() {
+        return mSnapshot;
+    }
+
+    /**
+     * The open session with the id, or null; reads the snapshot.
+     */
+    Session session(String id) {
+        for (Session session : mSnapshot) {
+            if (session.id.equals(id)) return session;
+        }
+        return null;
+    }
+
+    /**
+     * The hardware scan serving every open session, or null when none is open.
+     */
+    synchronized ScanConfig merge() {
+        if (mSessions.isEmpty()) return null;
+
+        Set<ScanFilterSpec> union = new LinkedHashSet<>();
+        boolean everything = false;
+
+        int scanMode = ScanConfig.SCAN_MODE_OPPORTUNISTIC;
+        int matchMode = ScanConfig.MATCH_MODE_STICKY;
+        int numOfMatches = ScanConfig.MATCH_NUM_ONE_ADVERTISEMENT;
+        long reportDelay = Long.MAX_VALUE;
+
+        for (Session session : mSessions.values()) {
+            if (session.filters.length == 0) {
+                everything = true;
+            }
+            for (ScanFilterSpec spec : session.filters) {
+                union.add(spec);
+            }
+
+            // Unset values stand for the platform defaults, so an unset session
+            // is never served below them. Higher scan modes scan more often,
+            // with SCAN_MODE_OPPORTUNISTIC the lowest; MATCH_MODE_AGGRESSIVE is
+            // the lowest match mode and MATCH_NUM_MAX_ADVERTISEMENT the highest count
+            scanMode = Math.max(scanMode, session.scanMode == ScanConfig.UNSET
+                    ? ScanConfig.SCAN_MODE_LOW_POWER : session.scanMode);
+            matchMode = Math.min(matchMode, session.matchMode == ScanConfig.UNSET
+                    ? ScanConfig.MATCH_MODE_AGGRESSIVE : session.matchMode);
+            numOfMatches = Math.max(numOfMatches, session.numOfMatches == ScanConfig.UNSET
+                    ? ScanConfig.MATCH_NUM_MAX_ADVERTISEMENT : session.numOfMatches);
+
+            // A session without a report delay wants results immediately
+            reportDelay = Math.min(reportDelay, session.reportDelay == ScanConfig.UNSET ? 0 : session.reportDelay);
+        }
+
+        List<ScanFilterSpec> specs = everything ? null : new ArrayList<>(union);
+        return new ScanConfig(ScanFilterCompiler.compile(specs, mMaxHardwareFilters),
+                scanMode, matchMode, numOfMatches, reportDelay > 0 ? reportDelay : ScanConfig.UNSET);
+    }
+
+    private void publish() {
+        mSnapshot = mSessions.values().toArray(NO_SESSIONS);
+    }
+}
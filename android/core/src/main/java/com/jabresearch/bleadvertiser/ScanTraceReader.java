@@ -0,0 +1,131 @@
+package com.jabresearch.bleadvertiser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads back a trace file written by ScanTraceWriter, one record at a
+ * time: next() moves to the following record and the getters describe
+ * it. Only records the header counts as complete are returned.
+ */
+class ScanTraceReader {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final MappedByteBuffer mBuffer;
+    private final int mEnd;
+    private int mNext;
+
+    private long mTimestampNanos;
+    private int mRssi;
+    private String mAddress;
+    private byte[] mData;
+
+    ScanTraceReader(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            mBuffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        if (mBuffer.capacity() < ScanTraceWriter.FILE_HEADER_SIZE
+                || mBuffer.getInt(0) != ScanTraceWriter.MAGIC) {
+            throw new IOException("Not a scan trace: " + file);
+        }
+        if (mBuffer.getShort(4) != ScanTraceWriter.VERSION) {
+            throw new IOException("Unsupported scan trace version " + mBuffer.getShort(4) + ": " + file);
+        }
+        mEnd = Math.min(mBuffer.getInt(ScanTraceWriter.HEADER_END), mBuffer.capacity());
+        mNext = ScanTraceWriter.FILE_HEADER_SIZE;
+    }
+
+    /**
+     * Trace files of a directory, oldest first.
+     */
+    static List<File> traceFiles(File directory) {
+        File[] files = directory.listFiles();
+        List<File> traces = new ArrayList<>();
+        if (files == null) {
+            return traces;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(ScanTraceWriter.PREFIX) && name.endsWith(ScanTraceWriter.SUFFIX)) {
+                traces.add(file);
+            }
+        }
+        return traces;
+    }
+
+    /**
+     * Moves to the next record. Returns false at the end of the file.
+     */
+    boolean next() {
+        int base = mNext;
+        if (base + ScanTraceWriter.RECORD_HEADER_SIZE > mEnd) {
+            return false;
+        }
+        int length = mBuffer.getShort(base + ScanTraceWriter.RECORD_DATA_LENGTH) & 0xFFFF;
+        if (base + ScanTraceWriter.RECORD_HEADER_SIZE + length > mEnd) {
+            return false;
+        }
+
+        int flags = mBuffer.get(base + ScanTraceWriter.RECORD_FLAGS);
+        mTimestampNanos = mBuffer.getLong(base + ScanTraceWriter.RECORD_TIMESTAMP);
+        mRssi = mBuffer.get(base + ScanTraceWriter.RECORD_RSSI);
+
+        if ((flags & ScanTraceWriter.FLAG_HAS_ADDRESS) != 0) {
+            char[] address = new char[17];
+            for (int i = 0; i < 6; i++) {
+                int b = mBuffer.get(base + ScanTraceWriter.RECORD_ADDRESS + i) & 0xFF;
+                address[i * 3] = HEX[b >> 4];
+                address[i * 3 + 1] = HEX[b & 0xF];
+                if (i < 5) address[i * 3 + 2] = ':';
+            }
+            mAddress = new String(address);
+        } else {
+            mAddress = null;
+        }
+
+        if ((flags & ScanTraceWriter.FLAG_HAS_DATA) != 0) {
+            mData = new byte[length];
+            mBuffer.position(base + ScanTraceWriter.RECORD_HEADER_SIZE);
+            mBuffer.get(mData);
+        } else {
+            mData = null;
+        }
+
+        mNext = base + ScanTraceWriter.RECORD_HEADER_SIZE + length;
+        return true;
+    }
+
+    long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    int getRssi() {
+        return mRssi;
+    }
+
+    /**
+     * Address in "AA:BB:CC:DD:EE:FF" form, or null if none was recorded.
+     */
+    String getAddress() {
+        return mAddress;
+    }
+
+    /**
+     * Raw advertisement bytes, or null if the packet had no scan record.
+     * A new array for every record.
+     */
+    byte[] getData() {
+        return mData;
+    }
+}
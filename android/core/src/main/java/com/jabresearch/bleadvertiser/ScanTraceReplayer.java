@@ -0,0 +1,127 @@
+package com.jabresearch.bleadvertiser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays trace files back into a Scanner.Listener on a thread of its own,
+ * as if the packets were arriving from the radio.
+ *
+ * Packets keep their recorded spacing divided by speed; a speed of zero
+ * or less sends them as fast as the listener takes them. Timestamps are
+ * moved onto the clock the replay runs on, so latencies measured
+ * downstream stay meaningful. Gaps longer than maxGapNanos, such as the
+ * time between two recordings, are shortened to it.
+ */
+class ScanTraceReplayer {
+
+    public static final long DEFAULT_MAX_GAP_NANOS = 5000000000L;
+
+    interface Listener {
+        /**
+         * The replay ended, at the end of the trace or because it was
+         * stopped. error is the file that could not be read, or null.
+         */
+        void onReplayFinished(long replayed, IOException error);
+    }
+
+    private final List<File> mFiles;
+    private final double mSpeed;
+    private final long mMaxGapNanos;
+    private final ScanPipeline.Clock mClock;
+    private final Scanner.Listener mTarget;
+
+    private volatile boolean mStopped;
+    private volatile long mReplayed;
+    private Thread mThread;
+
+    ScanTraceReplayer(List<File> files, double speed, long maxGapNanos, ScanPipeline.Clock clock, Scanner.Listener target) {
+        mFiles = files;
+        mSpeed = speed;
+        mMaxGapNanos = maxGapNanos;
+        mClock = clock;
+        mTarget = target;
+    }
+
+    long getReplayed() {
+        return mReplayed;
+    }
+
+    synchronized void start(final Listener listener) {
+        if (mThread != null) {
+            throw new IllegalStateException("Replay already started");
+        }
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                IOException error = null;
+                try {
+                    replay();
+                } catch (IOException e) {
+                    // A stop can interrupt mapping the next file
+                    if (!mStopped) {
+                        error = e;
+                    }
+                }
+                if (listener != null) {
+                    listener.onReplayFinished(mReplayed, error);
+                }
+            }
+        }, "BleTraceReplay");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Stops after the packet being delivered; the listener still runs. The
+     * replay thread is interrupted, so a target blocking on a full queue
+     * gives up its packet.
+     */
+    synchronized void stop() {
+        mStopped = true;
+        if (mThread != null) {
+            mThread.interrupt();
+        }
+    }
+
+    private void replay() throws IOException {
+        long started = mClock.elapsedNanos();
+        long offset = 0;
+        long previous = 0;
+        boolean first = true;
+
+        for (File file : mFiles) {
+            ScanTraceReader reader = new ScanTraceReader(file);
+            while (!mStopped && reader.next()) {
+                long recorded = reader.getTimestampNanos();
+                if (!first) {
+                    offset += Math.max(0, Math.min(recorded - previous, mMaxGapNanos));
+                }
+                previous = recorded;
+                first = false;
+
+                long timestamp;
+                if (mSpeed > 0) {
+                    timestamp = started + (long) (offset / mSpeed);
+                    long wait;
+                    while (!mStopped && (wait = timestamp - mClock.elapsedNanos()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    if (mStopped) {
+                        return;
+                    }
+                } else {
+                    timestamp = mClock.elapsedNanos();
+                }
+
+                mTarget.onPacket(reader.getAddress(), reader.getRssi(), reader.getData(), timestamp);
+                mReplayed++;
+            }
+            if (mStopped) {
+                return;
+            }
+        }
+    }
+}
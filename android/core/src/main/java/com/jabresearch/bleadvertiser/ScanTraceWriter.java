@@ -0,0 +1,221 @@
+package com.jabresearch.bleadvertiser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Appends raw scan results to memory-mapped trace files, for replaying
+ * later what the radio actually saw.
+ *
+ * A trace file is a FILE_HEADER_SIZE header followed by records, all
+ * big-endian:
+ *
+ *   header: magic "BLET", uint16 version, uint16 record header size,
+ *           uint32 end offset of the last complete record, uint32 records
+ *   record: int64 timestamp nanos, uint8 FLAG_* bits, int8 rssi,
+ *           6 address bytes, uint16 data length, data
+ *
+ * Each file is mapped at its full size up front, so appending is a copy
+ * into memory and the kernel writes pages back on its own. The header is
+ * updated after every record, so a file cut short by a crash still reads
+ * up to its last complete record. A record that does not fit rotates to
+ * a new file; past maxFiles the oldest file of the directory is deleted.
+ */
+class ScanTraceWriter {
+
+    public static final long DEFAULT_MAX_FILE_BYTES = 4 * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 4;
+
+    static final int MAGIC = 0x424C4554;
+    static final int VERSION = 1;
+
+    static final int FILE_HEADER_SIZE = 16;
+    static final int HEADER_END = 8;
+    static final int HEADER_RECORDS = 12;
+
+    // Record field offsets
+    static final int RECORD_TIMESTAMP = 0;
+    static final int RECORD_FLAGS = 8;
+    static final int RECORD_RSSI = 9;
+    static final int RECORD_ADDRESS = 10;
+    static final int RECORD_DATA_LENGTH = 16;
+    static final int RECORD_HEADER_SIZE = 18;
+
+    static final int FLAG_HAS_ADDRESS = 1;
+    static final int FLAG_HAS_DATA = 2;
+
+    static final String PREFIX = "scan-";
+    static final String SUFFIX = ".trace";
+
+    private final File mDirectory;
+    private final long mMaxFileBytes;
+    private final int mMaxFiles;
+
+    private int mNextIndex;
+    private MappedByteBuffer mBuffer;
+    private int mRecords;
+
+    private long mTotalRecords;
+    private long mTotalBytes;
+    private long mDropped;
+    private boolean mClosed;
+
+    ScanTraceWriter(File directory, long maxFileBytes, int maxFiles) throws IOException {
+        if (maxFileBytes < FILE_HEADER_SIZE + RECORD_HEADER_SIZE || maxFileBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid trace file size " + maxFileBytes);
+        }
+        if (maxFiles < 1) {
+            throw new IllegalArgumentException("Invalid trace file count " + maxFiles);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        mDirectory = directory;
+        mMaxFileBytes = maxFileBytes;
+        mMaxFiles = maxFiles;
+
+        // Continue numbering after earlier recordings so they sort first
+        List<File> existing = ScanTraceReader.traceFiles(directory);
+        mNextIndex = existing.isEmpty() ? 0 : indexOf(existing.get(existing.size() - 1)) + 1;
+        rotate();
+    }
+
+    File getDirectory() {
+        return mDirectory;
+    }
+
+    long getMaxFileBytes() {
+        return mMaxFileBytes;
+    }
+
+    int getMaxFiles() {
+        return mMaxFiles;
+    }
+
+    synchronized long getRecordCount() {
+        return mTotalRecords;
+    }
+
+    synchronized long getBytesWritten() {
+        return mTotalBytes;
+    }
+
+    /**
+     * Packets not recorded: larger than a whole file, or arriving after
+     * the writer was closed or failed.
+     */
+    synchronized long getDropped() {
+        return mDropped;
+    }
+
+    /**
+     * Records one packet. address is the "AA:BB:CC:DD:EE:FF" form Android
+     * reports, or null. Returns false when the packet was dropped.
+     */
+    synchronized boolean append(long timestampNanos, String address, int rssi, byte[] data) {
+        int length = data != null ? Math.min(data.length, 0xFFFF) : 0;
+        int size = RECORD_HEADER_SIZE + length;
+        if (mClosed || FILE_HEADER_SIZE + size > mMaxFileBytes) {
+            mDropped++;
+            return false;
+        }
+
+        if (mBuffer.getInt(HEADER_END) + size > mMaxFileBytes) {
+            try {
+                rotate();
+            } catch (IOException e) {
+                mClosed = true;
+                mBuffer = null;
+                mDropped++;
+                return false;
+            }
+        }
+
+        int base = mBuffer.getInt(HEADER_END);
+        int flags = 0;
+
+        if (address != null && address.length() == 17) {
+            for (int i = 0; i < 6; i++) {
+                int hi = Character.digit(address.charAt(i * 3), 16);
+                int lo = Character.digit(address.charAt(i * 3 + 1), 16);
+                mBuffer.put(base + RECORD_ADDRESS + i, (byte) (hi << 4 | lo));
+            }
+            flags |= FLAG_HAS_ADDRESS;
+        } else {
+            for (int i = 0; i < 6; i++) {
+                mBuffer.put(base + RECORD_ADDRESS + i, (byte) 0);
+            }
+        }
+        if (data != null) {
+            flags |= FLAG_HAS_DATA;
+            mBuffer.position(base + RECORD_HEADER_SIZE);
+            mBuffer.put(data, 0, length);
+        }
+
+        mBuffer.putLong(base + RECORD_TIMESTAMP, timestampNanos);
+        mBuffer.put(base + RECORD_FLAGS, (byte) flags);
+        mBuffer.put(base + RECORD_RSSI, (byte) rssi);
+        mBuffer.putShort(base + RECORD_DATA_LENGTH, (short) length);
+
+        // The header moves last, so a reader never sees half a record
+        mRecords++;
+        mBuffer.putInt(HEADER_RECORDS, mRecords);
+        mBuffer.putInt(HEADER_END, base + size);
+
+        mTotalRecords++;
+        mTotalBytes += size;
+        return true;
+    }
+
+    /**
+     * Flushes the current file. Further packets are dropped.
+     */
+    synchronized void close() {
+        if (mClosed) return;
+        mClosed = true;
+        mBuffer.force();
+        mBuffer = null;
+    }
+
+    private void rotate() throws IOException {
+        if (mBuffer != null) {
+            mBuffer.force();
+            mBuffer = null;
+        }
+
+        File file = new File(mDirectory, String.format(Locale.US, "%s%06d%s", PREFIX, mNextIndex++, SUFFIX));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // The mapping stays valid after the channel is closed
+            mBuffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mMaxFileBytes);
+        } finally {
+            raf.close();
+        }
+
+        mBuffer.putInt(0, MAGIC);
+        mBuffer.putShort(4, (short) VERSION);
+        mBuffer.putShort(6, (short) RECORD_HEADER_SIZE);
+        mBuffer.putInt(HEADER_RECORDS, 0);
+        mBuffer.putInt(HEADER_END, FILE_HEADER_SIZE);
+        mRecords = 0;
+
+        List<File> files = ScanTraceReader.traceFiles(mDirectory);
+        for (int i = 0; i < files.size() - mMaxFiles; i++) {
+            files.get(i).delete();
+        }
+    }
+
+    private static int indexOf(File file) {
+        String name = file.getName();
+        try {
+            return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
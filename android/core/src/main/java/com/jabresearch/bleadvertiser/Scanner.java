@@ -0,0 +1,20 @@
+package com.jabresearch.bleadvertiser;
+
+/**
+ * The radio side of scanning. start() replaces any running scan with one
+ * using the config's hardware filters and settings; every packet that
+ * passes them goes to the listener. Being a ScanRestartScheduler.Scanner,
+ * an implementation can be driven by the restart scheduler directly.
+ */
+interface Scanner extends ScanRestartScheduler.Scanner<ScanConfig> {
+
+    interface Listener {
+        /**
+         * One received advertisement. timestampNanos is when the radio
+         * received it, on the same clock as ScanPipeline.Clock.elapsedNanos.
+         */
+        void onPacket(String address, int rssi, byte[] bytes, long timestampNanos);
+    }
+
+    void setListener(Listener listener);
+}
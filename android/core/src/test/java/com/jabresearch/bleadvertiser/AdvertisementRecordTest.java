@@ -0,0 +1,81 @@
+package com.jabresearch.bleadvertiser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class AdvertisementRecordTest {
+
+    private final AdvertisementRecord mRecord = new AdvertisementRecord();
+
+    @Test
+    public void parsesEverySection() {
+        byte[] packet = Packets.packet(Packets.flags(), Packets.serviceUuid16(0x180F), Packets.txPower(-12),
+                Packets.name("Sensor-42"), Packets.serviceData16(0x180F, new byte[] {0x55}),
+                Packets.manufacturer(0x1234, new byte[] {9, 8, 7}));
+
+        assertTrue(mRecord.wrap(packet));
+        assertEquals(packet.length, mRecord.getLength());
+        assertEquals(0x06, mRecord.getFlags());
+        assertEquals(-12, mRecord.getTxPower());
+        assertTrue(mRecord.hasName());
+        assertEquals("Sensor-42", mRecord.getName());
+
+        assertEquals(1, mRecord.getServiceUuidCount());
+        assertEquals("0000180f-0000-1000-8000-00805f9b34fb",
+                AdvertisementRecord.formatUuid(mRecord.getServiceUuidMsb(0), mRecord.getServiceUuidLsb(0)));
+
+        assertEquals(1, mRecord.getServiceDataCount());
+        assertEquals(1, mRecord.getServiceDataLength(0));
+        assertEquals(0x55, packet[mRecord.getServiceDataOffset(0)]);
+
+        int manufacturer = mRecord.findManufacturer(0x1234);
+        assertEquals(0, manufacturer);
+        assertEquals(3, mRecord.getManufacturerLength(manufacturer));
+        int offset = mRecord.getManufacturerOffset(manufacturer);
+        assertArrayEquals(new byte[] {9, 8, 7}, Arrays.copyOfRange(packet, offset, offset + 3));
+        assertEquals(-1, mRecord.findManufacturer(0x4321));
+    }
+
+    @Test
+    public void stopsAtZeroPadding() {
+        byte[] packet = Arrays.copyOf(Packets.packet(Packets.flags(), Packets.name("A")), 62);
+
+        assertTrue(mRecord.wrap(packet));
+        assertEquals(6, mRecord.getLength());
+        assertEquals("A", mRecord.getName());
+    }
+
+    @Test
+    public void rejectsTruncatedStructure() {
+        byte[] packet = Packets.packet(Packets.flags(), new byte[] {0x05, 0x09, 'a'});
+
+        assertFalse(mRecord.wrap(packet));
+        assertEquals(0x06, mRecord.getFlags());
+        assertFalse(mRecord.hasName());
+    }
+
+    @Test
+    public void resetsBetweenPackets() {
+        mRecord.wrap(Packets.packet(Packets.txPower(4), Packets.name("A")));
+        mRecord.wrap(Packets.packet(Packets.flags()));
+
+        assertEquals(AdvertisementRecord.TX_POWER_NOT_PRESENT, mRecord.getTxPower());
+        assertFalse(mRecord.hasName());
+        assertFalse(mRecord.wrap(null));
+        assertEquals(-1, mRecord.getFlags());
+    }
+
+    @Test
+    public void formatsUuidLikeJava() {
+        UUID uuid = Packets.BEACON_UUID;
+        assertEquals(uuid.toString(),
+                AdvertisementRecord.formatUuid(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()));
+    }
+}
@@ -0,0 +1,189 @@
+package com.jabresearch.bleadvertiser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdvertisingRotationTest {
+
+    private static final class RecordingAdvertiser implements AdvertisingRotation.Advertiser<String> {
+        final Set<String> onAir = new LinkedHashSet<>();
+        int starts;
+
+        @Override
+        public void start(String id, String payload) {
+            onAir.add(id);
+            starts++;
+        }
+
+        @Override
+        public void stop(String id) {
+            onAir.remove(id);
+        }
+    }
+
+    private RecordingAdvertiser mAdvertiser;
+    private AdvertisingRotation<String> mRotation;
+
+    @Before
+    public void setUp() {
+        mAdvertiser = new RecordingAdvertiser();
+        mRotation = new AdvertisingRotation<>(mAdvertiser);
+    }
+
+    @Test
+    public void sharesSlotsByWeight() {
+        mRotation.configure(1000, 1);
+        mRotation.add("heavy", "h", 3, 0);
+        mRotation.add("light", "l", 1, 0);
+
+        int heavy = 0;
+        for (int i = 0; i < 400; i++) {
+            mRotation.rotate(i * 1000L);
+            assertEquals(1, mAdvertiser.onAir.size());
+            if (mAdvertiser.onAir.contains("heavy")) heavy++;
+        }
+        assertEquals(300, heavy);
+    }
+
+    @Test
+    public void keepsSelectedPayloadsOnAir() {
+        mRotation.configure(1000, 2);
+        mRotation.add("a", "a", 1, 0);
+        mRotation.add("b", "b", 1, 0);
+
+        for (int i = 0; i < 10; i++) {
+            mRotation.rotate(i * 1000L);
+        }
+        assertEquals(2, mAdvertiser.starts);
+        assertEquals(1.0, mRotation.statistics(10000).get(0).dutyCycle, 0.001);
+    }
+
+    /**
+     * The controller refuses a payload the rotation just started.
+     */
+    private void refuse(long nowMs) {
+        String id = mAdvertiser.onAir.iterator().next();
+        mAdvertiser.onAir.remove(id);
+        mRotation.onStartFailed(id, nowMs);
+    }
+
+    @Test
+    public void probesForLostSlotsAfterBackoff() {
+        mRotation.configure(1000, 3);
+        for (String id : new String[] {"a", "b", "c", "d"}) {
+            mRotation.add(id, id, 1, 0);
+        }
+        mRotation.rotate(0);
+        refuse(0);
+        assertEquals(2, mRotation.getAvailableSlots());
+        assertEquals(3, mRotation.getSlots());
+
+        mRotation.rotate(1000);
+        assertEquals(2, mAdvertiser.onAir.size());
+
+        mRotation.rotate(AdvertisingRotation.MIN_PROBE_BACKOFF);
+        assertEquals(3, mRotation.getAvailableSlots());
+        assertEquals(3, mAdvertiser.onAir.size());
+    }
+
+    @Test
+    public void backoffDoublesWhileProbesFail() {
+        long backoff = AdvertisingRotation.MIN_PROBE_BACKOFF;
+        mRotation.configure(1000, 2);
+        for (String id : new String[] {"a", "b", "c"}) {
+            mRotation.add(id, id, 1, 0);
+        }
+        mRotation.rotate(0);
+        refuse(0);
+        assertEquals(1, mRotation.getAvailableSlots());
+
+        mRotation.rotate(backoff);
+        assertEquals(2, mRotation.getAvailableSlots());
+        refuse(backoff);
+        assertEquals(1, mRotation.getAvailableSlots());
+
+        mRotation.rotate(2 * backoff);
+        assertEquals(1, mRotation.getAvailableSlots());
+        mRotation.rotate(3 * backoff);
+        assertEquals(2, mRotation.getAvailableSlots());
+    }
+
+    @Test
+    public void shrinksToTheInstancesTheAdvertiserHas() {
+        final FakeAdvertiser advertiser = new FakeAdvertiser(2, false, 0);
+        final AdvertisingParameters parameters = new AdvertisingParameters();
+        final List<String> refused = new ArrayList<>();
+        final Advertiser.Callback callback = new Advertiser.Callback() {
+            @Override
+            public void onStarted(String id, int txPower) {
+            }
+
+            @Override
+            public void onFailed(String id, int errorCode) {
+                assertEquals(Advertiser.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS, errorCode);
+                refused.add(id);
+            }
+        };
+        AdvertisingRotation<AdvertisingPayload> rotation = new AdvertisingRotation<>(new AdvertisingRotation.Advertiser<AdvertisingPayload>() {
+            @Override
+            public void start(String id, AdvertisingPayload payload) {
+                advertiser.start(id, payload, parameters, callback);
+            }
+
+            @Override
+            public void stop(String id) {
+                advertiser.stop(id);
+            }
+        });
+
+        rotation.configure(1000, 4);
+        for (int minor = 0; minor < 5; minor++) {
+            rotation.add("beacon" + minor, AdvertisingPayload.iBeacon(Packets.BEACON_UUID.getMostSignificantBits(),
+                    Packets.BEACON_UUID.getLeastSignificantBits(), 1, minor, -59), 1, 0);
+        }
+
+        long now = 0;
+        for (; now < AdvertisingRotation.MIN_PROBE_BACKOFF; now += 1000) {
+            rotate(rotation, now, refused);
+            assertEquals(2, advertiser.count());
+            assertEquals(2, rotation.getAvailableSlots());
+        }
+
+        // The probe is refused too, and the next one waits twice as long
+        rotate(rotation, now, refused);
+        assertEquals(2, rotation.getAvailableSlots());
+        rotate(rotation, now + AdvertisingRotation.MIN_PROBE_BACKOFF, refused);
+        assertEquals(2, advertiser.count());
+        assertEquals(2, rotation.getAvailableSlots());
+    }
+
+    /**
+     * One rotation, with the refusals delivered after it as the platform does.
+     */
+    private static void rotate(AdvertisingRotation<AdvertisingPayload> rotation, long nowMs, List<String> refused) {
+        rotation.rotate(nowMs);
+        for (String id : refused) {
+            rotation.onStartFailed(id, nowMs);
+        }
+        refused.clear();
+    }
+
+    @Test
+    public void stopsEverythingOnClear() {
+        mRotation.add("a", "a", 1, 0);
+        mRotation.rotate(0);
+        assertEquals(1, mAdvertiser.onAir.size());
+
+        mRotation.clear(1000);
+        assertTrue(mAdvertiser.onAir.isEmpty());
+        assertEquals(-1, mRotation.rotate(2000));
+    }
+}
@@ -0,0 +1,177 @@
+package com.jabresearch.bleadvertiser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class BeaconLayoutTest {
+
+    private static final String EDDYSTONE_UID_LAYOUT = "s:0-1=feaa,m:2-2=00,p:3-3,i:4-13,i:14-19";
+
+    private final AdvertisementRecord mRecord = new AdvertisementRecord();
+    private final BeaconLayoutRegistry mLayouts = new BeaconLayoutRegistry();
+    private final BeaconLayoutRegistry.Match mMatch = new BeaconLayoutRegistry.Match();
+
+    private static void assertRejected(String layout, int manufacturerId) {
+        try {
+            BeaconLayout.compile("bad", layout, manufacturerId);
+            fail("Accepted " + layout);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void compilesDescriptors() {
+        BeaconLayout altBeacon = BeaconLayoutRegistry.ALTBEACON;
+        assertEquals(3, altBeacon.getIdentifierCount());
+        assertEquals(16, altBeacon.getIdentifierLength(0));
+        assertEquals(1, altBeacon.getDataCount());
+        assertTrue(altBeacon.hasPower());
+        assertTrue(altBeacon.isRegionShaped());
+        assertFalse(altBeacon.isServiceData());
+
+        BeaconLayout eddystone = BeaconLayout.compile("eddystone-uid", EDDYSTONE_UID_LAYOUT, -1);
+        assertTrue(eddystone.isServiceData());
+        assertFalse(eddystone.isRegionShaped());
+        assertEquals(0xFEAA, eddystone.serviceUuid);
+    }
+
+    @Test
+    public void rejectsMalformedDescriptors() {
+        assertRejected("i:4-19", -1);
+        assertRejected("m:2-3=beac", -1);
+        assertRejected("m:2-3=be,i:4-19", -1);
+        assertRejected("m:2-3=beac,i:4-19,x:20-21", -1);
+        assertRejected("m:2-3=beac,i:0-19", -1);
+        assertRejected("m:2-3=beac,i:4-19,d:20-29", -1);
+        assertRejected("m:2-3=beac,i:4-19,p:20-21", -1);
+        assertRejected("m:2-3=beac,p:20-20l,i:4-19", -1);
+        assertRejected(EDDYSTONE_UID_LAYOUT, 0x004C);
+        assertRejected("m:2-3=beac,i:4-19", 0x10000);
+    }
+
+    @Test
+    public void encodesAndMatchesAltBeacon() {
+        BeaconLayout altBeacon = BeaconLayoutRegistry.ALTBEACON;
+        byte[][] identifiers = {
+                altBeacon.parseIdentifier(0, Packets.BEACON_UUID.toString()),
+                altBeacon.parseIdentifier(1, "1"),
+                altBeacon.parseIdentifier(2, "0x0102") };
+        AdvertisingPayload payload = altBeacon.toPayload(altBeacon.encode(identifiers, new long[] {7}, -59), 0x0118);
+        assertEquals(0x0118, payload.manufacturerId);
+
+        byte[] packet = Packets.packet(Packets.flags(), Packets.manufacturer(payload.manufacturerId, payload.manufacturerData));
+        mRecord.wrap(packet);
+        assertTrue(mLayouts.match(mRecord, mMatch));
+        assertSame(altBeacon, mMatch.layout);
+
+        assertArrayEquals(new String[] {Packets.BEACON_UUID.toString(), "1", "258"},
+                altBeacon.identifiers(packet, mMatch.start));
+        assertArrayEquals(new long[] {7}, altBeacon.dataFields(packet, mMatch.start));
+        assertEquals(-59, altBeacon.power(packet, mMatch.start));
+    }
+
+    @Test
+    public void matchesIBeaconOnlyFromApple() {
+        byte[] packet = Packets.iBeacon(Packets.BEACON_UUID, 5, 6, -59);
+        mRecord.wrap(packet);
+        assertTrue(mLayouts.match(mRecord, mMatch));
+        assertSame(BeaconLayoutRegistry.IBEACON, mMatch.layout);
+        assertEquals(6, mMatch.layout.identifierValue(packet, mMatch.start, 2));
+
+        mRecord.wrap(Packets.packet(Packets.manufacturer(0x1234, AdvertisingPayload.iBeacon(
+                Packets.BEACON_UUID.getMostSignificantBits(), Packets.BEACON_UUID.getLeastSignificantBits(), 5, 6, -59).manufacturerData)));
+        assertFalse(mLayouts.match(mRecord, mMatch));
+    }
+
+    @Test
+    public void matchesRegisteredServiceDataLayout() {
+        BeaconLayout layout = BeaconLayout.compile("eddystone-uid", EDDYSTONE_UID_LAYOUT, -1);
+        assertNull(mLayouts.put(layout));
+
+        byte[] packet = Packets.eddystoneUid(DataEncoding.decodeHex("00112233445566778899"),
+                DataEncoding.decodeHex("aabbccddeeff"), -20);
+        mRecord.wrap(packet);
+        assertTrue(mLayouts.match(mRecord, mMatch));
+        assertSame(layout, mMatch.layout);
+        assertArrayEquals(new String[] {"0x00112233445566778899", "0xaabbccddeeff"}, layout.identifiers(packet, mMatch.start));
+        assertEquals(-20, layout.power(packet, mMatch.start));
+
+        assertSame(layout, mLayouts.remove("eddystone-uid"));
+        assertFalse(mLayouts.match(mRecord, mMatch));
+    }
+
+    @Test
+    public void readsLittleEndianFields() {
+        BeaconLayout layout = BeaconLayout.compile("le", "m:2-2=aa,i:3-4l,d:5-6l", 0x1234);
+        byte[] encoded = layout.encode(new byte[][] {layout.parseIdentifier(0, "0x0102")}, new long[] {0x0304}, 0);
+        assertArrayEquals(new byte[] {(byte) 0xAA, 0x02, 0x01, 0x04, 0x03}, encoded);
+
+        byte[] packet = Packets.packet(Packets.manufacturer(0x1234, encoded));
+        mLayouts.put(layout);
+        mRecord.wrap(packet);
+        assertTrue(mLayouts.match(mRecord, mMatch));
+        assertEquals(0x0102, layout.identifierValue(packet, mMatch.start, 0));
+        assertEquals(0x0304, layout.dataField(packet, mMatch.start, 0));
+        assertEquals(BeaconLayout.NO_POWER, layout.power(packet, mMatch.start));
+    }
+
+    @Test
+    public void regionFiltersCoverEveryLayoutWithACompany() {
+        long msb = Packets.BEACON_UUID.getMostSignificantBits();
+        long lsb = Packets.BEACON_UUID.getLeastSignificantBits();
+        BeaconLayout layout = BeaconLayout.compile("radius", BeaconLayout.ALTBEACON_LAYOUT, 0x0118);
+        mLayouts.put(layout);
+
+        // The built-in AltBeacon layout takes any company and gets no filter
+        assertEquals(Arrays.asList(ScanFilterSpec.iBeacon(msb, lsb, 16, 3, null), layout.regionFilter(msb, lsb, 16, 3, null)),
+                mLayouts.regionFilters(msb, lsb, 16, 3, null));
+        assertNull(BeaconLayoutRegistry.ALTBEACON.regionFilter(msb, lsb, 16, 3, null));
+
+        ScanFilterSpec spec = layout.regionFilter(msb, lsb, 16, 3, null);
+        byte[][] identifiers = {
+                layout.parseIdentifier(0, Packets.BEACON_UUID.toString()),
+                layout.parseIdentifier(1, "3"),
+                layout.parseIdentifier(2, "9") };
+        mRecord.wrap(Packets.packet(Packets.manufacturer(0x0118, layout.encode(identifiers, new long[] {7}, -59))));
+        assertTrue(spec.matches(mRecord));
+
+        identifiers[1] = layout.parseIdentifier(1, "4");
+        mRecord.wrap(Packets.packet(Packets.manufacturer(0x0118, layout.encode(identifiers, new long[] {7}, -59))));
+        assertFalse(spec.matches(mRecord));
+    }
+
+    @Test
+    public void builtInLayoutsStay() {
+        try {
+            mLayouts.put(BeaconLayout.compile(BeaconLayout.IBEACON, BeaconLayout.ALTBEACON_LAYOUT, -1));
+            fail("Replaced the iBeacon layout");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertNull(mLayouts.remove(BeaconLayout.ALTBEACON));
+        assertEquals(2, mLayouts.layouts().size());
+    }
+
+    @Test
+    public void rejectsIdentifiersThatDoNotFit() {
+        BeaconLayout altBeacon = BeaconLayoutRegistry.ALTBEACON;
+        try {
+            altBeacon.parseIdentifier(1, "70000");
+            fail("Accepted a major above 65535");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            altBeacon.encode(new byte[][] {new byte[16]}, null, 0);
+            fail("Accepted one identifier for three");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.jabresearch.bleadvertiser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class EddystoneFrameTest {
+
+    private final AdvertisementRecord mRecord = new AdvertisementRecord();
+
+    private EddystoneFrame decode(byte[] frame) {
+        mRecord.wrap(Packets.eddystone(frame));
+        int index = EddystoneFrame.find(mRecord);
+        assertTrue(index >= 0);
+        return EddystoneFrame.decode(mRecord.getBytes(), mRecord.getServiceDataOffset(index), mRecord.getServiceDataLength(index));
+    }
+
+    @Test
+    public void decodesUid() {
+        mRecord.wrap(Packets.eddystoneUid(DataEncoding.decodeHex("00112233445566778899"),
+                DataEncoding.decodeHex("aabbccddeeff"), -21));
+        int index = EddystoneFrame.find(mRecord);
+        EddystoneFrame frame = EddystoneFrame.decode(mRecord.getBytes(),
+                mRecord.getServiceDataOffset(index), mRecord.getServiceDataLength(index));
+
+        assertEquals(EddystoneFrame.TYPE_UID, frame.type);
+        assertEquals(-21, frame.txPower);
+        assertEquals("00112233445566778899", frame.namespace);
+        assertEquals("aabbccddeeff", frame.instance);
+    }
+
+    @Test
+    public void decodesUrlWithExpansions() {
+        EddystoneFrame frame = decode(new byte[] {0x10, (byte) 0xEE, 0x01, 'e', 'x', 'a', 'm', 'p', 'l', 'e', 0x07});
+
+        assertEquals(EddystoneFrame.TYPE_URL, frame.type);
+        assertEquals(-18, frame.txPower);
+        assertEquals("https://www.example.com", frame.url);
+    }
+
+    @Test
+    public void decodesTlm() {
+        EddystoneFrame frame = decode(new byte[] {0x20, 0x00, 0x0B, (byte) 0xB8, 0x18, (byte) 0x80,
+                0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x00, 0x0A});
+
+        assertEquals(EddystoneFrame.TYPE_TLM, frame.type);
+        assertEquals(3000, frame.batteryVoltage);
+        assertEquals(24.5, frame.temperature, 0);
+        assertEquals(256, frame.advertisingCount);
+        assertEquals(1000, frame.uptime);
+    }
+
+    @Test
+    public void tlmWithoutSensorHasNoTemperature() {
+        EddystoneFrame frame = decode(new byte[] {0x20, 0x00, 0x0B, (byte) 0xB8, (byte) 0x80, 0x00,
+                0x00, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x01});
+
+        assertTrue(Double.isNaN(frame.temperature));
+    }
+
+    @Test
+    public void decodesEid() {
+        EddystoneFrame frame = decode(new byte[] {0x30, (byte) 0xF0, 1, 2, 3, 4, 5, 6, 7, 8});
+
+        assertEquals(EddystoneFrame.TYPE_EID, frame.type);
+        assertEquals("0102030405060708", frame.ephemeralId);
+    }
+
+    @Test
+    public void rejectsTruncatedAndUnknownFrames() {
+        assertNull(decode(new byte[] {0x00, 0x00, 1, 2, 3}));
+        assertNull(decode(new byte[] {0x30, 0x00, 1}));
+        assertNull(decode(new byte[] {0x50, 0x00}));
+    }
+
+    @Test
+    public void findsOnlyEddystoneServiceData() {
+        mRecord.wrap(Packets.packet(Packets.flags(), Packets.serviceData16(0x180F, new byte[] {0x55})));
+        assertEquals(-1, EddystoneFrame.find(mRecord));
+    }
+
+    @Test
+    public void filterMatchesNamespaceIgnoringTxPower() {
+        byte[] namespace = DataEncoding.decodeHex("00112233445566778899");
+        ScanFilterSpec filter = ScanFilterSpec.eddystone(EddystoneFrame.TYPE_UID, namespace, null);
+
+        mRecord.wrap(Packets.eddystoneUid(namespace, DataEncoding.decodeHex("aabbccddeeff"), -30));
+        assertTrue(filter.matches(mRecord));
+
+        mRecord.wrap(Packets.eddystoneUid(DataEncoding.decodeHex("99887766554433221100"),
+                DataEncoding.decodeHex("aabbccddeeff"), -30));
+        assertFalse(filter.matches(mRecord));
+    }
+
+    @Test
+    public void frameTypesRoundTripThroughText() {
+        for (int type : new int[] {EddystoneFrame.TYPE_UID, EddystoneFrame.TYPE_URL, EddystoneFrame.TYPE_TLM, EddystoneFrame.TYPE_EID}) {
+            assertNotNull(EddystoneFrame.typeToString(type));
+            assertEquals(type, EddystoneFrame.typeFromString(EddystoneFrame.typeToString(type)));
+        }
+        assertEquals(-1, EddystoneFrame.typeFromString("ibeacon"));
+    }
+}
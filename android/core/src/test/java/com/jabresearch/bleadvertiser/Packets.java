@@ -0,0 +1,84 @@
+package com.jabresearch.bleadvertiser;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+/**
+ * Advertisement bytes for the tests, built from AD structures the way a
+ * controller sends them.
+ */
+final class Packets {
+
+    static final UUID BEACON_UUID = UUID.fromString("e2c56db5-dffb-48d2-b060-d0f5a71096e0");
+    static final UUID OTHER_UUID = UUID.fromString("f7826da6-4fa2-4e98-8024-bc5b71e0893e");
+
+    private Packets() {
+    }
+
+    static byte[] packet(byte[]... structures) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] structure : structures) {
+            out.write(structure, 0, structure.length);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] structure(int type, byte[] data) {
+        byte[] structure = new byte[data.length + 2];
+        structure[0] = (byte) (data.length + 1);
+        structure[1] = (byte) type;
+        System.arraycopy(data, 0, structure, 2, data.length);
+        return structure;
+    }
+
+    static byte[] flags() {
+        return structure(0x01, new byte[] {0x06});
+    }
+
+    static byte[] name(String name) {
+        return structure(0x09, name.getBytes(Charset.forName("UTF-8")));
+    }
+
+    static byte[] txPower(int txPower) {
+        return structure(0x0A, new byte[] {(byte) txPower});
+    }
+
+    static byte[] manufacturer(int companyId, byte[] data) {
+        byte[] payload = new byte[data.length + 2];
+        payload[0] = (byte) companyId;
+        payload[1] = (byte) (companyId >> 8);
+        System.arraycopy(data, 0, payload, 2, data.length);
+        return structure(0xFF, payload);
+    }
+
+    static byte[] serviceData16(int uuid, byte[] data) {
+        byte[] payload = new byte[data.length + 2];
+        payload[0] = (byte) uuid;
+        payload[1] = (byte) (uuid >> 8);
+        System.arraycopy(data, 0, payload, 2, data.length);
+        return structure(0x16, payload);
+    }
+
+    static byte[] serviceUuid16(int uuid) {
+        return structure(0x03, new byte[] {(byte) uuid, (byte) (uuid >> 8)});
+    }
+
+    static byte[] iBeacon(UUID uuid, int major, int minor, int measuredPower) {
+        return packet(flags(), manufacturer(AdvertisementRecord.APPLE_MANUFACTURER_ID, AdvertisingPayload.iBeacon(
+                uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), major, minor, measuredPower).manufacturerData));
+    }
+
+    static byte[] eddystoneUid(byte[] namespace, byte[] instance, int txPower) {
+        byte[] frame = new byte[2 + EddystoneFrame.NAMESPACE_LENGTH + EddystoneFrame.INSTANCE_LENGTH + 2];
+        frame[0] = (byte) EddystoneFrame.TYPE_UID;
+        frame[1] = (byte) txPower;
+        System.arraycopy(namespace, 0, frame, 2, EddystoneFrame.NAMESPACE_LENGTH);
+        System.arraycopy(instance, 0, frame, 2 + EddystoneFrame.NAMESPACE_LENGTH, EddystoneFrame.INSTANCE_LENGTH);
+        return eddystone(frame);
+    }
+
+    static byte[] eddystone(byte[] frame) {
+        return packet(flags(), serviceUuid16(0xFEAA), serviceData16(0xFEAA, frame));
+    }
+}
@@ -0,0 +1,60 @@
+package com.jabresearch.bleadvertiser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class RegionIndexTest {
+
+    private static final UUID UUID_A = Packets.BEACON_UUID;
+    private static final UUID UUID_B = Packets.OTHER_UUID;
+
+    private final RegionIndex.Key mProbe = new RegionIndex.Key();
+
+    private static <T> List<T> match(RegionIndex<T> index, UUID uuid, int major, int minor, RegionIndex.Key probe) {
+        List<T> out = new ArrayList<>();
+        index.match(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), major, minor, probe, out);
+        return out;
+    }
+
+    private static void add(RegionIndex<String> index, UUID uuid, Integer major, Integer minor, String value) {
+        index.add(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), major, minor, value);
+    }
+
+    @Test
+    public void matchesEveryWildcardLevel() {
+        RegionIndex<String> index = new RegionIndex<>();
+        add(index, UUID_A, 1, 2, "exact");
+        add(index, UUID_A, 1, null, "anyMinor");
+        add(index, UUID_A, null, 2, "anyMajor");
+        add(index, UUID_A, null, null, "uuid");
+        add(index, UUID_B, null, null, "other");
+
+        assertEquals(new HashSet<>(Arrays.asList("exact", "anyMinor", "anyMajor", "uuid")),
+                new HashSet<>(match(index, UUID_A, 1, 2, mProbe)));
+        assertEquals(Arrays.asList("anyMinor", "uuid"), match(index, UUID_A, 1, 3, mProbe));
+        assertEquals(Arrays.asList("uuid"), match(index, UUID_A, 7, 7, mProbe));
+        assertEquals(Arrays.asList("other"), match(index, UUID_B, 1, 2, mProbe));
+    }
+
+    @Test
+    public void removesOnlyTheGivenValue() {
+        RegionIndex<String> index = new RegionIndex<>();
+        add(index, UUID_A, 1, null, "first");
+        add(index, UUID_A, 1, null, "second");
+
+        assertTrue(index.remove(UUID_A.getMostSignificantBits(), UUID_A.getLeastSignificantBits(), 1, null, "first"));
+        assertEquals(Arrays.asList("second"), match(index, UUID_A, 1, 9, mProbe));
+
+        index.clear();
+        assertTrue(index.isEmpty());
+        assertTrue(match(index, UUID_A, 1, 9, mProbe).isEmpty());
+    }
+}
@@ -0,0 +1,107 @@
+package com.jabresearch.bleadvertiser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RegionMonitorTest {
+
+    private static final long START = 100000;
+
+    @Test
+    public void wheelFiresAtMostOneTickLate() {
+        HashedTimerWheel<String> wheel = new HashedTimerWheel<>(100, 8, START);
+        HashedTimerWheel.Timeout<String> timeout = new HashedTimerWheel.Timeout<>("a");
+        wheel.schedule(timeout, START + 250);
+
+        List<String> expired = new ArrayList<>();
+        assertEquals(0, wheel.expire(START + 200, expired));
+        assertEquals(1, wheel.expire(START + 300, expired));
+        assertEquals(Arrays.asList("a"), expired);
+        assertFalse(timeout.isScheduled());
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void wheelHandlesDeadlinesBeyondOneTurn() {
+        HashedTimerWheel<String> wheel = new HashedTimerWheel<>(100, 4, START);
+        wheel.schedule(new HashedTimerWheel.Timeout<>("near"), START + 100);
+        wheel.schedule(new HashedTimerWheel.Timeout<>("far"), START + 1000);
+
+        List<String> expired = new ArrayList<>();
+        wheel.expire(START + 500, expired);
+        assertEquals(Arrays.asList("near"), expired);
+
+        wheel.expire(START + 1000, expired);
+        assertEquals(Arrays.asList("near", "far"), expired);
+    }
+
+    @Test
+    public void wheelCancelsAndReschedules() {
+        HashedTimerWheel<String> wheel = new HashedTimerWheel<>(100, 8, START);
+        HashedTimerWheel.Timeout<String> first = new HashedTimerWheel.Timeout<>("first");
+        HashedTimerWheel.Timeout<String> second = new HashedTimerWheel.Timeout<>("second");
+        wheel.schedule(first, START + 100);
+        wheel.schedule(second, START + 100);
+        wheel.cancel(first);
+        wheel.schedule(second, START + 400);
+        assertEquals(1, wheel.size());
+
+        List<String> expired = new ArrayList<>();
+        wheel.expire(START + 300, expired);
+        assertTrue(expired.isEmpty());
+        wheel.expire(START + 400, expired);
+        assertEquals(Arrays.asList("second"), expired);
+    }
+
+    @Test
+    public void regionEntersOnceAndExitsAfterTimeout() {
+        RegionMonitor<String> monitor = new RegionMonitor<>(START);
+        monitor.add("lobby", 1000);
+
+        assertTrue(monitor.onBeaconSeen("lobby", START));
+        assertFalse(monitor.onBeaconSeen("lobby", START + 100));
+        assertFalse(monitor.onBeaconSeen("hall", START + 100));
+
+        List<String> exited = new ArrayList<>();
+        assertTrue(monitor.expire(START + 1000, exited));
+        assertTrue(exited.isEmpty());
+
+        assertFalse(monitor.expire(START + 1100 + RegionMonitor.TICK_MS, exited));
+        assertEquals(Arrays.asList("lobby"), exited);
+        assertFalse(monitor.isInside("lobby"));
+    }
+
+    @Test
+    public void packetsKeepTheRegionInside() {
+        RegionMonitor<String> monitor = new RegionMonitor<>(START);
+        monitor.add("lobby", 1000);
+        monitor.onBeaconSeen("lobby", START);
+
+        List<String> exited = new ArrayList<>();
+        for (long now = START; now <= START + 5000; now += RegionMonitor.TICK_MS) {
+            monitor.onBeaconSeen("lobby", now);
+            monitor.expire(now, exited);
+        }
+        assertTrue(exited.isEmpty());
+        assertTrue(monitor.isInside("lobby"));
+    }
+
+    @Test
+    public void removedRegionNeverExits() {
+        RegionMonitor<String> monitor = new RegionMonitor<>(START);
+        monitor.add("lobby", 1000);
+        monitor.onBeaconSeen("lobby", START);
+        monitor.remove("lobby");
+
+        List<String> exited = new ArrayList<>();
+        assertFalse(monitor.expire(START + 5000, exited));
+        assertTrue(exited.isEmpty());
+    }
+}
@@ -0,0 +1,57 @@
+package com.jabresearch.bleadvertiser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class RegionRegistryTest {
+
+    private static final UUID UUID_A = Packets.BEACON_UUID;
+
+    private final RegionIndex.Key mProbe = new RegionIndex.Key();
+
+    @Test
+    public void snapshotsStayUnchangedByLaterWrites() {
+        RegionRegistry<BeaconRegion> registry = new RegionRegistry<>(BeaconRegion.GEOMETRY);
+        BeaconRegion lobby = new BeaconRegion("lobby", UUID_A, 1, null);
+        registry.put(lobby.identifier, lobby);
+
+        RegionRegistry.Snapshot<BeaconRegion> before = registry.snapshot();
+        BeaconRegion hall = new BeaconRegion("hall", UUID_A, null, null);
+        registry.put(hall.identifier, hall);
+        registry.remove(lobby.identifier);
+
+        List<BeaconRegion> matched = new ArrayList<>();
+        before.match(UUID_A.getMostSignificantBits(), UUID_A.getLeastSignificantBits(), 1, 5, mProbe, matched);
+        assertEquals(Arrays.asList(lobby), matched);
+
+        matched.clear();
+        RegionRegistry.Snapshot<BeaconRegion> after = registry.snapshot();
+        after.match(UUID_A.getMostSignificantBits(), UUID_A.getLeastSignificantBits(), 1, 5, mProbe, matched);
+        assertEquals(Arrays.asList(hall), matched);
+        assertSame(hall, after.get("hall"));
+        assertNull(after.get("lobby"));
+    }
+
+    @Test
+    public void replacingARegionMovesItsIndexEntry() {
+        RegionRegistry<BeaconRegion> registry = new RegionRegistry<>(BeaconRegion.GEOMETRY);
+        registry.put("lobby", new BeaconRegion("lobby", UUID_A, 1, null));
+        BeaconRegion moved = new BeaconRegion("lobby", UUID_A, 2, null);
+        registry.put("lobby", moved);
+
+        List<BeaconRegion> matched = new ArrayList<>();
+        registry.snapshot().match(UUID_A.getMostSignificantBits(), UUID_A.getLeastSignificantBits(), 1, 0, mProbe, matched);
+        assertTrue(matched.isEmpty());
+        registry.snapshot().match(UUID_A.getMostSignificantBits(), UUID_A.getLeastSignificantBits(), 2, 0, mProbe, matched);
+        assertEquals(Arrays.asList(moved), matched);
+    }
+}
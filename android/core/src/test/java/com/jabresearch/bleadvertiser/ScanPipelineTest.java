@@ -0,0 +1,337 @@
+package com.jabresearch.bleadvertiser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ScanPipelineTest {
+
+    private static final String ADDRESS = "AA:BB:CC:DD:EE:01";
+    private static final byte[] NAMESPACE = DataEncoding.decodeHex("edd1ebeac04e5defa017");
+    private static final byte[] INSTANCE = DataEncoding.decodeHex("0badc0ffee01");
+
+    private static final class ManualClock implements ScanPipeline.Clock {
+        long nanos = 5000000000L;
+
+        @Override
+        public long elapsedNanos() {
+            return nanos;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return 1500000000000L + nanos / 1000000;
+        }
+    }
+
+    private static final class RecordingSink implements EventSink {
+        final List<DeviceEvent> found = new ArrayList<>();
+        final List<String> sessionIds = new ArrayList<>();
+        final List<DeviceEvent> sessionEvents = new ArrayList<>();
+        final List<BeaconRegion> entered = new ArrayList<>();
+        final List<String> enteredUuids = new ArrayList<>();
+
+        @Override
+        public void onDeviceFound(DeviceEvent event) {
+            found.add(event);
+        }
+
+        @Override
+        public void onSessionResult(String sessionId, DeviceEvent event) {
+            sessionIds.add(sessionId);
+            sessionEvents.add(event);
+        }
+
+        @Override
+        public void onRegionEnter(BeaconRegion region, String uuid, int major, int minor) {
+            entered.add(region);
+            enteredUuids.add(uuid);
+        }
+    }
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private ManualClock mClock;
+    private RecordingSink mSink;
+    private ScanPipeline mPipeline;
+    private FakeScanner mScanner;
+
+    @Before
+    public void setUp() {
+        mClock = new ManualClock();
+        mSink = new RecordingSink();
+        mPipeline = new ScanPipeline(mClock, mSink);
+        mScanner = new FakeScanner();
+        mScanner.setListener(new Scanner.Listener() {
+            @Override
+            public void onPacket(String address, int rssi, byte[] bytes, long timestampNanos) {
+                mPipeline.process(address, rssi, bytes, timestampNanos, mClock.elapsedNanos());
+            }
+        });
+    }
+
+    private static ScanConfig settings() {
+        return new ScanConfig(null, ScanConfig.UNSET, ScanConfig.UNSET, ScanConfig.UNSET, ScanConfig.UNSET);
+    }
+
+    private void openLegacy(ScanFilterSpec... filters) {
+        mPipeline.sessions.open("default", Arrays.asList(filters), true, settings());
+    }
+
+    /**
+     * Starts the merged scan the way the restart scheduler does.
+     */
+    private void startScan() {
+        ScanConfig config = mPipeline.sessions.merge();
+        mPipeline.setFilters(config.filters);
+        mScanner.start(config);
+    }
+
+    private boolean inject(byte[] packet) {
+        return mScanner.inject(ADDRESS, -60, packet, mClock.elapsedNanos());
+    }
+
+    private static ScanFilterSpec beaconFilter() {
+        return ScanFilterSpec.iBeacon(Packets.BEACON_UUID.getMostSignificantBits(),
+                Packets.BEACON_UUID.getLeastSignificantBits(), 16, null, null);
+    }
+
+    @Test
+    public void reportsDecodedIBeacon() {
+        openLegacy();
+        startScan();
+
+        assertTrue(inject(Packets.iBeacon(Packets.BEACON_UUID, 3, 21, -59)));
+
+        assertEquals(1, mSink.found.size());
+        DeviceEvent event = mSink.found.get(0);
+        assertEquals(ADDRESS, event.deviceAddress);
+        assertEquals(-60, event.rssi);
+        assertTrue(event.hasRecord);
+        assertTrue(event.hasBeacon);
+        assertEquals(Packets.BEACON_UUID.toString(), event.beaconUuid);
+        assertEquals(3, event.major);
+        assertEquals(21, event.minor);
+        assertEquals(-59, event.measuredPower);
+        assertEquals(BeaconLayout.IBEACON, event.beaconLayout.name);
+        assertTrue(event.distance > 0);
+    }
+
+    @Test
+    public void stoppedScannerDeliversNothing() {
+        openLegacy();
+        startScan();
+        mScanner.stop();
+
+        assertFalse(inject(Packets.iBeacon(Packets.BEACON_UUID, 1, 1, -59)));
+        assertTrue(mSink.found.isEmpty());
+    }
+
+    @Test
+    public void filtersDropOtherBeacons() {
+        openLegacy(beaconFilter());
+        startScan();
+
+        inject(Packets.iBeacon(Packets.OTHER_UUID, 1, 1, -59));
+        inject(Packets.iBeacon(Packets.BEACON_UUID, 1, 1, -59));
+
+        assertEquals(1, mSink.found.size());
+        assertEquals(Packets.BEACON_UUID.toString(), mSink.found.get(0).beaconUuid);
+    }
+
+    @Test
+    public void entersMonitoredRegionOnce() {
+        BeaconRegion region = new BeaconRegion("lobby", Packets.BEACON_UUID, 3, null);
+        mPipeline.regionMonitor.add(region, RegionMonitor.DEFAULT_EXIT_TIMEOUT);
+        mPipeline.monitoredRegions.put(region.identifier, region);
+        openLegacy();
+        startScan();
+
+        inject(Packets.iBeacon(Packets.BEACON_UUID, 4, 1, -59));
+        assertTrue(mSink.entered.isEmpty());
+
+        inject(Packets.iBeacon(Packets.BEACON_UUID, 3, 1, -59));
+        inject(Packets.iBeacon(Packets.BEACON_UUID, 3, 2, -59));
+
+        assertEquals(Collections.singletonList(region), mSink.entered);
+        assertTrue(mPipeline.regionMonitor.isInside(region));
+    }
+
+    @Test
+    public void unreportedPacketStillEntersWithItsUuid() {
+        BeaconRegion region = new BeaconRegion("lobby", Packets.BEACON_UUID, null, null);
+        mPipeline.regionMonitor.add(region, RegionMonitor.DEFAULT_EXIT_TIMEOUT);
+        mPipeline.monitoredRegions.put(region.identifier, region);
+
+        mPipeline.process(ADDRESS, -60, Packets.iBeacon(Packets.BEACON_UUID, 1, 1, -59), 0, mClock.elapsedNanos());
+
+        assertTrue(mSink.found.isEmpty());
+        assertEquals(Collections.singletonList(Packets.BEACON_UUID.toString()), mSink.enteredUuids);
+    }
+
+    @Test
+    public void reportOnChangeSuppressesRepeats() {
+        mPipeline.setReportOnChange(true);
+        openLegacy();
+        startScan();
+
+        byte[] packet = Packets.iBeacon(Packets.BEACON_UUID, 1, 1, -59);
+        inject(packet);
+        inject(packet);
+
+        assertEquals(1, mSink.found.size());
+        assertEquals(1, mPipeline.metrics.packetsSuppressed.get());
+    }
+
+    @Test
+    public void namedSessionIgnoresLegacyReportOnChange() {
+        mPipeline.setReportOnChange(true);
+        openLegacy();
+        mPipeline.sessions.open("tags", Collections.<ScanFilterSpec>emptyList(), false, settings());
+        startScan();
+
+        byte[] packet = Packets.iBeacon(Packets.BEACON_UUID, 1, 1, -59);
+        inject(packet);
+        inject(packet);
+
+        assertEquals(1, mSink.found.size());
+        assertEquals(Arrays.asList("tags", "tags"), mSink.sessionIds);
+    }
+
+    @Test
+    public void namedSessionReportsOnChangeWithItsOwnCache() {
+        mPipeline.sessions.open("tags", Collections.<ScanFilterSpec>emptyList(), false, settings(),
+                new DeviceCache(), DataEncoding.HEX);
+        startScan();
+
+        byte[] packet = Packets.iBeacon(Packets.BEACON_UUID, 1, 1, -59);
+        inject(packet);
+        inject(packet);
+
+        assertTrue(mSink.found.isEmpty());
+        assertEquals(1, mSink.sessionEvents.size());
+        assertEquals(DataEncoding.HEX, mPipeline.sessions.session("tags").dataEncoding);
+    }
+
+    @Test
+    public void sessionsOnlyGetTheirOwnPackets() {
+        openLegacy(beaconFilter());
+        mPipeline.sessions.open("eddystone", Collections.singletonList(
+                ScanFilterSpec.eddystone(EddystoneFrame.TYPE_UID, NAMESPACE, null)), false, settings());
+        startScan();
+
+        inject(Packets.iBeacon(Packets.BEACON_UUID, 1, 1, -59));
+        inject(Packets.eddystoneUid(NAMESPACE, INSTANCE, -20));
+
+        assertEquals(1, mSink.found.size());
+        assertTrue(mSink.found.get(0).hasBeacon);
+        assertNull(mSink.found.get(0).eddystone);
+
+        assertEquals(Collections.singletonList("eddystone"), mSink.sessionIds);
+        EddystoneFrame frame = mSink.sessionEvents.get(0).eddystone;
+        assertNotNull(frame);
+        assertEquals("edd1ebeac04e5defa017", frame.namespace);
+        assertEquals("0badc0ffee01", frame.instance);
+    }
+
+    @Test
+    public void reportsConfiguredCompanyData() {
+        mPipeline.setCompanyId(0x1234);
+        openLegacy();
+        startScan();
+
+        inject(Packets.packet(Packets.flags(), Packets.manufacturer(0x1234, new byte[] {1, 2, 3}),
+                Packets.name("Tag-7")));
+
+        DeviceEvent event = mSink.found.get(0);
+        assertEquals(0x1234, event.companyId);
+        assertArrayEquals(new byte[] {1, 2, 3}, event.manufacturerData);
+        assertEquals("Tag-7", event.deviceName);
+        assertFalse(event.hasBeacon);
+    }
+
+    @Test
+    public void ringTakesReportedPacketsInsteadOfEvents() {
+        ScanRecordRing ring = new ScanRecordRing(8);
+        mPipeline.setRing(ring, false);
+        openLegacy();
+        startScan();
+
+        inject(Packets.iBeacon(Packets.BEACON_UUID, 1, 1, -59));
+
+        assertEquals(1, ring.size());
+        assertTrue(mSink.found.isEmpty());
+    }
+
+    @Test
+    public void replayWithNoSessionReportsEveryPacket() throws Exception {
+        File directory = mFolder.newFolder("traces");
+        ScanTraceWriter writer = new ScanTraceWriter(directory, ScanTraceWriter.DEFAULT_MAX_FILE_BYTES, 1);
+        writer.append(1000, ADDRESS, -60, Packets.iBeacon(Packets.OTHER_UUID, 1, 1, -59));
+        writer.append(2000, ADDRESS, -61, Packets.iBeacon(Packets.BEACON_UUID, 3, 21, -59));
+        writer.close();
+
+        // The last scan's filter would drop the first packet
+        openLegacy(beaconFilter());
+        startScan();
+        mScanner.stop();
+        mPipeline.sessions.close("default");
+
+        inject(Packets.iBeacon(Packets.BEACON_UUID, 1, 1, -59));
+        mPipeline.process(ADDRESS, -60, Packets.iBeacon(Packets.BEACON_UUID, 1, 1, -59), 0, mClock.elapsedNanos());
+        assertTrue(mSink.found.isEmpty());
+
+        replay(ScanTraceReader.traceFiles(directory));
+
+        assertEquals(2, mSink.found.size());
+        assertEquals(Packets.OTHER_UUID.toString(), mSink.found.get(0).beaconUuid);
+        DeviceEvent event = mSink.found.get(1);
+        assertEquals(-61, event.rssi);
+        assertEquals(Packets.BEACON_UUID.toString(), event.beaconUuid);
+        assertEquals(21, event.minor);
+        assertTrue(mSink.sessionIds.isEmpty());
+    }
+
+    /**
+     * Replays the files as fast as possible into the pipeline, the way the
+     * module does, and waits for the end.
+     */
+    private void replay(List<File> files) throws InterruptedException {
+        ScanTraceReplayer replayer = new ScanTraceReplayer(files, 0, ScanTraceReplayer.DEFAULT_MAX_GAP_NANOS, mClock,
+                new Scanner.Listener() {
+                    @Override
+                    public void onPacket(String address, int rssi, byte[] bytes, long timestampNanos) {
+                        mPipeline.process(address, rssi, bytes, timestampNanos, mClock.elapsedNanos(), true);
+                    }
+                });
+        final CountDownLatch finished = new CountDownLatch(1);
+        final IOException[] failure = new IOException[1];
+        replayer.start(new ScanTraceReplayer.Listener() {
+            @Override
+            public void onReplayFinished(long replayed, IOException error) {
+                failure[0] = error;
+                finished.countDown();
+            }
+        });
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertNull(failure[0]);
+    }
+}
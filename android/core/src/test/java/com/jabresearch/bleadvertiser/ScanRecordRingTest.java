@@ -0,0 +1,94 @@
+package com.jabresearch.bleadvertiser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class ScanRecordRingTest {
+
+    @Test
+    public void roundsCapacityToPowerOfTwo() {
+        assertEquals(8, new ScanRecordRing(5).getCapacity());
+        assertEquals(ScanRecordRing.MAX_CAPACITY, new ScanRecordRing(Integer.MAX_VALUE).getCapacity());
+    }
+
+    @Test
+    public void writesTheDocumentedLayout() {
+        ScanRecordRing ring = new ScanRecordRing(4);
+        byte[] data = {2, 1, 6};
+        assertTrue(ring.write(1234, "AA:BB:CC:DD:EE:0F", -70, data, data.length));
+
+        byte[] out = new byte[4 * ScanRecordRing.RECORD_SIZE];
+        assertEquals(1, ring.drain(out, 4));
+        ByteBuffer record = ByteBuffer.wrap(out);
+
+        assertEquals(0, record.getInt(ScanRecordRing.FIELD_SEQUENCE));
+        assertEquals(ScanRecordRing.FLAG_HAS_ADDRESS, record.get(ScanRecordRing.FIELD_FLAGS));
+        assertEquals(-70, record.get(ScanRecordRing.FIELD_RSSI));
+        assertEquals((byte) 0xAA, record.get(ScanRecordRing.FIELD_ADDRESS));
+        assertEquals((byte) 0x0F, record.get(ScanRecordRing.FIELD_ADDRESS + 5));
+        assertEquals(3, record.get(ScanRecordRing.FIELD_DATA_LENGTH));
+        assertEquals(1234.0, record.getDouble(ScanRecordRing.FIELD_TIMESTAMP), 0);
+        assertEquals(6, record.get(ScanRecordRing.FIELD_DATA + 2));
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void truncatesLongData() {
+        ScanRecordRing ring = new ScanRecordRing(1);
+        byte[] data = new byte[62];
+        ring.write(0, null, -50, data, data.length);
+
+        byte[] out = new byte[ScanRecordRing.RECORD_SIZE];
+        ring.drain(out, 1);
+        assertEquals(ScanRecordRing.FLAG_TRUNCATED, out[ScanRecordRing.FIELD_FLAGS]);
+        assertEquals(ScanRecordRing.DATA_CAPACITY, out[ScanRecordRing.FIELD_DATA_LENGTH]);
+    }
+
+    @Test
+    public void dropsWhenFullAndSkipsTheSequence() {
+        ScanRecordRing ring = new ScanRecordRing(2);
+        assertTrue(ring.write(0, null, 0, null, 0));
+        assertTrue(ring.write(1, null, 0, null, 0));
+        assertFalse(ring.write(2, null, 0, null, 0));
+        assertEquals(1, ring.getOverflow());
+
+        byte[] out = new byte[2 * ScanRecordRing.RECORD_SIZE];
+        assertEquals(2, ring.drain(out, 2));
+        assertTrue(ring.write(3, null, 0, null, 0));
+        assertEquals(1, ring.drain(out, 2));
+        assertEquals(3, ByteBuffer.wrap(out).getInt(ScanRecordRing.FIELD_SEQUENCE));
+    }
+
+    @Test
+    public void drainsAcrossTheWrap() {
+        ScanRecordRing ring = new ScanRecordRing(4);
+        byte[] out = new byte[4 * ScanRecordRing.RECORD_SIZE];
+        for (int i = 0; i < 3; i++) {
+            ring.write(i, null, 0, null, 0);
+        }
+        ring.drain(out, 3);
+        for (int i = 3; i < 7; i++) {
+            ring.write(i, null, 0, null, 0);
+        }
+
+        assertEquals(4, ring.drain(out, 10));
+        ByteBuffer records = ByteBuffer.wrap(out);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(3 + i, records.getInt(i * ScanRecordRing.RECORD_SIZE + ScanRecordRing.FIELD_SEQUENCE));
+        }
+    }
+
+    @Test
+    public void clearDropsUnreadRecords() {
+        ScanRecordRing ring = new ScanRecordRing(4);
+        ring.write(0, null, 0, null, 0);
+        ring.clear();
+        assertEquals(0, ring.size());
+        assertEquals(0, ring.drain(new byte[ScanRecordRing.RECORD_SIZE], 1));
+    }
+}
@@ -0,0 +1,63 @@
+package com.jabresearch.bleadvertiser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScanSessionManagerTest {
+
+    private ScanSessionManager mSessions;
+
+    @Before
+    public void setUp() {
+        mSessions = new ScanSessionManager();
+    }
+
+    private void open(String id, int scanMode, int matchMode, int numOfMatches) {
+        mSessions.open(id, Collections.<ScanFilterSpec>emptyList(), false,
+                new ScanConfig(null, scanMode, matchMode, numOfMatches, ScanConfig.UNSET));
+    }
+
+    @Test
+    public void mergesNothingWithoutSessions() {
+        assertNull(mSessions.merge());
+    }
+
+    @Test
+    public void unsetSessionIsNotServedBelowTheDefaults() {
+        open("default", ScanConfig.UNSET, ScanConfig.UNSET, ScanConfig.UNSET);
+        open("background", ScanConfig.SCAN_MODE_OPPORTUNISTIC, ScanConfig.MATCH_MODE_STICKY,
+                ScanConfig.MATCH_NUM_ONE_ADVERTISEMENT);
+
+        ScanConfig merged = mSessions.merge();
+        assertEquals(ScanConfig.SCAN_MODE_LOW_POWER, merged.scanMode);
+        assertEquals(ScanConfig.MATCH_MODE_AGGRESSIVE, merged.matchMode);
+        assertEquals(ScanConfig.MATCH_NUM_MAX_ADVERTISEMENT, merged.numOfMatches);
+    }
+
+    @Test
+    public void opportunisticAloneStaysOpportunistic() {
+        open("background", ScanConfig.SCAN_MODE_OPPORTUNISTIC, ScanConfig.MATCH_MODE_STICKY,
+                ScanConfig.MATCH_NUM_ONE_ADVERTISEMENT);
+
+        ScanConfig merged = mSessions.merge();
+        assertEquals(ScanConfig.SCAN_MODE_OPPORTUNISTIC, merged.scanMode);
+        assertEquals(ScanConfig.MATCH_MODE_STICKY, merged.matchMode);
+        assertEquals(ScanConfig.MATCH_NUM_ONE_ADVERTISEMENT, merged.numOfMatches);
+    }
+
+    @Test
+    public void takesTheMostDemandingValues() {
+        open("a", 2, ScanConfig.MATCH_MODE_STICKY, 2);
+        open("b", 1, ScanConfig.MATCH_MODE_AGGRESSIVE, ScanConfig.MATCH_NUM_ONE_ADVERTISEMENT);
+
+        ScanConfig merged = mSessions.merge();
+        assertEquals(2, merged.scanMode);
+        assertEquals(ScanConfig.MATCH_MODE_AGGRESSIVE, merged.matchMode);
+        assertEquals(2, merged.numOfMatches);
+    }
+}
@@ -0,0 +1,82 @@
+package com.jabresearch.bleadvertiser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ScanTraceTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        File directory = mFolder.newFolder("traces");
+        ScanTraceWriter writer = new ScanTraceWriter(directory, ScanTraceWriter.DEFAULT_MAX_FILE_BYTES, 2);
+        byte[] beacon = Packets.iBeacon(Packets.BEACON_UUID, 1, 2, -59);
+        assertTrue(writer.append(1000, "AA:BB:CC:DD:EE:FF", -61, beacon));
+        assertTrue(writer.append(2000, null, -90, null));
+        writer.close();
+        assertEquals(2, writer.getRecordCount());
+        assertFalse(writer.append(3000, null, -90, null));
+
+        List<File> files = ScanTraceReader.traceFiles(directory);
+        assertEquals(1, files.size());
+        ScanTraceReader reader = new ScanTraceReader(files.get(0));
+
+        assertTrue(reader.next());
+        assertEquals(1000, reader.getTimestampNanos());
+        assertEquals(-61, reader.getRssi());
+        assertEquals("AA:BB:CC:DD:EE:FF", reader.getAddress());
+        assertArrayEquals(beacon, reader.getData());
+
+        assertTrue(reader.next());
+        assertEquals(2000, reader.getTimestampNanos());
+        assertNull(reader.getAddress());
+        assertNull(reader.getData());
+
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void rotatesAndKeepsTheNewestFiles() throws IOException {
+        File directory = mFolder.newFolder("traces");
+        byte[] data = new byte[62];
+        long recordBytes = ScanTraceWriter.RECORD_HEADER_SIZE + data.length;
+        ScanTraceWriter writer = new ScanTraceWriter(directory, ScanTraceWriter.FILE_HEADER_SIZE + 2 * recordBytes, 2);
+        for (int i = 0; i < 7; i++) {
+            assertTrue(writer.append(i, null, -50, data));
+        }
+        writer.close();
+
+        List<File> files = ScanTraceReader.traceFiles(directory);
+        assertEquals(2, files.size());
+
+        long expected = 4;
+        for (File file : files) {
+            ScanTraceReader reader = new ScanTraceReader(file);
+            while (reader.next()) {
+                assertEquals(expected++, reader.getTimestampNanos());
+            }
+        }
+        assertEquals(7, expected);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        File file = mFolder.newFile("scan-0.trace");
+        Files.write(file.toPath(), new byte[32]);
+        new ScanTraceReader(file);
+    }
+}
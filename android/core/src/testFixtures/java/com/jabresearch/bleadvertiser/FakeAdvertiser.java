@@ -0,0 +1,75 @@
+package com.jabresearch.bleadvertiser;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An Advertiser with no radio behind it, for running advertising logic on
+ * a JVM. It keeps the payloads "on air" in memory and fails the way a
+ * controller does: too many instances, extended advertising it does not
+ * support, or a payload that does not fit a legacy advertisement.
+ * Callbacks are invoked before start() returns.
+ */
+class FakeAdvertiser implements Advertiser {
+
+    public static final int DEFAULT_MAX_INSTANCES = 4;
+
+    private final Map<String, AdvertisingPayload> mOnAir = new HashMap<>();
+    private final int mMaxInstances;
+    private final boolean mExtended;
+    private final int mDeviceNameLength;
+
+    FakeAdvertiser() {
+        this(DEFAULT_MAX_INSTANCES, false, 0);
+    }
+
+    FakeAdvertiser(int maxInstances, boolean extended, int deviceNameLength) {
+        mMaxInstances = maxInstances;
+        mExtended = extended;
+        mDeviceNameLength = deviceNameLength;
+    }
+
+    @Override
+    public void start(String id, AdvertisingPayload payload, AdvertisingParameters parameters, Callback callback) {
+        int error = 0;
+        synchronized (this) {
+            if (parameters.extended && !mExtended) {
+                error = ADVERTISE_FAILED_FEATURE_UNSUPPORTED;
+            } else if (!parameters.extended && payload.length(mDeviceNameLength, parameters.connectable) > AdvertisingPayload.LEGACY_MAX_LENGTH) {
+                error = ADVERTISE_FAILED_DATA_TOO_LARGE;
+            } else if (!mOnAir.containsKey(id) && mOnAir.size() >= mMaxInstances) {
+                error = ADVERTISE_FAILED_TOO_MANY_ADVERTISERS;
+            } else {
+                mOnAir.put(id, payload);
+            }
+        }
+        if (callback == null) {
+            return;
+        }
+        if (error == 0) {
+            callback.onStarted(id, parameters.txPower);
+        } else {
+            callback.onFailed(id, error);
+        }
+    }
+
+    @Override
+    public synchronized void stop(String id) {
+        mOnAir.remove(id);
+    }
+
+    synchronized boolean isAdvertising(String id) {
+        return mOnAir.containsKey(id);
+    }
+
+    /**
+     * Payload on air under the id, or null.
+     */
+    synchronized AdvertisingPayload payload(String id) {
+        return mOnAir.get(id);
+    }
+
+    synchronized int count() {
+        return mOnAir.size();
+    }
+}
@@ -0,0 +1,84 @@
+package com.jabresearch.bleadvertiser;
+
+import java.util.List;
+
+/**
+ * A Scanner with no radio behind it, for running the pipeline on a JVM.
+ * Packets are injected by hand and reach the listener only while a scan
+ * is running and only when they pass its hardware filters, as they would
+ * from a controller.
+ */
+class FakeScanner implements Scanner {
+
+    private final AdvertisementRecord mRecord = new AdvertisementRecord();
+    private Listener mListener;
+    private ScanConfig mConfig;
+    private int mStartCount;
+
+    @Override
+    public synchronized void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public synchronized void start(ScanConfig config) {
+        mConfig = config;
+        mStartCount++;
+    }
+
+    @Override
+    public synchronized void stop() {
+        mConfig = null;
+    }
+
+    synchronized boolean isScanning() {
+        return mConfig != null;
+    }
+
+    /**
+     * Config of the running scan, or null while stopped.
+     */
+    synchronized ScanConfig getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * How many times start() was called, to check restart throttling.
+     */
+    synchronized int getStartCount() {
+        return mStartCount;
+    }
+
+    /**
+     * Delivers one packet as if it had been received. Returns false when
+     * no scan is running or its hardware filters drop the packet.
+     */
+    boolean inject(String address, int rssi, byte[] bytes, long timestampNanos) {
+        Listener listener;
+        synchronized (this) {
+            if (mConfig == null || mListener == null || !passesHardware(bytes)) {
+                return false;
+            }
+            listener = mListener;
+        }
+        listener.onPacket(address, rssi, bytes, timestampNanos);
+        return true;
+    }
+
+    private boolean passesHardware(byte[] bytes) {
+        List<ScanFilterSpec> hardware = mConfig.filters != null ? mConfig.filters.hardware : null;
+        if (hardware == null || hardware.isEmpty()) {
+            return true;
+        }
+        if (bytes == null) {
+            return false;
+        }
+        mRecord.wrap(bytes);
+        for (ScanFilterSpec spec : hardware) {
+            if (spec.matches(mRecord)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -14,12 +14,17 @@ import android.content.Context;
 import android.os.Bundle;
 import android.util.Log;
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.le.AdvertiseCallback;
 import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSet;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
 import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.bluetooth.le.BluetoothLeAdvertiser;
@@ -29,6 +34,9 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.ParcelUuid;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.location.Location;
 
 import com.facebook.react.modules.core.DeviceEventManagerModule;
@@ -36,74 +44,138 @@ import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.Arguments;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.lang.Thread;
 import java.lang.Object;
-import java.util.Hashtable;
 import java.util.Set;
 import java.util.UUID;
-import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.nio.charset.Charset;
 import java.util.Set;
 
-public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
+public class BLEAdvertiserModule extends ReactContextBaseJavaModule implements EventSink {
 
     public static final String TAG = "BleAdvertiser";
     private BluetoothAdapter mBluetoothAdapter;
     
-    private static Hashtable<String, BluetoothLeAdvertiser> mAdvertiserList;
-    private static Hashtable<String, AdvertiseCallback> mAdvertiserCallbackList;
-    private static BluetoothLeScanner mScanner;
-    private static ScanCallback mScannerCallback;
-    private int companyId;
+    private final PlatformAdvertiser mAdvertiser = new PlatformAdvertiser();
+    
+    // What broadcasts and advertising sets were started with, so updateBroadcast can swap their data
+    private final Map<String, Broadcast> mBroadcasts = new ConcurrentHashMap<>();
+    private final PlatformScanner mScanner = new PlatformScanner();
     private Boolean mObservedState;
+    private ScanResultBatcher mBatcher;
+    private DeviceCache deviceCache;
     
-    // iBeacon related fields
-    private static final int APPLE_MANUFACTURER_ID = 0x004C;
-    private static final byte IBEACON_TYPE = 0x02;
-    private static final byte IBEACON_TYPE_LENGTH = 0x15;
+    // How manufData goes out in device events: a number array, hex or base64
+    private volatile int mDataEncoding = DataEncoding.ARRAY;
     
-    // Maps to track monitored and ranged regions
-    private Map<String, BeaconRegion> monitoredRegions;
-    private Map<String, BeaconRegion> rangedRegions;
+    private UUID mIBeaconScanUuid;
     
-    // Class to represent a beacon region
-    private class BeaconRegion {
-        String identifier;
-        UUID uuid;
-        Integer major;
-        Integer minor;
-        
-        BeaconRegion(String identifier, UUID uuid, Integer major, Integer minor) {
-            this.identifier = identifier;
-            this.uuid = uuid;
-            this.major = major;
-            this.minor = minor;
-        }
+    // Logical scans merged into the one hardware scan. scan* calls own the two
+    // built-in sessions, so a service scan and an iBeacon scan can run side by side
+    private static final String DEFAULT_SESSION = "default";
+    private static final String IBEACON_SESSION = "iBeacons";
+    private ScanSessionManager mScanSessions;
+    
+    // Batchers of the named sessions that asked for batching
+    private final Map<String, ScanResultBatcher> mSessionBatchers = new ConcurrentHashMap<>();
+    
+    // Every scan start goes through here to stay under the platform's start limit
+    private ScanRestartScheduler<ScanConfig> mScanScheduler;
+    
+    // Scratch buffer for drainScanRing; the ring itself lives in the pipeline
+    private byte[] mScanRingDrain;
+    
+    // Lock-free counters for both pipelines, reported by getStatistics and onStatistics
+    private PipelineMetrics metrics;
+    private long mStatisticsInterval;
+    
+    // Scan callbacks only queue the raw packet; the pipeline runs on the queue's thread
+    private ScanProcessingQueue<RawScan> mScanQueue;
+    
+    // Parsing, filtering, beacon decoding and region matching, shared with
+    // the plain-Java core. The fields below alias its components
+    private ScanPipeline mPipeline;
+    
+    // Raw scan results being recorded, null while not recording; and the
+    // replay feeding a recorded trace back into the scan queue
+    private volatile ScanTraceWriter mTraceWriter;
+    private ScanTraceReplayer mTraceReplayer;
+    
+    // Monitored and ranged regions. Packets are matched against immutable
+    // snapshots, so the scan processing thread never waits on a React method
+    private RegionRegistry<BeaconRegion> monitoredRegions;
+    private RegionRegistry<BeaconRegion> rangedRegions;
+    
+    // Inside/outside tracking for monitored regions, ticked on the main looper while any region is inside
+    private RegionMonitor<BeaconRegion> regionMonitor;
+    private Handler mRegionHandler;
+    private boolean mRegionTickerRunning;
+    private final List<BeaconRegion> exitedRegions = new ArrayList<>();
+    
+    // Ranging cycles: beacons are collected per region and reported once per cycle
+    private BeaconRanger<BeaconRegion> beaconRanger;
+    
+    // Per-beacon RSSI smoothing feeding distance and proximity
+    private RssiFilter rssiFilter;
+    
+    // Payloads taking turns on the advertising instances, swapped every dwell period
+    private AdvertisingRotation<Broadcast> advertisingRotation;
+    
+    // Guarded by this; set while mRotationTick is posted
+    private boolean mRotationRunning;
+    
+    private static class Broadcast {
+        final AdvertisingPayload payload;
+        final AdvertisingParameters parameters;
         
-        @Override
-        public String toString() {
-            return "BeaconRegion{" +
-                   "identifier='" + identifier + '\'' +
-                   ", uuid=" + uuid +
-                   ", major=" + major +
-                   ", minor=" + minor +
-                   '}';
+        Broadcast(AdvertisingPayload payload, AdvertisingParameters parameters) {
+            this.payload = payload;
+            this.parameters = parameters;
         }
     }
-
+    
     //Constructor
     public BLEAdvertiserModule(ReactApplicationContext reactContext) {
         super(reactContext);
 
-        mAdvertiserList = new Hashtable<String, BluetoothLeAdvertiser>();
-        mAdvertiserCallbackList = new Hashtable<String, AdvertiseCallback>();
-        
-        // Initialize beacon region maps
-        monitoredRegions = new HashMap<>();
-        rangedRegions = new HashMap<>();
+        mPipeline = new ScanPipeline(new ScanPipeline.Clock() {
+            @Override
+            public long elapsedNanos() {
+                return SystemClock.elapsedRealtimeNanos();
+            }
+
+            @Override
+            public long currentTimeMillis() {
+                return System.currentTimeMillis();
+            }
+        }, this);
+        monitoredRegions = mPipeline.monitoredRegions;
+        rangedRegions = mPipeline.rangedRegions;
+        regionMonitor = mPipeline.regionMonitor;
+        mRegionHandler = new Handler(Looper.getMainLooper());
+        beaconRanger = mPipeline.beaconRanger;
+        rssiFilter = mPipeline.rssiFilter;
+        advertisingRotation = new AdvertisingRotation<>(new AdvertisingRotation.Advertiser<Broadcast>() {
+            @Override
+            public void start(String id, Broadcast broadcast) {
+                mAdvertiser.start(id, broadcast.payload, broadcast.parameters, mRotationCallback);
+            }
+
+            @Override
+            public void stop(String id) {
+                mAdvertiser.stop(id);
+            }
+        });
 
         BluetoothManager bluetoothManager = (BluetoothManager) reactContext.getApplicationContext()
                 .getSystemService(Context.BLUETOOTH_SERVICE);
@@ -115,7 +187,76 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
             mObservedState = mBluetoothAdapter.isEnabled();
         }
 
-        this.companyId = 0x0000;
+        deviceCache = mPipeline.deviceCache;
+        mScanSessions = mPipeline.sessions;
+
+        metrics = mPipeline.metrics;
+        mScanQueue = new ScanProcessingQueue<>("BleScanProcessing", new ScanProcessingQueue.Processor<RawScan>() {
+            @Override
+            public void process(RawScan scan) {
+                try {
+                    mPipeline.process(scan.address, scan.rssi, scan.bytes, scan.timestampNanos, scan.receivedNanos, scan.replayed);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to process scan result", e);
+                }
+            }
+        });
+
+        mBatcher = new ScanResultBatcher(new ScanResultBatcher.Listener() {
+            @Override
+            public void onBatchReady(WritableArray devices) {
+                sendEvent("onDevicesFound", devices);
+                metrics.eventsEmitted.incrementAndGet();
+                metrics.batchSize.record(devices.size());
+            }
+        });
+
+        mScanner.setListener(new Scanner.Listener() {
+            @Override
+            public void onPacket(String address, int rssi, byte[] bytes, long timestampNanos) {
+                ScanTraceWriter trace = mTraceWriter;
+                if (trace != null) {
+                    trace.append(timestampNanos, address, rssi, bytes);
+                }
+                enqueueScan(address, rssi, bytes, timestampNanos);
+            }
+        });
+
+        mScanScheduler = new ScanRestartScheduler<>(new ScanRestartScheduler.Scanner<ScanConfig>() {
+            @Override
+            public void start(ScanConfig config) {
+                // The software filter switches together with the hardware one
+                mPipeline.setFilters(config.filters);
+                mScanner.start(config);
+            }
+
+            @Override
+            public void stop() {
+                mScanner.stop();
+            }
+        }, new ScanRestartScheduler.Timer() {
+            @Override
+            public long now() {
+                return SystemClock.elapsedRealtime();
+            }
+
+            @Override
+            public void schedule(Runnable task, long delayMs) {
+                mRegionHandler.postDelayed(task, delayMs);
+            }
+
+            @Override
+            public void cancel(Runnable task) {
+                mRegionHandler.removeCallbacks(task);
+            }
+        });
+
+        mScanScheduler.setListener(new ScanRestartScheduler.Listener<ScanConfig>() {
+            @Override
+            public void onApplied(ScanConfig config) {
+                sendEvent("onScanStateChange", scanState());
+            }
+        });
 
         IntentFilter filter = new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED);
         reactContext.registerReceiver(mReceiver, filter);
@@ -126,6 +267,17 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
         return "BLEAdvertiser";
     }
 
+    @Override
+    public void onCatalystInstanceDestroy() {
+        stopTraceReplay();
+        ScanTraceWriter trace = mTraceWriter;
+        mTraceWriter = null;
+        if (trace != null) {
+            trace.close();
+        }
+        mScanQueue.shutdown();
+    }
+
     @Override
     public Map<String, Object> getConstants() {
         final Map<String, Object> constants = new HashMap<>();
@@ -136,6 +288,9 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
         constants.put("ADVERTISE_TX_POWER_LOW",         AdvertiseSettings.ADVERTISE_TX_POWER_LOW);
         constants.put("ADVERTISE_TX_POWER_MEDIUM",      AdvertiseSettings.ADVERTISE_TX_POWER_MEDIUM);
         constants.put("ADVERTISE_TX_POWER_ULTRA_LOW",   AdvertiseSettings.ADVERTISE_TX_POWER_ULTRA_LOW);
+        constants.put("PHY_LE_1M",                      BluetoothDevice.PHY_LE_1M);
+        constants.put("PHY_LE_2M",                      BluetoothDevice.PHY_LE_2M);
+        constants.put("PHY_LE_CODED",                   BluetoothDevice.PHY_LE_CODED);
 
         constants.put("SCAN_MODE_BALANCED",             ScanSettings.SCAN_MODE_BALANCED);
         constants.put("SCAN_MODE_LOW_LATENCY",          ScanSettings.SCAN_MODE_LOW_LATENCY);
@@ -152,7 +307,7 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void setCompanyId(int companyId) {
-        this.companyId = companyId;
+        mPipeline.setCompanyId(companyId);
     }
 
     @ReactMethod
@@ -175,34 +330,168 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
             return;
         }
 
-        BluetoothLeAdvertiser tempAdvertiser;
-        AdvertiseCallback tempCallback;
-
-        if (mAdvertiserList.containsKey(uid)) {
-            tempAdvertiser = mAdvertiserList.remove(uid);
-            tempCallback = mAdvertiserCallbackList.remove(uid);
-
-            tempAdvertiser.stopAdvertising(tempCallback);
-        } else {
-            tempAdvertiser = mBluetoothAdapter.getBluetoothLeAdvertiser();
-            tempCallback = new BLEAdvertiserModule.SimpleAdvertiseCallback(promise);
-        }
-         
-        if (tempAdvertiser == null) {
+        if (!mAdvertiser.isAvailable()) {
             Log.w("BLEAdvertiserModule", "Advertiser Not Available unavailable");
             promise.reject("Advertiser unavailable on this device");
             return;
         }
+
+        // The previous broadcast's callback belongs to a promise that is already settled
+        endBroadcast(uid);
         
         Log.d(TAG, "Broadcasting with UUID: " + uid + " and service data: " + serviceData);
         
-        AdvertiseSettings settings = buildAdvertiseSettings(options);
-        AdvertiseData data = buildAdvertiseData(ParcelUuid.fromString(uid), serviceData, options);
+        AdvertisingPayload payload;
+        try {
+            payload = broadcastPayload(uid, serviceData, options);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Invalid broadcast payload", e);
+            promise.reject("InvalidPayload", "Broadcast payload is not valid: " + e.getMessage());
+            return;
+        }
+
+        // A legacy-mode advertising set where there are any, so updateBroadcast can swap the data in place
+        AdvertisingParameters parameters = advertiseParameters(options);
+        parameters.advertisingSet = true;
+        mBroadcasts.put(uid, new Broadcast(payload, parameters));
+        mAdvertiser.start(uid, payload, parameters, new StartCallback(promise, parameters, false));
+    }
+
+    /**
+     * Replace the service data of a running broadcast or advertising set.
+     * Advertising sets take the new data in place; before Android 8 the
+     * broadcast is restarted. Resolves once the new data is on air, with
+     * the time that took.
+     */
+    @ReactMethod
+    public void updateBroadcast(String uid, String serviceData, Promise promise) {
+        Broadcast broadcast = mBroadcasts.get(uid);
+        if (broadcast == null || !mAdvertiser.isStarted(uid)) {
+            promise.reject("NotBroadcasting", "No broadcast running for " + uid);
+            return;
+        }
+        AdvertisingPayload payload = broadcast.payload;
+
+        // Decoded with the encoding the broadcast was started with
+        byte[] serviceDataBytes;
+        try {
+            serviceDataBytes = serviceDataBytes(serviceData, payload.dataEncoding);
+        } catch (IllegalArgumentException e) {
+            promise.reject("InvalidPayload", "Service data is not valid: " + e.getMessage());
+            return;
+        }
+
+        if (serviceDataBytes != null && !payload.hasServiceUuid) {
+            promise.reject("InvalidPayload", "Broadcast " + uid + " has no service UUID to carry service data");
+            return;
+        }
+
+        // Starting a running id swaps its data; without advertising sets that
+        // is a restart, and the latency measures the gap
+        payload.serviceData = serviceDataBytes;
+        UpdateCallback callback = new UpdateCallback(promise, mAdvertiser.updatesInPlace(uid), SystemClock.elapsedRealtime());
+        mAdvertiser.start(uid, payload, broadcast.parameters, callback);
+    }
+
+    private boolean endBroadcast(String uid) {
+        boolean started = mAdvertiser.isStarted(uid);
+        mAdvertiser.stop(uid);
+        mBroadcasts.remove(uid);
+        return started;
+    }
+
+    /**
+     * Service data strings are sent as text unless a hex or base64
+     * dataEncoding was asked for.
+     */
+    private static byte[] serviceDataBytes(String serviceData, int encoding) {
+        if (serviceData == null || serviceData.isEmpty()) {
+            return null;
+        }
+        return encoding == DataEncoding.ARRAY ? serviceData.getBytes() : DataEncoding.decode(encoding, serviceData);
+    }
+
+    private AdvertisingPayload broadcastPayload(String uid, String serviceData, ReadableMap options) {
+        AdvertisingPayload payload;
+        if (options != null && options.hasKey("layout")) {
+            // uid only names the broadcast; the layout decides what goes on air
+            payload = layoutPayload(options);
+        } else {
+            UUID uuid = UUID.fromString(uid);
+
+            payload = new AdvertisingPayload();
+            payload.hasServiceUuid = true;
+            payload.serviceUuidMsb = uuid.getMostSignificantBits();
+            payload.serviceUuidLsb = uuid.getLeastSignificantBits();
+            payload.dataEncoding = dataEncoding(options);
+            payload.serviceData = serviceDataBytes(serviceData, payload.dataEncoding);
+        }
+        if (options != null && options.hasKey("includeDeviceName")) {
+            payload.includeDeviceName = options.getBoolean("includeDeviceName");
+        }
+        if (options != null && options.hasKey("includeTxPowerLevel")) {
+            payload.includeTxPower = options.getBoolean("includeTxPowerLevel");
+        }
+        return payload;
+    }
+
+    /**
+     * A registered beacon layout encoded from the identifiers, data fields
+     * and measured power in the broadcast options.
+     */
+    private AdvertisingPayload layoutPayload(ReadableMap options) {
+        String name = options.getString("layout");
+        BeaconLayout layout = mPipeline.beaconLayouts.get(name);
+        if (layout == null) {
+            throw new IllegalArgumentException("Unknown beacon layout " + name);
+        }
+        
+        ReadableArray identifierValues = options.hasKey("identifiers") ? options.getArray("identifiers") : null;
+        if (identifierValues == null || identifierValues.size() != layout.getIdentifierCount()) {
+            throw new IllegalArgumentException("Layout " + name + " takes " + layout.getIdentifierCount() + " identifiers");
+        }
+        byte[][] identifiers = new byte[identifierValues.size()][];
+        for (int i = 0; i < identifiers.length; i++) {
+            String value = identifierValues.getType(i) == ReadableType.Number
+                    ? Long.toString((long) identifierValues.getDouble(i))
+                    : identifierValues.getString(i);
+            identifiers[i] = layout.parseIdentifier(i, value);
+        }
+        
+        long[] data = null;
+        if (options.hasKey("dataFields")) {
+            ReadableArray dataValues = options.getArray("dataFields");
+            data = new long[dataValues.size()];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (long) dataValues.getDouble(i);
+            }
+        }
+        
+        int measuredPower = options.hasKey("measuredPower") ? options.getInt("measuredPower") : -59;
+        int manufacturerId = options.hasKey("manufacturerId") ? options.getInt("manufacturerId") : -1;
+        return layout.toPayload(layout.encode(identifiers, data, measuredPower), manufacturerId);
+    }
+
+    /**
+     * The advertise mode, power level and connectability in the options.
+     * Connectable unless the options say otherwise, as AdvertiseSettings is.
+     */
+    private static AdvertisingParameters advertiseParameters(ReadableMap options) {
+        AdvertisingParameters parameters = new AdvertisingParameters();
+
+        if (options != null && options.hasKey("advertiseMode")) {
+            parameters.advertiseMode = options.getInt("advertiseMode");
+        }
 
-        tempAdvertiser.startAdvertising(settings, data, tempCallback);
+        if (options != null && options.hasKey("txPowerLevel")) {
+            parameters.powerLevel = options.getInt("txPowerLevel");
+        }
+
+        if (options != null && options.hasKey("connectable")) {
+            parameters.connectable = options.getBoolean("connectable");
+        }
 
-        mAdvertiserList.put(uid, tempAdvertiser);
-        mAdvertiserCallbackList.put(uid, tempCallback);
+        return parameters;
     }
 
     private byte[] toByteArray(ReadableArray payload) {
@@ -213,10 +502,42 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
         return temp;
     }
 
+    /**
+     * A byte payload argument given either as a number array or as a
+     * string in the given encoding (hex when none is set).
+     */
+    private byte[] readBytes(Dynamic value, int encoding) {
+        if (value == null || value.isNull()) {
+            return null;
+        }
+        if (value.getType() == ReadableType.String) {
+            return DataEncoding.decode(encoding != DataEncoding.ARRAY ? encoding : DataEncoding.HEX, value.asString());
+        }
+        return toByteArray(value.asArray());
+    }
+
+    private byte[] readBytes(ReadableMap map, String key, int encoding) {
+        if (map.getType(key) == ReadableType.String) {
+            return DataEncoding.decode(encoding != DataEncoding.ARRAY ? encoding : DataEncoding.HEX, map.getString(key));
+        }
+        return toByteArray(map.getArray(key));
+    }
+
+    private static int dataEncoding(ReadableMap options) {
+        if (options != null && options.hasKey("dataEncoding")) {
+            return DataEncoding.fromString(options.getString("dataEncoding"));
+        }
+        return DataEncoding.ARRAY;
+    }
+
     private WritableArray toByteArray(byte[] payload) {
+        return toByteArray(payload, 0, payload.length);
+    }
+
+    private WritableArray toByteArray(byte[] payload, int offset, int length) {
         WritableArray array = Arguments.createArray();
-        for (byte data : payload) {
-            array.pushInt(data);
+        for (int i = offset; i < offset + length; i++) {
+            array.pushInt(payload[i]);
         }
         return array;
     }
@@ -239,16 +560,16 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
 
         WritableArray promiseArray=Arguments.createArray();
 
-        Set<String> keys = mAdvertiserList.keySet();
-        for (String key : keys) {
-            BluetoothLeAdvertiser tempAdvertiser = mAdvertiserList.remove(key);
-            AdvertiseCallback tempCallback = mAdvertiserCallbackList.remove(key);
-            if (tempAdvertiser != null) {
-                tempAdvertiser.stopAdvertising(tempCallback);
-                promiseArray.pushString(key);
-            }
+        for (String id : advertisingRotation.clear(SystemClock.elapsedRealtime())) {
+            promiseArray.pushString(id);
         }
 
+        for (String id : mAdvertiser.ids()) {
+            mAdvertiser.stop(id);
+            promiseArray.pushString(id);
+        }
+        mBroadcasts.clear();
+
         promise.resolve(promiseArray);
     }
 
@@ -257,12 +578,24 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
         scan(uid, null, options, promise);
     }
 
+    /**
+     * The payload is a number array, or a hex or base64 string as set by
+     * the dataEncoding option.
+     */
     @ReactMethod
-    public void scan(ReadableArray manufacturerPayload, ReadableMap options, Promise promise) {
-        scan(null, manufacturerPayload, options, promise);
+    public void scan(Dynamic manufacturerPayload, ReadableMap options, Promise promise) {
+        byte[] payload;
+        try {
+            payload = readBytes(manufacturerPayload, dataEncoding(options));
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Invalid manufacturer payload", e);
+            promise.reject("InvalidPayload", "Manufacturer payload is not valid: " + e.getMessage());
+            return;
+        }
+        scan(null, payload, options, promise);
     }
 
-	public void scan(String uid, ReadableArray manufacturerPayload, ReadableMap options, Promise promise) {
+	public void scan(String uid, byte[] manufacturerPayload, ReadableMap options, Promise promise) {
         if (mBluetoothAdapter == null) {
             promise.reject("Device does not support Bluetooth. Adapter is Null");
             return;
@@ -274,36 +607,260 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
             return;
         }
 
-        if (mScannerCallback == null) {
-            // Cannot change. 
-            mScannerCallback = new SimpleScanCallback();
-        } 
+        if (!acquireScanner(promise)) {
+            return;
+        }
+
+        configureBatching(options);
+        configureReportOnChange(options);
+        configureProcessing(options);
+        mDataEncoding = dataEncoding(options);
+    
+        List<ScanFilterSpec> specs = new ArrayList<>();
+        if (manufacturerPayload != null) {
+            ScanFilterSpec spec = new ScanFilterSpec();
+            spec.manufacturerId = mPipeline.getCompanyId();
+            spec.manufacturerData = manufacturerPayload;
+            specs.add(spec);
+        }
+        if (uid != null) {
+            UUID serviceUuid = UUID.fromString(uid);
+            ScanFilterSpec spec = new ScanFilterSpec();
+            spec.hasServiceUuid = true;
+            spec.serviceUuidMsb = serviceUuid.getMostSignificantBits();
+            spec.serviceUuidLsb = serviceUuid.getLeastSignificantBits();
+            specs.add(spec);
+        }
         
-        if (mScanner == null) {
-            mScanner = mBluetoothAdapter.getBluetoothLeScanner();
+        mScanSessions.open(DEFAULT_SESSION, specs, true, buildScanConfig(options, null));
+        if (applyScanSessions() == ScanRestartScheduler.STATE_PENDING) {
+            promise.resolve("Scanner start pending");
         } else {
-            // was running. Needs to stop first. 
-            mScanner.stopScan(mScannerCallback);
+            promise.resolve("Scanner started");
+        }
+    }
+
+    /**
+     * Scan with any number of filter descriptions. Whatever fits in the
+     * controller's filter slots is offloaded; the rest is checked in the callback.
+     */
+    @ReactMethod
+    public void scanWithFilters(ReadableArray filterDescriptions, ReadableMap options, Promise promise) {
+        if (mBluetoothAdapter == null) {
+            promise.reject("Device does not support Bluetooth. Adapter is Null");
+            return;
+        }
+
+        if (mObservedState != null && !mObservedState) {
+            Log.w(TAG, "Bluetooth disabled");
+            promise.reject("Bluetooth disabled");
+            return;
+        }
+
+        List<ScanFilterSpec> specs = new ArrayList<>();
+        try {
+            for (int i = 0; filterDescriptions != null && i < filterDescriptions.size(); i++) {
+                specs.add(parseScanFilter(filterDescriptions.getMap(i), dataEncoding(options)));
+            }
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Invalid scan filter", e);
+            promise.reject("InvalidFilter", "Scan filter is not valid: " + e.getMessage());
+            return;
         }
 
-        if (mScanner == null) {
-            Log.w("BLEAdvertiserModule", "Scanner Not Available unavailable");
-            promise.reject("Scanner unavailable on this device");
+        if (!acquireScanner(promise)) {
             return;
+        }
+
+        int maxHardwareFilters = ScanFilterCompiler.DEFAULT_MAX_HARDWARE_FILTERS;
+        if (options != null && options.hasKey("maxHardwareFilters")) {
+            maxHardwareFilters = options.getInt("maxHardwareFilters");
+        }
+
+        configureBatching(options);
+        configureReportOnChange(options);
+        configureProcessing(options);
+        mDataEncoding = dataEncoding(options);
+
+        mScanSessions.setMaxHardwareFilters(maxHardwareFilters);
+        mScanSessions.open(DEFAULT_SESSION, specs, true, buildScanConfig(options, null));
+        promise.resolve(sessionResponse(applyScanSessions()));
+    }
+
+    /**
+     * Get the scanner ready for a new scan. The running scan, if any, is
+     * stopped by the restart scheduler when the new config is applied.
+     */
+    private boolean acquireScanner(Promise promise) {
+        if (!mScanner.acquire()) {
+            Log.w(TAG, "Scanner Not Available");
+            if (promise != null) {
+                promise.reject("Scanner unavailable on this device");
+            }
+            return false;
         } 
 
-        ScanSettings scanSettings = buildScanSettings(options);
-    
+        return true;
+    }
+
+    private ScanFilterSpec parseScanFilter(ReadableMap description, int encoding) {
+        ScanFilterSpec spec = new ScanFilterSpec();
+
+        if (description.hasKey("manufacturerId")) {
+            spec.manufacturerId = description.getInt("manufacturerId");
+        }
+
+        if (description.hasKey("manufacturerData")) {
+            if (spec.manufacturerId < 0) {
+                spec.manufacturerId = mPipeline.getCompanyId();
+            }
+            spec.manufacturerData = readBytes(description, "manufacturerData", encoding);
+        }
+
+        if (description.hasKey("manufacturerDataMask")) {
+            spec.manufacturerDataMask = readBytes(description, "manufacturerDataMask", encoding);
+        }
+
+        if (description.hasKey("iBeaconUuid")) {
+            // A full UUID, or the leading bytes of one as hex
+            byte[] prefix = DataEncoding.decodeHex(description.getString("iBeaconUuid").replace("-", ""));
+            if (prefix.length == 0 || prefix.length > 16) {
+                throw new IllegalArgumentException("iBeaconUuid must hold 1 to 16 bytes");
+            }
+
+            byte[] padded = new byte[16];
+            System.arraycopy(prefix, 0, padded, 0, prefix.length);
+
+            Integer major = description.hasKey("major") ? description.getInt("major") : null;
+            Integer minor = description.hasKey("minor") ? description.getInt("minor") : null;
+            ScanFilterSpec beacon = ScanFilterSpec.iBeacon(AdvertisementRecord.readLongBigEndian(padded, 0),
+                    AdvertisementRecord.readLongBigEndian(padded, 8), prefix.length, major, minor);
+
+            spec.manufacturerId = beacon.manufacturerId;
+            spec.manufacturerData = beacon.manufacturerData;
+            spec.manufacturerDataMask = beacon.manufacturerDataMask;
+        }
+
+        if (spec.manufacturerData != null && spec.manufacturerDataMask != null
+                && spec.manufacturerData.length != spec.manufacturerDataMask.length) {
+            throw new IllegalArgumentException("manufacturerDataMask must be as long as manufacturerData");
+        }
+
+        if (description.hasKey("serviceUuid")) {
+            UUID serviceUuid = UUID.fromString(description.getString("serviceUuid"));
+            spec.hasServiceUuid = true;
+            spec.serviceUuidMsb = serviceUuid.getMostSignificantBits();
+            spec.serviceUuidLsb = serviceUuid.getLeastSignificantBits();
+        }
+
+        if (description.hasKey("serviceDataUuid")) {
+            UUID serviceDataUuid = UUID.fromString(description.getString("serviceDataUuid"));
+            spec.hasServiceDataUuid = true;
+            spec.serviceDataUuidMsb = serviceDataUuid.getMostSignificantBits();
+            spec.serviceDataUuidLsb = serviceDataUuid.getLeastSignificantBits();
+
+            if (description.hasKey("serviceData")) {
+                spec.serviceData = readBytes(description, "serviceData", encoding);
+            }
+
+            if (description.hasKey("serviceDataMask")) {
+                spec.serviceDataMask = readBytes(description, "serviceDataMask", encoding);
+            }
+
+            if (spec.serviceData != null && spec.serviceDataMask != null
+                    && spec.serviceData.length != spec.serviceDataMask.length) {
+                throw new IllegalArgumentException("serviceDataMask must be as long as serviceData");
+            }
+        }
+
+        if (description.hasKey("eddystoneFrame") || description.hasKey("eddystoneNamespace")
+                || description.hasKey("eddystoneInstance")) {
+            // A namespace on its own means UID frames
+            int frameType = EddystoneFrame.TYPE_UID;
+            if (description.hasKey("eddystoneFrame")) {
+                frameType = EddystoneFrame.typeFromString(description.getString("eddystoneFrame"));
+                if (frameType < 0) {
+                    throw new IllegalArgumentException("eddystoneFrame must be uid, url, tlm or eid");
+                }
+            }
+
+            byte[] namespace = null;
+            if (description.hasKey("eddystoneNamespace")) {
+                namespace = DataEncoding.decodeHex(description.getString("eddystoneNamespace"));
+                if (namespace.length != EddystoneFrame.NAMESPACE_LENGTH) {
+                    throw new IllegalArgumentException("eddystoneNamespace must hold 10 bytes");
+                }
+            }
+
+            byte[] instance = null;
+            if (description.hasKey("eddystoneInstance")) {
+                instance = DataEncoding.decodeHex(description.getString("eddystoneInstance"));
+                if (instance.length != EddystoneFrame.INSTANCE_LENGTH) {
+                    throw new IllegalArgumentException("eddystoneInstance must hold 6 bytes");
+                }
+                if (namespace == null) {
+                    throw new IllegalArgumentException("eddystoneInstance needs an eddystoneNamespace");
+                }
+            }
+
+            if (namespace != null && frameType != EddystoneFrame.TYPE_UID) {
+                throw new IllegalArgumentException("eddystoneNamespace only applies to uid frames");
+            }
+
+            if (spec.hasServiceDataUuid) {
+                throw new IllegalArgumentException("An Eddystone filter cannot also set serviceDataUuid");
+            }
+
+            ScanFilterSpec eddystone = ScanFilterSpec.eddystone(frameType, namespace, instance);
+            spec.hasServiceDataUuid = true;
+            spec.serviceDataUuidMsb = eddystone.serviceDataUuidMsb;
+            spec.serviceDataUuidLsb = eddystone.serviceDataUuidLsb;
+            spec.serviceData = eddystone.serviceData;
+            spec.serviceDataMask = eddystone.serviceDataMask;
+        }
+
+        if (description.hasKey("deviceName")) {
+            spec.deviceName = description.getString("deviceName");
+        }
+
+        if (description.hasKey("namePrefix")) {
+            spec.setNamePrefix(description.getString("namePrefix"));
+        }
+
+        return spec;
+    }
+
+    private List<ScanFilter> toScanFilters(List<ScanFilterSpec> specs) {
+        if (specs == null) {
+            return null;
+        }
+
         List<ScanFilter> filters = new ArrayList<>();
-        if (manufacturerPayload == null)
-            filters = null;
-        if (manufacturerPayload != null)
-            filters.add(new ScanFilter.Builder().setManufacturerData(companyId, toByteArray(manufacturerPayload)).build());
-        if (uid != null) 
-            filters.add(new ScanFilter.Builder().setServiceUuid(ParcelUuid.fromString(uid)).build());
-        
-        mScanner.startScan(filters, scanSettings, mScannerCallback);
-        promise.resolve("Scanner started");
+        for (ScanFilterSpec spec : specs) {
+            ScanFilter.Builder builder = new ScanFilter.Builder();
+
+            if (spec.manufacturerId >= 0) {
+                // The platform needs a (possibly empty) pattern to match on the company id alone
+                byte[] data = spec.manufacturerData != null ? spec.manufacturerData : new byte[0];
+                builder.setManufacturerData(spec.manufacturerId, data, spec.manufacturerDataMask);
+            }
+
+            if (spec.hasServiceUuid) {
+                builder.setServiceUuid(new ParcelUuid(new UUID(spec.serviceUuidMsb, spec.serviceUuidLsb)));
+            }
+
+            if (spec.hasServiceDataUuid) {
+                byte[] data = spec.serviceData != null ? spec.serviceData : new byte[0];
+                builder.setServiceData(new ParcelUuid(new UUID(spec.serviceDataUuidMsb, spec.serviceDataUuidLsb)), data, spec.serviceDataMask);
+            }
+
+            if (spec.deviceName != null) {
+                builder.setDeviceName(spec.deviceName);
+            }
+
+            filters.add(builder.build());
+        }
+        return filters;
     }
 
     @ReactMethod
@@ -315,45 +872,327 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
     public void removeListeners(Integer count) {
         // Required for RN event emitter
     }
-    
+
     /**
-     * Broadcast as an iBeacon
+     * Start a BLE 5 advertising set. Extended advertising allows payloads up
+     * to the controller maximum, a choice of PHY and per-set interval and TX
+     * power; without it the set falls back to a legacy advertisement, which
+     * only works when the payload fits in 31 bytes.
      */
     @ReactMethod
-    public void broadcastAsBeacon(String uuid, ReadableMap options, Promise promise) {
+    public void startAdvertisingSet(String setId, ReadableMap payload, ReadableMap options, Promise promise) {
         if (mBluetoothAdapter == null) {
-            Log.w(TAG, "Device does not support Bluetooth. Adapter is Null");
             promise.reject("Device does not support Bluetooth. Adapter is Null");
             return;
         }
-        
+
         if (mObservedState != null && !mObservedState) {
             Log.w(TAG, "Bluetooth disabled");
             promise.reject("Bluetooth disabled");
             return;
         }
-        
-        BluetoothLeAdvertiser tempAdvertiser;
-        AdvertiseCallback tempCallback;
-        
-        // Use UUID as the key for the advertiser
-        if (mAdvertiserList.containsKey(uuid)) {
-            tempAdvertiser = mAdvertiserList.remove(uuid);
-            tempCallback = mAdvertiserCallbackList.remove(uuid);
-            
-            tempAdvertiser.stopAdvertising(tempCallback);
-        } else {
-            tempAdvertiser = mBluetoothAdapter.getBluetoothLeAdvertiser();
-            tempCallback = new SimpleAdvertiseCallback(promise);
+
+        AdvertisingPayload description;
+        try {
+            description = parseAdvertisingPayload(payload, dataEncoding(options));
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Invalid advertising payload", e);
+            promise.reject("InvalidPayload", "Advertising payload is not valid: " + e.getMessage());
+            return;
         }
-        
-        if (tempAdvertiser == null) {
+
+        if (!mAdvertiser.isAvailable()) {
             Log.w(TAG, "Advertiser Not Available");
             promise.reject("Advertiser unavailable on this device");
             return;
         }
-        
-        try {
+
+        endBroadcast(setId);
+
+        boolean forceLegacy = options != null && options.hasKey("legacy") && options.getBoolean("legacy");
+        boolean extended = !forceLegacy && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                && mBluetoothAdapter.isLeExtendedAdvertisingSupported();
+        // Connectable unless told otherwise, like broadcast
+        boolean connectable = options == null || !options.hasKey("connectable") || options.getBoolean("connectable");
+
+        String deviceName = mBluetoothAdapter.getName();
+        int nameLength = description.includeDeviceName && deviceName != null ? deviceName.getBytes(Charset.forName("UTF-8")).length : 0;
+        int length = description.length(nameLength, connectable);
+        int maxLength = extended ? mBluetoothAdapter.getLeMaximumAdvertisingDataLength() : AdvertisingPayload.LEGACY_MAX_LENGTH;
+        if (length > maxLength) {
+            promise.reject("DataTooLarge", "Advertising data takes " + length + " bytes, the limit is " + maxLength);
+            return;
+        }
+
+        // Without advertising sets (before Android 8) it runs as a plain broadcast
+        AdvertisingParameters parameters = advertiseParameters(options);
+        parameters.connectable = connectable;
+        parameters.advertisingSet = true;
+        parameters.extended = extended;
+
+        // AdvertisingSetParameters' own defaults, unless the options say otherwise
+        parameters.interval = AdvertisingParameters.INTERVAL_LOW;
+        parameters.txPower = AdvertisingParameters.TX_POWER_MEDIUM;
+
+        if (options != null && options.hasKey("interval")) {
+            // Milliseconds to 0.625 ms controller units
+            long interval = Math.round(options.getDouble("interval") / 0.625);
+            parameters.interval = (int) Math.max(AdvertisingSetParameters.INTERVAL_MIN,
+                    Math.min(AdvertisingSetParameters.INTERVAL_MAX, interval));
+        }
+
+        if (options != null && options.hasKey("txPower")) {
+            parameters.txPower = Math.max(AdvertisingSetParameters.TX_POWER_MIN,
+                    Math.min(AdvertisingSetParameters.TX_POWER_MAX, options.getInt("txPower")));
+        }
+
+        if (extended) {
+            int phy = BluetoothDevice.PHY_LE_1M;
+            if (options != null && options.hasKey("phy")) {
+                phy = options.getInt("phy");
+            }
+
+            // Fall back to 1M on controllers without the requested PHY
+            if ((phy == BluetoothDevice.PHY_LE_2M && !mBluetoothAdapter.isLe2MPhySupported())
+                    || (phy == BluetoothDevice.PHY_LE_CODED && !mBluetoothAdapter.isLeCodedPhySupported())
+                    || (phy != BluetoothDevice.PHY_LE_2M && phy != BluetoothDevice.PHY_LE_CODED)) {
+                phy = BluetoothDevice.PHY_LE_1M;
+            }
+            parameters.phy = phy;
+        }
+
+        mBroadcasts.put(setId, new Broadcast(description, parameters));
+        mAdvertiser.start(setId, description, parameters,
+                new StartCallback(promise, parameters, Build.VERSION.SDK_INT >= Build.VERSION_CODES.O));
+    }
+
+    @ReactMethod
+    public void stopAdvertisingSet(String setId, Promise promise) {
+        if (endBroadcast(setId)) {
+            promise.resolve("Advertising set stopped");
+        } else {
+            promise.resolve("Advertising set not started");
+        }
+    }
+
+    @ReactMethod
+    public void getAdvertisingCapabilities(Promise promise) {
+        if (mBluetoothAdapter == null) {
+            promise.reject("Device does not support Bluetooth. Adapter is Null");
+            return;
+        }
+
+        boolean sets = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
+
+        WritableMap capabilities = Arguments.createMap();
+        capabilities.putBoolean("advertisingSets", sets);
+        capabilities.putBoolean("extendedAdvertising", sets && mBluetoothAdapter.isLeExtendedAdvertisingSupported());
+        capabilities.putBoolean("le2MPhy", sets && mBluetoothAdapter.isLe2MPhySupported());
+        capabilities.putBoolean("leCodedPhy", sets && mBluetoothAdapter.isLeCodedPhySupported());
+        capabilities.putInt("maxAdvertisingDataLength", sets ? mBluetoothAdapter.getLeMaximumAdvertisingDataLength() : AdvertisingPayload.LEGACY_MAX_LENGTH);
+        capabilities.putBoolean("multipleAdvertisement", mBluetoothAdapter.isMultipleAdvertisementSupported());
+        promise.resolve(capabilities);
+    }
+
+    private AdvertisingPayload parseAdvertisingPayload(ReadableMap payload, int encoding) {
+        AdvertisingPayload description = new AdvertisingPayload();
+        description.dataEncoding = encoding;
+        if (payload == null) {
+            return description;
+        }
+
+        if (payload.hasKey("serviceUuid")) {
+            UUID uuid = UUID.fromString(payload.getString("serviceUuid"));
+            description.hasServiceUuid = true;
+            description.serviceUuidMsb = uuid.getMostSignificantBits();
+            description.serviceUuidLsb = uuid.getLeastSignificantBits();
+        }
+
+        if (payload.hasKey("serviceData")) {
+            if (!description.hasServiceUuid) {
+                throw new IllegalArgumentException("serviceData needs a serviceUuid");
+            }
+            description.serviceData = readBytes(payload, "serviceData", encoding);
+        }
+
+        if (payload.hasKey("manufacturerData")) {
+            description.manufacturerId = payload.hasKey("manufacturerId") ? payload.getInt("manufacturerId") : mPipeline.getCompanyId();
+            description.manufacturerData = readBytes(payload, "manufacturerData", encoding);
+        }
+
+        if (payload.hasKey("includeDeviceName")) {
+            description.includeDeviceName = payload.getBoolean("includeDeviceName");
+        }
+
+        if (payload.hasKey("includeTxPowerLevel")) {
+            description.includeTxPower = payload.getBoolean("includeTxPowerLevel");
+        }
+
+        return description;
+    }
+
+    private AdvertiseData toAdvertiseData(AdvertisingPayload description) {
+        AdvertiseData.Builder dataBuilder = new AdvertiseData.Builder();
+        dataBuilder.setIncludeDeviceName(description.includeDeviceName);
+        dataBuilder.setIncludeTxPowerLevel(description.includeTxPower);
+
+        if (description.hasServiceUuid) {
+            ParcelUuid uuid = new ParcelUuid(new UUID(description.serviceUuidMsb, description.serviceUuidLsb));
+            dataBuilder.addServiceUuid(uuid);
+            if (description.serviceData != null) {
+                dataBuilder.addServiceData(uuid, description.serviceData);
+            }
+        }
+
+        if (description.manufacturerId >= 0) {
+            dataBuilder.addManufacturerData(description.manufacturerId,
+                    description.manufacturerData != null ? description.manufacturerData : new byte[0]);
+        }
+
+        return dataBuilder.build();
+    }
+
+    /**
+     * Register a broadcast that shares the advertising instances with
+     * other rotating broadcasts. Takes the same arguments as broadcast,
+     * plus a weight option setting its share of airtime.
+     */
+    @ReactMethod
+    public void addRotatingBroadcast(String uid, String serviceData, ReadableMap options, Promise promise) {
+        if (mBluetoothAdapter == null) {
+            promise.reject("Device does not support Bluetooth. Adapter is Null");
+            return;
+        }
+
+        if (mObservedState != null && !mObservedState) {
+            Log.w(TAG, "Bluetooth disabled");
+            promise.reject("Bluetooth disabled");
+            return;
+        }
+
+        if (!mAdvertiser.isAvailable()) {
+            Log.w(TAG, "Advertiser Not Available");
+            promise.reject("Advertiser unavailable on this device");
+            return;
+        }
+
+        AdvertisingPayload payload;
+        try {
+            payload = broadcastPayload(uid, serviceData, options);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Invalid broadcast payload", e);
+            promise.reject("InvalidPayload", "Broadcast payload is not valid: " + e.getMessage());
+            return;
+        }
+
+        double weight = 1;
+        if (options != null && options.hasKey("weight")) {
+            weight = options.getDouble("weight");
+        }
+
+        Broadcast broadcast = new Broadcast(payload, advertiseParameters(options));
+        advertisingRotation.add(uid, broadcast, weight, SystemClock.elapsedRealtime());
+        startRotationTicker();
+        promise.resolve("Added to rotation");
+    }
+
+    private synchronized void startRotationTicker() {
+        if (mRotationRunning) return;
+        mRotationRunning = true;
+        mRegionHandler.post(mRotationTick);
+    }
+
+    @ReactMethod
+    public void removeRotatingBroadcast(String uid, Promise promise) {
+        if (advertisingRotation.remove(uid, SystemClock.elapsedRealtime())) {
+            promise.resolve("Removed from rotation");
+        } else {
+            promise.resolve("Not in rotation");
+        }
+    }
+
+    /**
+     * dwellTime is how long each selection stays on air; slots is how many
+     * advertising instances the rotation may use at once.
+     */
+    @ReactMethod
+    public void setRotationOptions(ReadableMap options) {
+        long dwellTime = advertisingRotation.getDwellTime();
+        int slots = advertisingRotation.getSlots();
+
+        if (options != null && options.hasKey("dwellTime")) {
+            dwellTime = options.getInt("dwellTime");
+        }
+        if (options != null && options.hasKey("slots")) {
+            slots = options.getInt("slots");
+        }
+
+        advertisingRotation.configure(dwellTime, slots);
+    }
+
+    @ReactMethod
+    public void getRotationStatistics(Promise promise) {
+        long now = SystemClock.elapsedRealtime();
+        WritableArray statistics = Arguments.createArray();
+
+        for (AdvertisingRotation.Stats<Broadcast> entry : advertisingRotation.statistics(now)) {
+            WritableMap item = Arguments.createMap();
+            item.putString("uid", entry.id);
+            item.putDouble("weight", entry.weight);
+            item.putDouble("share", entry.share);
+            item.putDouble("dutyCycle", entry.dutyCycle);
+            // Nominal interval of the advertise mode, for the achieved rate
+            item.putDouble("effectiveRate", entry.dutyCycle * 1000.0 / entry.payload.parameters.intervalMillis());
+            item.putBoolean("onAir", entry.onAir);
+            statistics.pushMap(item);
+        }
+
+        promise.resolve(statistics);
+    }
+
+    private final Runnable mRotationTick = new Runnable() {
+        @Override
+        public void run() {
+            long next = advertisingRotation.rotate(SystemClock.elapsedRealtime());
+
+            synchronized (BLEAdvertiserModule.this) {
+                // A payload added since rotate() found none keeps the ticker going
+                if (next < 0 && advertisingRotation.isEmpty()) {
+                    mRotationRunning = false;
+                    return;
+                }
+                mRegionHandler.postDelayed(this, Math.max(0, next));
+            }
+        }
+    };
+    
+    /**
+     * Broadcast as an iBeacon
+     */
+    @ReactMethod
+    public void broadcastAsBeacon(String uuid, ReadableMap options, Promise promise) {
+        if (mBluetoothAdapter == null) {
+            Log.w(TAG, "Device does not support Bluetooth. Adapter is Null");
+            promise.reject("Device does not support Bluetooth. Adapter is Null");
+            return;
+        }
+        
+        if (mObservedState != null && !mObservedState) {
+            Log.w(TAG, "Bluetooth disabled");
+            promise.reject("Bluetooth disabled");
+            return;
+        }
+        
+        // Use UUID as the key for the advertiser; a previous beacon's callback belongs to a settled promise
+        endBroadcast(uuid);
+        
+        if (!mAdvertiser.isAvailable()) {
+            Log.w(TAG, "Advertiser Not Available");
+            promise.reject("Advertiser unavailable on this device");
+            return;
+        }
+        
+        try {
             // Parse UUID
             UUID parsedUuid = UUID.fromString(uuid);
             
@@ -379,13 +1218,11 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
             Log.d(TAG, "Broadcasting as iBeacon with UUID: " + uuid + ", major: " + major + ", minor: " + minor);
             
             // Build iBeacon advertisement data
-            AdvertiseSettings settings = buildAdvertiseSettings(options);
-            AdvertiseData data = buildIBeaconAdvertiseData(parsedUuid, major, minor, measuredPower);
+            AdvertisingParameters parameters = advertiseParameters(options);
+            AdvertisingPayload payload = AdvertisingPayload.iBeacon(parsedUuid.getMostSignificantBits(),
+                    parsedUuid.getLeastSignificantBits(), major, minor, measuredPower);
             
-            tempAdvertiser.startAdvertising(settings, data, tempCallback);
-            
-            mAdvertiserList.put(uuid, tempAdvertiser);
-            mAdvertiserCallbackList.put(uuid, tempCallback);
+            mAdvertiser.start(uuid, payload, parameters, new StartCallback(promise, parameters, false));
             
         } catch (IllegalArgumentException e) {
             Log.e(TAG, "Invalid UUID format", e);
@@ -397,79 +1234,218 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
     }
     
     /**
-     * Build iBeacon advertisement data
+     * Scan specifically for iBeacons
      */
-    private AdvertiseData buildIBeaconAdvertiseData(UUID uuid, int major, int minor, int measuredPower) {
-        AdvertiseData.Builder dataBuilder = new AdvertiseData.Builder();
+    @ReactMethod
+    public void scanForIBeacons(String uuid, ReadableMap options, Promise promise) {
+        if (mBluetoothAdapter == null) {
+            promise.reject("Device does not support Bluetooth. Adapter is Null");
+            return;
+        }
         
-        // iBeacon layout:
-        // 0x02 (iBeacon type) + 0x15 (length) + UUID (16 bytes) + major (2 bytes) + minor (2 bytes) + txPower (1 byte)
-        byte[] manufacturerData = new byte[23];
+        if (mObservedState != null && !mObservedState) {
+            Log.w(TAG, "Bluetooth disabled");
+            promise.reject("Bluetooth disabled");
+            return;
+        }
         
-        // Set iBeacon type and length
-        manufacturerData[0] = IBEACON_TYPE;
-        manufacturerData[1] = IBEACON_TYPE_LENGTH;
+        UUID beaconUuid = null;
+        if (uuid != null && !uuid.isEmpty()) {
+            try {
+                beaconUuid = UUID.fromString(uuid);
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Invalid UUID format", e);
+                promise.reject("InvalidUUID", "UUID is not valid: " + e.getMessage());
+                return;
+            }
+        }
         
-        // Convert UUID to bytes and copy to manufacturer data
-        ByteBuffer bb = ByteBuffer.wrap(manufacturerData, 2, 16);
-        bb.putLong(uuid.getMostSignificantBits());
-        bb.putLong(uuid.getLeastSignificantBits());
+        if (!acquireScanner(promise)) {
+            return;
+        }
         
-        // Set major value (2 bytes, big endian)
-        manufacturerData[18] = (byte) ((major >> 8) & 0xFF);
-        manufacturerData[19] = (byte) (major & 0xFF);
+        configureBatching(options);
+        configureReportOnChange(options);
+        configureProcessing(options);
+        mDataEncoding = dataEncoding(options);
         
-        // Set minor value (2 bytes, big endian)
-        manufacturerData[20] = (byte) ((minor >> 8) & 0xFF);
-        manufacturerData[21] = (byte) (minor & 0xFF);
+        // The UUID and every monitored and ranged region become filters
+        // for each region-shaped layout; with none of them, scan everything
+        mIBeaconScanUuid = beaconUuid;
+        mScanSessions.open(IBEACON_SESSION, regionFilters(), true, buildScanConfig(options, null));
         
-        // Set measured power
-        manufacturerData[22] = (byte) measuredPower;
+        if (applyScanSessions() == ScanRestartScheduler.STATE_PENDING) {
+            promise.resolve("Scanning for iBeacons pending");
+        } else {
+            promise.resolve("Scanning for iBeacons");
+        }
+    }
+    
+    /**
+     * One filter per region-shaped layout for the scan UUID and for every
+     * monitored and ranged region. Layouts matched against any company,
+     * AltBeacon among them, cannot be filtered in the controller and are
+     * left out.
+     */
+    private List<ScanFilterSpec> regionFilters() {
+        List<ScanFilterSpec> specs = new ArrayList<>();
+        BeaconLayoutRegistry layouts = mPipeline.beaconLayouts;
         
-        // Add manufacturer specific data with Apple's company ID
-        dataBuilder.addManufacturerData(APPLE_MANUFACTURER_ID, manufacturerData);
+        if (mIBeaconScanUuid != null) {
+            specs.addAll(layouts.regionFilters(mIBeaconScanUuid.getMostSignificantBits(), mIBeaconScanUuid.getLeastSignificantBits(), 16, null, null));
+        }
         
-        return dataBuilder.build();
+        for (BeaconRegion region : monitoredRegions.snapshot().values()) {
+            specs.addAll(layouts.regionFilters(region.uuid.getMostSignificantBits(), region.uuid.getLeastSignificantBits(), 16, region.major, region.minor));
+        }
+        
+        for (BeaconRegion region : rangedRegions.snapshot().values()) {
+            specs.addAll(layouts.regionFilters(region.uuid.getMostSignificantBits(), region.uuid.getLeastSignificantBits(), 16, region.major, region.minor));
+        }
+        
+        return specs;
     }
     
     /**
-     * Scan specifically for iBeacons
+     * Regions changed; an iBeacon scan restarts with the new region filters.
+     * Changing many regions at once coalesces into a single restart.
+     */
+    private void refreshRegionFilters() {
+        if (!mScanner.isAcquired() || !mScanSessions.updateFilters(IBEACON_SESSION, regionFilters())) {
+            return;
+        }
+        
+        applyScanSessions();
+    }
+    
+    /**
+     * Open a named scan session alongside any other scan. Its results are
+     * sent as onScanSessionResult events carrying the session id.
      */
     @ReactMethod
-    public void scanForIBeacons(String uuid, ReadableMap options, Promise promise) {
+    public void startScanSession(String sessionId, ReadableArray filterDescriptions, ReadableMap options, Promise promise) {
         if (mBluetoothAdapter == null) {
             promise.reject("Device does not support Bluetooth. Adapter is Null");
             return;
         }
-        
+
         if (mObservedState != null && !mObservedState) {
             Log.w(TAG, "Bluetooth disabled");
             promise.reject("Bluetooth disabled");
             return;
         }
-        
-        if (mScannerCallback == null) {
-            mScannerCallback = new SimpleScanCallback();
+
+        if (sessionId == null || DEFAULT_SESSION.equals(sessionId) || IBEACON_SESSION.equals(sessionId)) {
+            promise.reject("InvalidSession", "Session id is missing or reserved: " + sessionId);
+            return;
         }
-        
-        if (mScanner == null) {
-            mScanner = mBluetoothAdapter.getBluetoothLeScanner();
-        } else {
-            mScanner.stopScan(mScannerCallback);
+
+        List<ScanFilterSpec> specs = new ArrayList<>();
+        try {
+            for (int i = 0; filterDescriptions != null && i < filterDescriptions.size(); i++) {
+                specs.add(parseScanFilter(filterDescriptions.getMap(i), dataEncoding(options)));
+            }
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Invalid scan filter", e);
+            promise.reject("InvalidFilter", "Scan filter is not valid: " + e.getMessage());
+            return;
         }
-        
-        if (mScanner == null) {
-            Log.w(TAG, "Scanner Not Available");
-            promise.reject("Scanner unavailable on this device");
+
+        if (!acquireScanner(promise)) {
             return;
         }
-        
-        ScanSettings scanSettings = buildScanSettings(options);
-        
-        // For iBeacon scanning, we'll scan for all devices and filter in the callback
-        // This is because iBeacons use manufacturer data which can't be filtered directly
-        mScanner.startScan(null, scanSettings, mScannerCallback);
-        promise.resolve("Scanning for iBeacons");
+
+        // Report-on-change, encoding and batching belong to the session alone
+        DeviceCache sessionCache = null;
+        if (options != null && options.hasKey("reportOnChange") && options.getBoolean("reportOnChange")) {
+            sessionCache = new DeviceCache();
+            configureDeviceCache(sessionCache, options);
+        }
+        configureSessionBatching(sessionId, options);
+
+        mScanSessions.open(sessionId, specs, false, buildScanConfig(options, null), sessionCache, dataEncoding(options));
+        promise.resolve(sessionResponse(applyScanSessions()));
+    }
+
+    /**
+     * A session with batchInterval or maxBatchSize gets its results as
+     * onScanSessionResults arrays from a batcher of its own.
+     */
+    private void configureSessionBatching(final String sessionId, ReadableMap options) {
+        ScanResultBatcher previous = mSessionBatchers.remove(sessionId);
+        if (previous != null) {
+            previous.disable();
+        }
+
+        long batchInterval = options != null && options.hasKey("batchInterval") ? options.getInt("batchInterval") : 0;
+        int maxBatchSize = options != null && options.hasKey("maxBatchSize") ? options.getInt("maxBatchSize") : 0;
+        if (batchInterval <= 0 && maxBatchSize <= 0) {
+            return;
+        }
+
+        ScanResultBatcher batcher = new ScanResultBatcher(new ScanResultBatcher.Listener() {
+            @Override
+            public void onBatchReady(WritableArray devices) {
+                WritableMap params = Arguments.createMap();
+                params.putString("session", sessionId);
+                params.putArray("devices", devices);
+                sendEvent("onScanSessionResults", params);
+                metrics.eventsEmitted.incrementAndGet();
+                metrics.batchSize.record(devices.size());
+            }
+        });
+        batcher.configure(batchInterval, maxBatchSize);
+        mSessionBatchers.put(sessionId, batcher);
+    }
+
+    @ReactMethod
+    public void stopScanSession(String sessionId, Promise promise) {
+        ScanResultBatcher batcher = mSessionBatchers.remove(sessionId);
+        if (batcher != null) {
+            batcher.disable();
+        }
+
+        if (!mScanSessions.close(sessionId)) {
+            promise.resolve("Session not started");
+            return;
+        }
+
+        applyScanSessions();
+        promise.resolve("Session stopped");
+    }
+
+    @ReactMethod
+    public void getScanSessions(Promise promise) {
+        WritableArray sessions = Arguments.createArray();
+        for (ScanSessionManager.Session session : mScanSessions.sessions()) {
+            sessions.pushString(session.id);
+        }
+        promise.resolve(sessions);
+    }
+
+    /**
+     * Folds the open sessions into one hardware scan. The scheduler skips
+     * the restart when the merged configuration did not change.
+     */
+    private int applyScanSessions() {
+        ScanConfig merged = mScanSessions.merge();
+        if (merged == null) {
+            mScanScheduler.stop();
+            return ScanRestartScheduler.STATE_IDLE;
+        }
+        return mScanScheduler.request(merged);
+    }
+
+    private WritableMap sessionResponse(int state) {
+        boolean pending = state == ScanRestartScheduler.STATE_PENDING;
+        ScanConfig config = pending ? mScanScheduler.getPending() : mScanScheduler.getActive();
+
+        WritableMap response = Arguments.createMap();
+        response.putString("message", pending ? "Scanner start pending" : "Scanner started");
+        response.putString("state", pending ? "pending" : "active");
+        response.putInt("hardwareFilters", config != null && config.filters.hardware != null ? config.filters.hardware.size() : 0);
+        response.putBoolean("softwareFiltering", config != null && config.filters.software != null);
+        return response;
     }
     
     @ReactMethod
@@ -485,266 +1461,1184 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
             return;
         }
 
-        if (mScanner != null) {
-            mScanner.stopScan(mScannerCallback);
-            mScanner = null;
+        if (mScanner.isAcquired()) {
+            // Named sessions keep running; they end with stopScanSession
+            mScanSessions.close(DEFAULT_SESSION);
+            mScanSessions.close(IBEACON_SESSION);
+            mBatcher.disable();
+            if (applyScanSessions() == ScanRestartScheduler.STATE_IDLE) {
+                mScanner.release();
+                mScanQueue.clear();
+            }
             promise.resolve("Scanner stopped");
         } else {
             promise.resolve("Scanner not started");
         }
     }
 
-    private ScanSettings buildScanSettings(ReadableMap options) {
-        ScanSettings.Builder scanSettingsBuilder = new ScanSettings.Builder();
+    private ScanConfig buildScanConfig(ReadableMap options, ScanFilterCompiler.Result filters) {
+        int scanMode = ScanConfig.UNSET;
+        int matchMode = ScanConfig.UNSET;
+        int numOfMatches = ScanConfig.UNSET;
+        long reportDelay = ScanConfig.UNSET;
 
         if (options != null && options.hasKey("scanMode")) {
-            scanSettingsBuilder.setScanMode(options.getInt("scanMode"));
+            scanMode = options.getInt("scanMode");
+        }
+        if (options != null && options.hasKey("numberOfMatches")) {
+            numOfMatches = options.getInt("numberOfMatches");
+        }
+        if (options != null && options.hasKey("matchMode")) {
+            matchMode = options.getInt("matchMode");
+        }
+        if (options != null && options.hasKey("reportDelay")) {
+            reportDelay = options.getInt("reportDelay");
+        }
+
+        return new ScanConfig(filters, scanMode, matchMode, numOfMatches, reportDelay);
+    }
+
+    private ScanSettings toScanSettings(ScanConfig config) {
+        ScanSettings.Builder scanSettingsBuilder = new ScanSettings.Builder();
+
+        if (config.scanMode != ScanConfig.UNSET) {
+            scanSettingsBuilder.setScanMode(config.scanMode);
         } 
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            if (options != null && options.hasKey("numberOfMatches")) {
-                scanSettingsBuilder.setNumOfMatches(options.getInt("numberOfMatches"));
+            if (config.numOfMatches != ScanConfig.UNSET) {
+                scanSettingsBuilder.setNumOfMatches(config.numOfMatches);
             }
-            if (options != null && options.hasKey("matchMode")) {
-                scanSettingsBuilder.setMatchMode(options.getInt("matchMode"));
+            if (config.matchMode != ScanConfig.UNSET) {
+                scanSettingsBuilder.setMatchMode(config.matchMode);
             }
         }
 
-        if (options != null && options.hasKey("reportDelay")) {
-            scanSettingsBuilder.setReportDelay(options.getInt("reportDelay"));
+        if (config.reportDelay != ScanConfig.UNSET) {
+            scanSettingsBuilder.setReportDelay(config.reportDelay);
         }
 
         return scanSettingsBuilder.build();
     }
 
-    private class SimpleScanCallback extends ScanCallback {
-  @Override
-  public void onScanResult(int callbackType, ScanResult result) {
-            Log.d(TAG, "Scanned: " + result.toString());
+    /**
+     * Whether the requested scan is running or waiting for a start slot,
+     * and how many of the platform's starts per window have been used.
+     */
+    @ReactMethod
+    public void getScanState(Promise promise) {
+        promise.resolve(scanState());
+    }
 
-            WritableMap params = Arguments.createMap();
-            WritableArray paramsUUID = Arguments.createArray();
+    private WritableMap scanState() {
+        WritableMap state = Arguments.createMap();
+        switch (mScanScheduler.getState()) {
+            case ScanRestartScheduler.STATE_PENDING:
+                state.putString("state", "pending");
+                break;
+            case ScanRestartScheduler.STATE_ACTIVE:
+                state.putString("state", "active");
+                break;
+            default:
+                state.putString("state", "idle");
+                break;
+        }
+        state.putDouble("pendingDelay", mScanScheduler.getPendingDelay());
+        state.putInt("startsInWindow", mScanScheduler.getStartsInWindow());
+        state.putInt("maxStarts", ScanRestartScheduler.MAX_STARTS);
+        return state;
+    }
 
-            if (result.getScanRecord() != null && result.getScanRecord().getServiceUuids() != null) {
-                for (ParcelUuid uuid : result.getScanRecord().getServiceUuids()) {
-                    paramsUUID.pushString(uuid.toString());
-                }
-            }
+    /**
+     * Starts copying every reported scan result into a ring of fixed-layout
+     * records that JS drains with drainScanRing. Resolves with the layout.
+     */
+    @ReactMethod
+    public void enableScanRing(ReadableMap options, Promise promise) {
+        int capacity = ScanRecordRing.DEFAULT_CAPACITY;
+        boolean events = true;
 
-            params.putArray("serviceUuids", paramsUUID);
-            params.putInt("rssi", result.getRssi());
-            
-            if (result.getScanRecord() != null) {
-                params.putInt("txPower", result.getScanRecord().getTxPowerLevel());
-                params.putString("deviceName", result.getScanRecord().getDeviceName() != null ? result.getScanRecord().getDeviceName() : "");
-                params.putInt("advFlags", result.getScanRecord().getAdvertiseFlags());
-                
-                // Check for manufacturer data from our company ID
-                if (result.getScanRecord().getManufacturerSpecificData(companyId) != null) {
-                    params.putInt("companyId", companyId);
-                    params.putArray("manufData", toByteArray(result.getScanRecord().getManufacturerSpecificData(companyId)));
-                }
-                
-                // Check for iBeacon data (Apple's company ID)
-                byte[] appleData = result.getScanRecord().getManufacturerSpecificData(APPLE_MANUFACTURER_ID);
-                if (appleData != null && appleData.length >= 23) {
-                    // Check for iBeacon type and length
-                    if (appleData[0] == IBEACON_TYPE && appleData[1] == IBEACON_TYPE_LENGTH) {
-                        // Extract UUID (16 bytes)
-                        ByteBuffer bb = ByteBuffer.wrap(appleData, 2, 16);
-                        long high = bb.getLong();
-                        long low = bb.getLong();
-                        UUID proximityUuid = new UUID(high, low);
-                        
-                        // Extract major (2 bytes)
-                        int major = ((appleData[18] & 0xFF) << 8) | (appleData[19] & 0xFF);
-                        
-                        // Extract minor (2 bytes)
-                        int minor = ((appleData[20] & 0xFF) << 8) | (appleData[21] & 0xFF);
-                        
-                        // Extract measured power (1 byte)
-                        int measuredPower = (int) appleData[22];
-                        
-                        // Add beacon data to params
-                        WritableMap beaconData = Arguments.createMap();
-                        beaconData.putString("uuid", proximityUuid.toString());
-                        beaconData.putInt("major", major);
-                        beaconData.putInt("minor", minor);
-                        beaconData.putInt("measuredPower", measuredPower);
-                        beaconData.putBoolean("isBeacon", true);
-                        
-                        params.putMap("beaconData", beaconData);
-                        
-                        // Calculate approximate distance based on RSSI and measured power
-                        double rssi = result.getRssi();
-                        double ratio = rssi / measuredPower;
-                        double distance;
-                        
-                        if (ratio < 1.0) {
-                            distance = Math.pow(ratio, 10);
-                        } else {
-                            distance = (0.89976) * Math.pow(ratio, 7.7095) + 0.111;
-                        }
-                        
-                        params.putDouble("distance", distance);
-                        
-                        // Process beacon for monitoring and ranging
-                        processBeacon(proximityUuid, major, minor, result.getRssi(), measuredPower, distance);
-                    }
-                }
-            }
-            
-            if (result.getDevice() != null) {
-                params.putString("deviceAddress", result.getDevice().getAddress());
+        if (options != null && options.hasKey("capacity")) {
+            capacity = options.getInt("capacity");
+        }
+
+        if (options != null && options.hasKey("events")) {
+            events = options.getBoolean("events");
+        }
+
+        if (capacity <= 0) {
+            promise.reject("InvalidCapacity", "Ring capacity must be positive");
+            return;
+        }
+
+        ScanRecordRing ring = new ScanRecordRing(capacity);
+        synchronized (this) {
+            mScanRingDrain = null;
+        }
+        mPipeline.setRing(ring, events);
+        promise.resolve(scanRingLayout(ring));
+    }
+
+    @ReactMethod
+    public void disableScanRing() {
+        mPipeline.setRing(null, true);
+        synchronized (this) {
+            mScanRingDrain = null;
+        }
+    }
+
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public WritableMap getScanRingLayout() {
+        ScanRecordRing ring = mPipeline.getRing();
+        return ring != null ? scanRingLayout(ring) : null;
+    }
+
+    /**
+     * Takes up to maxRecords unread records out of the ring without
+     * waiting for the scan callback. The records come back as one base64
+     * string, count records of recordSize bytes each.
+     */
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public synchronized WritableMap drainScanRing(int maxRecords) {
+        ScanRecordRing ring = mPipeline.getRing();
+        WritableMap result = Arguments.createMap();
+        if (ring == null) {
+            result.putString("records", "");
+            result.putInt("count", 0);
+            result.putDouble("overflow", 0);
+            result.putInt("pending", 0);
+            return result;
+        }
+
+        int max = maxRecords > 0 ? Math.min(maxRecords, ring.getCapacity()) : ring.getCapacity();
+        if (mScanRingDrain == null || mScanRingDrain.length < max * ScanRecordRing.RECORD_SIZE) {
+            mScanRingDrain = new byte[ring.getCapacity() * ScanRecordRing.RECORD_SIZE];
+        }
+
+        int count = ring.drain(mScanRingDrain, max);
+        result.putString("records", DataEncoding.encodeBase64(mScanRingDrain, 0, count * ScanRecordRing.RECORD_SIZE));
+        result.putInt("count", count);
+        result.putDouble("overflow", ring.getOverflow());
+        result.putInt("pending", ring.size());
+        return result;
+    }
+
+    private static WritableMap scanRingLayout(ScanRecordRing ring) {
+        WritableMap fields = Arguments.createMap();
+        fields.putMap("sequence", ringField(ScanRecordRing.FIELD_SEQUENCE, "uint32", 4));
+        fields.putMap("flags", ringField(ScanRecordRing.FIELD_FLAGS, "uint8", 1));
+        fields.putMap("rssi", ringField(ScanRecordRing.FIELD_RSSI, "int8", 1));
+        fields.putMap("address", ringField(ScanRecordRing.FIELD_ADDRESS, "bytes", 6));
+        fields.putMap("dataLength", ringField(ScanRecordRing.FIELD_DATA_LENGTH, "uint8", 1));
+        fields.putMap("timestamp", ringField(ScanRecordRing.FIELD_TIMESTAMP, "float64", 8));
+        fields.putMap("data", ringField(ScanRecordRing.FIELD_DATA, "bytes", ScanRecordRing.DATA_CAPACITY));
+
+        WritableMap flags = Arguments.createMap();
+        flags.putInt("hasAddress", ScanRecordRing.FLAG_HAS_ADDRESS);
+        flags.putInt("truncated", ScanRecordRing.FLAG_TRUNCATED);
+
+        WritableMap layout = Arguments.createMap();
+        layout.putInt("recordSize", ScanRecordRing.RECORD_SIZE);
+        layout.putInt("capacity", ring.getCapacity());
+        layout.putBoolean("littleEndian", false);
+        layout.putMap("fields", fields);
+        layout.putMap("flags", flags);
+        return layout;
+    }
+
+    private static WritableMap ringField(int offset, String type, int size) {
+        WritableMap field = Arguments.createMap();
+        field.putInt("offset", offset);
+        field.putString("type", type);
+        field.putInt("size", size);
+        return field;
+    }
+
+    /**
+     * Batching is on when the options carry a batchInterval or maxBatchSize,
+     * otherwise every result goes out as its own onDeviceFound event.
+     */
+    private void configureBatching(ReadableMap options) {
+        long batchInterval = 0;
+        int maxBatchSize = 0;
+
+        if (options != null && options.hasKey("batchInterval")) {
+            batchInterval = options.getInt("batchInterval");
+        }
+
+        if (options != null && options.hasKey("maxBatchSize")) {
+            maxBatchSize = options.getInt("maxBatchSize");
+        }
+
+        if (batchInterval > 0 || maxBatchSize > 0) {
+            mBatcher.configure(batchInterval, maxBatchSize);
+        } else {
+            mBatcher.disable();
+        }
+    }
+
+    /**
+     * Counters and timing histograms for the scan and advertise pipelines
+     * since the module started or statistics were last reset. Times are in ms.
+     */
+    @ReactMethod
+    public void getStatistics(Promise promise) {
+        promise.resolve(statistics());
+    }
+
+    @ReactMethod
+    public void resetStatistics() {
+        metrics.reset(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Sends the statistics as an onStatistics event every intervalMs, or
+     * stops sending them when intervalMs is 0.
+     */
+    @ReactMethod
+    public void setStatisticsInterval(int intervalMs) {
+        synchronized (mStatisticsTick) {
+            mStatisticsInterval = Math.max(0, intervalMs);
+            mRegionHandler.removeCallbacks(mStatisticsTick);
+            if (mStatisticsInterval > 0) {
+                mRegionHandler.postDelayed(mStatisticsTick, mStatisticsInterval);
             }
+        }
+    }
+
+    private final Runnable mStatisticsTick = new Runnable() {
+        @Override
+        public void run() {
+            sendEvent("onStatistics", statistics());
+            synchronized (this) {
+                if (mStatisticsInterval > 0) {
+                    mRegionHandler.postDelayed(this, mStatisticsInterval);
+                }
+            }
+        }
+    };
+
+    private WritableMap statistics() {
+        WritableMap scan = Arguments.createMap();
+        scan.putDouble("packetsReceived", metrics.packetsReceived.get());
+        scan.putDouble("packetsFiltered", metrics.packetsFiltered.get());
+        scan.putDouble("packetsSuppressed", metrics.packetsSuppressed.get());
+        scan.putDouble("eventsEmitted", metrics.eventsEmitted.get());
+        scan.putDouble("eventsDropped", mScanQueue.getDropped());
+        scan.putInt("queueDepth", mScanQueue.depth());
+        ScanRecordRing ring = mPipeline.getRing();
+        scan.putDouble("ringOverflow", ring != null ? ring.getOverflow() : 0);
+        scan.putMap("batchSize", histogram(metrics.batchSize, 1));
+
+        WritableMap timing = Arguments.createMap();
+        timing.putMap("queueWait", histogram(metrics.queueWait, 1000));
+        timing.putMap("parse", histogram(metrics.parseTime, 1000));
+        timing.putMap("beacon", histogram(metrics.beaconTime, 1000));
+        timing.putMap("report", histogram(metrics.reportTime, 1000));
+        timing.putMap("latency", histogram(metrics.latency, 1000));
+
+        WritableMap failed = Arguments.createMap();
+        for (int code = 0; code <= PipelineMetrics.MAX_ERROR_CODE; code++) {
+            long count = metrics.advertiseFailed(code);
+            if (count > 0) {
+                failed.putDouble(String.valueOf(code), count);
+            }
+        }
 
+        WritableMap advertising = Arguments.createMap();
+        advertising.putDouble("started", metrics.advertiseStarted.get());
+        advertising.putMap("failed", failed);
+
+        WritableMap statistics = Arguments.createMap();
+        statistics.putDouble("elapsed", SystemClock.elapsedRealtime() - metrics.getResetAt());
+        statistics.putMap("scan", scan);
+        statistics.putMap("timing", timing);
+        statistics.putMap("advertising", advertising);
+        return statistics;
+    }
+
+    private static WritableMap histogram(PipelineMetrics.Histogram histogram, double scale) {
+        WritableMap map = Arguments.createMap();
+        map.putDouble("count", histogram.count());
+        map.putDouble("mean", histogram.mean() / scale);
+        map.putDouble("max", histogram.max() / scale);
+        map.putDouble("p50", histogram.percentile(0.5) / scale);
+        map.putDouble("p90", histogram.percentile(0.9) / scale);
+        map.putDouble("p99", histogram.percentile(0.99) / scale);
+        return map;
+    }
+
+    /**
+     * Bound and overflow policy of the queue between the scan callback and
+     * the processing thread.
+     */
+    private void configureProcessing(ReadableMap options) {
+        int capacity = ScanProcessingQueue.DEFAULT_CAPACITY;
+        int policy = ScanProcessingQueue.POLICY_DROP_OLDEST;
+
+        if (options != null && options.hasKey("queueCapacity")) {
+            capacity = options.getInt("queueCapacity");
+        }
+
+        if (options != null && options.hasKey("overflowPolicy")) {
+            policy = ScanProcessingQueue.policyFromString(options.getString("overflowPolicy"));
+        }
+
+        mScanQueue.configure(capacity, policy);
+    }
+
+    /**
+     * Depth of the queue feeding the scan processing thread and how many
+     * packets it had to drop.
+     */
+    @ReactMethod
+    public void getScanQueueStatus(Promise promise) {
+        WritableMap status = Arguments.createMap();
+        status.putInt("depth", mScanQueue.depth());
+        status.putInt("maxDepth", mScanQueue.getMaxDepth());
+        status.putInt("capacity", mScanQueue.getCapacity());
+        status.putString("overflowPolicy", ScanProcessingQueue.policyToString(mScanQueue.getPolicy()));
+        status.putDouble("dropped", mScanQueue.getDropped());
+        promise.resolve(status);
+    }
+
+    /**
+     * Starts appending every raw scan result to trace files in directory
+     * (by default ble-traces in the app's files directory). Files are
+     * maxFileSize bytes at most and only the newest maxFiles are kept.
+     * A recording already running is closed first.
+     */
+    @ReactMethod
+    public void startTraceRecording(ReadableMap options, Promise promise) {
+        File directory = traceDirectory(options);
+        long maxFileSize = ScanTraceWriter.DEFAULT_MAX_FILE_BYTES;
+        int maxFiles = ScanTraceWriter.DEFAULT_MAX_FILES;
+        
+        if (options != null && options.hasKey("maxFileSize")) {
+            maxFileSize = (long) options.getDouble("maxFileSize");
+        }
+        
+        if (options != null && options.hasKey("maxFiles")) {
+            maxFiles = options.getInt("maxFiles");
+        }
+        
+        ScanTraceWriter trace;
+        try {
+            trace = new ScanTraceWriter(directory, maxFileSize, maxFiles);
+        } catch (IllegalArgumentException e) {
+            promise.reject("InvalidOptions", e.getMessage());
+            return;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open scan trace", e);
+            promise.reject("TraceOpenFailed", e.getMessage());
+            return;
+        }
+        
+        ScanTraceWriter previous = mTraceWriter;
+        mTraceWriter = trace;
+        if (previous != null) {
+            previous.close();
+        }
+        
+        WritableMap result = Arguments.createMap();
+        result.putString("directory", directory.getAbsolutePath());
+        result.putDouble("maxFileSize", trace.getMaxFileBytes());
+        result.putInt("maxFiles", trace.getMaxFiles());
+        promise.resolve(result);
+    }
+    
+    @ReactMethod
+    public void stopTraceRecording(Promise promise) {
+        ScanTraceWriter trace = mTraceWriter;
+        mTraceWriter = null;
+        if (trace == null) {
+            promise.reject("NotRecording", "No scan trace is being recorded");
+            return;
+        }
+        trace.close();
+        
+        WritableArray files = Arguments.createArray();
+        for (File file : ScanTraceReader.traceFiles(trace.getDirectory())) {
+            files.pushString(file.getAbsolutePath());
+        }
+        
+        WritableMap result = Arguments.createMap();
+        result.putString("directory", trace.getDirectory().getAbsolutePath());
+        result.putArray("files", files);
+        result.putDouble("records", trace.getRecordCount());
+        result.putDouble("bytes", trace.getBytesWritten());
+        result.putDouble("dropped", trace.getDropped());
+        promise.resolve(result);
+    }
+    
+    /**
+     * Feeds recorded packets back into the scan queue as if the radio had
+     * just received them, so they go through the same filtering, sessions,
+     * regions and events as live ones; with no scan open they are reported
+     * as an unfiltered scan would report them. Plays the given files, or every
+     * trace in directory, at speed times the recorded pace (0 for as fast
+     * as possible). Replayed packets wait for room in the queue instead of
+     * being dropped. Resolves with the packet count, and how many packets
+     * the queue dropped meanwhile, once the replay ends.
+     */
+    @ReactMethod
+    public void replayTrace(ReadableMap options, final Promise promise) {
+        List<File> files = new ArrayList<>();
+        if (options != null && options.hasKey("files")) {
+            ReadableArray paths = options.getArray("files");
+            for (int i = 0; i < paths.size(); i++) {
+                files.add(new File(paths.getString(i)));
+            }
+        } else {
+            files = ScanTraceReader.traceFiles(traceDirectory(options));
+        }
+        
+        double speed = 1;
+        if (options != null && options.hasKey("speed")) {
+            speed = options.getDouble("speed");
+        }
+        
+        long maxGapNanos = ScanTraceReplayer.DEFAULT_MAX_GAP_NANOS;
+        if (options != null && options.hasKey("maxGap")) {
+            maxGapNanos = (long) (options.getDouble("maxGap") * 1000000);
+        }
+        
+        if (files.isEmpty()) {
+            promise.reject("NoTrace", "No scan trace files to replay");
+            return;
+        }
+        
+        final ScanTraceReplayer replayer = new ScanTraceReplayer(files, speed, maxGapNanos, new ScanPipeline.Clock() {
+            @Override
+            public long elapsedNanos() {
+                return SystemClock.elapsedRealtimeNanos();
+            }
+
+            @Override
+            public long currentTimeMillis() {
+                return System.currentTimeMillis();
+            }
+        }, new Scanner.Listener() {
+            @Override
+            public void onPacket(String address, int rssi, byte[] bytes, long timestampNanos) {
+                metrics.packetsReceived.incrementAndGet();
+                mScanQueue.put(new RawScan(address, rssi, bytes, timestampNanos, SystemClock.elapsedRealtimeNanos(), true));
+            }
+        });
+        final long droppedBefore = mScanQueue.getDropped();
+        
+        synchronized (this) {
+            if (mTraceReplayer != null) {
+                promise.reject("ReplayInProgress", "A scan trace is already being replayed");
+                return;
+            }
+            mTraceReplayer = replayer;
+        }
+        
+        replayer.start(new ScanTraceReplayer.Listener() {
+            @Override
+            public void onReplayFinished(long replayed, IOException error) {
+                synchronized (BLEAdvertiserModule.this) {
+                    if (mTraceReplayer == replayer) {
+                        mTraceReplayer = null;
+                    }
+                }
+                if (error != null) {
+                    Log.e(TAG, "Failed to replay scan trace", error);
+                    promise.reject("TraceReadFailed", error.getMessage());
+                    return;
+                }
+                WritableMap result = Arguments.createMap();
+                result.putDouble("replayed", replayed);
+                result.putDouble("dropped", mScanQueue.getDropped() - droppedBefore);
+                promise.resolve(result);
+            }
+        });
+    }
+    
+    @ReactMethod
+    public void stopTraceReplay() {
+        ScanTraceReplayer replayer;
+        synchronized (this) {
+            replayer = mTraceReplayer;
+        }
+        if (replayer != null) {
+            replayer.stop();
+        }
+    }
+    
+    private File traceDirectory(ReadableMap options) {
+        if (options != null && options.hasKey("directory")) {
+            return new File(options.getString("directory"));
+        }
+        return new File(getReactApplicationContext().getFilesDir(), "ble-traces");
+    }
+
+    /**
+     * With reportOnChange, a device is only reported again when its payload
+     * changed, its RSSI moved by rssiDelta or minReportInterval has passed.
+     */
+    private void configureReportOnChange(ReadableMap options) {
+        boolean reportOnChange = options != null && options.hasKey("reportOnChange") && options.getBoolean("reportOnChange");
+        
+        if (reportOnChange) {
+            configureDeviceCache(deviceCache, options);
+        } else {
+            deviceCache.clear();
+        }
+        
+        mPipeline.setReportOnChange(reportOnChange);
+    }
+    
+    private static void configureDeviceCache(DeviceCache cache, ReadableMap options) {
+        int cacheSize = DeviceCache.DEFAULT_MAX_SIZE;
+        long ttl = DeviceCache.DEFAULT_TTL;
+        int rssiDelta = DeviceCache.DEFAULT_RSSI_DELTA;
+        long minReportInterval = DeviceCache.DEFAULT_MIN_REPORT_INTERVAL;
+        
+        if (options.hasKey("deviceCacheSize")) {
+            cacheSize = options.getInt("deviceCacheSize");
+        }
+        
+        if (options.hasKey("deviceTtl")) {
+            ttl = options.getInt("deviceTtl");
+        }
+        
+        if (options.hasKey("rssiDelta")) {
+            rssiDelta = options.getInt("rssiDelta");
+        }
+        
+        if (options.hasKey("minReportInterval")) {
+            minReportInterval = options.getInt("minReportInterval");
+        }
+        
+        cache.configure(cacheSize, ttl, rssiDelta, minReportInterval);
+    }
+
+    private void emitDeviceFound(WritableMap params) {
+        if (mBatcher.isEnabled()) {
+            mBatcher.add(params);
+        } else {
             sendEvent("onDeviceFound", params);
-  }
+            metrics.eventsEmitted.incrementAndGet();
+        }
+    }
+
+    /**
+     * A packet as the system delivered it, waiting for the processing thread.
+     */
+    private static class RawScan {
+        final String address;
+        final int rssi;
+        final byte[] bytes;
+        final long timestampNanos;
+        final long receivedNanos;
+        final boolean replayed;
+
+        RawScan(String address, int rssi, byte[] bytes, long timestampNanos, long receivedNanos, boolean replayed) {
+            this.address = address;
+            this.rssi = rssi;
+            this.bytes = bytes;
+            this.timestampNanos = timestampNanos;
+            this.receivedNanos = receivedNanos;
+            this.replayed = replayed;
+        }
+    }
+
+    /**
+     * Hands a live packet to the processing thread, dropping one when the
+     * queue is full. Replayed packets wait for room instead.
+     */
+    private void enqueueScan(String address, int rssi, byte[] bytes, long timestampNanos) {
+        metrics.packetsReceived.incrementAndGet();
+        mScanQueue.offer(new RawScan(address, rssi, bytes, timestampNanos, SystemClock.elapsedRealtimeNanos(), false));
+    }
+
+    /**
+     * The platform scanner behind the core Scanner interface. The
+     * BluetoothLeScanner is acquired for scanning and released once no
+     * session is left; a new Bluetooth session needs a new one.
+     */
+    private class PlatformScanner extends ScanCallback implements Scanner {
+        private volatile BluetoothLeScanner mLeScanner;
+        private volatile Listener mListener;
+
+        boolean acquire() {
+            if (mLeScanner == null) {
+                mLeScanner = mBluetoothAdapter.getBluetoothLeScanner();
+            }
+            return mLeScanner != null;
+        }
+
+        boolean isAcquired() {
+            return mLeScanner != null;
+        }
+
+        void release() {
+            mLeScanner = null;
+        }
 
-  @Override
-  public void onBatchScanResults(final List<ScanResult> results) {
+        @Override
+        public void setListener(Listener listener) {
+            mListener = listener;
+        }
+
+        @Override
+        public void start(ScanConfig config) {
+            BluetoothLeScanner scanner = mLeScanner;
+            if (scanner != null) {
+                scanner.startScan(toScanFilters(config.filters.hardware), toScanSettings(config), this);
+            }
+        }
+
+        @Override
+        public void stop() {
+            BluetoothLeScanner scanner = mLeScanner;
+            if (scanner != null) {
+                scanner.stopScan(this);
+            }
+        }
+
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            // Only the raw packet is taken here; parsing, matching and events run on the processing thread
+            Listener listener = mListener;
+            if (listener == null) return;
+
+            ScanRecord scanRecord = result.getScanRecord();
+            String address = result.getDevice() != null ? result.getDevice().getAddress() : null;
+            byte[] bytes = scanRecord != null ? scanRecord.getBytes() : null;
+            listener.onPacket(address, result.getRssi(), bytes, result.getTimestampNanos());
+        }
+
+        @Override
+        public void onBatchScanResults(final List<ScanResult> results) {
             for (ScanResult result : results) {
                 onScanResult(0, result);
             }
-  }
+        }
 
-  @Override
-  public void onScanFailed(final int errorCode) {
+        @Override
+        public void onScanFailed(final int errorCode) {
             Log.e(TAG, "Scan failed with error code: " + errorCode);
-  }
- };
- 
- /**
-     * Process a detected beacon for monitoring and ranging
+        }
+    }
+
+    private static WritableMap eddystoneParams(EddystoneFrame frame) {
+        WritableMap params = Arguments.createMap();
+        params.putString("frame", EddystoneFrame.typeToString(frame.type));
+        
+        switch (frame.type) {
+            case EddystoneFrame.TYPE_UID:
+                params.putInt("txPower", frame.txPower);
+                params.putString("namespace", frame.namespace);
+                params.putString("instance", frame.instance);
+                break;
+            case EddystoneFrame.TYPE_URL:
+                params.putInt("txPower", frame.txPower);
+                params.putString("url", frame.url);
+                break;
+            case EddystoneFrame.TYPE_TLM:
+                params.putInt("version", frame.tlmVersion);
+                if (frame.tlmVersion == EddystoneFrame.TLM_UNENCRYPTED) {
+                    params.putInt("batteryVoltage", frame.batteryVoltage);
+                    if (!Double.isNaN(frame.temperature)) {
+                        params.putDouble("temperature", frame.temperature);
+                    }
+                    params.putDouble("advertisingCount", frame.advertisingCount);
+                    params.putDouble("uptime", frame.uptime);
+                }
+                break;
+            case EddystoneFrame.TYPE_EID:
+                params.putInt("txPower", frame.txPower);
+                params.putString("ephemeralId", frame.ephemeralId);
+                break;
+        }
+        return params;
+    }
+
+    @Override
+    public void onDeviceFound(DeviceEvent event) {
+        emitDeviceFound(deviceParams(event, mDataEncoding));
+    }
+
+    @Override
+    public void onSessionResult(String sessionId, DeviceEvent event) {
+        ScanSessionManager.Session session = mScanSessions.session(sessionId);
+        WritableMap params = deviceParams(event, session != null ? session.dataEncoding : DataEncoding.ARRAY);
+        params.putString("session", sessionId);
+
+        ScanResultBatcher batcher = mSessionBatchers.get(sessionId);
+        if (batcher != null && batcher.isEnabled()) {
+            batcher.add(params);
+            return;
+        }
+        sendEvent("onScanSessionResult", params);
+        metrics.eventsEmitted.incrementAndGet();
+    }
+
+    @Override
+    public void onRegionEnter(BeaconRegion region, String uuid, int major, int minor) {
+        WritableMap params = Arguments.createMap();
+        params.putString("identifier", region.identifier);
+        params.putString("uuid", uuid);
+        params.putInt("major", major);
+        params.putInt("minor", minor);
+        params.putString("state", "inside");
+        
+        sendEvent("onRegionEnter", params);
+        startRegionTicker();
+    }
+
+    /**
+     * The onDeviceFound payload for one pipeline event.
      */
-    private void processBeacon(UUID uuid, int major, int minor, int rssi, int measuredPower, double distance) {
-        // Check if this beacon matches any monitored regions
-        for (BeaconRegion region : monitoredRegions.values()) {
-            if (matchesRegion(region, uuid, major, minor)) {
-                // This beacon is in a monitored region
-                // In a real implementation, we would track enter/exit events
-                // For simplicity, we'll just emit the region event
-                
+    private WritableMap deviceParams(DeviceEvent event, int encoding) {
+        WritableMap params = Arguments.createMap();
+        WritableArray paramsUUID = Arguments.createArray();
+        for (String serviceUuid : event.serviceUuids) {
+            paramsUUID.pushString(serviceUuid);
+        }
+        params.putArray("serviceUuids", paramsUUID);
+        params.putInt("rssi", event.rssi);
+        
+        if (event.hasRecord) {
+            params.putInt("txPower", event.txPower);
+            params.putString("deviceName", event.deviceName);
+            params.putInt("advFlags", event.advFlags);
+        }
+        
+        if (event.manufacturerData != null) {
+            params.putInt("companyId", event.companyId);
+            if (encoding == DataEncoding.ARRAY) {
+                params.putArray("manufData", toByteArray(event.manufacturerData));
+            } else {
+                params.putString("manufData", DataEncoding.encode(encoding, event.manufacturerData, 0, event.manufacturerData.length));
+            }
+        }
+        
+        if (event.beaconLayout != null) {
+            WritableMap beaconData = Arguments.createMap();
+            beaconData.putString("layout", event.beaconLayout.name);
+            WritableArray identifiers = Arguments.createArray();
+            for (String identifier : event.beaconIdentifiers()) {
+                identifiers.pushString(identifier);
+            }
+            beaconData.putArray("identifiers", identifiers);
+            if (event.beaconData.length > 0) {
+                WritableArray dataFields = Arguments.createArray();
+                for (long value : event.beaconData) {
+                    dataFields.pushDouble(value);
+                }
+                beaconData.putArray("dataFields", dataFields);
+            }
+            if (event.beaconPower != BeaconLayout.NO_POWER) {
+                beaconData.putInt("measuredPower", event.beaconPower);
+            }
+            beaconData.putBoolean("isBeacon", true);
+            
+            // iBeacon-shaped layouts keep the fields iBeacons always had
+            if (event.hasBeacon) {
+                beaconData.putString("uuid", event.beaconUuid);
+                beaconData.putInt("major", event.major);
+                beaconData.putInt("minor", event.minor);
+                params.putDouble("filteredRssi", event.filteredRssi);
+                params.putDouble("distance", event.distance);
+            }
+            
+            params.putMap("beaconData", beaconData);
+        }
+        
+        if (event.eddystone != null) {
+            params.putMap("eddystone", eddystoneParams(event.eddystone));
+        }
+        
+        if (event.deviceAddress != null) {
+            params.putString("deviceAddress", event.deviceAddress);
+        }
+        return params;
+    }
+    
+    private synchronized void startRegionTicker() {
+        if (mRegionTickerRunning) return;
+        mRegionTickerRunning = true;
+        mRegionHandler.postDelayed(mRegionTick, RegionMonitor.TICK_MS);
+    }
+    
+    private final Runnable mRegionTick = new Runnable() {
+        @Override
+        public void run() {
+            exitedRegions.clear();
+            boolean anyInside = regionMonitor.expire(SystemClock.elapsedRealtime(), exitedRegions);
+            
+            for (BeaconRegion region : exitedRegions) {
                 WritableMap params = Arguments.createMap();
                 params.putString("identifier", region.identifier);
-                params.putString("uuid", uuid.toString());
-                params.putInt("major", major);
-                params.putInt("minor", minor);
+                params.putString("uuid", region.uuid.toString());
+                if (region.major != null) {
+                    params.putInt("major", region.major);
+                }
+                if (region.minor != null) {
+                    params.putInt("minor", region.minor);
+                }
+                params.putString("state", "outside");
                 
-                sendEvent("onRegionEnter", params);
+                sendEvent("onRegionExit", params);
+            }
+            
+            synchronized (BLEAdvertiserModule.this) {
+                if (anyInside) {
+                    mRegionHandler.postDelayed(this, RegionMonitor.TICK_MS);
+                } else {
+                    mRegionTickerRunning = false;
+                }
+            }
+        }
+    };
+    
+    private void scheduleRangingTick() {
+        mRegionHandler.removeCallbacks(mRangingTick);
+        mRegionHandler.post(mRangingTick);
+    }
+    
+    private final BeaconRanger.Listener<BeaconRegion> mRangingListener = new BeaconRanger.Listener<BeaconRegion>() {
+        @Override
+        public void onRangingCycle(BeaconRegion region, List<BeaconRanger.RangedBeacon> rangedBeacons) {
+            WritableArray beacons = Arguments.createArray();
+            
+            for (BeaconRanger.RangedBeacon beacon : rangedBeacons) {
+                WritableMap beaconInfo = Arguments.createMap();
+                beaconInfo.putString("uuid", beacon.uuid);
+                beaconInfo.putInt("major", beacon.major);
+                beaconInfo.putInt("minor", beacon.minor);
+                beaconInfo.putInt("rssi", beacon.rssi);
+                beaconInfo.putDouble("filteredRssi", beacon.filteredRssi);
+                beaconInfo.putInt("measuredPower", beacon.measuredPower);
+                beaconInfo.putDouble("accuracy", beacon.accuracy);
+                beaconInfo.putString("proximity", mPipeline.getDistanceModel().proximity(beacon.accuracy));
+                beacons.pushMap(beaconInfo);
+            }
+            
+            WritableMap params = Arguments.createMap();
+            params.putString("identifier", region.identifier);
+            params.putArray("beacons", beacons);
+            
+            sendEvent("onBeaconDiscovered", params);
+        }
+    };
+    
+    private final Runnable mRangingTick = new Runnable() {
+        @Override
+        public void run() {
+            long now = SystemClock.elapsedRealtime();
+            long next = beaconRanger.flushDue(now, mRangingListener);
+            
+            if (next >= 0) {
+                mRegionHandler.postDelayed(this, Math.max(next - now, 1));
+            }
+        }
+    };
+    
+    /**
+     * Build a region from a UUID and the identifier, major and minor in
+     * options. The identifier defaults to the UUID.
+     */
+    private BeaconRegion readRegion(String uuid, ReadableMap options) {
+        if (uuid == null) {
+            throw new IllegalArgumentException("Region is missing a uuid");
+        }
+        
+        UUID parsedUuid = UUID.fromString(uuid);
+        String identifier = uuid;
+        Integer major = null;
+        Integer minor = null;
+        
+        if (options != null) {
+            if (options.hasKey("identifier")) {
+                identifier = options.getString("identifier");
+            }
+            
+            if (options.hasKey("major")) {
+                major = options.getInt("major");
+            }
+            
+            if (options.hasKey("minor")) {
+                minor = options.getInt("minor");
+            }
+        }
+        
+        return new BeaconRegion(identifier, parsedUuid, major, minor);
+    }
+    
+    private static List<String> readIdentifiers(ReadableArray identifiers) {
+        List<String> result = new ArrayList<>();
+        if (identifiers != null) {
+            for (int i = 0; i < identifiers.size(); i++) {
+                result.add(identifiers.getString(i));
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Start monitoring for an iBeacon region
+     */
+    @ReactMethod
+    public void startMonitoringForRegion(String uuid, ReadableMap options, Promise promise) {
+        try {
+            BeaconRegion region = readRegion(uuid, options);
+            String identifier = region.identifier;
+            
+            // The monitor knows the region before packets can match it
+            regionMonitor.add(region, exitTimeout(options));
+            BeaconRegion previous = monitoredRegions.put(identifier, region);
+            if (previous != null) {
+                regionMonitor.remove(previous);
+            }
+            refreshRegionFilters();
+            
+            Log.d(TAG, "Started monitoring region: " + region.toString());
+            
+            // An active iBeacon scan picks the region up through
+            // its compiled manufacturer data filters
+            
+            WritableMap response = Arguments.createMap();
+            response.putString("message", "Started monitoring region");
+            response.putString("identifier", identifier);
+            
+            promise.resolve(response);
+            
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Invalid UUID format", e);
+            promise.reject("InvalidUUID", "UUID is not valid: " + e.getMessage());
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to start monitoring region", e);
+            promise.reject("StartMonitoringFailed", e.getMessage());
+        }
+    }
+    
+    /**
+     * Start monitoring several iBeacon regions at once. Each entry carries
+     * a uuid plus the options startMonitoringForRegion takes; the scan
+     * filters are rebuilt once for the whole call.
+     */
+    @ReactMethod
+    public void startMonitoringForRegions(ReadableArray descriptions, Promise promise) {
+        Map<String, BeaconRegion> regions = new LinkedHashMap<>();
+        Map<BeaconRegion, Long> exitTimeouts = new HashMap<>();
+        
+        try {
+            for (int i = 0; i < descriptions.size(); i++) {
+                ReadableMap description = descriptions.getMap(i);
+                BeaconRegion region = readRegion(description.hasKey("uuid") ? description.getString("uuid") : null, description);
+                regions.put(region.identifier, region);
+                exitTimeouts.put(region, exitTimeout(description));
             }
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Invalid region", e);
+            promise.reject("InvalidUUID", "Region is not valid: " + e.getMessage());
+            return;
         }
         
-        // Check if this beacon matches any ranged regions
-        for (BeaconRegion region : rangedRegions.values()) {
-            if (matchesRegion(region, uuid, major, minor)) {
-                // This beacon is in a ranged region
-                // Collect beacons for each region and emit events
-                
-                WritableMap beaconInfo = Arguments.createMap();
-                beaconInfo.putString("uuid", uuid.toString());
-                beaconInfo.putInt("major", major);
-                beaconInfo.putInt("minor", minor);
-                beaconInfo.putInt("rssi", rssi);
-                beaconInfo.putDouble("accuracy", distance);
-                
-                // Determine proximity string based on distance
-                String proximityString;
-                if (distance < 0.5) {
-                    proximityString = "immediate";
-                } else if (distance < 3.0) {
-                    proximityString = "near";
-                } else {
-                    proximityString = "far";
-                }
-                beaconInfo.putString("proximity", proximityString);
-                
-                WritableArray beacons = Arguments.createArray();
-                beacons.pushMap(beaconInfo);
-                
-                WritableMap params = Arguments.createMap();
-                params.putString("identifier", region.identifier);
-                params.putArray("beacons", beacons);
-                
-                sendEvent("onBeaconDiscovered", params);
-            }
+        for (BeaconRegion region : regions.values()) {
+            regionMonitor.add(region, exitTimeouts.get(region));
+        }
+        for (BeaconRegion previous : monitoredRegions.putAll(regions)) {
+            regionMonitor.remove(previous);
         }
+        refreshRegionFilters();
+        
+        Log.d(TAG, "Started monitoring " + regions.size() + " regions");
+        
+        WritableMap response = Arguments.createMap();
+        response.putString("message", "Started monitoring regions");
+        response.putInt("count", regions.size());
+        promise.resolve(response);
     }
     
     /**
-     * Check if a beacon matches a region
+     * Stop monitoring several regions at once. Unknown identifiers are skipped.
      */
-    private boolean matchesRegion(BeaconRegion region, UUID uuid, int major, int minor) {
-        // Check UUID
-        if (!region.uuid.equals(uuid)) {
-            return false;
+    @ReactMethod
+    public void stopMonitoringForRegions(ReadableArray identifiers, Promise promise) {
+        List<BeaconRegion> removed = monitoredRegions.removeAll(readIdentifiers(identifiers));
+        for (BeaconRegion region : removed) {
+            regionMonitor.remove(region);
         }
-        
-        // Check major if specified
-        if (region.major != null && region.major != major) {
-            return false;
+        if (!removed.isEmpty()) {
+            refreshRegionFilters();
         }
         
-        // Check minor if specified
-        if (region.minor != null && region.minor != minor) {
-            return false;
+        WritableMap response = Arguments.createMap();
+        response.putString("message", "Stopped monitoring regions");
+        response.putInt("count", removed.size());
+        promise.resolve(response);
+    }
+    
+    private static long exitTimeout(ReadableMap options) {
+        if (options != null && options.hasKey("exitTimeout")) {
+            return options.getInt("exitTimeout");
         }
-        
-        return true;
+        return RegionMonitor.DEFAULT_EXIT_TIMEOUT;
     }
     
     /**
-     * Start monitoring for an iBeacon region
+     * Select the RSSI smoothing applied per beacon before distance is computed
      */
     @ReactMethod
-    public void startMonitoringForRegion(String uuid, ReadableMap options, Promise promise) {
-        try {
-            // Parse UUID
-            UUID parsedUuid = UUID.fromString(uuid);
+    public void setRssiFilter(ReadableMap options) {
+        int type = RssiFilter.TYPE_NONE;
+        int windowSize = RssiFilter.DEFAULT_WINDOW_SIZE;
+        int maxBeacons = RssiFilter.DEFAULT_MAX_BEACONS;
+        long staleTimeout = RssiFilter.DEFAULT_STALE_TIMEOUT;
+        double processNoise = RssiFilter.DEFAULT_PROCESS_NOISE;
+        double measurementNoise = RssiFilter.DEFAULT_MEASUREMENT_NOISE;
+        
+        if (options != null) {
+            if (options.hasKey("type")) {
+                type = RssiFilter.typeFromString(options.getString("type"));
+            }
             
-            // Get identifier, major, and minor from options
-            String identifier = uuid;
-            Integer major = null;
-            Integer minor = null;
+            if (options.hasKey("windowSize")) {
+                windowSize = options.getInt("windowSize");
+            }
             
-            if (options != null) {
-                if (options.hasKey("identifier")) {
-                    identifier = options.getString("identifier");
-                }
-                
-                if (options.hasKey("major")) {
-                    major = options.getInt("major");
-                }
-                
-                if (options.hasKey("minor")) {
-                    minor = options.getInt("minor");
-                }
+            if (options.hasKey("maxBeacons")) {
+                maxBeacons = options.getInt("maxBeacons");
             }
             
-            // Create beacon region
-            BeaconRegion region = new BeaconRegion(identifier, parsedUuid, major, minor);
+            if (options.hasKey("staleTimeout")) {
+                staleTimeout = options.getInt("staleTimeout");
+            }
             
-            // Store the region
-            monitoredRegions.put(identifier, region);
+            if (options.hasKey("processNoise")) {
+                processNoise = options.getDouble("processNoise");
+            }
             
-            Log.d(TAG, "Started monitoring region: " + region.toString());
+            if (options.hasKey("measurementNoise")) {
+                measurementNoise = options.getDouble("measurementNoise");
+            }
+        }
+        
+        rssiFilter.configure(type, windowSize, maxBeacons, staleTimeout, processNoise, measurementNoise);
+    }
+    
+    /**
+     * Select how RSSI and measured power are turned into distance and proximity
+     */
+    @ReactMethod
+    public void setDistanceModel(ReadableMap options) {
+        int type = DistanceModel.TYPE_CURVE;
+        double coefficient1 = DistanceModel.DEFAULT_COEFFICIENT_1;
+        double coefficient2 = DistanceModel.DEFAULT_COEFFICIENT_2;
+        double coefficient3 = DistanceModel.DEFAULT_COEFFICIENT_3;
+        double exponent = DistanceModel.DEFAULT_PATH_LOSS_EXPONENT;
+        double rssiOffset = 0;
+        double immediateDistance = DistanceModel.DEFAULT_IMMEDIATE_DISTANCE;
+        double nearDistance = DistanceModel.DEFAULT_NEAR_DISTANCE;
+        
+        if (options != null) {
+            if (options.hasKey("type")) {
+                type = DistanceModel.typeFromString(options.getString("type"));
+            }
             
-            // On Android, we'll detect region enter/exit events during scanning
-            // by filtering scan results in the callback
+            if (options.hasKey("coefficients")) {
+                ReadableArray coefficients = options.getArray("coefficients");
+                if (coefficients.size() == 3) {
+                    coefficient1 = coefficients.getDouble(0);
+                    coefficient2 = coefficients.getDouble(1);
+                    coefficient3 = coefficients.getDouble(2);
+                }
+            }
             
-            WritableMap response = Arguments.createMap();
-            response.putString("message", "Started monitoring region");
-            response.putString("identifier", identifier);
+            if (options.hasKey("pathLossExponent")) {
+                exponent = options.getDouble("pathLossExponent");
+            }
             
-            promise.resolve(response);
+            if (options.hasKey("rssiOffset")) {
+                rssiOffset = options.getDouble("rssiOffset");
+            }
             
+            if (options.hasKey("immediateDistance")) {
+                immediateDistance = options.getDouble("immediateDistance");
+            }
+            
+            if (options.hasKey("nearDistance")) {
+                nearDistance = options.getDouble("nearDistance");
+            }
+        }
+        
+        switch (type) {
+            case DistanceModel.TYPE_LOG_DISTANCE:
+                mPipeline.setDistanceModel(DistanceModel.logDistance(exponent, immediateDistance, nearDistance));
+                break;
+            case DistanceModel.TYPE_CALIBRATED:
+                mPipeline.setDistanceModel(DistanceModel.calibrated(coefficient1, coefficient2, coefficient3, rssiOffset, immediateDistance, nearDistance));
+                break;
+            default:
+                mPipeline.setDistanceModel(DistanceModel.curve(coefficient1, coefficient2, coefficient3, immediateDistance, nearDistance));
+                break;
+        }
+    }
+    
+    /**
+     * Register a beacon layout descriptor. It is compiled once and matched
+     * against every scanned packet from then on, and broadcast can encode it.
+     */
+    @ReactMethod
+    public void registerBeaconLayout(String name, String layout, ReadableMap options, Promise promise) {
+        int manufacturerId = -1;
+        if (options != null && options.hasKey("manufacturerId")) {
+            manufacturerId = options.getInt("manufacturerId");
+        }
+        
+        BeaconLayout compiled;
+        try {
+            compiled = BeaconLayout.compile(name, layout, manufacturerId);
+            mPipeline.beaconLayouts.put(compiled);
         } catch (IllegalArgumentException e) {
-            Log.e(TAG, "Invalid UUID format", e);
-            promise.reject("InvalidUUID", "UUID is not valid: " + e.getMessage());
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to start monitoring region", e);
-            promise.reject("StartMonitoringFailed", e.getMessage());
+            Log.e(TAG, "Invalid beacon layout", e);
+            promise.reject("InvalidLayout", "Beacon layout is not valid: " + e.getMessage());
+            return;
+        }
+        refreshRegionFilters();
+        
+        promise.resolve(layoutParams(compiled));
+    }
+    
+    @ReactMethod
+    public void removeBeaconLayout(String name, Promise promise) {
+        if (BeaconLayoutRegistry.isBuiltIn(name)) {
+            promise.reject("BuiltInLayout", "Layout " + name + " is built in and cannot be removed");
+            return;
+        }
+        
+        if (mPipeline.beaconLayouts.remove(name) != null) {
+            refreshRegionFilters();
+            promise.resolve("Layout removed");
+        } else {
+            promise.resolve("Layout not registered");
+        }
+    }
+    
+    @ReactMethod
+    public void getBeaconLayouts(Promise promise) {
+        WritableArray layouts = Arguments.createArray();
+        for (BeaconLayout layout : mPipeline.beaconLayouts.layouts()) {
+            layouts.pushMap(layoutParams(layout));
+        }
+        promise.resolve(layouts);
+    }
+    
+    private static WritableMap layoutParams(BeaconLayout layout) {
+        WritableMap params = Arguments.createMap();
+        params.putString("name", layout.name);
+        params.putString("layout", layout.layout);
+        if (layout.manufacturerId >= 0) {
+            params.putInt("manufacturerId", layout.manufacturerId);
         }
+        params.putBoolean("builtIn", BeaconLayoutRegistry.isBuiltIn(layout.name));
+        return params;
     }
     
     /**
@@ -755,6 +2649,8 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
         BeaconRegion region = monitoredRegions.remove(identifier);
         
         if (region != null) {
+            regionMonitor.remove(region);
+            refreshRegionFilters();
             Log.d(TAG, "Stopped monitoring region: " + region.toString());
             
             WritableMap response = Arguments.createMap();
@@ -774,12 +2670,11 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
     public void getMonitoredRegions(Promise promise) {
         WritableArray regions = Arguments.createArray();
         
-        for (Map.Entry<String, BeaconRegion> entry : monitoredRegions.entrySet()) {
-            BeaconRegion region = entry.getValue();
-            
+        for (BeaconRegion region : monitoredRegions.snapshot().values()) {
             WritableMap regionMap = Arguments.createMap();
             regionMap.putString("identifier", region.identifier);
             regionMap.putString("uuid", region.uuid.toString());
+            regionMap.putString("state", regionMonitor.isInside(region) ? "inside" : "outside");
             
             if (region.major != null) {
                 regionMap.putInt("major", region.major);
@@ -801,38 +2696,22 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
     @ReactMethod
     public void startRangingBeaconsInRegion(String uuid, ReadableMap options, Promise promise) {
         try {
-            // Parse UUID
-            UUID parsedUuid = UUID.fromString(uuid);
-            
-            // Get identifier, major, and minor from options
-            String identifier = uuid;
-            Integer major = null;
-            Integer minor = null;
+            BeaconRegion region = readRegion(uuid, options);
+            String identifier = region.identifier;
             
-            if (options != null) {
-                if (options.hasKey("identifier")) {
-                    identifier = options.getString("identifier");
-                }
-                
-                if (options.hasKey("major")) {
-                    major = options.getInt("major");
-                }
-                
-                if (options.hasKey("minor")) {
-                    minor = options.getInt("minor");
-                }
+            // The ranger knows the region before packets can match it
+            beaconRanger.add(region, rangingInterval(options), SystemClock.elapsedRealtime());
+            BeaconRegion previous = rangedRegions.put(identifier, region);
+            if (previous != null) {
+                beaconRanger.remove(previous);
             }
-            
-            // Create beacon region
-            BeaconRegion region = new BeaconRegion(identifier, parsedUuid, major, minor);
-            
-            // Store the region
-            rangedRegions.put(identifier, region);
+            refreshRegionFilters();
+            scheduleRangingTick();
             
             Log.d(TAG, "Started ranging beacons in region: " + region.toString());
             
-            // On Android, we'll detect beacons during scanning
-            // by filtering scan results in the callback
+            // An active iBeacon scan picks the region up through
+            // its compiled manufacturer data filters
             
             WritableMap response = Arguments.createMap();
             response.putString("message", "Started ranging beacons");
@@ -857,6 +2736,8 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
         BeaconRegion region = rangedRegions.remove(identifier);
         
         if (region != null) {
+            beaconRanger.remove(region);
+            refreshRegionFilters();
             Log.d(TAG, "Stopped ranging beacons in region: " + region.toString());
             
             WritableMap response = Arguments.createMap();
@@ -869,6 +2750,73 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
         }
     }
     
+    /**
+     * Start ranging several regions at once. Each entry carries a uuid plus
+     * the options startRangingBeaconsInRegion takes; the scan filters are
+     * rebuilt once for the whole call.
+     */
+    @ReactMethod
+    public void startRangingBeaconsInRegions(ReadableArray descriptions, Promise promise) {
+        Map<String, BeaconRegion> regions = new LinkedHashMap<>();
+        Map<BeaconRegion, Long> intervals = new HashMap<>();
+        
+        try {
+            for (int i = 0; i < descriptions.size(); i++) {
+                ReadableMap description = descriptions.getMap(i);
+                BeaconRegion region = readRegion(description.hasKey("uuid") ? description.getString("uuid") : null, description);
+                regions.put(region.identifier, region);
+                intervals.put(region, rangingInterval(description));
+            }
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Invalid region", e);
+            promise.reject("InvalidUUID", "Region is not valid: " + e.getMessage());
+            return;
+        }
+        
+        long now = SystemClock.elapsedRealtime();
+        for (BeaconRegion region : regions.values()) {
+            beaconRanger.add(region, intervals.get(region), now);
+        }
+        for (BeaconRegion previous : rangedRegions.putAll(regions)) {
+            beaconRanger.remove(previous);
+        }
+        refreshRegionFilters();
+        scheduleRangingTick();
+        
+        Log.d(TAG, "Started ranging beacons in " + regions.size() + " regions");
+        
+        WritableMap response = Arguments.createMap();
+        response.putString("message", "Started ranging beacons");
+        response.putInt("count", regions.size());
+        promise.resolve(response);
+    }
+    
+    /**
+     * Stop ranging several regions at once. Unknown identifiers are skipped.
+     */
+    @ReactMethod
+    public void stopRangingBeaconsInRegions(ReadableArray identifiers, Promise promise) {
+        List<BeaconRegion> removed = rangedRegions.removeAll(readIdentifiers(identifiers));
+        for (BeaconRegion region : removed) {
+            beaconRanger.remove(region);
+        }
+        if (!removed.isEmpty()) {
+            refreshRegionFilters();
+        }
+        
+        WritableMap response = Arguments.createMap();
+        response.putString("message", "Stopped ranging beacons");
+        response.putInt("count", removed.size());
+        promise.resolve(response);
+    }
+    
+    private static long rangingInterval(ReadableMap options) {
+        if (options != null && options.hasKey("rangingInterval")) {
+            return options.getInt("rangingInterval");
+        }
+        return BeaconRanger.DEFAULT_RANGING_INTERVAL;
+    }
+    
     /**
      * Get all ranged regions
      */
@@ -876,9 +2824,7 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
     public void getRangedRegions(Promise promise) {
         WritableArray regions = Arguments.createArray();
         
-        for (Map.Entry<String, BeaconRegion> entry : rangedRegions.entrySet()) {
-            BeaconRegion region = entry.getValue();
-            
+        for (BeaconRegion region : rangedRegions.snapshot().values()) {
             WritableMap regionMap = Arguments.createMap();
             regionMap.putString("identifier", region.identifier);
             regionMap.putString("uuid", region.uuid.toString());
@@ -955,84 +2901,331 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
         promise.resolve(mBluetoothAdapter.getState() == BluetoothAdapter.STATE_ON); 
     }
 
-    private AdvertiseSettings buildAdvertiseSettings(ReadableMap options) {
-        AdvertiseSettings.Builder settingsBuilder = new AdvertiseSettings.Builder();
+    private static AdvertiseSettings toAdvertiseSettings(AdvertisingParameters parameters) {
+        return new AdvertiseSettings.Builder()
+                .setAdvertiseMode(parameters.advertiseMode)
+                .setTxPowerLevel(parameters.powerLevel)
+                .setConnectable(parameters.connectable)
+                .build();
+    }
 
-        if (options != null && options.hasKey("advertiseMode")) {
-            settingsBuilder.setAdvertiseMode(options.getInt("advertiseMode"));
+    private static AdvertisingSetParameters toSetParameters(AdvertisingParameters parameters) {
+        // Legacy PDUs that accept connections must accept scan requests too;
+        // extended ones may be one or the other but not both
+        AdvertisingSetParameters.Builder builder = new AdvertisingSetParameters.Builder()
+                .setLegacyMode(!parameters.extended)
+                .setConnectable(parameters.connectable)
+                .setScannable(!parameters.extended && parameters.connectable)
+                .setInterval(parameters.interval())
+                .setTxPowerLevel(parameters.txPower());
+
+        if (parameters.extended) {
+            // 2M is only allowed on the secondary channels
+            builder.setPrimaryPhy(parameters.phy == BluetoothDevice.PHY_LE_CODED ? BluetoothDevice.PHY_LE_CODED : BluetoothDevice.PHY_LE_1M);
+            builder.setSecondaryPhy(parameters.phy);
         }
+        return builder.build();
+    }
 
-        if (options != null && options.hasKey("txPowerLevel")) {
-            settingsBuilder.setTxPowerLevel(options.getInt("txPowerLevel"));
+    private static String startFailureMessage(int errorCode, boolean advertisingSet) {
+        switch (errorCode) {
+            case Advertiser.ADVERTISE_FAILED_FEATURE_UNSUPPORTED:
+                return "This feature is not supported on this platform.";
+            case Advertiser.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS:
+                return "Failed to start advertising because no advertising instance is available.";
+            case Advertiser.ADVERTISE_FAILED_ALREADY_STARTED:
+                return "Failed to start advertising as the advertising is already started.";
+            case Advertiser.ADVERTISE_FAILED_DATA_TOO_LARGE:
+                return advertisingSet
+                        ? "Failed to start advertising as the advertise data is larger than the controller accepts."
+                        : "Failed to start advertising as the advertise data to be broadcasted is larger than 31 bytes.";
+            default:
+                return "Operation failed due to an internal error.";
         }
+    }
 
-        if (options != null && options.hasKey("connectable")) {
-            settingsBuilder.setConnectable(options.getBoolean("connectable"));
+    /**
+     * Settles the promise of a start. Broadcasts resolve with their
+     * settings; advertising sets with what the controller chose.
+     */
+    private class StartCallback implements Advertiser.Callback {
+        final Promise promise;
+        final AdvertisingParameters parameters;
+        final boolean setResult;
+
+        StartCallback(Promise promise, AdvertisingParameters parameters, boolean setResult) {
+            this.promise = promise;
+            this.parameters = parameters;
+            this.setResult = setResult;
+        }
+
+        @Override
+        public void onStarted(String id, int txPower) {
+            Log.i(TAG, "Advertising successful");
+            metrics.advertiseStarted.incrementAndGet();
+
+            if (!setResult) {
+                promise.resolve(toAdvertiseSettings(parameters).toString());
+                return;
+            }
+            WritableMap result = Arguments.createMap();
+            result.putString("setId", id);
+            result.putBoolean("extended", parameters.extended);
+            result.putInt("phy", parameters.phy);
+            result.putInt("txPower", txPower);
+            promise.resolve(result);
         }
 
-        return settingsBuilder.build();
+        @Override
+        public void onFailed(String id, int errorCode) {
+            Log.i(TAG, "Advertising " + id + " failed with code " + errorCode);
+            metrics.onAdvertiseFailed(errorCode);
+            promise.reject(startFailureMessage(errorCode, setResult));
+        }
     }
 
-    private AdvertiseData buildAdvertiseData(ParcelUuid uuid, String serviceData, ReadableMap options) {
-        AdvertiseData.Builder dataBuilder = new AdvertiseData.Builder();
+    /**
+     * Settles the promise of updateBroadcast with how long the new data
+     * took to go on air.
+     */
+    private class UpdateCallback implements Advertiser.Callback {
+        final Promise promise;
+        final boolean inPlace;
+        final long startedAt;
 
-        if (options != null && options.hasKey("includeDeviceName"))
-            dataBuilder.setIncludeDeviceName(options.getBoolean("includeDeviceName"));
-        
-        if (options != null && options.hasKey("includeTxPowerLevel"))
-            dataBuilder.setIncludeTxPowerLevel(options.getBoolean("includeTxPowerLevel"));
-        
-        // Add service UUID
-        dataBuilder.addServiceUuid(uuid);
-        
-        // Add service data
-        if (serviceData != null && !serviceData.isEmpty()) {
-            byte[] serviceDataBytes = serviceData.getBytes();
-            dataBuilder.addServiceData(uuid, serviceDataBytes);
-            Log.d(TAG, "Added service data: " + serviceData);
+        UpdateCallback(Promise promise, boolean inPlace, long startedAt) {
+            this.promise = promise;
+            this.inPlace = inPlace;
+            this.startedAt = startedAt;
+        }
+
+        @Override
+        public void onStarted(String id, int txPower) {
+            if (!inPlace) {
+                metrics.advertiseStarted.incrementAndGet();
+            }
+            WritableMap result = Arguments.createMap();
+            result.putString("uid", id);
+            result.putBoolean("inPlace", inPlace);
+            result.putDouble("latency", SystemClock.elapsedRealtime() - startedAt);
+            promise.resolve(result);
+        }
+
+        @Override
+        public void onFailed(String id, int errorCode) {
+            if (errorCode == Advertiser.ADVERTISE_CANCELLED) {
+                promise.reject("UpdateFailed", "Advertising stopped before the update was applied");
+                return;
+            }
+            if (!inPlace) {
+                metrics.onAdvertiseFailed(errorCode);
+            }
+            promise.reject("UpdateFailed", "Failed to update advertising data with code " + errorCode);
         }
-        
-        return dataBuilder.build();
     }
 
-    private class SimpleAdvertiseCallback extends AdvertiseCallback {
-        Promise promise;
+    private final Advertiser.Callback mRotationCallback = new Advertiser.Callback() {
+        @Override
+        public void onStarted(String id, int txPower) {
+            metrics.advertiseStarted.incrementAndGet();
+        }
+
+        @Override
+        public void onFailed(String id, int errorCode) {
+            Log.i(TAG, "Rotating broadcast " + id + " failed with code " + errorCode);
+            metrics.onAdvertiseFailed(errorCode);
 
-        public SimpleAdvertiseCallback () {
+            if (errorCode == Advertiser.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS) {
+                advertisingRotation.onStartFailed(id, SystemClock.elapsedRealtime());
+            }
         }
+    };
 
-        public SimpleAdvertiseCallback (Promise promise) {
-            this.promise = promise;
+    /**
+     * The platform advertiser behind the core Advertiser interface.
+     * Parameters asking for an advertising set get one from Android 8 on,
+     * which takes later data in place; everything else is a plain
+     * broadcast, restarted to change its data.
+     */
+    private class PlatformAdvertiser implements Advertiser {
+        private final Map<String, PlainBroadcast> mPlain = new ConcurrentHashMap<>();
+        private final Map<String, SetBroadcast> mSets = new ConcurrentHashMap<>();
+
+        boolean isAvailable() {
+            return advertiser() != null;
+        }
+
+        boolean isStarted(String id) {
+            return mPlain.containsKey(id) || mSets.containsKey(id);
+        }
+
+        /**
+         * Whether starting the id again swaps its data without a restart.
+         */
+        boolean updatesInPlace(String id) {
+            return mSets.containsKey(id);
+        }
+
+        List<String> ids() {
+            List<String> ids = new ArrayList<>(mPlain.keySet());
+            ids.addAll(mSets.keySet());
+            return ids;
+        }
+
+        private BluetoothLeAdvertiser advertiser() {
+            return mBluetoothAdapter != null ? mBluetoothAdapter.getBluetoothLeAdvertiser() : null;
         }
 
         @Override
-        public void onStartFailure(int errorCode) {
-            super.onStartFailure(errorCode);
-            Log.i(TAG, "Advertising failed with code "+ errorCode);
+        public void start(String id, AdvertisingPayload payload, AdvertisingParameters parameters, Callback callback) {
+            AdvertiseData data = toAdvertiseData(payload);
+
+            SetBroadcast set = mSets.get(id);
+            if (set != null) {
+                set.update(data, callback);
+                return;
+            }
 
-            if (promise == null) return;
+            BluetoothLeAdvertiser advertiser = advertiser();
+            if (advertiser == null) {
+                callback.onFailed(id, ADVERTISE_FAILED_INTERNAL_ERROR);
+                return;
+            }
+
+            if (parameters.advertisingSet && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                set = new SetBroadcast(id, callback);
+                mSets.put(id, set);
+                advertiser.startAdvertisingSet(toSetParameters(parameters), data, null, null, null, set);
+                return;
+            }
 
-            switch (errorCode) {
-                case ADVERTISE_FAILED_FEATURE_UNSUPPORTED:
-                    promise.reject("This feature is not supported on this platform."); break;
-                case ADVERTISE_FAILED_TOO_MANY_ADVERTISERS:
-                    promise.reject("Failed to start advertising because no advertising instance is available."); break;
-                case ADVERTISE_FAILED_ALREADY_STARTED:
-                    promise.reject("Failed to start advertising as the advertising is already started."); break;
-                case ADVERTISE_FAILED_DATA_TOO_LARGE:
-                    promise.reject("Failed to start advertising as the advertise data to be broadcasted is larger than 31 bytes."); break;
-                case ADVERTISE_FAILED_INTERNAL_ERROR:
-                    promise.reject("Operation failed due to an internal error."); break;
+            PlainBroadcast previous = mPlain.remove(id);
+            if (previous != null) {
+                advertiser.stopAdvertising(previous);
             }
+            PlainBroadcast broadcast = new PlainBroadcast(id, callback);
+            mPlain.put(id, broadcast);
+            advertiser.startAdvertising(toAdvertiseSettings(parameters), data, broadcast);
         }
 
         @Override
-        public void onStartSuccess(AdvertiseSettings settingsInEffect) {
-            super.onStartSuccess(settingsInEffect);
-            Log.i(TAG, "Advertising successful");
+        public void stop(String id) {
+            BluetoothLeAdvertiser advertiser = advertiser();
+
+            PlainBroadcast broadcast = mPlain.remove(id);
+            if (broadcast != null && advertiser != null) {
+                advertiser.stopAdvertising(broadcast);
+            }
+
+            SetBroadcast set = mSets.remove(id);
+            if (set != null) {
+                if (advertiser != null) {
+                    advertiser.stopAdvertisingSet(set);
+                }
+                set.cancelUpdates();
+            }
+        }
+
+        private class PlainBroadcast extends AdvertiseCallback {
+            final String id;
+            final Callback callback;
+
+            PlainBroadcast(String id, Callback callback) {
+                this.id = id;
+                this.callback = callback;
+            }
+
+            @Override
+            public void onStartSuccess(AdvertiseSettings settingsInEffect) {
+                callback.onStarted(id, AdvertisingParameters.UNSET);
+            }
+
+            @Override
+            public void onStartFailure(int errorCode) {
+                mPlain.remove(id, this);
+                callback.onFailed(id, errorCode);
+            }
+        }
+
+        private class SetBroadcast extends AdvertisingSetCallback {
+            final String id;
+            final Callback callback;
+
+            // Data updates in the order they were handed to the controller;
+            // updates made before the set started are merged into mDeferred
+            private AdvertisingSet mAdvertisingSet;
+            private int mTxPower;
+            private final ArrayDeque<List<Callback>> mInFlight = new ArrayDeque<>();
+            private final List<Callback> mDeferred = new ArrayList<>();
+            private AdvertiseData mDeferredData;
+
+            SetBroadcast(String id, Callback callback) {
+                this.id = id;
+                this.callback = callback;
+            }
 
-            if (promise == null) return;
-            promise.resolve(settingsInEffect.toString());
+            synchronized void update(AdvertiseData data, Callback updateCallback) {
+                if (mAdvertisingSet == null) {
+                    mDeferred.add(updateCallback);
+                    mDeferredData = data;
+                    return;
+                }
+
+                mInFlight.add(Collections.singletonList(updateCallback));
+                mAdvertisingSet.setAdvertisingData(data);
+            }
+
+            synchronized void cancelUpdates() {
+                for (Callback update : mDeferred) {
+                    update.onFailed(id, ADVERTISE_CANCELLED);
+                }
+                mDeferred.clear();
+                mDeferredData = null;
+                while (!mInFlight.isEmpty()) {
+                    for (Callback update : mInFlight.poll()) {
+                        update.onFailed(id, ADVERTISE_CANCELLED);
+                    }
+                }
+            }
+
+            @Override
+            public synchronized void onAdvertisingDataSet(AdvertisingSet advertisingSet, int status) {
+                List<Callback> updates = mInFlight.poll();
+                if (updates == null) return;
+
+                for (Callback update : updates) {
+                    if (status == ADVERTISE_SUCCESS) {
+                        update.onStarted(id, mTxPower);
+                    } else {
+                        update.onFailed(id, status);
+                    }
+                }
+            }
+
+            @Override
+            public synchronized void onAdvertisingSetStarted(AdvertisingSet advertisingSet, int txPower, int status) {
+                if (status != ADVERTISE_SUCCESS) {
+                    mSets.remove(id, this);
+                    cancelUpdates();
+                    callback.onFailed(id, status);
+                    return;
+                }
+
+                mAdvertisingSet = advertisingSet;
+                mTxPower = txPower;
+                if (!mDeferred.isEmpty()) {
+                    mInFlight.add(new ArrayList<>(mDeferred));
+                    mDeferred.clear();
+                    advertisingSet.setAdvertisingData(mDeferredData);
+                    mDeferredData = null;
+                }
+                callback.onStarted(id, txPower);
+            }
+
+            @Override
+            public void onAdvertisingSetStopped(AdvertisingSet advertisingSet) {
+                Log.i(TAG, "Advertising set " + id + " stopped");
+            }
         }
     }
 
@@ -1049,12 +3242,15 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
                 switch (state) {
                 case BluetoothAdapter.STATE_OFF:
                     mObservedState = false;
+                    // The stack stopped our scan; the scheduler must not think it still runs
+                    mScanScheduler.invalidate();
                     break;
                 case BluetoothAdapter.STATE_TURNING_OFF:
                     mObservedState = false;
                     break;
                 case BluetoothAdapter.STATE_ON:
                     mObservedState = true;
+                    restartScanAfterBluetoothOn();
                     break;
                 case BluetoothAdapter.STATE_TURNING_ON:
                     mObservedState = true;
@@ -1075,12 +3271,33 @@ public class BLEAdvertiserModule extends ReactContextBaseJavaModule {
         }
     };
 
+    /**
+     * Brings back the scan that was running when Bluetooth went off, on the
+     * scanner of the new Bluetooth session.
+     */
+    private void restartScanAfterBluetoothOn() {
+        if (!mScanner.isAcquired()) {
+            return;
+        }
+        mScanScheduler.invalidate();
+        mScanner.release();
+        if (mScanner.acquire()) {
+            applyScanSessions();
+        }
+    }
+
     private void sendEvent(String eventName, WritableMap params) {
         getReactApplicationContext()
             .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
             .emit(eventName, params);
     }
 
+    private void sendEvent(String eventName, WritableArray params) {
+        getReactApplicationContext()
+            .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+            .emit(eventName, params);
+    }
+
     // @Override
     // public void onCreate() {
     //     super.onCreate();
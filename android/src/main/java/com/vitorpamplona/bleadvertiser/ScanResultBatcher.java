@@ -0,0 +1,96 @@
+package com.jabresearch.bleadvertiser;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+/**
+ * Buffers onDeviceFound payloads and hands them to JS as one array,
+ * either when the batch interval elapses or when the batch is full.
+ */
+class ScanResultBatcher {
+
+    public static final long DEFAULT_BATCH_INTERVAL = 1000;
+
+    interface Listener {
+        void onBatchReady(WritableArray devices);
+    }
+
+    private final Handler mHandler;
+    private final Listener mListener;
+
+    private long mIntervalMs;
+    private int mMaxBatchSize;
+    private boolean mEnabled;
+
+    private WritableArray mPending;
+    private int mPendingCount;
+    private boolean mFlushScheduled;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    ScanResultBatcher(Listener listener) {
+        mHandler = new Handler(Looper.getMainLooper());
+        mListener = listener;
+    }
+
+    /**
+     * Enables batching. An interval or size of 0 disables that trigger,
+     * but at least one of them must be set.
+     */
+    synchronized void configure(long intervalMs, int maxBatchSize) {
+        flush();
+        mIntervalMs = intervalMs > 0 ? intervalMs : (maxBatchSize > 0 ? DEFAULT_BATCH_INTERVAL : 0);
+        mMaxBatchSize = Math.max(maxBatchSize, 0);
+        mEnabled = mIntervalMs > 0;
+    }
+
+    /**
+     * Flushes anything pending and falls back to per-packet delivery.
+     */
+    synchronized void disable() {
+        flush();
+        mEnabled = false;
+    }
+
+    synchronized boolean isEnabled() {
+        return mEnabled;
+    }
+
+    synchronized void add(WritableMap device) {
+        if (mPending == null) {
+            mPending = Arguments.createArray();
+        }
+        mPending.pushMap(device);
+        mPendingCount++;
+
+        if (mMaxBatchSize > 0 && mPendingCount >= mMaxBatchSize) {
+            flush();
+        } else if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlushRunnable, mIntervalMs);
+        }
+    }
+
+    synchronized void flush() {
+        if (mFlushScheduled) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            mFlushScheduled = false;
+        }
+
+        if (mPendingCount == 0) return;
+
+        WritableArray devices = mPending;
+        mPending = null;
+        mPendingCount = 0;
+        mListener.onBatchReady(devices);
+    }
+}
@@ -1,10 +1,59 @@
 export as namespace BLEAdvertiser;
 
+export type DataEncoding = 'array' | 'hex' | 'base64';
+export type BinaryData = number[] | string;
+
 export interface ScanOptions {
     numberOfMatches?: number;
     matchMode?: number;
     scanMode?: number;
     reportDelay?: number;
+    batchInterval?: number;
+    maxBatchSize?: number;
+    reportOnChange?: boolean;
+    rssiDelta?: number;
+    minReportInterval?: number;
+    deviceCacheSize?: number;
+    deviceTtl?: number;
+    dataEncoding?: DataEncoding;
+    queueCapacity?: number;
+    overflowPolicy?: 'dropOldest' | 'dropNewest';
+}
+
+export interface ScanFilterDescription {
+    manufacturerId?: number;
+    manufacturerData?: BinaryData;
+    manufacturerDataMask?: BinaryData;
+    iBeaconUuid?: string;
+    major?: number;
+    minor?: number;
+    serviceUuid?: string;
+    serviceDataUuid?: string;
+    serviceData?: BinaryData;
+    serviceDataMask?: BinaryData;
+    deviceName?: string;
+    namePrefix?: string;
+    eddystoneFrame?: EddystoneFrameType;
+    eddystoneNamespace?: string;
+    eddystoneInstance?: string;
+}
+
+export interface FilteredScanOptions extends ScanOptions {
+    maxHardwareFilters?: number;
+}
+
+export interface FilteredScanResponse {
+    message: string;
+    state: 'active' | 'pending';
+    hardwareFilters: number;
+    softwareFiltering: boolean;
+}
+
+export interface ScanState {
+    state: 'idle' | 'active' | 'pending';
+    pendingDelay: number;
+    startsInWindow: number;
+    maxStarts: number;
 }
 
 export interface BroadcastOptions {
@@ -13,6 +62,196 @@ export interface BroadcastOptions {
     includeDeviceName?: boolean;
     includeTxPowerLevel?: boolean;
     connectable?: boolean;
+    dataEncoding?: DataEncoding;
+    layout?: string;
+    identifiers?: (string | number)[];
+    dataFields?: number[];
+    measuredPower?: number;
+    manufacturerId?: number;
+}
+
+export interface BeaconLayoutOptions {
+    manufacturerId?: number;
+}
+
+export interface BeaconLayoutInfo {
+    name: string;
+    layout: string;
+    manufacturerId?: number;
+    builtIn: boolean;
+}
+
+export interface AdvertisingPayload {
+    serviceUuid?: string;
+    serviceData?: BinaryData;
+    manufacturerId?: number;
+    manufacturerData?: BinaryData;
+    includeDeviceName?: boolean;
+    includeTxPowerLevel?: boolean;
+}
+
+export interface AdvertisingSetOptions {
+    phy?: number;
+    interval?: number;
+    txPower?: number;
+    connectable?: boolean;
+    legacy?: boolean;
+    dataEncoding?: DataEncoding;
+}
+
+export interface AdvertisingSetResponse {
+    setId: string;
+    extended: boolean;
+    phy: number;
+    txPower: number;
+}
+
+export interface AdvertisingCapabilities {
+    advertisingSets: boolean;
+    extendedAdvertising: boolean;
+    le2MPhy: boolean;
+    leCodedPhy: boolean;
+    maxAdvertisingDataLength: number;
+    multipleAdvertisement: boolean;
+}
+
+export interface RotatingBroadcastOptions extends BroadcastOptions {
+    weight?: number;
+}
+
+export interface RotationOptions {
+    dwellTime?: number;
+    slots?: number;
+}
+
+export interface RotationStatistics {
+    uid: string;
+    weight: number;
+    share: number;
+    dutyCycle: number;
+    effectiveRate: number;
+    onAir: boolean;
+}
+
+export interface BroadcastUpdateResponse {
+    uid: string;
+    inPlace: boolean;
+    latency: number;
+}
+
+export interface ScanQueueStatus {
+    depth: number;
+    maxDepth: number;
+    capacity: number;
+    overflowPolicy: 'dropOldest' | 'dropNewest';
+    dropped: number;
+}
+
+export interface HistogramStatistics {
+    count: number;
+    mean: number;
+    max: number;
+    p50: number;
+    p90: number;
+    p99: number;
+}
+
+export interface Statistics {
+    elapsed: number;
+    scan: {
+        packetsReceived: number;
+        packetsFiltered: number;
+        packetsSuppressed: number;
+        eventsEmitted: number;
+        eventsDropped: number;
+        queueDepth: number;
+        ringOverflow: number;
+        batchSize: HistogramStatistics;
+    };
+    timing: {
+        queueWait: HistogramStatistics;
+        parse: HistogramStatistics;
+        beacon: HistogramStatistics;
+        report: HistogramStatistics;
+        latency: HistogramStatistics;
+    };
+    advertising: {
+        started: number;
+        failed: Record<string, number>;
+    };
+}
+
+export interface TraceRecordingOptions {
+    directory?: string;
+    maxFileSize?: number;
+    maxFiles?: number;
+}
+
+export interface TraceRecording {
+    directory: string;
+    maxFileSize: number;
+    maxFiles: number;
+}
+
+export interface TraceRecordingSummary {
+    directory: string;
+    files: string[];
+    records: number;
+    bytes: number;
+    dropped: number;
+}
+
+export interface TraceReplayOptions {
+    directory?: string;
+    files?: string[];
+    speed?: number;
+    maxGap?: number;
+}
+
+export interface TraceReplayResult {
+    replayed: number;
+    dropped: number;
+}
+
+export interface ScanRingOptions {
+    capacity?: number;
+    events?: boolean;
+}
+
+export interface ScanRingField {
+    offset: number;
+    type: 'uint8' | 'int8' | 'uint32' | 'float64' | 'bytes';
+    size: number;
+}
+
+export interface ScanRingLayout {
+    recordSize: number;
+    capacity: number;
+    littleEndian: boolean;
+    fields: Record<'sequence' | 'flags' | 'rssi' | 'address' | 'dataLength' | 'timestamp' | 'data', ScanRingField>;
+    flags: { hasAddress: number; truncated: number };
+}
+
+export interface ScanRingDrain {
+    records: string;
+    count: number;
+    overflow: number;
+    pending: number;
+}
+
+export interface ScanRingRecord {
+    sequence: number;
+    deviceAddress: string | null;
+    rssi: number;
+    timestamp: number;
+    truncated: boolean;
+    data: Uint8Array;
+}
+
+export interface ScanRingRead {
+    records: ScanRingRecord[];
+    overflow: number;
+    pending: number;
 }
 
 export interface BeaconOptions {
@@ -26,6 +265,35 @@ export interface RegionOptions {
     major?: number;
     minor?: number;
     identifier?: string;
+    exitTimeout?: number;
+    rangingInterval?: number;
+}
+
+export interface RegionDescription extends RegionOptions {
+    uuid: string;
+}
+
+export interface BulkRegionResponse {
+    message: string;
+    count: number;
+}
+
+export interface RssiFilterOptions {
+    type?: 'none' | 'average' | 'median' | 'kalman';
+    windowSize?: number;
+    maxBeacons?: number;
+    staleTimeout?: number;
+    processNoise?: number;
+    measurementNoise?: number;
+}
+
+export interface DistanceModelOptions {
+    type?: 'curve' | 'logDistance' | 'calibrated';
+    coefficients?: [number, number, number];
+    pathLossExponent?: number;
+    rssiOffset?: number;
+    immediateDistance?: number;
+    nearDistance?: number;
 }
 
 export interface RegionResponse {
@@ -38,6 +306,7 @@ export interface RegionInfo {
     uuid: string;
     major?: number;
     minor?: number;
+    state?: string;
 }
 
 export interface BeaconData {
@@ -46,10 +315,27 @@ export interface BeaconData {
     minor: number;
     measuredPower?: number;
     rssi?: number;
+    filteredRssi?: number;
     accuracy?: number;
     proximity?: string;
 }
 
+export type EddystoneFrameType = 'uid' | 'url' | 'tlm' | 'eid';
+
+export interface EddystoneData {
+    frame: EddystoneFrameType;
+    txPower?: number;
+    namespace?: string;
+    instance?: string;
+    url?: string;
+    version?: number;
+    batteryVoltage?: number;
+    temperature?: number;
+    advertisingCount?: number;
+    uptime?: number;
+    ephemeralId?: string;
+}
+
 export interface DeviceFoundEvent {
     deviceName: string;
     deviceAddress: string;
@@ -57,14 +343,32 @@ export interface DeviceFoundEvent {
     serviceUuids: string[];
     txPower: number;
     serviceData: Record<string, string>;
+    companyId?: number;
+    manufData?: BinaryData;
     beaconData?: {
-        uuid: string;
-        major: number;
-        minor: number;
-        measuredPower: number;
+        layout: string;
+        identifiers: string[];
+        dataFields?: number[];
+        uuid?: string;
+        major?: number;
+        minor?: number;
+        measuredPower?: number;
         isBeacon: boolean;
     };
+    filteredRssi?: number;
     distance?: number;
+    eddystone?: EddystoneData;
+}
+
+export type DevicesFoundEvent = DeviceFoundEvent[];
+
+export interface ScanSessionResultEvent extends DeviceFoundEvent {
+    session: string;
+}
+
+export interface ScanSessionResultsEvent {
+    session: string;
+    devices: ScanSessionResultEvent[];
 }
 
 export interface BeaconDiscoveredEvent {
@@ -82,24 +386,66 @@ export interface RegionEvent {
 
 // Core methods
 export function setCompanyId(companyId: number): void;
-export function broadcast(uuid: string, serviceData?: string): Promise<string>;
+export function broadcast(uuid: string, serviceData?: string, options?: BroadcastOptions): Promise<string>;
 export function broadcastAsBeacon(uuid: string, options?: BeaconOptions): Promise<string>;
 export function stopBroadcast(): Promise<string>;
-export function scan(manufDataFilter: number[], options?: ScanOptions): Promise<string>;
+export function updateBroadcast(uuid: string, serviceData?: string): Promise<BroadcastUpdateResponse>;
+export function addRotatingBroadcast(uuid: string, serviceData?: string, options?: RotatingBroadcastOptions): Promise<string>;
+export function removeRotatingBroadcast(uuid: string): Promise<string>;
+export function setRotationOptions(options: RotationOptions): void;
+export function getRotationStatistics(): Promise<RotationStatistics[]>;
+export function startAdvertisingSet(setId: string, payload: AdvertisingPayload, options?: AdvertisingSetOptions): Promise<AdvertisingSetResponse>;
+export function stopAdvertisingSet(setId: string): Promise<string>;
+export function getAdvertisingCapabilities(): Promise<AdvertisingCapabilities>;
+export function scan(manufDataFilter: BinaryData, options?: ScanOptions): Promise<string>;
 export function scanByService(uidFilter: string, options?: ScanOptions): Promise<string>;
+export function scanWithFilters(filters: ScanFilterDescription[], options?: FilteredScanOptions): Promise<FilteredScanResponse>;
 export function stopScan(): Promise<string>;
+export function getScanState(): Promise<ScanState>;
+export function getScanQueueStatus(): Promise<ScanQueueStatus>;
+export function getStatistics(): Promise<Statistics>;
+export function resetStatistics(): void;
+export function setStatisticsInterval(intervalMs: number): void;
+export function startTraceRecording(options?: TraceRecordingOptions): Promise<TraceRecording>;
+export function stopTraceRecording(): Promise<TraceRecordingSummary>;
+export function replayTrace(options?: TraceReplayOptions): Promise<TraceReplayResult>;
+export function stopTraceReplay(): void;
+export function enableScanRing(options?: ScanRingOptions): Promise<ScanRingLayout>;
+export function disableScanRing(): void;
+export function getScanRingLayout(): ScanRingLayout | null;
+export function drainScanRing(maxRecords: number): ScanRingDrain;
+export function readScanRing(maxRecords?: number): ScanRingRead;
+export function decodeScanRecords(drain: ScanRingDrain): ScanRingRecord[];
+export function startScanSession(sessionId: string, filters: ScanFilterDescription[], options?: ScanOptions): Promise<FilteredScanResponse>;
+export function stopScanSession(sessionId: string): Promise<string>;
+export function getScanSessions(): Promise<string[]>;
 export function enableAdapter(): void;
 export function disableAdapter(): void;
 export function getAdapterState(): Promise<string>;
 export function isActive(): Promise<boolean>;
 export function scanForIBeacons(uuid: string, options?: ScanOptions): Promise<string>;
+export function setRssiFilter(options: RssiFilterOptions): void;
+export function setDistanceModel(options: DistanceModelOptions): void;
+export function registerBeaconLayout(name: string, layout: string, options?: BeaconLayoutOptions): Promise<BeaconLayoutInfo>;
+export function removeBeaconLayout(name: string): Promise<string>;
+export function getBeaconLayouts(): Promise<BeaconLayoutInfo[]>;
 
 // iBeacon monitoring methods
 export function startMonitoringForRegion(uuid: string, options?: RegionOptions): Promise<RegionResponse>;
 export function stopMonitoringForRegion(identifier: string): Promise<RegionResponse>;
 export function getMonitoredRegions(): Promise<RegionInfo[]>;
+export function startMonitoringForRegions(regions: RegionDescription[]): Promise<BulkRegionResponse>;
+export function stopMonitoringForRegions(identifiers: string[]): Promise<BulkRegionResponse>;
 
 // iBeacon ranging methods
 export function startRangingBeaconsInRegion(uuid: string, options?: RegionOptions): Promise<RegionResponse>;
 export function stopRangingBeaconsInRegion(identifier: string): Promise<RegionResponse>;
-export function getRangedRegions(): Promise<RegionInfo[]>;
\ No newline at end of file
+export function getRangedRegions(): Promise<RegionInfo[]>;
+export function startRangingBeaconsInRegions(regions: RegionDescription[]): Promise<BulkRegionResponse>;
+export function stopRangingBeaconsInRegions(identifiers: string[]): Promise<BulkRegionResponse>;
+
+export function encodeHex(bytes: ArrayLike<number>): string;
+export function decodeHex(text: string): Uint8Array;
+export function encodeBase64(bytes: ArrayLike<number>): string;
+export function decodeBase64(text: string): Uint8Array;
+export function decodeData(value: BinaryData, encoding?: DataEncoding): number[] | Uint8Array;
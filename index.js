@@ -5,4 +5,155 @@
 'use strict';
 
 import { NativeModules } from 'react-native';
-module.exports = NativeModules.BLEAdvertiser;
+
+const BLEAdvertiser = NativeModules.BLEAdvertiser;
+
+const HEX_DIGITS = '0123456789abcdef';
+const BASE64_DIGITS = 'ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/';
+
+const BASE64_VALUES = {};
+for (let i = 0; i < BASE64_DIGITS.length; i++) {
+    BASE64_VALUES[BASE64_DIGITS[i]] = i;
+}
+BASE64_VALUES['-'] = 62;
+BASE64_VALUES['_'] = 63;
+
+function encodeHex(bytes) {
+    let out = '';
+    for (let i = 0; i < bytes.length; i++) {
+        const b = bytes[i] & 0xff;
+        out += HEX_DIGITS[b >> 4] + HEX_DIGITS[b & 0x0f];
+    }
+    return out;
+}
+
+function decodeHex(text) {
+    if (text.length % 2 !== 0) {
+        throw new Error('Hex data needs an even number of digits');
+    }
+    const out = new Uint8Array(text.length / 2);
+    for (let i = 0; i < out.length; i++) {
+        const value = parseInt(text.substr(i * 2, 2), 16);
+        if (isNaN(value)) {
+            throw new Error('Unexpected character in hex data');
+        }
+        out[i] = value;
+    }
+    return out;
+}
+
+function encodeBase64(bytes) {
+    let out = '';
+    let i = 0;
+    for (; i + 2 < bytes.length; i += 3) {
+        const n = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+        out += BASE64_DIGITS[n >> 18] + BASE64_DIGITS[(n >> 12) & 63] + BASE64_DIGITS[(n >> 6) & 63] + BASE64_DIGITS[n & 63];
+    }
+    const remaining = bytes.length - i;
+    if (remaining > 0) {
+        const n = (bytes[i] & 0xff) << 16 | (remaining > 1 ? (bytes[i + 1] & 0xff) << 8 : 0);
+        out += BASE64_DIGITS[n >> 18] + BASE64_DIGITS[(n >> 12) & 63];
+        out += remaining > 1 ? BASE64_DIGITS[(n >> 6) & 63] + '=' : '==';
+    }
+    return out;
+}
+
+function decodeBase64(text) {
+    let length = text.length;
+    while (length > 0 && text[length - 1] === '=') {
+        length--;
+    }
+    const out = new Uint8Array(Math.floor(length * 3 / 4));
+    let o = 0;
+    let bits = 0;
+    let buffer = 0;
+    for (let i = 0; i < length; i++) {
+        const value = BASE64_VALUES[text[i]];
+        if (value === undefined) {
+            throw new Error('Unexpected character in base64 data');
+        }
+        buffer = ((buffer << 6) | value) & 0xffffff;
+        bits += 6;
+        if (bits >= 8) {
+            bits -= 8;
+            out[o++] = (buffer >> bits) & 0xff;
+        }
+    }
+    return out;
+}
+
+/**
+ * Bytes of a manufData or service data field as delivered with the given
+ * dataEncoding: number arrays pass through, strings are decoded.
+ */
+function decodeData(value, encoding) {
+    if (typeof value !== 'string') {
+        return value;
+    }
+    return encoding === 'base64' ? decodeBase64(value) : decodeHex(value);
+}
+
+// Scan ring record layout, see ScanRecordRing.java and getScanRingLayout()
+const RECORD_SIZE = 64;
+const FIELD_SEQUENCE = 0;
+const FIELD_FLAGS = 4;
+const FIELD_RSSI = 5;
+const FIELD_ADDRESS = 6;
+const FIELD_DATA_LENGTH = 12;
+const FIELD_TIMESTAMP = 16;
+const FIELD_DATA = 24;
+const FLAG_HAS_ADDRESS = 1;
+const FLAG_TRUNCATED = 2;
+
+/**
+ * Decodes the records returned by drainScanRing. Each record's data is a
+ * view into one shared buffer rather than a copy.
+ */
+function decodeScanRecords(drain) {
+    const bytes = decodeBase64(drain.records);
+    const view = new DataView(bytes.buffer, bytes.byteOffset, bytes.byteLength);
+    const records = new Array(drain.count);
+    for (let i = 0; i < drain.count; i++) {
+        const base = i * RECORD_SIZE;
+        const flags = view.getUint8(base + FIELD_FLAGS);
+        let address = null;
+        if (flags & FLAG_HAS_ADDRESS) {
+            address = '';
+            for (let j = 0; j < 6; j++) {
+                address += (j > 0 ? ':' : '') + encodeHex([view.getUint8(base + FIELD_ADDRESS + j)]).toUpperCase();
+            }
+        }
+        records[i] = {
+            sequence: view.getUint32(base + FIELD_SEQUENCE),
+            deviceAddress: address,
+            rssi: view.getInt8(base + FIELD_RSSI),
+            timestamp: view.getFloat64(base + FIELD_TIMESTAMP),
+            truncated: (flags & FLAG_TRUNCATED) !== 0,
+            data: bytes.subarray(base + FIELD_DATA, base + FIELD_DATA + view.getUint8(base + FIELD_DATA_LENGTH)),
+        };
+    }
+    return records;
+}
+
+/**
+ * Synchronously takes up to maxRecords scan results out of the native
+ * ring, or all of them when maxRecords is omitted.
+ */
+function readScanRing(maxRecords) {
+    const drain = BLEAdvertiser.drainScanRing(maxRecords || 0);
+    return {
+        records: decodeScanRecords(drain),
+        overflow: drain.overflow,
+        pending: drain.pending,
+    };
+}
+
+module.exports = Object.assign({}, BLEAdvertiser, {
+    encodeHex,
+    decodeHex,
+    encodeBase64,
+    decodeBase64,
+    decodeData,
+    decodeScanRecords,
+    readScanRing,
+});